@@ -0,0 +1,98 @@
+package j2fa.otp;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Random lookups of per-account state in an {@link AccountStateTable} and in a
+ * {@code ConcurrentHashMap<Long, State>} of boxed ids and state objects. The setup prints the
+ * heap each one occupies; a trial at the default size needs a heap of about 3GB.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class AccountStateTableBenchmark {
+	
+	private static final int FIELDS = 4;
+	private static final int LOOKUPS = 1 << 16;
+	
+	@Param({"10000000"})
+	private int size;
+	
+	@Param({"table", "boxed"})
+	private String impl;
+	
+	private AccountStateTable table;
+	private ConcurrentHashMap<Long, State> boxed;
+	private long[] ids;
+	private int next;
+	
+	@Setup
+	public void setup() {
+		long before = usedHeap();
+		if("table".equals(this.impl)) {
+			this.table = new AccountStateTable(FIELDS);
+			long[] record = new long[FIELDS];
+			for(int id = 0; id < this.size; id++) {
+				record[0] = id;
+				this.table.write(id, record);
+			}
+		}
+		else {
+			this.boxed = new ConcurrentHashMap<Long, State>();
+			for(int id = 0; id < this.size; id++) {
+				State state = new State();
+				state.counter = id;
+				this.boxed.put(Long.valueOf(id), state);
+			}
+		}
+		System.out.printf("%n%s: %d entries in %.0f MB%n", this.impl, this.size, (usedHeap() - before) / 1e6);
+		Random random = new Random(42);
+		this.ids = new long[LOOKUPS];
+		for(int i = 0; i < LOOKUPS; i++) {
+			this.ids[i] = random.nextInt(this.size);
+		}
+	}
+	
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	@Benchmark
+	public long lookup() {
+		long id = this.ids[this.next++ & (LOOKUPS - 1)];
+		if(this.table != null) {
+			return this.table.get(id, 0, -1L);
+		}
+		State state = this.boxed.get(id);
+		return state == null ? -1L : state.counter;
+	}
+	
+	static final class State {
+		long counter;
+		long lastStep;
+		long drift;
+		long failures;
+	}
+
+}
@@ -0,0 +1,91 @@
+package j2fa.otp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import j2fa.utils.CryptoUtils;
+
+/**
+ * Overhead of {@link AttemptThrottle} on TOTP verification, with one throttle shared by all
+ * benchmark threads as in a server; run with {@code -t} to see it under contention.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AttemptThrottleBenchmark {
+	
+	private static final long NOW = 1111111109000L;
+	
+	@Param({"100000"})
+	public int accounts;
+	
+	private String[] labels;
+	private AttemptThrottle throttle;
+	private TotpVerifier verifier;
+	private TotpVerifier throttledVerifier;
+	private String code;
+	
+	@Setup
+	public void setup() {
+		this.labels = new String[this.accounts];
+		for(int i = 0; i < this.accounts; i++) {
+			this.labels[i] = "Issuer Inc.:user" + i + "@example.com";
+		}
+		// failures never lock, so every call does the full check and record
+		this.throttle = new AttemptThrottle(255, 1L, 1000L, 1000L, 64);
+		for(int i = 0; i < this.accounts; i += 2) {
+			this.throttle.acquire(this.labels[i], NOW);
+		}
+		OtpSpec spec = new OtpSpec(CryptoUtils.randomSeed(20), "Issuer Inc.", "user@example.com", 
+				HMACAlgorithmEnum.SHA1, 6, 30);
+		this.verifier = new TotpVerifier(spec, 1, 1);
+		this.throttledVerifier = new TotpVerifier(spec, 1, 1, null, null, this.throttle);
+		this.code = spec.code(spec.timeStep(NOW));
+	}
+	
+	@State(Scope.Thread)
+	public static class Cursor {
+		
+		int next;
+		
+		int next(int accounts) {
+			this.next = (this.next + 7919) % accounts;
+			return this.next;
+		}
+	}
+	
+	@Benchmark
+	public long check(Cursor cursor) {
+		return this.throttle.lockedFor(this.labels[cursor.next(this.accounts)], NOW);
+	}
+	
+	@Benchmark
+	public long acquire(Cursor cursor) {
+		return this.throttle.acquire(this.labels[cursor.next(this.accounts)], NOW);
+	}
+	
+	@Benchmark
+	public VerificationResult verify() {
+		return this.verifier.verify(this.code, NOW);
+	}
+	
+	@Benchmark
+	public VerificationResult verifyThrottled() {
+		return this.throttledVerifier.verify(this.code, NOW);
+	}
+
+}
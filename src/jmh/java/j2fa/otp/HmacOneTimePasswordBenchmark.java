@@ -0,0 +1,155 @@
+package j2fa.otp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import j2fa.utils.ByteUtils;
+
+/**
+ * Every {@link HmacOneTimePassword} generation overload, for each {@link HMACAlgorithmEnum}.
+ * Run with {@code -prof gc} to compare the allocation rate of the String and int paths.
+ * The batch benchmarks report the time per code, against the same codes one key at a time.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HmacOneTimePasswordBenchmark {
+	
+	private static final int BATCH = 64;
+	
+	@Param({"SHA1", "SHA256", "SHA512"})
+	public HMACAlgorithmEnum algo;
+	
+	private byte[] secret;
+	private String secretHex;
+	private HotpKey key;
+	private HotpKey builtinKey;
+	private byte[] hash;
+	private char[] chars;
+	private long counter;
+	private byte[][] secrets;
+	private long[] counters;
+	private int[] codes;
+	
+	@Setup
+	public void setup() {
+		this.secret = new byte[this.algo.macLength()];
+		for(int i = 0; i < this.secret.length; i++) {
+			this.secret[i] = (byte) ('1' + i % 10);
+		}
+		this.secretHex = ByteUtils.bytesToHex(this.secret);
+		this.key = new HotpKey(this.secret, this.algo);
+		this.builtinKey = new HotpKey(this.secret, this.algo, true);
+		this.hash = new byte[this.algo.macLength()];
+		this.chars = new char[8];
+		this.counter = 1111111109L / 30;
+		this.secrets = new byte[BATCH][];
+		this.counters = new long[BATCH];
+		for(int i = 0; i < BATCH; i++) {
+			this.secrets[i] = this.secret.clone();
+			this.secrets[i][0] = (byte) i;
+			this.counters[i] = this.counter + i;
+		}
+		this.codes = new int[BATCH];
+	}
+	
+	@Benchmark
+	public String bytesMovingFactor() {
+		return HmacOneTimePassword.generate(this.secret, ByteUtils.longToBytes(this.counter++), 6, this.algo);
+	}
+	
+	@Benchmark
+	public String longMovingFactor() {
+		return HmacOneTimePassword.generate(this.secret, this.counter++, 6, this.algo);
+	}
+	
+	@Benchmark
+	public String defaults() {
+		return HmacOneTimePassword.generate(this.secret, ByteUtils.longToBytes(this.counter++));
+	}
+	
+	@Benchmark
+	public String hexStrings() {
+		return HmacOneTimePassword.generate(this.secretHex, Long.toHexString(this.counter++), "6", this.algo);
+	}
+	
+	@Benchmark
+	public String checksumBytes() {
+		return HmacOneTimePassword.generate(this.secret, ByteUtils.longToBytes(this.counter++), 6, true, -1, this.algo);
+	}
+	
+	@Benchmark
+	public String checksumLong() {
+		return HmacOneTimePassword.generate(this.secret, this.counter++, 6, true, -1, this.algo);
+	}
+	
+	@Benchmark
+	public String hotpKey() {
+		return HmacOneTimePassword.generate(this.key, this.counter++, 6);
+	}
+	
+	@Benchmark
+	public int hotpKeyInt() {
+		return HmacOneTimePassword.generateInt(this.key, this.counter++, 6, this.hash);
+	}
+	
+	@Benchmark
+	public int builtinInt() {
+		return HmacOneTimePassword.generateInt(this.builtinKey, this.counter++, 6, this.hash);
+	}
+	
+	@Benchmark
+	public char[] hotpKeyChars() {
+		HmacOneTimePassword.format(HmacOneTimePassword.generateInt(this.key, this.counter++, 6), 6, this.chars, 0);
+		return this.chars;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int[] keysOneByOne() {
+		for(int i = 0; i < BATCH; i++) {
+			HotpKey key = new HotpKey(this.secrets[i], this.algo);
+			this.codes[i] = HmacOneTimePassword.generateInt(key, this.counter, 6, this.hash);
+		}
+		return this.codes;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int[] keysBatch() {
+		HmacOneTimePassword.generateBatch(this.secrets, this.counter, 6, this.algo, this.codes);
+		return this.codes;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int[] factorsOneByOne() {
+		for(int i = 0; i < BATCH; i++) {
+			this.codes[i] = HmacOneTimePassword.generateInt(this.key, this.counters[i], 6, this.hash);
+		}
+		return this.codes;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int[] factorsBatch() {
+		HmacOneTimePassword.generateBatch(this.secret, this.counters, 6, this.algo, this.codes);
+		return this.codes;
+	}
+
+}
\ No newline at end of file
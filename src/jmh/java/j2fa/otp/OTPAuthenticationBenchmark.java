@@ -0,0 +1,99 @@
+package j2fa.otp;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import j2fa.utils.CryptoUtils;
+
+/**
+ * {@link OTPAuthentication} construction, provisioning URI writing and parsing, and TOTP generation
+ * and verification, with and without a learned drift, and cached generation.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OTPAuthenticationBenchmark {
+	
+	private static final long NOW = 1111111109000L;
+	
+	private byte[] secret;
+	private OTPAuthentication totp;
+	private String code;
+	private String driftedCode;
+	private DriftTracker drift;
+	private TotpCodeCache cache;
+	private String uri;
+	
+	@Setup
+	public void setup() {
+		this.secret = CryptoUtils.randomSeed(20);
+		this.totp = newTotp();
+		this.code = this.totp.password(NOW);
+		// an authenticator running two steps behind
+		this.driftedCode = this.totp.password(NOW, -2);
+		this.drift = new DriftTracker();
+		this.totp.verify(this.driftedCode, NOW, 2, 2, this.drift);
+		this.uri = this.totp.uri().toString();
+		this.cache = new TotpCodeCache(1024, 60000L);
+	}
+	
+	@Benchmark
+	public OTPAuthentication newTotp() {
+		return new OTPAuthentication(this.secret, "Issuer Inc.", "user@example.com", HMACAlgorithmEnum.SHA1, 6, 30);
+	}
+	
+	@Benchmark
+	public OTPAuthentication newHotp() {
+		return new OTPAuthentication(this.secret, "Issuer Inc.", "user@example.com", HMACAlgorithmEnum.SHA1, 6, 0L);
+	}
+	
+	@Benchmark
+	public String setupPath() throws UnsupportedEncodingException {
+		return this.totp.setupPath();
+	}
+	
+	@Benchmark
+	public OTPAuthentication parseUri() {
+		return OtpAuthUri.parse(this.uri).toAuthentication();
+	}
+	
+	@Benchmark
+	public String password() {
+		return this.totp.password(NOW);
+	}
+	
+	@Benchmark
+	public String passwordCached() {
+		return this.cache.password(this.totp.spec(), NOW);
+	}
+	
+	@Benchmark
+	public VerificationResult verifyWindow() {
+		return this.totp.verify(this.code, NOW, 1, 1);
+	}
+	
+	@Benchmark
+	public VerificationResult verifyDrifted() {
+		return this.totp.verify(this.driftedCode, NOW, 2, 2);
+	}
+	
+	@Benchmark
+	public VerificationResult verifyDriftedTracked() {
+		return this.totp.verify(this.driftedCode, NOW, 2, 2, this.drift);
+	}
+
+}
@@ -0,0 +1,85 @@
+package j2fa.otp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import j2fa.utils.CryptoUtils;
+
+/**
+ * OCRA responses with the suite parsed per request against a reused {@link OcraMessage}, and
+ * batch verification. Run with {@code -prof gc} to compare allocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OcraBenchmark {
+	
+	private static final String SUITE = "OCRA-1:HOTP-SHA256-8:C-QN08-PSHA1";
+	private static final int BATCH = 64;
+	
+	private HotpKey key;
+	private byte[] pinHash;
+	private OcraMessage message;
+	private long counter;
+	private HotpKey[] keys;
+	private long[] counters;
+	private CharSequence[] questions;
+	private byte[][] pinHashes;
+	private CharSequence[] responses;
+	private boolean[] valid;
+	
+	@Setup
+	public void setup() {
+		this.key = new HotpKey(CryptoUtils.randomSeed(32), HMACAlgorithmEnum.SHA256);
+		this.pinHash = HotpKey.newDigest(HMACAlgorithmEnum.SHA1).digest("1234".getBytes());
+		OcraSuite suite = OcraSuite.parse(SUITE);
+		this.message = suite.newMessage().pinHash(this.pinHash);
+		this.keys = new HotpKey[BATCH];
+		this.counters = new long[BATCH];
+		this.questions = new CharSequence[BATCH];
+		this.pinHashes = new byte[BATCH][];
+		this.responses = new CharSequence[BATCH];
+		this.valid = new boolean[BATCH];
+		for(int i = 0; i < BATCH; i++) {
+			this.keys[i] = new HotpKey(CryptoUtils.randomSeed(32), HMACAlgorithmEnum.SHA256);
+			this.counters[i] = i;
+			this.questions[i] = Integer.toString(10000000 + i * 7919);
+			this.pinHashes[i] = this.pinHash;
+			this.responses[i] = suite.newMessage().counter(i).question(this.questions[i]).pinHash(this.pinHash)
+					.generate(this.keys[i]);
+		}
+	}
+	
+	@Benchmark
+	public int parsedPerRequest() {
+		return OcraSuite.parse(SUITE).newMessage().counter(this.counter++).question("12345678")
+				.pinHash(this.pinHash).generateInt(this.key);
+	}
+	
+	@Benchmark
+	public int reusedMessage() {
+		return this.message.counter(this.counter++).question("12345678").generateInt(this.key);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int verifyBatch() {
+		return this.message.suite().verifyBatch(this.keys, this.counters, this.questions, this.pinHashes, null, 0L, 
+				this.responses, this.valid);
+	}
+
+}
@@ -0,0 +1,83 @@
+package j2fa.qr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+/**
+ * QR rendering of a typical provisioning URI: the direct PNG encoder and its sinks, SVG, 
+ * and the former ZXing MatrixToImageWriter/ImageIO path as the baseline.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QRCodeBenchmark {
+	
+	static final String PATH = "otpauth://totp/Issuer+Inc.:user%40example.com?secret=RLLC2QC7IXR3YODYO7PPT5I7ATDAX3DO"
+			+ "&issuer=Issuer+Inc.&algorithm=SHA1&digits=6&period=30";
+	
+	@Param({"150", "300"})
+	public int size;
+	
+	private ByteArrayOutputStream out;
+	private ByteBuffer buffer;
+	private StringBuilder svg;
+	
+	@Setup
+	public void setup() {
+		this.out = new ByteArrayOutputStream(8192);
+		this.buffer = ByteBuffer.allocateDirect(64 * 1024);
+		this.svg = new StringBuilder(16 * 1024);
+	}
+	
+	@Benchmark
+	public int matrixToImageWriter() throws WriterException, IOException {
+		this.out.reset();
+		BitMatrix matrix = new QRCodeWriter().encode(PATH, BarcodeFormat.QR_CODE, this.size, this.size);
+		MatrixToImageWriter.writeToStream(matrix, "PNG", this.out);
+		return this.out.size();
+	}
+	
+	@Benchmark
+	public int byteBuffer() throws WriterException {
+		this.buffer.clear();
+		return QRCode.generateQRCodeImage(PATH, this.size, this.size, this.buffer);
+	}
+	
+	@Benchmark
+	public int svg() throws WriterException, IOException {
+		this.svg.setLength(0);
+		QRCode.generateQRCodeSvg(PATH, this.size, this.size, this.svg);
+		return this.svg.length();
+	}
+	
+	@Benchmark
+	public int generateQRCodeImage() throws WriterException, IOException {
+		this.out.reset();
+		QRCode.generateQRCodeImage(PATH, this.size, this.size, this.out);
+		return this.out.size();
+	}
+
+}
@@ -0,0 +1,94 @@
+package j2fa.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base32;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hex and Base32 decoding, and moving factor encoding.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ByteUtilsBenchmark {
+	
+	private String hex20;
+	private String hex64;
+	private String base32;
+	private byte[] secret;
+	private byte[] secret20;
+	private byte[] bytes;
+	private long counter;
+	
+	@Setup
+	public void setup() {
+		this.hex20 = ByteUtils.bytesToHex(CryptoUtils.randomSeed(20));
+		this.hex64 = ByteUtils.bytesToHex(CryptoUtils.randomSeed(64));
+		this.bytes = new byte[Long.BYTES];
+		this.secret = new byte[64];
+		this.secret20 = CryptoUtils.randomSeed(20);
+		this.base32 = Base32Utils.encode(this.secret20);
+	}
+	
+	@Benchmark
+	public byte[] hexToBytes20() {
+		return ByteUtils.hexToBytes(this.hex20);
+	}
+	
+	@Benchmark
+	public byte[] hexToBytes64() {
+		return ByteUtils.hexToBytes(this.hex64);
+	}
+	
+	@Benchmark
+	public byte[] hexToBytesBuffer64() {
+		ByteUtils.hexToBytes(this.hex64, this.secret, 0);
+		return this.secret;
+	}
+	
+	@Benchmark
+	public byte[] base32Decode20() {
+		Base32Utils.decode(this.base32, this.secret, 0);
+		return this.secret;
+	}
+	
+	@Benchmark
+	public byte[] commonsBase32Decode20() {
+		return new Base32().decode(this.base32);
+	}
+	
+	@Benchmark
+	public String base32Encode20() {
+		return Base32Utils.encode(this.secret20);
+	}
+	
+	@Benchmark
+	public String commonsBase32Encode20() {
+		return new Base32().encodeAsString(this.secret20);
+	}
+	
+	@Benchmark
+	public byte[] longToBytes() {
+		return ByteUtils.longToBytes(this.counter++);
+	}
+	
+	@Benchmark
+	public byte[] longToBytesBuffer() {
+		ByteUtils.longToBytes(this.counter++, this.bytes, 0);
+		return this.bytes;
+	}
+
+}
@@ -0,0 +1,68 @@
+package j2fa.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import j2fa.otp.HMACAlgorithmEnum;
+import j2fa.otp.HotpKey;
+
+/**
+ * The one-shot JCE HMAC against the precomputed {@link HotpKey} state, for each algorithm.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CryptoUtilsBenchmark {
+	
+	@Param({"SHA1", "SHA256", "SHA512"})
+	public HMACAlgorithmEnum algo;
+	
+	private byte[] secret;
+	private byte[] message;
+	private HotpKey key;
+	private byte[] hash;
+	
+	@Setup
+	public void setup() {
+		this.secret = CryptoUtils.randomSeed(this.algo.macLength());
+		this.message = ByteUtils.longToBytes(37037036L);
+		this.key = new HotpKey(this.secret, this.algo);
+		this.hash = new byte[this.algo.macLength()];
+	}
+	
+	@Benchmark
+	public byte[] hmacSha() {
+		return CryptoUtils.hmacSha(this.algo.desc(), this.secret, this.message);
+	}
+	
+	@Benchmark
+	public byte[] hmacSha1() {
+		return CryptoUtils.hmacSha1(this.secret, this.message);
+	}
+	
+	@Benchmark
+	public byte[] hotpKey() {
+		return this.key.hmac(this.message);
+	}
+	
+	@Benchmark
+	public byte[] hotpKeyBuffer() {
+		this.key.hmac(37037036L, this.hash);
+		return this.hash;
+	}
+
+}
@@ -0,0 +1,325 @@
+package j2fa.enroll;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import j2fa.otp.HMACAlgorithmEnum;
+import j2fa.otp.OTPAuthentication;
+import j2fa.qr.QRCode;
+import j2fa.utils.CryptoUtils;
+
+/**
+ * Provisions TOTP accounts in bulk: for every (issuer, account) pair, a random secret,
+ * its otpauth URI and the QR code image of the URI.
+ *
+ * <p>The caller's thread reads the requests into a bounded queue, a pool of workers runs
+ * {@link CryptoUtils#randomSeed(int)}, {@link OTPAuthentication#setupPath()} and
+ * {@link QRCode#generateQRCodeImage(String, int, int, java.io.OutputStream)} in parallel into
+ * a second bounded queue, and a single writer thread drains it into the {@link EnrollmentSink}.
+ * Memory is bounded by the queue capacities whatever the number of accounts, and results are
+ * streamed as they complete, so they may reach the sink out of input order.
+ *
+ * <p>The first failure stops reading the input; the remaining work is drained and discarded,
+ * and the failure is rethrown by {@link #run(Iterator, EnrollmentSink)}.
+ */
+public final class BulkEnrollment {
+
+	private static final Task POISON = new Task(-1L, null);
+	
+	private final HMACAlgorithmEnum algo;
+	private final int digits;
+	private final int period;
+	private final int qrSize;
+	private final int threads;
+	private final int queueCapacity;
+	private int secretLength = 20;
+	private ProgressListener listener;
+	private long progressInterval;
+	
+	/**
+	 * Enrollment of 6-digit, 30-second SHA1 TOTP accounts with 200 pixel QR codes,
+	 * on one worker per processor.
+	 */
+	public BulkEnrollment() {
+		this(HMACAlgorithmEnum.SHA1, 6, 30, 200, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * @param algo OTP hash algorithm: SHA1 (default), SHA256, or SHA512.
+	 * @param digits Number of digits in the code. Recommended: 6 or 8.
+	 * @param period TOTP code validity period in seconds. Recommended: 30 seconds.
+	 * @param qrSize Width and height of the QR code images.
+	 * @param threads Number of worker threads.
+	 */
+	public BulkEnrollment(HMACAlgorithmEnum algo, int digits, int period, int qrSize, int threads) {
+		if(threads <= 0) {
+			throw new IllegalArgumentException("threads");
+		}
+		this.algo = algo;
+		this.digits = digits;
+		this.period = period;
+		this.qrSize = qrSize;
+		this.threads = threads;
+		this.queueCapacity = 64 * threads;
+	}
+	
+	/**
+	 * @param secretLength Secret length in bytes. Default: 20, as recommended by the HOTP RFC.
+	 */
+	public void setSecretLength(int secretLength) {
+		if(secretLength <= 0) {
+			throw new IllegalArgumentException("secretLength");
+		}
+		this.secretLength = secretLength;
+	}
+	
+	/**
+	 * @param listener Receives progress reports from the writer thread.
+	 * @param interval Number of enrollments between reports; a final report follows the last one.
+	 */
+	public void setProgressListener(ProgressListener listener, long interval) {
+		if(interval <= 0) {
+			throw new IllegalArgumentException("interval");
+		}
+		this.listener = listener;
+		this.progressInterval = interval;
+	}
+	
+	/**
+	 * Runs the pipeline to completion. The sink is not closed.
+	 * @param requests Accounts to provision, read lazily.
+	 * @param sink Destination of the results.
+	 * @return Count and throughput of the run.
+	 * @throws IOException if provisioning or the sink failed.
+	 * @throws InterruptedException if the calling thread was interrupted.
+	 */
+	public Result run(Iterator<EnrollmentRequest> requests, final EnrollmentSink sink)
+			throws IOException, InterruptedException {
+		final BlockingQueue<Task> pending = new ArrayBlockingQueue<Task>(this.queueCapacity);
+		final BlockingQueue<Object> done = new ArrayBlockingQueue<Object>(this.queueCapacity);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final long start = System.nanoTime();
+		final long[] written = new long[1];
+		
+		Thread[] workers = new Thread[this.threads];
+		for(int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					provision(pending, done, failure);
+				}
+			}, "j2fa-enrollment-" + i);
+			workers[i].start();
+		}
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				written[0] = write(done, sink, failure, start);
+			}
+		}, "j2fa-enrollment-writer");
+		writer.start();
+		
+		long sequence = 0;
+		try {
+			while(failure.get() == null && requests.hasNext()) {
+				pending.put(new Task(sequence++, requests.next()));
+			}
+		} catch (InterruptedException e) {
+			failure.compareAndSet(null, e);
+		} catch (RuntimeException | Error e) {
+			failure.compareAndSet(null, e);
+		}
+		// every thread runs until its poison, so all of them are stopped and joined whatever failed
+		boolean interrupted = false;
+		for(int i = 0; i < workers.length; i++) {
+			interrupted |= put(pending, POISON, failure);
+		}
+		for(Thread worker : workers) {
+			interrupted |= join(worker, failure);
+		}
+		interrupted |= join(writer, failure);
+		if(interrupted && !(failure.get() instanceof InterruptedException)) {
+			Thread.currentThread().interrupt();
+		}
+		
+		Throwable e = failure.get();
+		if(e instanceof InterruptedException) {
+			throw (InterruptedException) e;
+		}
+		if(e instanceof IOException) {
+			throw (IOException) e;
+		}
+		if(e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		}
+		if(e instanceof Error) {
+			throw (Error) e;
+		}
+		if(e != null) {
+			throw new IOException(e);
+		}
+		return new Result(written[0], System.nanoTime() - start);
+	}
+	
+	/**
+	 * Runs until the poison, discarding the tasks once anything failed.
+	 */
+	private void provision(BlockingQueue<Task> pending, BlockingQueue<Object> done,
+			AtomicReference<Throwable> failure) {
+		ByteArrayOutputStream png = new ByteArrayOutputStream(4096);
+		while(true) {
+			Task task;
+			try {
+				task = pending.take();
+			} catch (InterruptedException e) {
+				failure.compareAndSet(null, e);
+				continue;
+			}
+			if(task == POISON) {
+				put(done, POISON, failure);
+				return;
+			}
+			if(failure.get() != null) {
+				continue;
+			}
+			try {
+				byte[] secret = CryptoUtils.randomSeed(this.secretLength);
+				EnrollmentRequest request = task.request;
+				String uri = new OTPAuthentication(secret, request.issuer(), request.account(),
+						this.algo, this.digits, this.period).setupPath();
+				png.reset();
+				QRCode.generateQRCodeImage(uri, this.qrSize, this.qrSize, png);
+				put(done, new Enrollment(task.sequence, request, secret, uri, png.toByteArray()), failure);
+			} catch (Throwable e) {
+				failure.compareAndSet(null, e);
+			}
+		}
+	}
+	
+	/**
+	 * Runs until every worker's poison, discarding the results once anything failed, so that 
+	 * no worker stays blocked on a full queue.
+	 */
+	private long write(BlockingQueue<Object> done, EnrollmentSink sink,
+			AtomicReference<Throwable> failure, long start) {
+		long written = 0;
+		int finished = 0;
+		while(finished < this.threads) {
+			Object result;
+			try {
+				result = done.take();
+			} catch (InterruptedException e) {
+				failure.compareAndSet(null, e);
+				continue;
+			}
+			if(result == POISON) {
+				finished++;
+				continue;
+			}
+			if(failure.get() != null) {
+				continue;
+			}
+			try {
+				sink.accept((Enrollment) result);
+				written++;
+				if(this.listener != null && written % this.progressInterval == 0) {
+					this.listener.progress(written, System.nanoTime() - start);
+				}
+			} catch (Throwable e) {
+				failure.compareAndSet(null, e);
+			}
+		}
+		if(this.listener != null && written % this.progressInterval != 0) {
+			this.listener.progress(written, System.nanoTime() - start);
+		}
+		return written;
+	}
+	
+	/**
+	 * Puts an element even if interrupted, recording the interrupt as the failure.
+	 * @return Whether the thread was interrupted.
+	 */
+	private static <T> boolean put(BlockingQueue<T> queue, T element, AtomicReference<Throwable> failure) {
+		boolean interrupted = false;
+		while(true) {
+			try {
+				queue.put(element);
+				return interrupted;
+			} catch (InterruptedException e) {
+				failure.compareAndSet(null, e);
+				interrupted = true;
+			}
+		}
+	}
+	
+	/**
+	 * Joins a thread even if interrupted, recording the interrupt as the failure.
+	 * @return Whether the calling thread was interrupted.
+	 */
+	private static boolean join(Thread thread, AtomicReference<Throwable> failure) {
+		boolean interrupted = false;
+		while(true) {
+			try {
+				thread.join();
+				return interrupted;
+			} catch (InterruptedException e) {
+				failure.compareAndSet(null, e);
+				interrupted = true;
+			}
+		}
+	}
+	
+	private static final class Task {
+		
+		final long sequence;
+		final EnrollmentRequest request;
+		
+		Task(long sequence, EnrollmentRequest request) {
+			this.sequence = sequence;
+			this.request = request;
+		}
+	}
+	
+	/**
+	 * Outcome of a run.
+	 */
+	public static final class Result {
+		
+		private final long count;
+		private final long elapsedNanos;
+		
+		Result(long count, long elapsedNanos) {
+			this.count = count;
+			this.elapsedNanos = elapsedNanos;
+		}
+		
+		/**
+		 * @return Number of enrollments written to the sink.
+		 */
+		public long count() {
+			return this.count;
+		}
+		
+		public long elapsedNanos() {
+			return this.elapsedNanos;
+		}
+		
+		/**
+		 * @return Enrollments per second.
+		 */
+		public double throughput() {
+			return this.elapsedNanos == 0 ? 0 : this.count * 1e9 / this.elapsedNanos;
+		}
+		
+		@Override
+		public String toString() {
+			return this.count + " enrollments in " + (this.elapsedNanos / 1000000L) + " ms ("
+					+ Math.round(throughput()) + "/s)";
+		}
+	}
+
+}
@@ -0,0 +1,53 @@
+package j2fa.enroll;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes each QR code to {@code <sequence>.png} in a directory, and appends one line per 
+ * account to {@code enrollments.csv}: sequence, issuer, account, Base32 secret and URI.
+ */
+public final class DirectoryEnrollmentSink implements EnrollmentSink {
+	
+	public static final String INDEX = "enrollments.csv";
+	
+	private final File directory;
+	private final Writer index;
+	
+	/**
+	 * @param directory Destination directory; created if missing.
+	 * @throws IOException if the directory or index cannot be created.
+	 */
+	public DirectoryEnrollmentSink(File directory) throws IOException {
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		this.directory = directory;
+		this.index = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(new File(directory, INDEX)), StandardCharsets.UTF_8));
+		this.index.write(EnrollmentCsv.HEADER);
+	}
+	
+	@Override
+	public void accept(Enrollment enrollment) throws IOException {
+		OutputStream out = new FileOutputStream(new File(this.directory, EnrollmentCsv.name(enrollment) + ".png"));
+		try {
+			out.write(enrollment.png());
+		} finally {
+			out.close();
+		}
+		this.index.write(EnrollmentCsv.line(enrollment));
+	}
+	
+	@Override
+	public void close() throws IOException {
+		this.index.close();
+	}
+
+}
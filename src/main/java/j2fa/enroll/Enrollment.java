@@ -0,0 +1,51 @@
+package j2fa.enroll;
+
+/**
+ * A provisioned account: its new secret, the otpauth URI and the QR code image of the URI.
+ */
+public final class Enrollment {
+	
+	private final long sequence;
+	private final EnrollmentRequest request;
+	private final byte[] secret;
+	private final String uri;
+	private final byte[] png;
+	
+	Enrollment(long sequence, EnrollmentRequest request, byte[] secret, String uri, byte[] png) {
+		this.sequence = sequence;
+		this.request = request;
+		this.secret = secret;
+		this.uri = uri;
+		this.png = png;
+	}
+	
+	/**
+	 * @return Position of the request in the input, starting at 0. Results may arrive out of order.
+	 */
+	public long sequence() {
+		return this.sequence;
+	}
+	
+	public EnrollmentRequest request() {
+		return this.request;
+	}
+	
+	public byte[] secret() {
+		return this.secret;
+	}
+	
+	/**
+	 * @return The otpauth URI, see {@link j2fa.otp.OTPAuthentication#setupPath()}.
+	 */
+	public String uri() {
+		return this.uri;
+	}
+	
+	/**
+	 * @return The QR code of the URI as a PNG file.
+	 */
+	public byte[] png() {
+		return this.png;
+	}
+
+}
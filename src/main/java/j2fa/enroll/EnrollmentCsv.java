@@ -0,0 +1,31 @@
+package j2fa.enroll;
+
+import j2fa.utils.Base32Utils;
+
+/**
+ * CSV rendering shared by the sinks.
+ */
+final class EnrollmentCsv {
+	
+	static final String HEADER = "sequence,issuer,account,secret,uri\n";
+	
+	private EnrollmentCsv() {}
+	
+	static String name(Enrollment enrollment) {
+		return String.format("%08d", enrollment.sequence());
+	}
+	
+	static String line(Enrollment enrollment) {
+		return enrollment.sequence() + "," + quote(enrollment.request().issuer()) + "," 
+				+ quote(enrollment.request().account()) + "," 
+				+ Base32Utils.encode(enrollment.secret()) + "," + quote(enrollment.uri()) + "\n";
+	}
+	
+	private static String quote(String field) {
+		if(field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+			return field;
+		}
+		return '"' + field.replace("\"", "\"\"") + '"';
+	}
+
+}
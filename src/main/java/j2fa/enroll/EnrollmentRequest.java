@@ -0,0 +1,34 @@
+package j2fa.enroll;
+
+/**
+ * An account to provision: the issuer and the account name shown by authenticator apps.
+ */
+public final class EnrollmentRequest {
+	
+	private final String issuer;
+	private final String account;
+	
+	/**
+	 * @param issuer Issuer of the code and account.
+	 * @param account User account. Typically the user's e-mail address.
+	 */
+	public EnrollmentRequest(String issuer, String account) {
+		if(issuer == null || issuer.isEmpty()) {
+			throw new IllegalArgumentException("issuer");
+		}
+		if(account == null || account.isEmpty()) {
+			throw new IllegalArgumentException("account");
+		}
+		this.issuer = issuer;
+		this.account = account;
+	}
+	
+	public String issuer() {
+		return this.issuer;
+	}
+	
+	public String account() {
+		return this.account;
+	}
+
+}
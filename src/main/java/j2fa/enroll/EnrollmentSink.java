@@ -0,0 +1,18 @@
+package j2fa.enroll;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of provisioned accounts. {@link BulkEnrollment} calls it from a single thread, 
+ * so implementations need not be thread-safe.
+ */
+public interface EnrollmentSink extends Closeable {
+	
+	/**
+	 * @param enrollment A provisioned account.
+	 * @throws IOException if the enrollment cannot be written; this aborts the run.
+	 */
+	void accept(Enrollment enrollment) throws IOException;
+
+}
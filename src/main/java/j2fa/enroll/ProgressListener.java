@@ -0,0 +1,14 @@
+package j2fa.enroll;
+
+/**
+ * Receives progress reports from {@link BulkEnrollment}.
+ */
+public interface ProgressListener {
+	
+	/**
+	 * @param completed Number of enrollments written to the sink so far.
+	 * @param elapsedNanos Nanoseconds since the run started.
+	 */
+	void progress(long completed, long elapsedNanos);
+
+}
@@ -0,0 +1,95 @@
+package j2fa.enroll;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams enrollments into a zip archive laid out like {@link DirectoryEnrollmentSink}'s 
+ * directory: {@code <sequence>.png} with each QR code, and the {@code enrollments.csv} index. 
+ * PNG files are stored, since they are already deflated.
+ * 
+ * <p>A zip entry must be written in one go, so the index lines are streamed to a temporary 
+ * file, copied into the archive and deleted when the sink is closed; memory use does not 
+ * grow with the number of enrollments.
+ */
+public final class ZipEnrollmentSink implements EnrollmentSink {
+	
+	private final ZipOutputStream zip;
+	private final File indexFile;
+	private final Writer index;
+	
+	/**
+	 * @param out Stream receiving the archive; closed with the sink.
+	 * @throws IOException if the temporary index file cannot be created.
+	 */
+	public ZipEnrollmentSink(OutputStream out) throws IOException {
+		this.indexFile = File.createTempFile("enrollments", ".csv");
+		try {
+			this.index = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(this.indexFile), StandardCharsets.UTF_8));
+			this.index.write(EnrollmentCsv.HEADER);
+		} catch (IOException e) {
+			this.indexFile.delete();
+			throw e;
+		}
+		this.zip = new ZipOutputStream(out);
+	}
+	
+	@Override
+	public void accept(Enrollment enrollment) throws IOException {
+		String name = EnrollmentCsv.name(enrollment);
+		
+		byte[] png = enrollment.png();
+		ZipEntry image = new ZipEntry(name + ".png");
+		image.setMethod(ZipEntry.STORED);
+		image.setSize(png.length);
+		image.setCompressedSize(png.length);
+		CRC32 crc = new CRC32();
+		crc.update(png);
+		image.setCrc(crc.getValue());
+		this.zip.putNextEntry(image);
+		this.zip.write(png);
+		this.zip.closeEntry();
+		this.index.write(EnrollmentCsv.line(enrollment));
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			this.index.close();
+			this.zip.putNextEntry(new ZipEntry(DirectoryEnrollmentSink.INDEX));
+			InputStream in = new FileInputStream(this.indexFile);
+			try {
+				byte[] buffer = new byte[8192];
+				int n;
+				while((n = in.read(buffer)) > 0) {
+					this.zip.write(buffer, 0, n);
+				}
+			} finally {
+				in.close();
+			}
+			this.zip.closeEntry();
+		} finally {
+			try {
+				this.zip.close();
+			} finally {
+				this.index.close();
+				if(!this.indexFile.delete()) {
+					this.indexFile.deleteOnExit();
+				}
+			}
+		}
+	}
+
+}
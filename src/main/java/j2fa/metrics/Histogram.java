@@ -0,0 +1,115 @@
+package j2fa.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent log-linear histogram of latencies in nanoseconds, in the manner of HdrHistogram:
+ * each power of two is split into 64 linear buckets, so any recorded value is reported within
+ * about 1.6%, from 1 nanosecond up to about 68 seconds, in a fixed 16KB of counters.
+ *
+ * <p>Recording is lock-free and allocation-free. Reads are not atomic with respect to
+ * concurrent recording, which is fine for scraping.
+ */
+public final class Histogram {
+
+	private static final int SUB_BITS = 6;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	// values up to 2^36 ns, about 68 s; larger ones are clamped
+	private static final int MAX_BITS = 36;
+	private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+	private static final int BUCKETS = (MAX_BITS - SUB_BITS + 1) * SUB_COUNT;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * @param nanos Value to record; negative values are recorded as 0.
+	 */
+	public void record(long nanos) {
+		long value = nanos < 0 ? 0 : nanos > MAX_VALUE ? MAX_VALUE : nanos;
+		this.counts.incrementAndGet(index(value));
+		this.count.incrementAndGet();
+		this.sum.addAndGet(value);
+		long m;
+		while(value > (m = this.max.get()) && !this.max.compareAndSet(m, value)) {
+			// retry
+		}
+	}
+	
+	static int index(long value) {
+		if(value < SUB_COUNT) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return (exponent + 1) * SUB_COUNT + (int) (value >>> exponent) - SUB_COUNT;
+	}
+	
+	/**
+	 * @return The highest value that falls in the bucket.
+	 */
+	static long highestValue(int index) {
+		if(index < SUB_COUNT) {
+			return index;
+		}
+		int exponent = index / SUB_COUNT - 1;
+		long sub = index % SUB_COUNT + SUB_COUNT;
+		return ((sub + 1) << exponent) - 1;
+	}
+	
+	public long count() {
+		return this.count.get();
+	}
+	
+	/**
+	 * @return Sum of the recorded values, clamped ones counted at the maximum.
+	 */
+	public long sum() {
+		return this.sum.get();
+	}
+	
+	public long max() {
+		return this.max.get();
+	}
+	
+	public double mean() {
+		long n = this.count.get();
+		return n == 0 ? 0 : (double) this.sum.get() / n;
+	}
+	
+	/**
+	 * @param percentile Between 0 and 100.
+	 * @return The value below or at which the given percentage of the recorded values fall,
+	 * 		within the histogram's precision; 0 if empty.
+	 */
+	public long valueAtPercentile(double percentile) {
+		long n = this.count.get();
+		if(n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * n));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += this.counts.get(i);
+			if(seen >= rank) {
+				return Math.min(highestValue(i), this.max.get());
+			}
+		}
+		return this.max.get();
+	}
+	
+	/**
+	 * Clears the histogram, e.g. after each scrape for interval percentiles.
+	 */
+	public void reset() {
+		for(int i = 0; i < BUCKETS; i++) {
+			this.counts.set(i, 0);
+		}
+		this.count.set(0);
+		this.sum.set(0);
+		this.max.set(0);
+	}
+
+}
@@ -0,0 +1,165 @@
+package j2fa.metrics;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import j2fa.otp.HMACAlgorithmEnum;
+import j2fa.otp.VerificationResult;
+
+/**
+ * {@link OtpMetrics} kept in memory: latency {@link Histogram}s per algorithm, verification 
+ * outcome counters, lockouts included, and the distribution of drift steps, exposed through accessors and in the 
+ * Prometheus text format by {@link #writeTo(Appendable)}.
+ */
+public final class InProcessOtpMetrics extends OtpMetrics {
+	
+	/**
+	 * Drift steps beyond this many in either direction are counted at the limit.
+	 */
+	public static final int MAX_DRIFT = 16;
+	
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999, 1.0};
+	
+	private final Map<HMACAlgorithmEnum, Histogram> generate = histograms();
+	private final Map<HMACAlgorithmEnum, Histogram> verify = histograms();
+	private final Histogram png = new Histogram();
+	private final Histogram svg = new Histogram();
+	private final LongAdder valid = new LongAdder();
+	private final LongAdder invalid = new LongAdder();
+	private final LongAdder replayed = new LongAdder();
+	private final LongAdder throttled = new LongAdder();
+	private final AtomicLongArray drift = new AtomicLongArray(2 * MAX_DRIFT + 1);
+	
+	private static Map<HMACAlgorithmEnum, Histogram> histograms() {
+		Map<HMACAlgorithmEnum, Histogram> map = new EnumMap<HMACAlgorithmEnum, Histogram>(HMACAlgorithmEnum.class);
+		for(HMACAlgorithmEnum algo : HMACAlgorithmEnum.values()) {
+			map.put(algo, new Histogram());
+		}
+		return map;
+	}
+	
+	@Override
+	public void generated(HMACAlgorithmEnum algo, long nanos) {
+		this.generate.get(algo).record(nanos);
+	}
+	
+	@Override
+	public void verified(HMACAlgorithmEnum algo, long nanos, VerificationResult result) {
+		if(result.isThrottled()) {
+			// refused without hashing, so kept out of the latencies
+			this.throttled.increment();
+			return;
+		}
+		this.verify.get(algo).record(nanos);
+		if(result.isValid()) {
+			this.valid.increment();
+			int offset = Math.max(-MAX_DRIFT, Math.min(MAX_DRIFT, result.offset()));
+			this.drift.incrementAndGet(offset + MAX_DRIFT);
+		}
+		else if(result.isReplay()) {
+			this.replayed.increment();
+		}
+		else {
+			this.invalid.increment();
+		}
+	}
+	
+	@Override
+	public void rendered(String format, long nanos) {
+		("svg".equals(format) ? this.svg : this.png).record(nanos);
+	}
+	
+	public Histogram generateLatency(HMACAlgorithmEnum algo) {
+		return this.generate.get(algo);
+	}
+	
+	public Histogram verifyLatency(HMACAlgorithmEnum algo) {
+		return this.verify.get(algo);
+	}
+	
+	/**
+	 * @param format "png" or "svg".
+	 */
+	public Histogram renderLatency(String format) {
+		return "svg".equals(format) ? this.svg : this.png;
+	}
+	
+	public long validCount() {
+		return this.valid.sum();
+	}
+	
+	public long invalidCount() {
+		return this.invalid.sum();
+	}
+	
+	public long replayCount() {
+		return this.replayed.sum();
+	}
+	
+	/**
+	 * @return Number of attempts refused because the account was locked out.
+	 */
+	public long throttledCount() {
+		return this.throttled.sum();
+	}
+	
+	/**
+	 * @param offset Drift in steps, as in {@link VerificationResult#offset()}.
+	 * @return Number of valid codes that matched at this offset.
+	 */
+	public long driftCount(int offset) {
+		if(offset < -MAX_DRIFT || offset > MAX_DRIFT) {
+			return 0;
+		}
+		return this.drift.get(offset + MAX_DRIFT);
+	}
+	
+	/**
+	 * Writes all metrics in the Prometheus text exposition format, latencies as summaries in seconds.
+	 * @param out Destination, e.g. the body of a scrape endpoint.
+	 * @throws IOException if appending fails.
+	 */
+	public void writeTo(Appendable out) throws IOException {
+		out.append("# TYPE j2fa_generate_seconds summary\n");
+		for(Map.Entry<HMACAlgorithmEnum, Histogram> e : this.generate.entrySet()) {
+			summary(out, "j2fa_generate_seconds", "algorithm", e.getKey().name(), e.getValue());
+		}
+		out.append("# TYPE j2fa_verify_seconds summary\n");
+		for(Map.Entry<HMACAlgorithmEnum, Histogram> e : this.verify.entrySet()) {
+			summary(out, "j2fa_verify_seconds", "algorithm", e.getKey().name(), e.getValue());
+		}
+		out.append("# TYPE j2fa_qr_render_seconds summary\n");
+		summary(out, "j2fa_qr_render_seconds", "format", "png", this.png);
+		summary(out, "j2fa_qr_render_seconds", "format", "svg", this.svg);
+		
+		out.append("# TYPE j2fa_verifications_total counter\n");
+		out.append("j2fa_verifications_total{outcome=\"valid\"} ").append(Long.toString(validCount())).append('\n');
+		out.append("j2fa_verifications_total{outcome=\"invalid\"} ").append(Long.toString(invalidCount())).append('\n');
+		out.append("j2fa_verifications_total{outcome=\"replayed\"} ").append(Long.toString(replayCount())).append('\n');
+		out.append("j2fa_verifications_total{outcome=\"throttled\"} ").append(Long.toString(throttledCount())).append('\n');
+		
+		out.append("# TYPE j2fa_verification_drift_total counter\n");
+		for(int offset = -MAX_DRIFT; offset <= MAX_DRIFT; offset++) {
+			long n = driftCount(offset);
+			if(n > 0) {
+				out.append("j2fa_verification_drift_total{steps=\"").append(Integer.toString(offset)).append("\"} ")
+						.append(Long.toString(n)).append('\n');
+			}
+		}
+	}
+	
+	private static void summary(Appendable out, String name, String label, String value, Histogram h) 
+			throws IOException {
+		String labels = "{" + label + "=\"" + value + "\"";
+		for(double q : QUANTILES) {
+			out.append(name).append(labels).append(",quantile=\"").append(Double.toString(q)).append("\"} ")
+					.append(Double.toString(h.valueAtPercentile(q * 100) / 1e9)).append('\n');
+		}
+		out.append(name).append("_sum").append(labels).append("} ").append(Double.toString(h.sum() / 1e9)).append('\n');
+		out.append(name).append("_count").append(labels).append("} ").append(Long.toString(h.count())).append('\n');
+	}
+
+}
@@ -0,0 +1,148 @@
+package j2fa.metrics;
+
+import j2fa.otp.HMACAlgorithmEnum;
+import j2fa.otp.VerificationResult;
+
+/**
+ * Listener notified by the library of code generation, verification and QR code rendering.
+ *
+ * <p>The installed instance is global. The default, {@link #NOOP}, reports itself disabled, 
+ * so instrumented methods skip even reading the clock. Implementations are called from every 
+ * thread generating or verifying codes and must be thread-safe and cheap; see 
+ * {@link InProcessOtpMetrics}.
+ */
+public abstract class OtpMetrics {
+	
+	/**
+	 * Disabled metrics, installed by default.
+	 */
+	public static final OtpMetrics NOOP = new OtpMetrics() {
+		
+		@Override
+		public boolean enabled() {
+			return false;
+		}
+		
+		@Override
+		public void generated(HMACAlgorithmEnum algo, long nanos) {}
+		
+		@Override
+		public void verified(HMACAlgorithmEnum algo, long nanos, VerificationResult result) {}
+		
+		@Override
+		public void rendered(String format, long nanos) {}
+	};
+	
+	private static volatile OtpMetrics instance = NOOP;
+	
+	/**
+	 * @return The installed metrics, {@link #NOOP} unless {@link #install(OtpMetrics)} was called.
+	 */
+	public static OtpMetrics get() {
+		return instance;
+	}
+	
+	/**
+	 * @param metrics Metrics to notify from now on; null to disable.
+	 */
+	public static void install(OtpMetrics metrics) {
+		instance = metrics == null ? NOOP : metrics;
+	}
+	
+	/**
+	 * Starts timing an instrumented call with the installed metrics.
+	 * @return The timer to report the call to; a shared one doing nothing while metrics are disabled.
+	 */
+	public static Timer startTimer() {
+		OtpMetrics metrics = instance;
+		if(!metrics.enabled()) {
+			return Timer.DISABLED;
+		}
+		return new Timer(metrics, true, System.nanoTime());
+	}
+	
+	/**
+	 * @return Whether the hooks should be timed and called at all.
+	 */
+	public boolean enabled() {
+		return true;
+	}
+	
+	/**
+	 * An OTP was generated.
+	 * @param algo Hash algorithm of the key.
+	 * @param nanos Time taken, in nanoseconds.
+	 */
+	public abstract void generated(HMACAlgorithmEnum algo, long nanos);
+	
+	/**
+	 * A code was verified against a window of moving factors. The result tells the outcome, 
+	 * the drift in steps when valid, and whether it was rejected as a replay, or refused 
+	 * unchecked because the account is locked out, see {@link VerificationResult#isThrottled()}.
+	 * @param algo Hash algorithm of the key.
+	 * @param nanos Time taken, in nanoseconds.
+	 * @param result Outcome of the verification.
+	 */
+	public abstract void verified(HMACAlgorithmEnum algo, long nanos, VerificationResult result);
+	
+	/**
+	 * A QR code was rendered.
+	 * @param format "png" or "svg".
+	 * @param nanos Time taken, in nanoseconds, encoding included.
+	 */
+	public abstract void rendered(String format, long nanos);
+	
+	/**
+	 * Time of one instrumented call, from {@link OtpMetrics#startTimer()}, reported to the 
+	 * metrics installed when it started.
+	 */
+	public static final class Timer {
+		
+		static final Timer DISABLED = new Timer(NOOP, false, 0L);
+		
+		private final OtpMetrics metrics;
+		private final boolean enabled;
+		private final long start;
+		
+		Timer(OtpMetrics metrics, boolean enabled, long start) {
+			this.metrics = metrics;
+			this.enabled = enabled;
+			this.start = start;
+		}
+		
+		/**
+		 * @return Whether the call is reported, for callers whose report arguments cost to compute.
+		 */
+		public boolean enabled() {
+			return this.enabled;
+		}
+		
+		/**
+		 * @see OtpMetrics#generated(HMACAlgorithmEnum, long)
+		 */
+		public void generated(HMACAlgorithmEnum algo) {
+			if(this.enabled) {
+				this.metrics.generated(algo, System.nanoTime() - this.start);
+			}
+		}
+		
+		/**
+		 * @see OtpMetrics#verified(HMACAlgorithmEnum, long, VerificationResult)
+		 */
+		public void verified(HMACAlgorithmEnum algo, VerificationResult result) {
+			if(this.enabled) {
+				this.metrics.verified(algo, System.nanoTime() - this.start, result);
+			}
+		}
+		
+		/**
+		 * @see OtpMetrics#rendered(String, long)
+		 */
+		public void rendered(String format) {
+			if(this.enabled) {
+				this.metrics.rendered(format, System.nanoTime() - this.start);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,18 @@
+package j2fa.otp;
+
+import java.io.IOException;
+
+/**
+ * Looks up the TOTP configuration of an account, e.g. from a database or a {@link SecretStore},
+ * for {@link OtpVerificationService}. Called from the service's executor, so it may block.
+ */
+public interface AccountResolver {
+	
+	/**
+	 * @param account Account to verify a code for.
+	 * @return The account's TOTP configuration, or null if the account is unknown.
+	 * @throws IOException if the lookup fails.
+	 */
+	OTPAuthentication resolve(String account) throws IOException;
+
+}
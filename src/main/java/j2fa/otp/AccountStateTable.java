@@ -0,0 +1,511 @@
+package j2fa.otp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongPredicate;
+
+/**
+ * Map from long account ids to fixed-size records of long fields, e.g. counter, last time step,
+ * drift and failures, kept in flat arrays instead of a {@code HashMap<Long, ...>} of boxed
+ * keys and state objects: an entry costs its key and fields only, stored next to each other,
+ * with no per-entry objects for the garbage collector to trace.
+ *
+ * <p>The table is split into stripes by the high bits of the id's hash, each an open-addressing
+ * table with linear probing. Writers lock their stripe; readers never lock. Each stripe has
+ * a sequence number that writers make odd while they modify it, and readers retry if it was
+ * odd or changed while they read, so {@link #read(long, long[])} sees a whole record as
+ * written by a single update, and lookups are never confused by slots being reused or a stripe
+ * being resized. Removed entries leave tombstones, which are dropped when the stripe is rebuilt.
+ *
+ * <p>Two ids are reserved: {@link Long#MIN_VALUE} and {@code Long.MIN_VALUE + 1}.
+ */
+public final class AccountStateTable {
+
+	// stored keys are ids with the sign bit flipped, so that the reserved ids map to 0 and 1
+	// and new arrays need no filling
+	private static final long EMPTY = 0L;
+	private static final long TOMBSTONE = 1L;
+	private static final int MIN_CAPACITY = 16;
+	
+	private final int fields;
+	private final Stripe[] stripes;
+	private final int stripeShift;
+	
+	/**
+	 * Table with 64 stripes.
+	 * @param fields Number of long fields per record.
+	 */
+	public AccountStateTable(int fields) {
+		this(fields, 0, 64);
+	}
+	
+	/**
+	 * @param fields Number of long fields per record.
+	 * @param expectedSize Number of entries to size the table for up front.
+	 * @param stripes Number of independently locked stripes, a power of two.
+	 */
+	public AccountStateTable(int fields, int expectedSize, int stripes) {
+		if(fields <= 0) {
+			throw new IllegalArgumentException("fields");
+		}
+		if(stripes <= 0 || Integer.bitCount(stripes) != 1) {
+			throw new IllegalArgumentException("stripes must be a power of two.");
+		}
+		if(expectedSize < 0) {
+			throw new IllegalArgumentException("expectedSize");
+		}
+		this.fields = fields;
+		this.stripes = new Stripe[stripes];
+		this.stripeShift = 64 - Integer.numberOfTrailingZeros(stripes);
+		int capacity = capacityFor(expectedSize / stripes + 1);
+		for(int i = 0; i < stripes; i++) {
+			this.stripes[i] = new Stripe(new Table(capacity, fields));
+		}
+	}
+	
+	/**
+	 * @return Number of long fields per record.
+	 */
+	public int fields() {
+		return this.fields;
+	}
+	
+	/**
+	 * @param id Account id.
+	 * @return Whether the table holds a record for the id.
+	 */
+	public boolean contains(long id) {
+		long key = key(id);
+		long hash = hash(id);
+		Stripe stripe = stripe(hash);
+		while(true) {
+			long sequence = stripe.sequence.get();
+			if((sequence & 1) == 0) {
+				boolean found = find(stripe.table, key, hash) >= 0;
+				if(stripe.sequence.get() == sequence) {
+					return found;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @param id Account id.
+	 * @param field Field index.
+	 * @param absent Value returned if the table holds no record for the id.
+	 * @return The field's value.
+	 */
+	public long get(long id, int field, long absent) {
+		checkField(field);
+		long key = key(id);
+		long hash = hash(id);
+		Stripe stripe = stripe(hash);
+		while(true) {
+			long sequence = stripe.sequence.get();
+			if((sequence & 1) == 0) {
+				Table table = stripe.table;
+				int slot = find(table, key, hash);
+				long value = slot < 0 ? absent : table.data.get(slot * table.stride + 1 + field);
+				if(stripe.sequence.get() == sequence) {
+					return value;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Copies a whole record, consistent with a single update.
+	 * @param id Account id.
+	 * @param record Receives the fields, at least {@link #fields()} long.
+	 * @return False, leaving the array untouched, if the table holds no record for the id.
+	 */
+	public boolean read(long id, long[] record) {
+		if(record.length < this.fields) {
+			throw new IllegalArgumentException("record");
+		}
+		long key = key(id);
+		long hash = hash(id);
+		Stripe stripe = stripe(hash);
+		while(true) {
+			long sequence = stripe.sequence.get();
+			if((sequence & 1) == 0) {
+				Table table = stripe.table;
+				int slot = find(table, key, hash);
+				if(slot < 0) {
+					if(stripe.sequence.get() == sequence) {
+						return false;
+					}
+					continue;
+				}
+				// the caller's array may see a torn copy, overwritten by the retry
+				int base = slot * table.stride + 1;
+				for(int f = 0; f < this.fields; f++) {
+					record[f] = table.data.get(base + f);
+				}
+				if(stripe.sequence.get() == sequence) {
+					return true;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Sets a field, creating a record of zeros for the id if there is none.
+	 * @param id Account id.
+	 * @param field Field index.
+	 * @param value New value.
+	 */
+	public void set(long id, int field, long value) {
+		checkField(field);
+		long key = key(id);
+		long hash = hash(id);
+		Stripe stripe = stripe(hash);
+		synchronized(stripe) {
+			stripe.begin();
+			try {
+				int slot = insert(stripe, key, hash);
+				Table table = stripe.table;
+				table.data.lazySet(slot * table.stride + 1 + field, value);
+			} finally {
+				stripe.end();
+			}
+		}
+	}
+	
+	/**
+	 * Replaces a whole record, creating it if there is none.
+	 * @param id Account id.
+	 * @param record The fields, at least {@link #fields()} long.
+	 */
+	public void write(long id, long[] record) {
+		if(record.length < this.fields) {
+			throw new IllegalArgumentException("record");
+		}
+		long key = key(id);
+		long hash = hash(id);
+		Stripe stripe = stripe(hash);
+		synchronized(stripe) {
+			stripe.begin();
+			try {
+				int slot = insert(stripe, key, hash);
+				Table table = stripe.table;
+				int base = slot * table.stride + 1;
+				for(int f = 0; f < this.fields; f++) {
+					table.data.lazySet(base + f, record[f]);
+				}
+			} finally {
+				stripe.end();
+			}
+		}
+	}
+	
+	/**
+	 * Adds to a field, creating a record of zeros for the id if there is none.
+	 * @param id Account id.
+	 * @param field Field index.
+	 * @param delta Value to add.
+	 * @return The updated value.
+	 */
+	public long addAndGet(long id, int field, long delta) {
+		checkField(field);
+		long key = key(id);
+		long hash = hash(id);
+		Stripe stripe = stripe(hash);
+		synchronized(stripe) {
+			stripe.begin();
+			try {
+				int slot = insert(stripe, key, hash);
+				Table table = stripe.table;
+				int index = slot * table.stride + 1 + field;
+				long value = table.data.get(index) + delta;
+				table.data.lazySet(index, value);
+				return value;
+			} finally {
+				stripe.end();
+			}
+		}
+	}
+	
+	/**
+	 * Sets a field if it holds the expected value.
+	 * @param id Account id.
+	 * @param field Field index.
+	 * @param expect Expected value.
+	 * @param update New value.
+	 * @return True if the record exists and the field held the expected value.
+	 */
+	public boolean compareAndSet(long id, int field, long expect, long update) {
+		checkField(field);
+		long key = key(id);
+		long hash = hash(id);
+		Stripe stripe = stripe(hash);
+		synchronized(stripe) {
+			int slot = find(stripe.table, key, hash);
+			if(slot < 0) {
+				return false;
+			}
+			Table table = stripe.table;
+			int index = slot * table.stride + 1 + field;
+			if(table.data.get(index) != expect) {
+				return false;
+			}
+			stripe.begin();
+			try {
+				table.data.lazySet(index, update);
+				return true;
+			} finally {
+				stripe.end();
+			}
+		}
+	}
+	
+	/**
+	 * @param id Account id.
+	 * @return True if a record was removed.
+	 */
+	public boolean remove(long id) {
+		long key = key(id);
+		long hash = hash(id);
+		Stripe stripe = stripe(hash);
+		synchronized(stripe) {
+			int slot = find(stripe.table, key, hash);
+			if(slot < 0) {
+				return false;
+			}
+			stripe.begin();
+			try {
+				stripe.table.data.lazySet(slot * stripe.table.stride, TOMBSTONE);
+				stripe.size--;
+				return true;
+			} finally {
+				stripe.end();
+			}
+		}
+	}
+	
+	/**
+	 * Removes the records whose field matches, one stripe at a time, e.g. to drop idle state.
+	 * @param field Field index.
+	 * @param matches Test of the field's value.
+	 * @return The number of records removed.
+	 */
+	public long removeIf(int field, LongPredicate matches) {
+		checkField(field);
+		long removed = 0;
+		for(Stripe stripe : this.stripes) {
+			synchronized(stripe) {
+				Table table = stripe.table;
+				int stride = table.stride;
+				boolean writing = false;
+				try {
+					for(int slot = 0; slot < table.capacity(); slot++) {
+						long k = table.data.get(slot * stride);
+						if(k == EMPTY || k == TOMBSTONE || !matches.test(table.data.get(slot * stride + 1 + field))) {
+							continue;
+						}
+						if(!writing) {
+							stripe.begin();
+							writing = true;
+						}
+						table.data.lazySet(slot * stride, TOMBSTONE);
+						stripe.size--;
+						removed++;
+					}
+				} finally {
+					if(writing) {
+						stripe.end();
+					}
+				}
+			}
+		}
+		return removed;
+	}
+	
+	/**
+	 * @return The number of records; not a snapshot under concurrent updates.
+	 */
+	public long size() {
+		long size = 0;
+		for(Stripe stripe : this.stripes) {
+			synchronized(stripe) {
+				size += stripe.size;
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * @return Bytes held by the key and field arrays, which is nearly all the table's memory.
+	 */
+	public long memoryBytes() {
+		long bytes = 0;
+		for(Stripe stripe : this.stripes) {
+			Table table = stripe.table;
+			bytes += (long) table.data.length() * Long.BYTES;
+		}
+		return bytes;
+	}
+	
+	private void checkField(int field) {
+		if(field < 0 || field >= this.fields) {
+			throw new IllegalArgumentException("field");
+		}
+	}
+	
+	private static long key(long id) {
+		long key = id ^ Long.MIN_VALUE;
+		if(key == EMPTY || key == TOMBSTONE) {
+			throw new IllegalArgumentException("Reserved id: " + id);
+		}
+		return key;
+	}
+	
+	// MurmurHash3 finalizer: sequential ids spread over both the stripes and the slots
+	private static long hash(long id) {
+		long h = id;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+	
+	private Stripe stripe(long hash) {
+		return this.stripes[this.stripes.length == 1 ? 0 : (int) (hash >>> this.stripeShift)];
+	}
+	
+	private static int find(Table table, long key, long hash) {
+		int mask = table.mask;
+		int i = (int) hash & mask;
+		while(true) {
+			long k = table.data.get(i * table.stride);
+			if(k == key) {
+				return i;
+			}
+			if(k == EMPTY) {
+				return -1;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+	
+	/**
+	 * Finds or creates the id's slot; the caller holds the stripe's lock and made its sequence odd.
+	 */
+	private int insert(Stripe stripe, long key, long hash) {
+		Table table = stripe.table;
+		int mask = table.mask;
+		int i = (int) hash & mask;
+		int tombstone = -1;
+		while(true) {
+			long k = table.data.get(i * table.stride);
+			if(k == key) {
+				return i;
+			}
+			if(k == EMPTY) {
+				break;
+			}
+			if(k == TOMBSTONE && tombstone < 0) {
+				tombstone = i;
+			}
+			i = (i + 1) & mask;
+		}
+		if(tombstone < 0) {
+			if((stripe.used + 1) * 4L > table.capacity() * 3L) {
+				// keep probe sequences short and at least one slot empty
+				rebuild(stripe);
+				return insert(stripe, key, hash);
+			}
+			stripe.used++;
+		}
+		else {
+			i = tombstone;
+		}
+		int base = i * table.stride;
+		for(int f = 1; f < table.stride; f++) {
+			table.data.lazySet(base + f, 0L);
+		}
+		table.data.lazySet(base, key);
+		stripe.size++;
+		return i;
+	}
+	
+	private void rebuild(Stripe stripe) {
+		Table old = stripe.table;
+		// grow unless most of the used slots were tombstones
+		int capacity = capacityFor(stripe.size + 1);
+		capacity = Math.max(capacity, stripe.size * 8L > old.capacity() * 3L ? old.capacity() * 2 : old.capacity());
+		Table table = new Table(capacity, this.fields);
+		int stride = table.stride;
+		for(int slot = 0; slot < old.capacity(); slot++) {
+			long k = old.data.get(slot * stride);
+			if(k == EMPTY || k == TOMBSTONE) {
+				continue;
+			}
+			int i = (int) hash(k ^ Long.MIN_VALUE) & table.mask;
+			while(table.data.get(i * stride) != EMPTY) {
+				i = (i + 1) & table.mask;
+			}
+			for(int f = 0; f < stride; f++) {
+				table.data.lazySet(i * stride + f, old.data.get(slot * stride + f));
+			}
+		}
+		stripe.used = stripe.size;
+		stripe.table = table;
+	}
+	
+	private static int capacityFor(long entries) {
+		// at most three quarters full after sizing
+		long needed = entries + entries / 3 + 1;
+		if(needed > 1 << 30) {
+			throw new IllegalStateException("Stripe too large; use more stripes.");
+		}
+		return Math.max(MIN_CAPACITY, Integer.highestOneBit((int) needed - 1) << 1);
+	}
+	
+	/**
+	 * Slots of a key followed by its fields, so that a lookup usually touches a single cache line.
+	 */
+	private static final class Table {
+		
+		final AtomicLongArray data;
+		final int stride;
+		final int mask;
+		
+		Table(int capacity, int fields) {
+			if((long) capacity * (fields + 1) > Integer.MAX_VALUE) {
+				throw new IllegalStateException("Stripe too large; use more stripes.");
+			}
+			this.stride = fields + 1;
+			this.data = new AtomicLongArray(capacity * this.stride);
+			this.mask = capacity - 1;
+		}
+		
+		int capacity() {
+			return this.mask + 1;
+		}
+	}
+	
+	private static final class Stripe {
+		
+		final AtomicLong sequence = new AtomicLong();
+		volatile Table table;
+		// guarded by the stripe's lock
+		int size;
+		int used;
+		
+		Stripe(Table table) {
+			this.table = table;
+		}
+		
+		void begin() {
+			this.sequence.incrementAndGet();
+		}
+		
+		void end() {
+			this.sequence.incrementAndGet();
+		}
+	}
+
+}
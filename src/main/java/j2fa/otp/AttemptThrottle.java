@@ -0,0 +1,248 @@
+package j2fa.otp;
+
+import java.security.SecureRandom;
+import java.util.function.LongPredicate;
+
+/**
+ * In-process brute-force protection: counts failed verifications per account and locks the
+ * account out for exponentially growing periods once too many fail in a row.
+ *
+ * <p>Every attempt is counted as failed before it is verified, by {@link #acquire(String, long)},
+ * which atomically either counts it or refuses it because the account is locked; a successful
+ * verification then clears the count with {@link #recordSuccess(String)}. Checking first and
+ * recording after the verification would let any number of concurrent guesses through before
+ * the first failure is recorded.
+ *
+ * <p>Counted attempts fill a leaky bucket of {@code maxFailures}, which drains by one every
+ * {@code leakMillis}, so an occasional typo never adds up to a lockout. A full bucket locks the
+ * account for {@code baseLockout}, doubled for each further lockout up to {@code maxLockout};
+ * a successful verification, or {@code maxLockout} without failures after a lockout, resets it.
+ *
+ * <p>Each account's whole state is packed into a single long in an {@link AccountStateTable},
+ * keyed by a 64-bit hash of the label seeded per instance, so checking and recording take no
+ * locks beyond the table's stripe and allocate nothing. {@link #lockedFor(String, long)} is a
+ * plain read; acquiring an attempt is a compare-and-set loop on the account's record. Two
+ * labels whose hashes collide, which callers cannot arrange without knowing the seed, share
+ * their state.
+ *
+ * <p>Records of accounts that are neither locked nor counting failures are dropped by
+ * {@link #evictIdle(long)}; only accounts that exist should be recorded, so that guessing
+ * account names does not grow the table.
+ * @see Section 7.3 of https://tools.ietf.org/html/rfc4226
+ */
+public final class AttemptThrottle {
+
+	// lockouts (6 bits) | bucket level (8 bits) | time (48 bits): the last leak with a non-empty
+	// bucket, or the end of the lockout with an empty bucket and lockouts
+	private static final int LEVEL_SHIFT = 48;
+	private static final int LOCKOUTS_SHIFT = 56;
+	private static final long TIME_MASK = (1L << LEVEL_SHIFT) - 1;
+	private static final int MAX_LOCKOUTS = 63;
+	private static final long ABSENT = -1L;
+	
+	private final AccountStateTable table;
+	private final long seed = new SecureRandom().nextLong();
+	private final int maxFailures;
+	private final long leakMillis;
+	private final long baseLockout;
+	private final long maxLockout;
+	
+	/**
+	 * Throttle allowing 5 failures, one more per minute, then locking accounts for 30 seconds,
+	 * doubled per lockout up to an hour.
+	 */
+	public AttemptThrottle() {
+		this(5, 60000L, 30000L, 3600000L, 64);
+	}
+	
+	/**
+	 * @param maxFailures Failures in a row that lock the account, at most 255.
+	 * @param leakMillis Milliseconds after which one failure is forgotten.
+	 * @param baseLockout Milliseconds of the first lockout.
+	 * @param maxLockout Maximum milliseconds of a lockout.
+	 * @param stripes Number of independently locked stripes, a power of two.
+	 */
+	public AttemptThrottle(int maxFailures, long leakMillis, long baseLockout, long maxLockout, int stripes) {
+		if(maxFailures <= 0 || maxFailures > 255) {
+			throw new IllegalArgumentException("maxFailures");
+		}
+		if(leakMillis <= 0 || baseLockout <= 0 || maxLockout < baseLockout || maxLockout > TIME_MASK / 2) {
+			throw new IllegalArgumentException("Durations must be positive, with baseLockout <= maxLockout.");
+		}
+		this.table = new AccountStateTable(1, 0, stripes);
+		this.maxFailures = maxFailures;
+		this.leakMillis = leakMillis;
+		this.baseLockout = baseLockout;
+		this.maxLockout = maxLockout;
+	}
+	
+	/**
+	 * @param label Account label, see {@link OtpSpec#label()}.
+	 * @param now Unix time in milliseconds.
+	 * @return Milliseconds until the account may be verified again; 0 if it may now.
+	 */
+	public long lockedFor(String label, long now) {
+		long state = this.table.get(id(label), 0, ABSENT);
+		return state == ABSENT ? 0L : lockedFor(state, now);
+	}
+	
+	/**
+	 * Counts an attempt as failed before it is verified, unless the account is locked. The 
+	 * attempt that fills the bucket is still verified; the lockout applies to the next ones.
+	 * @param label Account label, see {@link OtpSpec#label()}.
+	 * @param now Unix time in milliseconds.
+	 * @return 0 if the attempt was counted and may be verified; otherwise the milliseconds the 
+	 * 		account is locked for, and the attempt must be refused without verifying it.
+	 */
+	public long acquire(String label, long now) {
+		if(now < 0 || now > TIME_MASK / 2) {
+			throw new IllegalArgumentException("now");
+		}
+		long id = id(label);
+		while(true) {
+			long state = this.table.get(id, 0, ABSENT);
+			if(state == ABSENT) {
+				// creates a record of zeros: an empty bucket and no lockouts
+				this.table.addAndGet(id, 0, 0L);
+				continue;
+			}
+			long locked = lockedFor(state, now);
+			if(locked > 0) {
+				// refused, so not verified and not counted
+				return locked;
+			}
+			if(this.table.compareAndSet(id, 0, state, failed(state, now))) {
+				return 0L;
+			}
+		}
+	}
+	
+	/**
+	 * Records a successful verification of an acquired attempt, forgetting the account's 
+	 * failures and lockouts.
+	 * @param label Account label, see {@link OtpSpec#label()}.
+	 */
+	public void recordSuccess(String label) {
+		long id = id(label);
+		// the usual case of an account without failures is a read only
+		if(this.table.get(id, 0, ABSENT) != ABSENT) {
+			this.table.remove(id);
+		}
+	}
+	
+	/**
+	 * Drops the records that no longer affect verification, e.g. from a scheduler.
+	 * @param now Unix time in milliseconds.
+	 * @return The number of records dropped.
+	 */
+	public long evictIdle(final long now) {
+		return this.table.removeIf(0, new LongPredicate() {
+			@Override
+			public boolean test(long state) {
+				// a failure now would find nothing left to add to
+				return failed(state, now) == failed(0L, now);
+			}
+		});
+	}
+	
+	/**
+	 * @return The number of accounts with recorded failures or lockouts.
+	 */
+	public long size() {
+		return this.table.size();
+	}
+	
+	private long id(String label) {
+		if(label == null) {
+			throw new IllegalArgumentException("label");
+		}
+		// four chars per round of a MurmurHash-like mix keyed by the seed, then its finalizer
+		long h = this.seed;
+		int n = label.length();
+		int i = 0;
+		for(; i + 4 <= n; i += 4) {
+			long k = label.charAt(i) | (long) label.charAt(i + 1) << 16 
+					| (long) label.charAt(i + 2) << 32 | (long) label.charAt(i + 3) << 48;
+			h = Long.rotateLeft(h ^ mix(k), 27) * 5 + 0x52dce729L;
+		}
+		// up to three chars left, with the length above them
+		long k = 0;
+		for(; i < n; i++) {
+			k = k << 16 | label.charAt(i);
+		}
+		h ^= mix(k | (long) n << 48);
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		if(h == Long.MIN_VALUE || h == Long.MIN_VALUE + 1) {
+			// reserved by the table
+			h = 0L;
+		}
+		return h;
+	}
+	
+	private static long mix(long k) {
+		return Long.rotateLeft(k * 0x87c37b91114253d5L, 31) * 0x4cf5ad432745937fL;
+	}
+	
+	private static long lockedFor(long state, long now) {
+		long time = state & TIME_MASK;
+		if(level(state) == 0 && lockouts(state) > 0 && time > now) {
+			return time - now;
+		}
+		return 0L;
+	}
+	
+	/**
+	 * @return The state after a failure at the given time, which the account is not locked at.
+	 */
+	private long failed(long state, long now) {
+		int level = level(state);
+		int lockouts = lockouts(state);
+		long time = state & TIME_MASK;
+		if(level > 0 && now > time) {
+			long leaked = (now - time) / this.leakMillis;
+			if(leaked >= level) {
+				// from the time the bucket ran empty
+				time += level * this.leakMillis;
+				level = 0;
+			}
+			else {
+				level -= leaked;
+				time += leaked * this.leakMillis;
+			}
+		}
+		if(level == 0) {
+			if(lockouts > 0 && now - time >= this.maxLockout) {
+				lockouts = 0;
+			}
+			time = now;
+		}
+		level++;
+		if(level >= this.maxFailures) {
+			lockouts = Math.min(lockouts + 1, MAX_LOCKOUTS);
+			level = 0;
+			time = now + lockout(lockouts);
+		}
+		return (long) lockouts << LOCKOUTS_SHIFT | (long) level << LEVEL_SHIFT | time;
+	}
+	
+	private long lockout(int lockouts) {
+		long duration = this.baseLockout;
+		for(int i = 1; i < lockouts && duration < this.maxLockout; i++) {
+			duration <<= 1;
+		}
+		return Math.min(duration, this.maxLockout);
+	}
+	
+	private static int level(long state) {
+		return (int) (state >>> LEVEL_SHIFT) & 0xFF;
+	}
+	
+	private static int lockouts(long state) {
+		return (int) (state >>> LOCKOUTS_SHIFT);
+	}
+
+}
@@ -0,0 +1,501 @@
+package j2fa.otp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+/**
+ * Pure-Java HMAC-SHA-1/SHA-256/SHA-512 specialized for OTP moving factors.
+ *
+ * <p>An HOTP/TOTP message is always the 8-byte counter, so after the key pad block the inner
+ * hash has exactly one more block to process, whose padding and length are constants, and so
+ * does the outer hash over the inner digest. The chaining state after each pad block is
+ * computed once per key; every code then costs two compression function calls over int/long
+ * words, with the message schedule held in per-thread scratch arrays, without going through
+ * the JCE provider stack or its buffering, and without allocating.
+ *
+ * <p>HotSpot compiles the JCE digests to SHA instructions where the CPU has them, and those 
+ * outrun this code, so it is only used where {@link #paysOff(HMACAlgorithmEnum)}.
+ * @see https://tools.ietf.org/html/rfc6234
+ */
+abstract class BuiltinHmac {
+
+	// by HMACAlgorithmEnum ordinal
+	private static final boolean[] PAYS_OFF = paysOff();
+
+	/**
+	 * @return Whether the JVM hashes the algorithm without an intrinsic, so that this code beats 
+	 * 		the JCE; false where that cannot be told, e.g. on JVMs other than HotSpot.
+	 */
+	static boolean paysOff(HMACAlgorithmEnum algo) {
+		return PAYS_OFF[algo.ordinal()];
+	}
+
+	private static boolean[] paysOff() {
+		boolean[] paysOff = new boolean[HMACAlgorithmEnum.values().length];
+		try {
+			HotSpotDiagnosticMXBean vm = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+			if(vm == null) {
+				return paysOff;
+			}
+			boolean useSha = "true".equals(vm.getVMOption("UseSHA").getValue());
+			Set<String> cpu = null;
+			for(HMACAlgorithmEnum algo : HMACAlgorithmEnum.values()) {
+				String option = "Use" + algo.name() + "Intrinsics";
+				boolean intrinsic;
+				try {
+					intrinsic = "true".equals(vm.getVMOption(option).getValue());
+				} catch (IllegalArgumentException iae) {
+					// diagnostic options are hidden without -XX:+UnlockDiagnosticVMOptions: 
+					// HotSpot enables them by default where the CPU supports them
+					if(cpu == null) {
+						cpu = cpuFeatures();
+					}
+					intrinsic = intrinsicByDefault(System.getProperty("os.arch"), cpu, algo);
+				}
+				paysOff[algo.ordinal()] = !useSha || !intrinsic;
+			}
+		} catch (RuntimeException | LinkageError e) {
+			// not HotSpot: keep the JCE
+		}
+		return paysOff;
+	}
+
+	/**
+	 * Mirrors HotSpot's defaults for the SHA intrinsics flags on x86-64 and AArch64.
+	 * @param arch {@code os.arch}
+	 * @param cpu CPU feature flags, empty if unknown.
+	 * @return Whether HotSpot enables the intrinsic by default; true where that cannot be told.
+	 */
+	static boolean intrinsicByDefault(String arch, Set<String> cpu, HMACAlgorithmEnum algo) {
+		if(cpu.isEmpty()) {
+			return true;
+		}
+		if("amd64".equals(arch) || "x86_64".equals(arch)) {
+			boolean avx2 = cpu.contains("avx2") && cpu.contains("bmi2");
+			switch(algo) {
+				case SHA1:
+					return cpu.contains("sha_ni");
+				case SHA256:
+					return cpu.contains("sha_ni") || avx2;
+				default:
+					return avx2;
+			}
+		}
+		if("aarch64".equals(arch)) {
+			switch(algo) {
+				case SHA1:
+					return cpu.contains("sha1");
+				case SHA256:
+					return cpu.contains("sha2");
+				default:
+					return cpu.contains("sha512");
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The CPU feature flags listed by Linux, empty elsewhere.
+	 */
+	private static Set<String> cpuFeatures() {
+		Set<String> features = new HashSet<String>();
+		File cpuinfo = new File("/proc/cpuinfo");
+		if(!cpuinfo.canRead()) {
+			return features;
+		}
+		try {
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(new FileInputStream(cpuinfo), StandardCharsets.US_ASCII));
+			try {
+				String line;
+				while((line = reader.readLine()) != null) {
+					// "flags" on x86, "Features" on ARM
+					if(line.startsWith("flags") || line.startsWith("Features")) {
+						int colon = line.indexOf(':');
+						features.addAll(Arrays.asList(line.substring(colon + 1).trim().split("\\s+")));
+						break;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			features.clear();
+		}
+		return features;
+	}
+
+	static BuiltinHmac create(HMACAlgorithmEnum algo, byte[] ipad, byte[] opad) {
+		switch(algo) {
+			case SHA1:
+				return new Sha1(ipad, opad);
+			case SHA256:
+				return new Sha256(ipad, opad);
+			case SHA512:
+				return new Sha512(ipad, opad);
+			default:
+				throw new IllegalArgumentException(algo.name());
+		}
+	}
+
+	/**
+	 * @param movingFactor the 8-byte message
+	 * @param out buffer receiving the HMAC
+	 * @param scratch working arrays of the calling thread
+	 * @return The number of bytes written to the buffer.
+	 */
+	abstract int hmac(long movingFactor, byte[] out, HmacScratch scratch);
+
+	/**
+	 * Zeroes the chaining states, which are as good as the key.
+	 */
+	abstract void destroy();
+
+	private static int[] intWords(byte[] block, int[] w) {
+		for(int i = 0; i < block.length / 4; i++) {
+			w[i] = ((block[4*i] & 0xff) << 24) | ((block[4*i + 1] & 0xff) << 16)
+					| ((block[4*i + 2] & 0xff) << 8) | (block[4*i + 3] & 0xff);
+		}
+		return w;
+	}
+
+	private static long[] longWords(byte[] block, long[] w) {
+		for(int i = 0; i < block.length / 8; i++) {
+			long word = 0;
+			for(int j = 0; j < 8; j++) {
+				word = (word << 8) | (block[8*i + j] & 0xff);
+			}
+			w[i] = word;
+		}
+		return w;
+	}
+
+	private static void intsToBytes(int[] h, int words, byte[] out) {
+		for(int i = 0; i < words; i++) {
+			int v = h[i];
+			out[4*i] = (byte)(v >>> 24);
+			out[4*i + 1] = (byte)(v >>> 16);
+			out[4*i + 2] = (byte)(v >>> 8);
+			out[4*i + 3] = (byte)v;
+		}
+	}
+
+	private static void longsToBytes(long[] h, int words, byte[] out) {
+		for(int i = 0; i < words; i++) {
+			long v = h[i];
+			for(int j = 7; j >= 0; j--) {
+				out[8*i + j] = (byte)v;
+				v >>>= 8;
+			}
+		}
+	}
+
+	static final class Sha1 extends BuiltinHmac {
+
+		private static final int[] IV = {0x67452301, 0xefcdab89, 0x98badcfe, 0x10325476, 0xc3d2e1f0};
+		// bit lengths of the pad block plus the moving factor, and plus the inner digest
+		private static final int INNER_BITS = (64 + 8) * 8;
+		private static final int OUTER_BITS = (64 + 20) * 8;
+
+		private final int[] inner = new int[5];
+		private final int[] outer = new int[5];
+
+		Sha1(byte[] ipad, byte[] opad) {
+			int[] w = new int[80];
+			compress(IV, intWords(ipad, w), this.inner);
+			compress(IV, intWords(opad, w), this.outer);
+		}
+
+		@Override
+		void destroy() {
+			Arrays.fill(this.inner, 0);
+			Arrays.fill(this.outer, 0);
+		}
+
+		@Override
+		int hmac(long movingFactor, byte[] out, HmacScratch scratch) {
+			int[] w = scratch.w32;
+			int[] h = scratch.h32;
+			w[0] = (int)(movingFactor >>> 32);
+			w[1] = (int)movingFactor;
+			w[2] = 0x80000000;
+			for(int i = 3; i < 15; i++) {
+				w[i] = 0;
+			}
+			w[15] = INNER_BITS;
+			compress(this.inner, w, h);
+			for(int i = 0; i < 5; i++) {
+				w[i] = h[i];
+			}
+			w[5] = 0x80000000;
+			for(int i = 6; i < 15; i++) {
+				w[i] = 0;
+			}
+			w[15] = OUTER_BITS;
+			compress(this.outer, w, h);
+			intsToBytes(h, 5, out);
+			return 20;
+		}
+
+		static void compress(int[] state, int[] w, int[] out) {
+			for(int t = 16; t < 80; t++) {
+				w[t] = Integer.rotateLeft(w[t-3] ^ w[t-8] ^ w[t-14] ^ w[t-16], 1);
+			}
+			int a = state[0];
+			int b = state[1];
+			int c = state[2];
+			int d = state[3];
+			int e = state[4];
+			for(int t = 0; t < 20; t++) {
+				int temp = Integer.rotateLeft(a, 5) + ((b & c) | (~b & d)) + e + w[t] + 0x5a827999;
+				e = d;
+				d = c;
+				c = Integer.rotateLeft(b, 30);
+				b = a;
+				a = temp;
+			}
+			for(int t = 20; t < 40; t++) {
+				int temp = Integer.rotateLeft(a, 5) + (b ^ c ^ d) + e + w[t] + 0x6ed9eba1;
+				e = d;
+				d = c;
+				c = Integer.rotateLeft(b, 30);
+				b = a;
+				a = temp;
+			}
+			for(int t = 40; t < 60; t++) {
+				int temp = Integer.rotateLeft(a, 5) + ((b & c) | (b & d) | (c & d)) + e + w[t] + 0x8f1bbcdc;
+				e = d;
+				d = c;
+				c = Integer.rotateLeft(b, 30);
+				b = a;
+				a = temp;
+			}
+			for(int t = 60; t < 80; t++) {
+				int temp = Integer.rotateLeft(a, 5) + (b ^ c ^ d) + e + w[t] + 0xca62c1d6;
+				e = d;
+				d = c;
+				c = Integer.rotateLeft(b, 30);
+				b = a;
+				a = temp;
+			}
+			out[0] = state[0] + a;
+			out[1] = state[1] + b;
+			out[2] = state[2] + c;
+			out[3] = state[3] + d;
+			out[4] = state[4] + e;
+		}
+	}
+
+	static final class Sha256 extends BuiltinHmac {
+
+		private static final int[] IV = {
+				0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19};
+		private static final int[] K = {
+				0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+				0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+				0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+				0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+				0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+				0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+				0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+				0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2};
+		private static final int INNER_BITS = (64 + 8) * 8;
+		private static final int OUTER_BITS = (64 + 32) * 8;
+
+		private final int[] inner = new int[8];
+		private final int[] outer = new int[8];
+
+		Sha256(byte[] ipad, byte[] opad) {
+			int[] w = new int[80];
+			compress(IV, intWords(ipad, w), this.inner);
+			compress(IV, intWords(opad, w), this.outer);
+		}
+
+		@Override
+		void destroy() {
+			Arrays.fill(this.inner, 0);
+			Arrays.fill(this.outer, 0);
+		}
+
+		@Override
+		int hmac(long movingFactor, byte[] out, HmacScratch scratch) {
+			int[] w = scratch.w32;
+			int[] h = scratch.h32;
+			w[0] = (int)(movingFactor >>> 32);
+			w[1] = (int)movingFactor;
+			w[2] = 0x80000000;
+			for(int i = 3; i < 15; i++) {
+				w[i] = 0;
+			}
+			w[15] = INNER_BITS;
+			compress(this.inner, w, h);
+			for(int i = 0; i < 8; i++) {
+				w[i] = h[i];
+			}
+			w[8] = 0x80000000;
+			for(int i = 9; i < 15; i++) {
+				w[i] = 0;
+			}
+			w[15] = OUTER_BITS;
+			compress(this.outer, w, h);
+			intsToBytes(h, 8, out);
+			return 32;
+		}
+
+		static void compress(int[] state, int[] w, int[] out) {
+			for(int t = 16; t < 64; t++) {
+				int s0 = Integer.rotateRight(w[t-15], 7) ^ Integer.rotateRight(w[t-15], 18) ^ (w[t-15] >>> 3);
+				int s1 = Integer.rotateRight(w[t-2], 17) ^ Integer.rotateRight(w[t-2], 19) ^ (w[t-2] >>> 10);
+				w[t] = w[t-16] + s0 + w[t-7] + s1;
+			}
+			int a = state[0];
+			int b = state[1];
+			int c = state[2];
+			int d = state[3];
+			int e = state[4];
+			int f = state[5];
+			int g = state[6];
+			int h = state[7];
+			for(int t = 0; t < 64; t++) {
+				int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+				int t1 = h + s1 + ((e & f) ^ (~e & g)) + K[t] + w[t];
+				int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+				int t2 = s0 + ((a & b) ^ (a & c) ^ (b & c));
+				h = g;
+				g = f;
+				f = e;
+				e = d + t1;
+				d = c;
+				c = b;
+				b = a;
+				a = t1 + t2;
+			}
+			out[0] = state[0] + a;
+			out[1] = state[1] + b;
+			out[2] = state[2] + c;
+			out[3] = state[3] + d;
+			out[4] = state[4] + e;
+			out[5] = state[5] + f;
+			out[6] = state[6] + g;
+			out[7] = state[7] + h;
+		}
+	}
+
+	static final class Sha512 extends BuiltinHmac {
+
+		private static final long[] IV = {
+				0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+				0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L};
+		private static final long[] K = {
+				0x428a2f98d728ae22L, 0x7137449123ef65cdL, 0xb5c0fbcfec4d3b2fL, 0xe9b5dba58189dbbcL,
+				0x3956c25bf348b538L, 0x59f111f1b605d019L, 0x923f82a4af194f9bL, 0xab1c5ed5da6d8118L,
+				0xd807aa98a3030242L, 0x12835b0145706fbeL, 0x243185be4ee4b28cL, 0x550c7dc3d5ffb4e2L,
+				0x72be5d74f27b896fL, 0x80deb1fe3b1696b1L, 0x9bdc06a725c71235L, 0xc19bf174cf692694L,
+				0xe49b69c19ef14ad2L, 0xefbe4786384f25e3L, 0x0fc19dc68b8cd5b5L, 0x240ca1cc77ac9c65L,
+				0x2de92c6f592b0275L, 0x4a7484aa6ea6e483L, 0x5cb0a9dcbd41fbd4L, 0x76f988da831153b5L,
+				0x983e5152ee66dfabL, 0xa831c66d2db43210L, 0xb00327c898fb213fL, 0xbf597fc7beef0ee4L,
+				0xc6e00bf33da88fc2L, 0xd5a79147930aa725L, 0x06ca6351e003826fL, 0x142929670a0e6e70L,
+				0x27b70a8546d22ffcL, 0x2e1b21385c26c926L, 0x4d2c6dfc5ac42aedL, 0x53380d139d95b3dfL,
+				0x650a73548baf63deL, 0x766a0abb3c77b2a8L, 0x81c2c92e47edaee6L, 0x92722c851482353bL,
+				0xa2bfe8a14cf10364L, 0xa81a664bbc423001L, 0xc24b8b70d0f89791L, 0xc76c51a30654be30L,
+				0xd192e819d6ef5218L, 0xd69906245565a910L, 0xf40e35855771202aL, 0x106aa07032bbd1b8L,
+				0x19a4c116b8d2d0c8L, 0x1e376c085141ab53L, 0x2748774cdf8eeb99L, 0x34b0bcb5e19b48a8L,
+				0x391c0cb3c5c95a63L, 0x4ed8aa4ae3418acbL, 0x5b9cca4f7763e373L, 0x682e6ff3d6b2b8a3L,
+				0x748f82ee5defb2fcL, 0x78a5636f43172f60L, 0x84c87814a1f0ab72L, 0x8cc702081a6439ecL,
+				0x90befffa23631e28L, 0xa4506cebde82bde9L, 0xbef9a3f7b2c67915L, 0xc67178f2e372532bL,
+				0xca273eceea26619cL, 0xd186b8c721c0c207L, 0xeada7dd6cde0eb1eL, 0xf57d4f7fee6ed178L,
+				0x06f067aa72176fbaL, 0x0a637dc5a2c898a6L, 0x113f9804bef90daeL, 0x1b710b35131c471bL,
+				0x28db77f523047d84L, 0x32caab7b40c72493L, 0x3c9ebe0a15c9bebcL, 0x431d67c49c100d4cL,
+				0x4cc5d4becb3e42b6L, 0x597f299cfc657e2aL, 0x5fcb6fab3ad6faecL, 0x6c44198c4a475817L};
+		private static final long INNER_BITS = (128 + 8) * 8;
+		private static final long OUTER_BITS = (128 + 64) * 8;
+
+		private final long[] inner = new long[8];
+		private final long[] outer = new long[8];
+
+		Sha512(byte[] ipad, byte[] opad) {
+			long[] w = new long[80];
+			compress(IV, longWords(ipad, w), this.inner);
+			compress(IV, longWords(opad, w), this.outer);
+		}
+
+		@Override
+		void destroy() {
+			Arrays.fill(this.inner, 0);
+			Arrays.fill(this.outer, 0);
+		}
+
+		@Override
+		int hmac(long movingFactor, byte[] out, HmacScratch scratch) {
+			long[] w = scratch.w64;
+			long[] h = scratch.h64;
+			w[0] = movingFactor;
+			w[1] = 0x8000000000000000L;
+			for(int i = 2; i < 15; i++) {
+				w[i] = 0;
+			}
+			w[15] = INNER_BITS;
+			compress(this.inner, w, h);
+			for(int i = 0; i < 8; i++) {
+				w[i] = h[i];
+			}
+			w[8] = 0x8000000000000000L;
+			for(int i = 9; i < 15; i++) {
+				w[i] = 0;
+			}
+			w[15] = OUTER_BITS;
+			compress(this.outer, w, h);
+			longsToBytes(h, 8, out);
+			return 64;
+		}
+
+		static void compress(long[] state, long[] w, long[] out) {
+			for(int t = 16; t < 80; t++) {
+				long s0 = Long.rotateRight(w[t-15], 1) ^ Long.rotateRight(w[t-15], 8) ^ (w[t-15] >>> 7);
+				long s1 = Long.rotateRight(w[t-2], 19) ^ Long.rotateRight(w[t-2], 61) ^ (w[t-2] >>> 6);
+				w[t] = w[t-16] + s0 + w[t-7] + s1;
+			}
+			long a = state[0];
+			long b = state[1];
+			long c = state[2];
+			long d = state[3];
+			long e = state[4];
+			long f = state[5];
+			long g = state[6];
+			long h = state[7];
+			for(int t = 0; t < 80; t++) {
+				long s1 = Long.rotateRight(e, 14) ^ Long.rotateRight(e, 18) ^ Long.rotateRight(e, 41);
+				long t1 = h + s1 + ((e & f) ^ (~e & g)) + K[t] + w[t];
+				long s0 = Long.rotateRight(a, 28) ^ Long.rotateRight(a, 34) ^ Long.rotateRight(a, 39);
+				long t2 = s0 + ((a & b) ^ (a & c) ^ (b & c));
+				h = g;
+				g = f;
+				f = e;
+				e = d + t1;
+				d = c;
+				c = b;
+				b = a;
+				a = t1 + t2;
+			}
+			out[0] = state[0] + a;
+			out[1] = state[1] + b;
+			out[2] = state[2] + c;
+			out[3] = state[3] + d;
+			out[4] = state[4] + e;
+			out[5] = state[5] + f;
+			out[6] = state[6] + g;
+			out[7] = state[7] + h;
+		}
+	}
+
+}
@@ -0,0 +1,208 @@
+package j2fa.otp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of decrypted key state in front of a {@link SecretProvider}, typically an
+ * {@link EnvelopeSecretProvider}, so that hot accounts skip loading and decryption entirely.
+ *
+ * <p>At most {@code maxSize} keys are held, least recently used first out, and none longer
+ * than {@code ttl} milliseconds after it was loaded, which bounds how many secrets sit in
+ * memory in usable form and for how long. Keys leaving the cache are {@link HotpKey#destroy()
+ * destroyed}, but only once a grace period has passed, since a verification may still be using
+ * a key it got just before; retired keys are zeroed by later calls, by {@link #cleanUp()}, or
+ * at the latest by {@link #close()}. A key used after its destruction throws an
+ * {@link IllegalStateException}, so hold keys for one verification, not in long-lived objects.
+ *
+ * <p>Lookups take a lock for the bookkeeping only; loading happens outside of it, so a slow
+ * source does not hold up hits on other accounts.
+ */
+public final class CachingSecretProvider implements SecretProvider, Closeable {
+
+	private final SecretProvider delegate;
+	private final int maxSize;
+	private final long ttl;
+	private final long grace;
+	private final LinkedHashMap<String, Entry> entries;
+	private final ArrayDeque<Entry> retired = new ArrayDeque<Entry>();
+	private long hits;
+	private long misses;
+	
+	/**
+	 * Cache destroying keys one second after they leave it.
+	 * @param delegate Provider loading the keys.
+	 * @param maxSize Maximum number of keys held.
+	 * @param ttl Milliseconds a key is held after loading.
+	 */
+	public CachingSecretProvider(SecretProvider delegate, int maxSize, long ttl) {
+		this(delegate, maxSize, ttl, 1000L);
+	}
+	
+	/**
+	 * @param delegate Provider loading the keys.
+	 * @param maxSize Maximum number of keys held.
+	 * @param ttl Milliseconds a key is held after loading.
+	 * @param grace Milliseconds between a key leaving the cache and its destruction; longer
+	 * 		than any verification takes.
+	 */
+	public CachingSecretProvider(SecretProvider delegate, int maxSize, long ttl, long grace) {
+		if(delegate == null) {
+			throw new IllegalArgumentException("delegate");
+		}
+		if(maxSize <= 0 || ttl <= 0 || grace < 0) {
+			throw new IllegalArgumentException("maxSize and ttl must be positive, grace not negative.");
+		}
+		this.delegate = delegate;
+		this.maxSize = maxSize;
+		this.ttl = ttl;
+		this.grace = grace;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	}
+	
+	@Override
+	public HotpKey key(String account) throws IOException {
+		return key(account, System.currentTimeMillis());
+	}
+	
+	HotpKey key(String account, long now) throws IOException {
+		if(account == null) {
+			throw new IllegalArgumentException("account");
+		}
+		synchronized(this) {
+			reclaim(now);
+			Entry entry = this.entries.get(account);
+			if(entry != null) {
+				if(now - entry.loadedAt < this.ttl) {
+					this.hits++;
+					return entry.key;
+				}
+				this.entries.remove(account);
+				retire(entry, now);
+			}
+			this.misses++;
+		}
+		HotpKey key = this.delegate.key(account);
+		if(key == null) {
+			return null;
+		}
+		synchronized(this) {
+			Entry previous = this.entries.put(account, new Entry(key, now));
+			if(previous != null) {
+				// loaded concurrently by another thread, which may still be using it
+				retire(previous, now);
+			}
+			Iterator<Entry> eldest = this.entries.values().iterator();
+			while(this.entries.size() > this.maxSize) {
+				Entry e = eldest.next();
+				eldest.remove();
+				retire(e, now);
+			}
+			reclaim(now);
+		}
+		return key;
+	}
+	
+	/**
+	 * Drops an account's key, e.g. after its secret was replaced.
+	 * @param account Account key.
+	 */
+	public synchronized void invalidate(String account) {
+		Entry entry = this.entries.remove(account);
+		if(entry != null) {
+			retire(entry, System.currentTimeMillis());
+		}
+	}
+	
+	/**
+	 * Drops the expired keys and destroys the retired ones whose grace period is over,
+	 * e.g. from a scheduler when the cache sees no traffic.
+	 */
+	public void cleanUp() {
+		cleanUp(System.currentTimeMillis());
+	}
+	
+	synchronized void cleanUp(long now) {
+		Iterator<Entry> it = this.entries.values().iterator();
+		while(it.hasNext()) {
+			Entry entry = it.next();
+			if(now - entry.loadedAt >= this.ttl) {
+				it.remove();
+				retire(entry, now);
+			}
+		}
+		reclaim(now);
+	}
+	
+	private void retire(Entry entry, long now) {
+		entry.retiredAt = now;
+		this.retired.addLast(entry);
+	}
+	
+	private void reclaim(long now) {
+		// retired in time order, so the first one still in its grace period ends the sweep
+		while(!this.retired.isEmpty() && now - this.retired.peekFirst().retiredAt >= this.grace) {
+			this.retired.pollFirst().key.destroy();
+		}
+	}
+	
+	/**
+	 * @return The number of keys held.
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+	
+	/**
+	 * @return The number of keys that left the cache and are not destroyed yet.
+	 */
+	public synchronized int retiredCount() {
+		return this.retired.size();
+	}
+	
+	/**
+	 * @return The number of lookups answered from the cache.
+	 */
+	public synchronized long hitCount() {
+		return this.hits;
+	}
+	
+	/**
+	 * @return The number of lookups passed to the delegate.
+	 */
+	public synchronized long missCount() {
+		return this.misses;
+	}
+	
+	/**
+	 * Destroys all keys at once, including those in use, which then throw an
+	 * {@link IllegalStateException}; call when no verification is running.
+	 */
+	@Override
+	public synchronized void close() {
+		for(Map.Entry<String, Entry> e : this.entries.entrySet()) {
+			e.getValue().key.destroy();
+		}
+		this.entries.clear();
+		while(!this.retired.isEmpty()) {
+			this.retired.pollFirst().key.destroy();
+		}
+	}
+	
+	private static final class Entry {
+		
+		final HotpKey key;
+		final long loadedAt;
+		long retiredAt;
+		
+		Entry(HotpKey key, long loadedAt) {
+			this.key = key;
+			this.loadedAt = loadedAt;
+		}
+	}
+
+}
@@ -0,0 +1,27 @@
+package j2fa.otp;
+
+/**
+ * Persistence hook for HOTP counters, notified by {@link HotpCounter} whenever a counter 
+ * is handed out or moved forward.
+ * Implementations should not block the caller; see {@link FileCounterJournal} for a 
+ * write-behind journal.
+ */
+public interface CounterJournal {
+	
+	/**
+	 * Journal that keeps nothing, for counters held only in memory.
+	 */
+	CounterJournal NONE = new CounterJournal() {
+		@Override
+		public void record(String account, long counter) {
+			// in memory only
+		}
+	};
+	
+	/**
+	 * @param account Account the counter belongs to.
+	 * @param counter New counter value; values for an account only ever increase.
+	 */
+	void record(String account, long counter);
+
+}
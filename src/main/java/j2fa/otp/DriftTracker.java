@@ -0,0 +1,153 @@
+package j2fa.otp;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Learns, per account, how many time steps the user's authenticator runs ahead of or behind
+ * the server, so that TOTP verification can try the expected step first and need a single HMAC
+ * for most correct codes, see {@link OTPAuthentication#verify(String, long, int, int, DriftTracker)}.
+ *
+ * <p>The drift is an exponentially weighted moving average of the offsets of successful
+ * verifications, which decays towards zero as time passes without any, halving every
+ * {@code halfLife} time steps. Each account costs one {@link AtomicLong} packing the average,
+ * in 1/256 of a step, with the time step of its last update; updates are lock-free.
+ *
+ * <p>The learned drift never widens the verification window, it only orders the candidates
+ * within it. Accounts whose drift has decayed to nothing are removed by {@link #evictSettled(long)}.
+ * @see Section 6 of https://tools.ietf.org/html/rfc6238
+ */
+public final class DriftTracker {
+
+	private static final int SCALE = 256;
+	private static final long STEP_MASK = 0xFFFFFFFFL;
+	
+	private final ConcurrentHashMap<String, AtomicLong> entries = new ConcurrentHashMap<String, AtomicLong>();
+	private final double weight;
+	private final double halfLife;
+	
+	/**
+	 * Tracker giving each new offset a weight of 0.5, with a half-life of a day of 30-second steps.
+	 */
+	public DriftTracker() {
+		this(0.5, 2880);
+	}
+	
+	/**
+	 * @param weight Weight of each new offset in the average, between 0 (exclusive) and 1.
+	 * @param halfLife Number of time steps after which an unconfirmed drift is halved.
+	 */
+	public DriftTracker(double weight, long halfLife) {
+		if(!(weight > 0 && weight <= 1)) {
+			throw new IllegalArgumentException("weight");
+		}
+		if(halfLife <= 0) {
+			throw new IllegalArgumentException("halfLife");
+		}
+		this.weight = weight;
+		this.halfLife = halfLife;
+	}
+	
+	/**
+	 * @param account Account key, unique across issuers.
+	 * @param timeStep Current time step.
+	 * @return The learned drift in steps, rounded to the nearest one; 0 if unknown.
+	 */
+	public int offset(String account, long timeStep) {
+		return (int) Math.round(drift(account, timeStep));
+	}
+	
+	/**
+	 * @param account Account key, unique across issuers.
+	 * @param timeStep Current time step.
+	 * @return The learned drift in steps, decayed to the given time step; 0 if unknown.
+	 */
+	public double drift(String account, long timeStep) {
+		AtomicLong entry = this.entries.get(account);
+		if(entry == null) {
+			return 0;
+		}
+		return decayed(entry.get(), timeStep) / (double) SCALE;
+	}
+	
+	/**
+	 * Records the offset of a successful verification.
+	 * @param account Account key, unique across issuers.
+	 * @param timeStep Time step the verification was expected at, not the one that matched.
+	 * @param offset Steps between the expected and the matching time step.
+	 */
+	public void update(String account, long timeStep, int offset) {
+		if(account == null) {
+			throw new IllegalArgumentException("account");
+		}
+		AtomicLong entry = this.entries.get(account);
+		if(entry == null) {
+			long initial = pack(Math.round(offset * this.weight * SCALE), timeStep);
+			entry = this.entries.putIfAbsent(account, new AtomicLong(initial));
+			if(entry == null) {
+				return;
+			}
+		}
+		while(true) {
+			long packed = entry.get();
+			double previous = decayed(packed, timeStep);
+			long next = Math.round(previous + (offset * SCALE - previous) * this.weight);
+			if(entry.compareAndSet(packed, pack(next, timeStep))) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Forgets an account's drift, e.g. after its secret was replaced.
+	 * @param account Account key.
+	 */
+	public void forget(String account) {
+		this.entries.remove(account);
+	}
+	
+	/**
+	 * Removes the accounts whose drift has decayed below half a step, which verification
+	 * treats like no drift at all.
+	 * @param timeStep Current time step.
+	 * @return The number of accounts removed.
+	 */
+	public int evictSettled(long timeStep) {
+		int evicted = 0;
+		Iterator<Map.Entry<String, AtomicLong>> it = this.entries.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<String, AtomicLong> e = it.next();
+			long packed = e.getValue().get();
+			// an update racing with the removal only loses an insignificant drift
+			if(Math.abs(decayed(packed, timeStep)) < SCALE / 2 && this.entries.remove(e.getKey(), e.getValue())) {
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+	
+	/**
+	 * @return The number of accounts tracked.
+	 */
+	public int size() {
+		return this.entries.size();
+	}
+	
+	private static long pack(long drift, long timeStep) {
+		return ((long) (int) drift << 32) | (timeStep & STEP_MASK);
+	}
+	
+	private double decayed(long packed, long timeStep) {
+		int drift = (int) (packed >> 32);
+		// steps are kept modulo 2^32, which even 1-second periods only wrap in 2106
+		long elapsed = ((timeStep & STEP_MASK) - (packed & STEP_MASK)) & STEP_MASK;
+		if(drift == 0 || elapsed == 0 || elapsed > Integer.MAX_VALUE) {
+			// no time passed, or the clock went back
+			return drift;
+		}
+		return drift * Math.pow(0.5, elapsed / this.halfLife);
+	}
+
+}
@@ -0,0 +1,225 @@
+package j2fa.otp;
+
+import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import j2fa.utils.CryptoUtils;
+
+/**
+ * Secrets encrypted at rest with envelope encryption: each secret is encrypted with its own 
+ * random AES-256 data key, and the data key is encrypted with a master key supplied locally, 
+ * both with AES-GCM. Rotating the master key then only re-encrypts data keys, and the stored 
+ * blobs never contain anything usable without the master key.
+ * 
+ * <p>A blob is laid out as:
+ * <pre>
+ * version (1) | algorithm (1) | key IV (12) | encrypted data key (32 + 16 tag) | IV (12) | encrypted secret (n + 16 tag)
+ * </pre>
+ * The header is authenticated with both ciphertexts, and the account name with the secret, 
+ * so a blob copied to another account's row does not decrypt.
+ * 
+ * <p>Every {@link #key(String)} loads and decrypts; wrap this provider in a 
+ * {@link CachingSecretProvider} so that hot accounts skip both.
+ * @see https://csrc.nist.gov/publications/detail/sp/800-38d/final
+ */
+public final class EnvelopeSecretProvider implements SecretProvider {
+
+	/**
+	 * Storage of the encrypted secrets, e.g. a database column.
+	 */
+	public interface Source {
+		
+		/**
+		 * @param account Account whose secret to load.
+		 * @return The blob written by {@link EnvelopeSecretProvider#seal(String, byte[], HMACAlgorithmEnum)}, 
+		 * 		or null if the account is unknown.
+		 * @throws IOException if the storage fails.
+		 */
+		byte[] load(String account) throws IOException;
+	}
+	
+	private static final byte VERSION = 1;
+	private static final int HEADER = 2;
+	private static final int IV_LENGTH = 12;
+	private static final int TAG_LENGTH = 16;
+	private static final int DATA_KEY_LENGTH = 32;
+	private static final int SECRET_OFFSET = HEADER + IV_LENGTH + DATA_KEY_LENGTH + TAG_LENGTH + IV_LENGTH;
+	
+	/**
+	 * AES data key backed by the caller's array rather than a copy, as {@link SecretKeySpec} makes, 
+	 * so that zeroing the array, or {@link #destroy()}, wipes the key too.
+	 */
+	private static final class DataKey implements SecretKey {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final byte[] key;
+		private volatile boolean destroyed;
+		
+		DataKey(byte[] key) {
+			this.key = key;
+		}
+		
+		@Override
+		public String getAlgorithm() {
+			return "AES";
+		}
+		
+		@Override
+		public String getFormat() {
+			return "RAW";
+		}
+		
+		@Override
+		public byte[] getEncoded() {
+			if(this.destroyed) {
+				throw new IllegalStateException("The key was destroyed.");
+			}
+			return this.key.clone();
+		}
+		
+		@Override
+		public void destroy() {
+			this.destroyed = true;
+			Arrays.fill(this.key, (byte)0);
+		}
+		
+		@Override
+		public boolean isDestroyed() {
+			return this.destroyed;
+		}
+	}
+	
+	private final SecretKeySpec masterKey;
+	private final Source source;
+	private final HMACImplementationEnum implementation;
+	
+	/**
+	 * @param masterKey AES key of 16, 24 or 32 bytes; copied, so the caller may zero it.
+	 * @param source Storage of the encrypted secrets.
+	 */
+	public EnvelopeSecretProvider(byte[] masterKey, Source source) {
+		this(masterKey, source, HMACImplementationEnum.JCE);
+	}
+	
+	/**
+	 * @param masterKey AES key of 16, 24 or 32 bytes; copied, so the caller may zero it.
+	 * @param source Storage of the encrypted secrets.
+	 * @param implementation HMAC implementation of the keys: JCE (default), BUILTIN or AUTO.
+	 */
+	public EnvelopeSecretProvider(byte[] masterKey, Source source, HMACImplementationEnum implementation) {
+		if(masterKey == null || (masterKey.length != 16 && masterKey.length != 24 && masterKey.length != 32)) {
+			throw new IllegalArgumentException("masterKey must be 16, 24 or 32 bytes.");
+		}
+		if(source == null) {
+			throw new IllegalArgumentException("source");
+		}
+		this.masterKey = new SecretKeySpec(masterKey, "AES");
+		this.source = source;
+		this.implementation = implementation == null ? HMACImplementationEnum.JCE : implementation;
+	}
+	
+	/**
+	 * Encrypts a secret for storage.
+	 * @param account Account the secret belongs to; the blob only decrypts for it.
+	 * @param secret Secret key.
+	 * @param algo OTP hash algorithm: SHA1 (default), SHA256, or SHA512.
+	 * @return The blob to store.
+	 */
+	public byte[] seal(String account, byte[] secret, HMACAlgorithmEnum algo) {
+		if(account == null) {
+			throw new IllegalArgumentException("account");
+		}
+		if(secret == null || secret.length == 0) {
+			throw new IllegalArgumentException("secret");
+		}
+		if(algo == null) {
+			algo = HMACAlgorithmEnum.SHA1;
+		}
+		byte[] blob = new byte[SECRET_OFFSET + secret.length + TAG_LENGTH];
+		blob[0] = VERSION;
+		blob[1] = (byte) algo.ordinal();
+		DataKey dataKey = new DataKey(CryptoUtils.randomSeed(DATA_KEY_LENGTH));
+		try {
+			int off = HEADER;
+			byte[] iv = CryptoUtils.randomSeed(IV_LENGTH);
+			System.arraycopy(iv, 0, blob, off, IV_LENGTH);
+			off += IV_LENGTH;
+			Cipher cipher = cipher(Cipher.ENCRYPT_MODE, this.masterKey, iv);
+			cipher.updateAAD(blob, 0, HEADER);
+			off += cipher.doFinal(dataKey.key, 0, DATA_KEY_LENGTH, blob, off);
+			
+			iv = CryptoUtils.randomSeed(IV_LENGTH);
+			System.arraycopy(iv, 0, blob, off, IV_LENGTH);
+			off += IV_LENGTH;
+			cipher = cipher(Cipher.ENCRYPT_MODE, dataKey, iv);
+			cipher.updateAAD(blob, 0, HEADER);
+			cipher.updateAAD(account.getBytes(StandardCharsets.UTF_8));
+			cipher.doFinal(secret, 0, secret.length, blob, off);
+			return blob;
+		} catch (GeneralSecurityException gse) {
+			throw new UndeclaredThrowableException(gse);
+		} finally {
+			dataKey.destroy();
+		}
+	}
+	
+	/**
+	 * Loads and decrypts an account's secret, and zeroes the plaintext and the data key once the 
+	 * key state is built. Copies the cipher provider takes internally are beyond its reach.
+	 * @throws IOException if the blob is malformed, was tampered with, belongs to another account 
+	 * 		or was sealed under another master key, or if the source fails.
+	 */
+	@Override
+	public HotpKey key(String account) throws IOException {
+		byte[] blob = this.source.load(account);
+		if(blob == null) {
+			return null;
+		}
+		if(blob.length <= SECRET_OFFSET + TAG_LENGTH || blob[0] != VERSION 
+				|| blob[1] < 0 || blob[1] >= HMACAlgorithmEnum.values().length) {
+			throw new IOException("Malformed secret for account " + account);
+		}
+		HMACAlgorithmEnum algo = HMACAlgorithmEnum.values()[blob[1]];
+		DataKey dataKey = null;
+		byte[] secret = null;
+		try {
+			Cipher cipher = cipher(Cipher.DECRYPT_MODE, this.masterKey, 
+					Arrays.copyOfRange(blob, HEADER, HEADER + IV_LENGTH));
+			cipher.updateAAD(blob, 0, HEADER);
+			dataKey = new DataKey(cipher.doFinal(blob, HEADER + IV_LENGTH, DATA_KEY_LENGTH + TAG_LENGTH));
+			
+			int ivOffset = SECRET_OFFSET - IV_LENGTH;
+			cipher = cipher(Cipher.DECRYPT_MODE, dataKey, 
+					Arrays.copyOfRange(blob, ivOffset, SECRET_OFFSET));
+			cipher.updateAAD(blob, 0, HEADER);
+			cipher.updateAAD(account.getBytes(StandardCharsets.UTF_8));
+			secret = cipher.doFinal(blob, SECRET_OFFSET, blob.length - SECRET_OFFSET);
+			return new HotpKey(secret, algo, this.implementation);
+		} catch (GeneralSecurityException gse) {
+			throw new IOException("Cannot decrypt secret for account " + account, gse);
+		} finally {
+			if(dataKey != null) {
+				dataKey.destroy();
+			}
+			if(secret != null) {
+				Arrays.fill(secret, (byte)0);
+			}
+		}
+	}
+	
+	private static Cipher cipher(int mode, SecretKey key, byte[] iv) throws GeneralSecurityException {
+		Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+		cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+		return cipher;
+	}
+
+}
@@ -0,0 +1,283 @@
+package j2fa.otp;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+
+/**
+ * Write-behind {@link CounterJournal} appending counters to a local file with group commit.
+ *
+ * <p>{@link #record(String, long)} only merges the value into a map of pending counters, keeping
+ * the highest per account. A background thread drains the map every flush interval, or sooner
+ * once a batch fills up, and appends the whole batch with a single write and a single
+ * {@code fsync}, so issuing codes at high rates costs one disk sync per batch, not per code.
+ *
+ * <p>Counters issued in the last interval before a crash may not be on disk. On restart, skip
+ * ahead of the recovered values by at least the number of codes an account can be issued per
+ * interval, so that no counter is ever handed out twice.
+ *
+ * <p>The file holds one {@code counter<TAB>account} line per flushed update, and is compacted
+ * to the latest value per account when opened. Account names cannot contain tabs or line breaks.
+ */
+public final class FileCounterJournal implements CounterJournal, Closeable {
+
+	private static final BiFunction<Long, Long, Long> MAX = new BiFunction<Long, Long, Long>() {
+		@Override
+		public Long apply(Long a, Long b) {
+			return a >= b ? a : b;
+		}
+	};
+	
+	private final File file;
+	private final FileChannel channel;
+	private final long flushInterval;
+	private final int batchSize;
+	private final ConcurrentHashMap<String, Long> pending = new ConcurrentHashMap<String, Long>();
+	private final Object flushLock = new Object();
+	// shared by records, exclusive to close, so no record lands after the final flush
+	private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+	private final Object signal = new Object();
+	private final Thread writer;
+	private volatile boolean closed;
+	private volatile IOException failure;
+	
+	/**
+	 * Journal flushing every 10 milliseconds or every 1024 accounts.
+	 * @param file Journal file; created if missing.
+	 * @throws IOException if the file cannot be read, compacted or opened.
+	 */
+	public FileCounterJournal(File file) throws IOException {
+		this(file, 10L, 1024);
+	}
+	
+	/**
+	 * @param file Journal file; created if missing.
+	 * @param flushInterval Maximum milliseconds a counter waits before being written.
+	 * @param batchSize Number of pending accounts that triggers an early flush.
+	 * @throws IOException if the file cannot be read, compacted or opened.
+	 */
+	public FileCounterJournal(File file, long flushInterval, int batchSize) throws IOException {
+		if(flushInterval <= 0 || batchSize <= 0) {
+			throw new IllegalArgumentException("flushInterval and batchSize must be positive.");
+		}
+		this.file = file;
+		this.flushInterval = flushInterval;
+		this.batchSize = batchSize;
+		compact(file);
+		this.channel = new FileOutputStream(file, true).getChannel();
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeBehind();
+			}
+		}, "j2fa-counter-journal");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+	
+	/**
+	 * Reads the latest counter of every account in a journal file.
+	 * @param file Journal file.
+	 * @return Counters by account; empty if the file does not exist.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public static Map<String, Long> recover(File file) throws IOException {
+		Map<String, Long> counters = new HashMap<String, Long>();
+		if(!file.exists()) {
+			return counters;
+		}
+		BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				if(tab <= 0) {
+					// torn write at the end of the file
+					continue;
+				}
+				long counter;
+				try {
+					counter = Long.parseLong(line.substring(0, tab));
+				} catch (NumberFormatException nfe) {
+					continue;
+				}
+				String account = line.substring(tab + 1);
+				Long previous = counters.get(account);
+				if(previous == null || previous < counter) {
+					counters.put(account, counter);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return counters;
+	}
+	
+	private static void compact(File file) throws IOException {
+		if(!file.exists()) {
+			return;
+		}
+		Map<String, Long> counters = recover(file);
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+			for(Map.Entry<String, Long> e : counters.entrySet()) {
+				writer.write(e.getValue() + "\t" + e.getKey() + "\n");
+			}
+			writer.flush();
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if(!tmp.renameTo(file)) {
+			throw new IOException("Could not replace " + file + " with its compacted copy.");
+		}
+	}
+	
+	@Override
+	public void record(String account, long counter) {
+		if(account == null || account.indexOf('\n') >= 0 || account.indexOf('\r') >= 0 
+				|| account.indexOf('\t') >= 0) {
+			// would split or misparse the line
+			throw new IllegalArgumentException("account");
+		}
+		this.closeLock.readLock().lock();
+		try {
+			if(this.closed) {
+				throw new IllegalStateException("Journal closed: " + this.file);
+			}
+			this.pending.merge(account, counter, MAX);
+		} finally {
+			this.closeLock.readLock().unlock();
+		}
+		if(this.pending.size() >= this.batchSize) {
+			synchronized(this.signal) {
+				this.signal.notify();
+			}
+		}
+	}
+	
+	/**
+	 * Writes and syncs all pending counters now.
+	 * @throws IOException if writing fails, or if a background flush failed since the last call.
+	 */
+	public void flush() throws IOException {
+		IOException previous = this.failure;
+		if(previous != null) {
+			this.failure = null;
+			throw previous;
+		}
+		writePending();
+	}
+	
+	private void writePending() throws IOException {
+		synchronized(this.flushLock) {
+			if(this.pending.isEmpty()) {
+				return;
+			}
+			Map<String, Long> batch = new HashMap<String, Long>();
+			StringBuilder lines = new StringBuilder();
+			Iterator<Map.Entry<String, Long>> it = this.pending.entrySet().iterator();
+			while(it.hasNext()) {
+				Map.Entry<String, Long> e = it.next();
+				String account = e.getKey();
+				Long counter = e.getValue();
+				if(this.pending.remove(account, counter)) {
+					batch.put(account, counter);
+					lines.append(counter).append('\t').append(account).append('\n');
+				}
+			}
+			try {
+				ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+				while(buffer.hasRemaining()) {
+					this.channel.write(buffer);
+				}
+				this.channel.force(false);
+			} catch (IOException e) {
+				// keep the batch for the next attempt
+				for(Map.Entry<String, Long> entry : batch.entrySet()) {
+					this.pending.merge(entry.getKey(), entry.getValue(), MAX);
+				}
+				throw e;
+			}
+		}
+	}
+	
+	private void writeBehind() {
+		while(!this.closed) {
+			synchronized(this.signal) {
+				if(this.pending.size() < this.batchSize) {
+					try {
+						this.signal.wait(this.flushInterval);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}
+			try {
+				writePending();
+			} catch (IOException e) {
+				this.failure = e;
+			}
+		}
+	}
+	
+	/**
+	 * Stops the background writer, flushes the pending counters and closes the file.
+	 * @throws IOException if the final flush fails, or else if a background flush failed since 
+	 * 		the last {@link #flush()}.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.closeLock.writeLock().lock();
+		try {
+			this.closed = true;
+		} finally {
+			this.closeLock.writeLock().unlock();
+		}
+		synchronized(this.signal) {
+			this.signal.notify();
+		}
+		try {
+			this.writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		IOException previous = this.failure;
+		this.failure = null;
+		try {
+			// the counters still pending are written whatever failed before
+			writePending();
+		} catch (IOException e) {
+			if(previous != null) {
+				e.addSuppressed(previous);
+			}
+			throw e;
+		} finally {
+			this.channel.close();
+		}
+		if(previous != null) {
+			throw previous;
+		}
+	}
+
+}
@@ -1,18 +1,45 @@
 package j2fa.otp;
 
 public enum HMACAlgorithmEnum {
-	SHA1("HmacSHA1"),
-	SHA256("HmacSHA256"),
-	SHA512("HmacSHA512");
+	SHA1("HmacSHA1", "SHA-1", 64, 20),
+	SHA256("HmacSHA256", "SHA-256", 64, 32),
+	SHA512("HmacSHA512", "SHA-512", 128, 64);
 	
 	private final String desc;
+	private final String digest;
+	private final int blockSize;
+	private final int macLength;
 	
-	HMACAlgorithmEnum(String desc){
+	HMACAlgorithmEnum(String desc, String digest, int blockSize, int macLength){
 		this.desc = desc;
+		this.digest = digest;
+		this.blockSize = blockSize;
+		this.macLength = macLength;
 	}
 	
 	public String desc() {
 		return this.desc;
 	}
+	
+	/**
+	 * @return JCE name of the underlying message digest, e.g. SHA-1.
+	 */
+	public String digest() {
+		return this.digest;
+	}
+	
+	/**
+	 * @return Block size of the underlying hash function in bytes (the HMAC pad length).
+	 */
+	public int blockSize() {
+		return this.blockSize;
+	}
+	
+	/**
+	 * @return Length of the HMAC output in bytes.
+	 */
+	public int macLength() {
+		return this.macLength;
+	}
 
 }
@@ -0,0 +1,23 @@
+package j2fa.otp;
+
+/**
+ * HMAC implementations available to {@link HotpKey}.
+ */
+public enum HMACImplementationEnum {
+	/**
+	 * Message digests of the installed JCE providers.
+	 */
+	JCE,
+	/**
+	 * Built-in pure-Java SHA-1/SHA-2 specialized for 8-byte moving factors; other messages 
+	 * still go through the JCE. It neither clones nor allocates, which pays off where HotSpot 
+	 * runs the JCE digests without SHA intrinsics, e.g. with {@code -XX:-UseSHA} or on CPUs 
+	 * lacking the instructions. Elsewhere the JCE digests are faster: see {@link #AUTO}.
+	 */
+	BUILTIN,
+	/**
+	 * {@link #BUILTIN} where it pays off on this JVM, that is where the algorithm has no SHA 
+	 * intrinsic, and {@link #JCE} elsewhere, see {@link HotpKey#implementation()}.
+	 */
+	AUTO;
+}
\ No newline at end of file
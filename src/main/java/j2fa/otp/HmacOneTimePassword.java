@@ -1,5 +1,12 @@
 package j2fa.otp;
 
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.CharBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import j2fa.metrics.OtpMetrics;
 import j2fa.utils.ByteUtils;
 import j2fa.utils.CryptoUtils;
 
@@ -22,6 +29,11 @@ public class HmacOneTimePassword {
 	private static final int[] DOUBLE_DIGITS = 
 		{ 0, 2, 4, 6, 8, 1, 3, 5, 7, 9 };
 	
+	/**
+	 * Returned by {@link #match(HotpKey, int, int, long, int, int)} when no moving factor matched.
+	 */
+	public static final int NO_MATCH = Integer.MIN_VALUE;
+	
 	private HmacOneTimePassword() {}
 
 	/**
@@ -35,11 +47,14 @@ public class HmacOneTimePassword {
 	 * @return: a numeric String in base 10 that includes {@link DIGITS_POWER} digits
 	 */
 	public static String generate(byte[] key, byte[] movingFactor, int returnDigits, HMACAlgorithmEnum algo){
+		OtpMetrics.Timer timer = OtpMetrics.startTimer();
 		byte[] hash = CryptoUtils.hmacSha(algo.desc(), key, movingFactor);
 		// put selected bytes into result int
 		int offset = offset(hash);
 		int otp = otp(hash, offset, returnDigits);
-		return formatResult(otp, returnDigits);
+		String code = formatResult(otp, returnDigits);
+		timer.generated(algo);
+		return code;
 	}
 
 	/**
@@ -56,6 +71,267 @@ public class HmacOneTimePassword {
 		return generate(key, ByteUtils.longToBytes(movingFactor), returnDigits, algo);
 	}
 	
+	/**
+	 * This method generates a OTP value for the given set of parameters, reusing the 
+	 * precomputed HMAC key state.
+	 *
+	 * @param key: the shared secret and crypto function, see {@link HotpKey}
+	 * @param movingFactor: the counter, time, or other value that changes on a per use basis.
+	 * @param returnDigits: number of digits to return
+	 *
+	 * @return: a numeric String in base 10 that includes {@link DIGITS_POWER} digits
+	 */
+	public static String generate(HotpKey key, long movingFactor, int returnDigits){
+		OtpMetrics.Timer timer = OtpMetrics.startTimer();
+		byte[] hash = key.hmac(movingFactor);
+		int offset = offset(hash);
+		int otp = otp(hash, offset, returnDigits);
+		String code = formatResult(otp, returnDigits);
+		timer.generated(key.algo());
+		return code;
+	}
+	
+	/**
+	 * This method generates a OTP value for the given set of parameters without allocating 
+	 * a message, hash or String, using a hash buffer confined to the calling thread.
+	 *
+	 * @param key: the shared secret and crypto function, see {@link HotpKey}
+	 * @param movingFactor: the counter, time, or other value that changes on a per use basis.
+	 * @param returnDigits: number of digits to return
+	 *
+	 * @return: the truncated code, to be rendered with {@link #format(int, int, char[], int)}
+	 */
+	public static int generateInt(HotpKey key, long movingFactor, int returnDigits){
+		return generateInt(key, movingFactor, returnDigits, HmacScratch.get().hash);
+	}
+	
+	/**
+	 * This method generates a OTP value for the given set of parameters without allocating 
+	 * a message, hash or String.
+	 *
+	 * @param key: the shared secret and crypto function, see {@link HotpKey}
+	 * @param movingFactor: the counter, time, or other value that changes on a per use basis.
+	 * @param returnDigits: number of digits to return
+	 * @param hash: scratch buffer for the HMAC, at least {@link HMACAlgorithmEnum#macLength()} long
+	 *
+	 * @return: the truncated code, to be rendered with {@link #format(int, int, char[], int)}
+	 */
+	public static int generateInt(HotpKey key, long movingFactor, int returnDigits, byte[] hash){
+		OtpMetrics metrics = OtpMetrics.get();
+		if(!metrics.enabled()) {
+			return code(key, movingFactor, returnDigits, hash);
+		}
+		long start = System.nanoTime();
+		int otp = code(key, movingFactor, returnDigits, hash);
+		metrics.generated(key.algo(), System.nanoTime() - start);
+		return otp;
+	}
+	
+	/**
+	 * This method generates the OTP values of many shared secrets for one moving factor, 
+	 * e.g. to precompute the next time step's codes of every account.
+	 * No key state is built: each secret is padded in place and hashed by one digest 
+	 * confined to the calling thread, so the cost is the four compression passes of the HMAC, 
+	 * run by the JVM's SHA intrinsics where the CPU has them. The codes equal those of 
+	 * {@link #generateInt(HotpKey, long, int)}. Batches are not reported to {@link OtpMetrics}.
+	 *
+	 * @param secrets: the shared secrets
+	 * @param movingFactor: the counter, time, or other value that changes on a per use basis.
+	 * @param returnDigits: number of digits to return
+	 * @param algo: the crypto function to use
+	 * @param codes: receives the code of each secret, at the same index, to be rendered with 
+	 * {@link #format(int, int, char[], int)}
+	 */
+	public static void generateBatch(byte[][] secrets, long movingFactor, int returnDigits, 
+			HMACAlgorithmEnum algo, int[] codes){
+		if(codes.length < secrets.length) {
+			throw new IllegalArgumentException("codes");
+		}
+		for(byte[] secret : secrets) {
+			if(secret == null || secret.length == 0) {
+				throw new IllegalArgumentException("secret");
+			}
+		}
+		HmacScratch scratch = HmacScratch.get();
+		MessageDigest md = scratch.digest(algo);
+		byte[] hash = scratch.hash;
+		byte[] message = scratch.message;
+		ByteUtils.longToBytes(movingFactor, message, 0);
+		byte[] pad = scratch.block;
+		try {
+			for(int i = 0; i < secrets.length; i++) {
+				codes[i] = truncate(hash, hmac(md, algo, secrets[i], message, pad, hash), returnDigits);
+			}
+		} finally {
+			Arrays.fill(pad, 0, algo.blockSize(), (byte)0);
+		}
+	}
+	
+	/**
+	 * This method generates the OTP values of one shared secret for many moving factors, 
+	 * e.g. a look-ahead window or a day of time steps. The key state is built once and every 
+	 * code resumes from the digests that absorbed its pads, for two compression passes per code.
+	 * The codes equal those of {@link #generateInt(HotpKey, long, int)}. 
+	 * Batches are not reported to {@link OtpMetrics}.
+	 *
+	 * @param secret: the shared secret
+	 * @param movingFactors: the counters, times, or other values that change on a per use basis.
+	 * @param returnDigits: number of digits to return
+	 * @param algo: the crypto function to use
+	 * @param codes: receives the code of each moving factor, at the same index
+	 */
+	public static void generateBatch(byte[] secret, long[] movingFactors, int returnDigits, 
+			HMACAlgorithmEnum algo, int[] codes){
+		if(codes.length < movingFactors.length) {
+			throw new IllegalArgumentException("codes");
+		}
+		HotpKey key = new HotpKey(secret, algo);
+		byte[] hash = HmacScratch.get().hash;
+		try {
+			for(int i = 0; i < movingFactors.length; i++) {
+				codes[i] = code(key, movingFactors[i], returnDigits, hash);
+			}
+		} finally {
+			key.destroy();
+		}
+	}
+	
+	/**
+	 * HMAC of the message without key state, see RFC 2104.
+	 * @param pad: scratch buffer for the pad block, at least {@link HMACAlgorithmEnum#blockSize()} long
+	 */
+	private static int hmac(MessageDigest md, HMACAlgorithmEnum algo, byte[] secret, byte[] message, 
+			byte[] pad, byte[] out) {
+		int macLength = algo.macLength();
+		int blockSize = algo.blockSize();
+		md.reset();
+		byte[] key = secret.length > blockSize ? md.digest(secret) : secret;
+		try {
+			for(int i = 0; i < blockSize; i++) {
+				pad[i] = (byte)((i < key.length ? key[i] : 0) ^ HotpKey.IPAD);
+			}
+			md.update(pad, 0, blockSize);
+			md.update(message);
+			md.digest(out, 0, macLength);
+			for(int i = 0; i < blockSize; i++) {
+				pad[i] ^= HotpKey.IPAD ^ HotpKey.OPAD;
+			}
+			md.update(pad, 0, blockSize);
+			md.update(out, 0, macLength);
+			return md.digest(out, 0, macLength);
+		} catch (DigestException de) {
+			throw new UndeclaredThrowableException(de);
+		} finally {
+			if(key != secret) {
+				Arrays.fill(key, (byte)0);
+			}
+		}
+	}
+	
+	// untimed, for verification, which is timed as a whole; throws IllegalStateException, 
+	// through HotpKey.hmac, once the key is destroyed
+	static int code(HotpKey key, long movingFactor, int returnDigits, byte[] hash) {
+		return truncate(hash, key.hmac(movingFactor, hash), returnDigits);
+	}
+	
+	/**
+	 * Dynamic truncation of an HMAC already computed into a buffer.
+	 */
+	static int truncate(byte[] hash, int length, int digits) {
+		return otp(hash, offset(hash, length), digits);
+	}
+	
+	/**
+	 * Searches a window of moving factors around the given one for the given code.
+	 * Candidates are tried nearest first (0, -1, +1, -2, +2, ...) and the search stops at the 
+	 * first match; each comparison is constant time, so the running time depends only on 
+	 * which offset matched and never on how close a wrong code was.
+	 *
+	 * @param key: the shared secret and crypto function, see {@link HotpKey}
+	 * @param returnDigits: number of digits in the code
+	 * @param code: the code to look for, as parsed by {@link #parse(CharSequence, int)}
+	 * @param movingFactor: the expected counter or time step
+	 * @param lookBehind: how many moving factors before the expected one are accepted
+	 * @param lookAhead: how many moving factors after the expected one are accepted
+	 *
+	 * @return: the offset from the expected moving factor that matched, or {@link #NO_MATCH}
+	 */
+	public static int match(HotpKey key, int returnDigits, int code, long movingFactor, 
+			int lookBehind, int lookAhead){
+		return match(key, returnDigits, code, movingFactor, lookBehind, lookAhead, 0);
+	}
+	
+	/**
+	 * Searches a window of moving factors like {@link #match(HotpKey, int, int, long, int, int)}, 
+	 * but tries candidates nearest to the given offset first, e.g. the drift learned by a 
+	 * {@link DriftTracker}. The window itself is unchanged, so the centre only changes how many 
+	 * HMACs a correct code costs, not which codes are accepted.
+	 *
+	 * @param key: the shared secret and crypto function, see {@link HotpKey}
+	 * @param returnDigits: number of digits in the code
+	 * @param code: the code to look for, as parsed by {@link #parse(CharSequence, int)}
+	 * @param movingFactor: the expected counter or time step
+	 * @param lookBehind: how many moving factors before the expected one are accepted
+	 * @param lookAhead: how many moving factors after the expected one are accepted
+	 * @param centre: offset tried first, clamped to the window
+	 *
+	 * @return: the offset from the expected moving factor that matched, or {@link #NO_MATCH}
+	 */
+	public static int match(HotpKey key, int returnDigits, int code, long movingFactor, 
+			int lookBehind, int lookAhead, int centre){
+		if(lookBehind < 0 || lookAhead < 0) {
+			throw new IllegalArgumentException("Negative window.");
+		}
+		if(code < 0) {
+			return NO_MATCH;
+		}
+		centre = Math.max(-lookBehind, Math.min(lookAhead, centre));
+		byte[] hash = HmacScratch.get().hash;
+		int widest = Math.max(centre + lookBehind, lookAhead - centre);
+		for(int distance = 0; distance <= widest; distance++) {
+			int behind = centre - distance;
+			if(behind >= -lookBehind 
+					&& equal(code, code(key, movingFactor + behind, returnDigits, hash))) {
+				return behind;
+			}
+			int ahead = centre + distance;
+			if(distance > 0 && ahead <= lookAhead 
+					&& equal(code, code(key, movingFactor + ahead, returnDigits, hash))) {
+				return ahead;
+			}
+		}
+		return NO_MATCH;
+	}
+	
+	/**
+	 * Parses user input into a code comparable with {@link #generateInt(HotpKey, long, int)}.
+	 * @param code the code typed by the user
+	 * @param digits expected number of digits
+	 * @return The code, or -1 if the input is not exactly {@code digits} decimal digits.
+	 */
+	public static int parse(CharSequence code, int digits) {
+		if(code == null || code.length() != digits || digits >= DIGITS_POWER.length) {
+			return -1;
+		}
+		int result = 0;
+		for(int i = 0; i < digits; i++) {
+			int digit = code.charAt(i) - '0';
+			if(digit < 0 || digit > 9) {
+				return -1;
+			}
+			result = result * 10 + digit;
+		}
+		return result;
+	}
+	
+	/**
+	 * Compares two codes without branching on their value.
+	 */
+	static boolean equal(int a, int b) {
+		int diff = a ^ b;
+		return ((diff | -diff) >>> 31) == 0;
+	}
+	
 	/**
 	 * This method generates a OTP value for the given set of parameters.
 	 *
@@ -133,7 +409,11 @@ public class HmacOneTimePassword {
 	}
 
 	private static int offset(byte[] hash) {
-		return hash[hash.length - 1] & 0xf;
+		return offset(hash, hash.length);
+	}
+	
+	private static int offset(byte[] hash, int length) {
+		return hash[length - 1] & 0xf;
 	}
 	
 	private static int otp(byte[] hash, int offset, int digits) {
@@ -156,6 +436,39 @@ public class HmacOneTimePassword {
 		return zeros.toString() + result;
 	}
 
+	/**
+	 * Renders a code as zero-padded decimal digits into a caller-supplied buffer.
+	 * @param otp the code, as returned by {@link #generateInt(HotpKey, long, int)}
+	 * @param digits number of digits to write
+	 * @param dst destination buffer
+	 * @param off offset of the first digit in the destination buffer
+	 * @return The number of chars written, which is always {@code digits}.
+	 */
+	public static int format(int otp, int digits, char[] dst, int off) {
+		for(int i = off + digits - 1; i >= off; i--) {
+			dst[i] = (char)('0' + otp % 10);
+			otp /= 10;
+		}
+		return digits;
+	}
+	
+	/**
+	 * Renders a code as zero-padded decimal digits at the buffer's position, advancing it.
+	 * @param otp the code, as returned by {@link #generateInt(HotpKey, long, int)}
+	 * @param digits number of digits to write
+	 * @param dst destination buffer
+	 * @return The number of chars written, which is always {@code digits}.
+	 */
+	public static int format(int otp, int digits, CharBuffer dst) {
+		int position = dst.position();
+		for(int i = position + digits - 1; i >= position; i--) {
+			dst.put(i, (char)('0' + otp % 10));
+			otp /= 10;
+		}
+		dst.position(position + digits);
+		return digits;
+	}
+
 	/**
 	 * Calculates the checksum using the credit card algorithm. This algorithm has the advantage 
 	 * that it detects any single mistyped digit and any single transposition of adjacent digits.
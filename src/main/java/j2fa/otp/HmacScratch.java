@@ -0,0 +1,45 @@
+package j2fa.otp;
+
+import java.security.MessageDigest;
+
+/**
+ * Working digests and buffers confined to one thread, shared by all keys, 
+ * for the HMAC paths writing into caller buffers.
+ */
+final class HmacScratch {
+	
+	private static final ThreadLocal<HmacScratch> SCRATCH = new ThreadLocal<HmacScratch>() {
+		@Override
+		protected HmacScratch initialValue() {
+			return new HmacScratch();
+		}
+	};
+	
+	private final MessageDigest[] digests = new MessageDigest[HMACAlgorithmEnum.values().length];
+	final byte[] message = new byte[Long.BYTES];
+	// Largest HMAC output among the supported algorithms (SHA-512).
+	final byte[] hash = new byte[64];
+	// HMAC pad block of the largest block size among the supported algorithms (SHA-512)
+	final byte[] block = new byte[128];
+	// message schedules and chaining values of the builtin HMAC
+	final int[] w32 = new int[80];
+	final int[] h32 = new int[8];
+	final long[] w64 = new long[80];
+	final long[] h64 = new long[8];
+	
+	private HmacScratch() {}
+	
+	static HmacScratch get() {
+		return SCRATCH.get();
+	}
+	
+	MessageDigest digest(HMACAlgorithmEnum algo) {
+		MessageDigest md = this.digests[algo.ordinal()];
+		if(md == null) {
+			md = HotpKey.newDigest(algo);
+			this.digests[algo.ordinal()] = md;
+		}
+		return md;
+	}
+
+}
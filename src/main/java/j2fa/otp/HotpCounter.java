@@ -0,0 +1,96 @@
+package j2fa.otp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe HOTP counter. Every call to {@link #next()} hands out a distinct value even under 
+ * contention, so two concurrent requests never get the same code, and each new value is 
+ * passed to the account's {@link CounterJournal}.
+ */
+public final class HotpCounter {
+	
+	private final String account;
+	private final AtomicLong value;
+	private final CounterJournal journal;
+	
+	/**
+	 * Counter kept only in memory.
+	 * @param initial Initial HOTP counter value.
+	 */
+	public HotpCounter(long initial) {
+		this(null, initial, CounterJournal.NONE);
+	}
+	
+	/**
+	 * @param account Account passed to the journal.
+	 * @param initial Initial HOTP counter value, usually recovered from the journal.
+	 * @param journal Persistence hook notified of every new value.
+	 */
+	public HotpCounter(String account, long initial, CounterJournal journal) {
+		if(initial < 0) {
+			throw new IllegalArgumentException("counter");
+		}
+		if(journal == null) {
+			throw new IllegalArgumentException("journal");
+		}
+		if(account == null && journal != CounterJournal.NONE) {
+			throw new IllegalArgumentException("account");
+		}
+		this.account = account;
+		this.value = new AtomicLong(initial);
+		this.journal = journal;
+	}
+	
+	/**
+	 * @return The last counter value handed out, or the initial value.
+	 */
+	public long current() {
+		return this.value.get();
+	}
+	
+	/**
+	 * Atomically advances the counter.
+	 * @return The new counter value, never returned to any other caller.
+	 * @throws RuntimeException thrown by the journal, e.g. once closed; the counter is not advanced.
+	 */
+	public long next() {
+		long next = this.value.incrementAndGet();
+		try {
+			this.journal.record(this.account, next);
+		} catch (RuntimeException e) {
+			// e.g. the journal was closed: the value was never handed out, so it is taken back 
+			// unless a later one was handed out meanwhile
+			this.value.compareAndSet(next, next - 1);
+			throw e;
+		}
+		return next;
+	}
+	
+	/**
+	 * Moves the counter forward, e.g. after resynchronization. Never moves it back.
+	 * @param counter New counter value.
+	 * @return Whether the counter moved.
+	 */
+	public boolean advanceTo(long counter) {
+		long current = this.value.get();
+		while(counter > current) {
+			if(this.value.compareAndSet(current, counter)) {
+				try {
+					this.journal.record(this.account, counter);
+				} catch (RuntimeException e) {
+					this.value.compareAndSet(counter, current);
+					throw e;
+				}
+				return true;
+			}
+			current = this.value.get();
+		}
+		return false;
+	}
+	
+	@Override
+	public String toString() {
+		return Long.toString(current());
+	}
+
+}
@@ -0,0 +1,270 @@
+package j2fa.otp;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import j2fa.utils.ByteUtils;
+import j2fa.utils.CryptoUtils;
+
+/**
+ * HMAC key state for a single shared secret and algorithm, built once and reused for every 
+ * moving factor.
+ * 
+ * <p>The key is padded and XORed with the HMAC ipad/opad constants up front, and the resulting 
+ * blocks are absorbed into two prototype digests. Each code then clones those prototypes and 
+ * runs only the two compression passes over the moving factor and the inner hash, 
+ * skipping the {@code Mac.getInstance} provider lookup, key spec and {@code init} done by 
+ * {@link CryptoUtils#hmacSha(String, byte[], byte[])}.
+ * 
+ * <p>The buffer-based {@link #hmac(long, byte[])} resumes from the same clones, but encodes the 
+ * moving factor into a buffer confined to the calling thread and has both digests write into 
+ * the caller's array, so the clones are all it allocates. Only where the provider cannot clone 
+ * are the pad blocks replayed into the thread's own digest, at the cost of two more compressions.
+ * 
+ * <p>With {@link HMACImplementationEnum#BUILTIN}, or AUTO on JVMs without SHA intrinsics, 
+ * 8-byte moving factors are instead hashed by pure-Java compression functions starting from 
+ * the chaining state after each pad block, which is both allocation-free and limited to the 
+ * two compression passes.
+ * 
+ * <p>Instances are immutable after construction, until {@link #destroy()}, and safe for 
+ * concurrent use.
+ * @see https://tools.ietf.org/html/rfc2104
+ */
+public final class HotpKey {
+	
+	static final byte IPAD = 0x36;
+	static final byte OPAD = 0x5c;
+	
+	private final HMACAlgorithmEnum algo;
+	private final byte[] ipad;
+	private final byte[] opad;
+	private final MessageDigest inner;
+	private final MessageDigest outer;
+	private final BuiltinHmac builtin;
+	private volatile boolean destroyed;
+	
+	/**
+	 * @param secret Secret key.
+	 * @param algo OTP hash algorithm: SHA1 (default), SHA256, or SHA512.
+	 */
+	public HotpKey(byte[] secret, HMACAlgorithmEnum algo) {
+		this(secret, algo, HMACImplementationEnum.JCE);
+	}
+	
+	/**
+	 * @param secret Secret key.
+	 * @param algo OTP hash algorithm: SHA1 (default), SHA256, or SHA512.
+	 * @param implementation HMAC implementation: JCE (default), BUILTIN, or AUTO for BUILTIN only 
+	 * 		where it is faster, see {@link HMACImplementationEnum#AUTO}.
+	 */
+	public HotpKey(byte[] secret, HMACAlgorithmEnum algo, HMACImplementationEnum implementation) {
+		this(secret, algo, implementation == HMACImplementationEnum.BUILTIN 
+				|| (implementation == HMACImplementationEnum.AUTO 
+						&& BuiltinHmac.paysOff(algo == null ? HMACAlgorithmEnum.SHA1 : algo)));
+	}
+	
+	/**
+	 * @param builtin Whether to use the builtin HMAC.
+	 */
+	HotpKey(byte[] secret, HMACAlgorithmEnum algo, boolean builtin) {
+		if(secret == null || secret.length == 0) {
+			throw new IllegalArgumentException("secret");
+		}
+		if(algo == null) {
+			algo = HMACAlgorithmEnum.SHA1;
+		}
+		this.algo = algo;
+		
+		byte[] key = secret;
+		if(key.length > algo.blockSize()) {
+			key = newDigest(algo).digest(key);
+		}
+		this.ipad = new byte[algo.blockSize()];
+		this.opad = new byte[algo.blockSize()];
+		for(int i = 0; i < key.length; i++) {
+			this.ipad[i] = key[i];
+			this.opad[i] = key[i];
+		}
+		for(int i = 0; i < this.ipad.length; i++) {
+			this.ipad[i] ^= IPAD;
+			this.opad[i] ^= OPAD;
+		}
+		if(key != secret) {
+			Arrays.fill(key, (byte)0);
+		}
+		
+		this.inner = prototype(algo, this.ipad);
+		this.outer = prototype(algo, this.opad);
+		if(builtin) {
+			this.builtin = BuiltinHmac.create(algo, this.ipad, this.opad);
+		}
+		else {
+			this.builtin = null;
+		}
+	}
+	
+	static MessageDigest newDigest(HMACAlgorithmEnum algo) {
+		try {
+			return MessageDigest.getInstance(algo.digest());
+		} catch (GeneralSecurityException gse) {
+			throw new UndeclaredThrowableException(gse);
+		}
+	}
+	
+	private static MessageDigest prototype(HMACAlgorithmEnum algo, byte[] pad) {
+		MessageDigest md = newDigest(algo);
+		md.update(pad);
+		try {
+			md.clone();
+		} catch (CloneNotSupportedException cnse) {
+			// the provider cannot snapshot digest state; fall back to replaying the pads
+			return null;
+		}
+		return md;
+	}
+	
+	public HMACAlgorithmEnum algo() {
+		return this.algo;
+	}
+	
+	/**
+	 * @return The implementation in use, BUILTIN or JCE: AUTO resolves to the one paying off.
+	 */
+	public HMACImplementationEnum implementation() {
+		return this.builtin == null ? HMACImplementationEnum.JCE : HMACImplementationEnum.BUILTIN;
+	}
+	
+	/**
+	 * Zeroes the key material: the pads, the digests that absorbed them and the builtin chaining 
+	 * states. Every HMAC requested afterwards, or finishing afterwards, throws an 
+	 * {@link IllegalStateException}, so a verification still using the key fails rather than 
+	 * checking codes computed from the zeroed state, which anyone could compute.
+	 */
+	public void destroy() {
+		this.destroyed = true;
+		Arrays.fill(this.ipad, (byte)0);
+		Arrays.fill(this.opad, (byte)0);
+		if(this.inner != null) {
+			this.inner.reset();
+		}
+		if(this.outer != null) {
+			this.outer.reset();
+		}
+		if(this.builtin != null) {
+			this.builtin.destroy();
+		}
+	}
+	
+	/**
+	 * @return Whether {@link #destroy()} was called.
+	 */
+	public boolean isDestroyed() {
+		return this.destroyed;
+	}
+	
+	private void checkNotDestroyed() {
+		if(this.destroyed) {
+			throw new IllegalStateException("The key was destroyed.");
+		}
+	}
+	
+	/**
+	 * @param message the message or text to be authenticated
+	 * @return HMAC of the message under this key.
+	 */
+	public byte[] hmac(byte[] message) {
+		if(this.builtin != null && message.length == Long.BYTES) {
+			long movingFactor = 0;
+			for(int i = 0; i < Long.BYTES; i++) {
+				movingFactor = (movingFactor << 8) | (message[i] & 0xff);
+			}
+			return hmac(movingFactor);
+		}
+		byte[] out = new byte[this.algo.macLength()];
+		hmac(message, 0, message.length, out, HmacScratch.get());
+		return out;
+	}
+	
+	/**
+	 * @param movingFactor the counter, time, or other value that changes on a per use basis.
+	 * @return HMAC of the 8-byte big-endian moving factor under this key.
+	 */
+	public byte[] hmac(long movingFactor) {
+		if(this.builtin != null) {
+			byte[] out = new byte[this.algo.macLength()];
+			builtin(movingFactor, out, HmacScratch.get());
+			return out;
+		}
+		return hmac(ByteUtils.longToBytes(movingFactor));
+	}
+	
+	/**
+	 * Variant of {@link #hmac(long)} writing into the caller's buffer.
+	 * @param movingFactor the counter, time, or other value that changes on a per use basis.
+	 * @param out buffer receiving the HMAC, at least {@link HMACAlgorithmEnum#macLength()} long.
+	 * @return The number of bytes written to the buffer.
+	 */
+	public int hmac(long movingFactor, byte[] out) {
+		HmacScratch scratch = HmacScratch.get();
+		if(this.builtin != null) {
+			return builtin(movingFactor, out, scratch);
+		}
+		ByteUtils.longToBytes(movingFactor, scratch.message, 0);
+		return hmac(scratch.message, 0, Long.BYTES, out, scratch);
+	}
+	
+	/**
+	 * HMAC of part of a buffer, written into the caller's array with the thread's digest, 
+	 * for messages other than 8-byte moving factors, e.g. OCRA data inputs.
+	 * @return The number of bytes written.
+	 */
+	int hmac(byte[] message, int off, int len, byte[] out) {
+		return hmac(message, off, len, out, HmacScratch.get());
+	}
+	
+	private int builtin(long movingFactor, byte[] out, HmacScratch scratch) {
+		checkNotDestroyed();
+		int length = this.builtin.hmac(movingFactor, out, scratch);
+		// destroyed meanwhile: the state read may have been zeroed already
+		checkNotDestroyed();
+		return length;
+	}
+	
+	private int hmac(byte[] message, int off, int len, byte[] out, HmacScratch scratch) {
+		checkNotDestroyed();
+		int length = digest(message, off, len, out, scratch);
+		// destroyed meanwhile: the state read may have been zeroed already
+		checkNotDestroyed();
+		return length;
+	}
+	
+	private int digest(byte[] message, int off, int len, byte[] out, HmacScratch scratch) {
+		int macLength = this.algo.macLength();
+		try {
+			if(this.inner != null && this.outer != null) {
+				// resume from the state after the pad blocks
+				MessageDigest in = (MessageDigest) this.inner.clone();
+				in.update(message, off, len);
+				in.digest(out, 0, macLength);
+				MessageDigest o = (MessageDigest) this.outer.clone();
+				o.update(out, 0, macLength);
+				return o.digest(out, 0, macLength);
+			}
+			MessageDigest md = scratch.digest(this.algo);
+			md.reset();
+			md.update(this.ipad);
+			md.update(message, off, len);
+			md.digest(out, 0, macLength);
+			md.update(this.opad);
+			md.update(out, 0, macLength);
+			return md.digest(out, 0, macLength);
+		} catch (CloneNotSupportedException cnse) {
+			throw new UndeclaredThrowableException(cnse);
+		} catch (GeneralSecurityException gse) {
+			throw new UndeclaredThrowableException(gse);
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+package j2fa.otp;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HOTP look-ahead resynchronization: scans a window of counters after the last known one 
+ * for the code(s) presented by a token that has drifted.
+ * 
+ * <p>Small windows are scanned on the calling thread. Larger ones are split across a 
+ * {@link ForkJoinPool}; every worker generates int codes like 
+ * {@link HmacOneTimePassword#generateInt(HotpKey, long, int)}, so each one reuses its own 
+ * thread-confined hash buffer, and all of them share the precomputed {@link HotpKey}.
+ * Workers stop as soon as a lower counter has matched elsewhere.
+ * 
+ * <p>Requiring two consecutive codes, as recommended by the RFC for large windows, 
+ * makes an accidental match practically impossible.
+ * @see Section 7.4 of https://tools.ietf.org/html/rfc4226
+ */
+public final class HotpResynchronizer {
+	
+	/**
+	 * Returned when no counter in the window matched.
+	 */
+	public static final long NOT_FOUND = -1L;
+	
+	// Counters scanned by a single task before splitting pays off.
+	private static final int THRESHOLD = 256;
+	
+	private final ForkJoinPool pool;
+	
+	/**
+	 * Resynchronizer running on the common pool.
+	 */
+	public HotpResynchronizer() {
+		this(ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * @param pool Pool used to scan large windows.
+	 */
+	public HotpResynchronizer(ForkJoinPool pool) {
+		if(pool == null) {
+			throw new IllegalArgumentException("pool");
+		}
+		this.pool = pool;
+	}
+	
+	/**
+	 * @param key Key of the token.
+	 * @param digits Number of digits in the codes.
+	 * @param code Code shown by the token.
+	 * @param startCounter First counter to try, usually the one after the last accepted.
+	 * @param window Number of counters to try.
+	 * @return The lowest counter in the window that produces the code, or {@link #NOT_FOUND}.
+	 */
+	public long resync(HotpKey key, int digits, String code, long startCounter, int window) {
+		return resync(key, digits, HmacOneTimePassword.parse(code, digits), -1, startCounter, window);
+	}
+	
+	/**
+	 * @param key Key of the token.
+	 * @param digits Number of digits in the codes.
+	 * @param code Code shown by the token.
+	 * @param nextCode Code shown by the token right after {@code code}.
+	 * @param startCounter First counter to try, usually the one after the last accepted.
+	 * @param window Number of counters to try.
+	 * @return The lowest counter in the window that produces {@code code} and is followed by 
+	 * 		one producing {@code nextCode}, or {@link #NOT_FOUND}.
+	 */
+	public long resync(HotpKey key, int digits, String code, String nextCode, long startCounter, int window) {
+		int next = HmacOneTimePassword.parse(nextCode, digits);
+		if(next < 0) {
+			return NOT_FOUND;
+		}
+		return resync(key, digits, HmacOneTimePassword.parse(code, digits), next, startCounter, window);
+	}
+	
+	private long resync(HotpKey key, int digits, int code, int next, long startCounter, int window) {
+		if(key == null) {
+			throw new IllegalArgumentException("key");
+		}
+		if(startCounter < 0 || window < 0) {
+			throw new IllegalArgumentException("Negative counter or window.");
+		}
+		if(code < 0) {
+			return NOT_FOUND;
+		}
+		// the window ends at the last counter rather than wrapping around
+		long end = startCounter > Long.MAX_VALUE - window ? Long.MAX_VALUE : startCounter + window;
+		Scan scan = new Scan(key, digits, code, next, startCounter, end);
+		if(window <= THRESHOLD) {
+			scan.compute();
+		}
+		else {
+			this.pool.invoke(scan);
+		}
+		long found = scan.found.get();
+		return found == Long.MAX_VALUE ? NOT_FOUND : found;
+	}
+	
+	private static final class Scan extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final HotpKey key;
+		private final int digits;
+		private final int code;
+		private final int next;
+		private final long from;
+		private final long to;
+		private final AtomicLong found;
+		
+		Scan(HotpKey key, int digits, int code, int next, long from, long to) {
+			this(key, digits, code, next, from, to, new AtomicLong(Long.MAX_VALUE));
+		}
+		
+		private Scan(HotpKey key, int digits, int code, int next, long from, long to, AtomicLong found) {
+			this.key = key;
+			this.digits = digits;
+			this.code = code;
+			this.next = next;
+			this.from = from;
+			this.to = to;
+			this.found = found;
+		}
+		
+		@Override
+		protected void compute() {
+			if(this.to - this.from > THRESHOLD) {
+				long middle = this.from + (this.to - this.from) / 2;
+				invokeAll(new Scan(this.key, this.digits, this.code, this.next, this.from, middle, this.found),
+						new Scan(this.key, this.digits, this.code, this.next, middle, this.to, this.found));
+				return;
+			}
+			// candidates are not reported to OtpMetrics as generated codes
+			byte[] hash = HmacScratch.get().hash;
+			for(long counter = this.from; counter < this.to && counter < this.found.get(); counter++) {
+				if(HmacOneTimePassword.equal(HmacOneTimePassword.code(this.key, counter, this.digits, hash), this.code)
+						&& (this.next < 0 || HmacOneTimePassword.equal(
+								HmacOneTimePassword.code(this.key, counter + 1, this.digits, hash), this.next))) {
+					record(counter);
+					return;
+				}
+			}
+		}
+		
+		private void record(long counter) {
+			long current = this.found.get();
+			while(counter < current && !this.found.compareAndSet(current, counter)) {
+				current = this.found.get();
+			}
+		}
+	}
+
+}
@@ -1,12 +1,9 @@
 package j2fa.otp;
 
 import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.commons.codec.binary.Base32;
-
 /**
  * 
  * @author Steven Monteiro
@@ -14,15 +11,10 @@ import org.apache.commons.codec.binary.Base32;
  */
 public class OTPAuthentication {
 	
-	private String type;
-	private String issuer;
-	private String account;
-	private byte[] secret; 
-	private String secretBase32; 
-	private HMACAlgorithmEnum algo;
-	private Integer digits;
-	private Integer period;
-	private Long counter; 
+	private static final HotpResynchronizer RESYNCHRONIZER = new HotpResynchronizer();
+	
+	private final OtpSpec spec;
+	private final HotpCounter counter; // null for TOTP
 	
 	/**
 	 * Constructor for TOTP.
@@ -50,53 +42,108 @@ public class OTPAuthentication {
 	 */
 	public OTPAuthentication(byte[] secret, String issuer, String account,  
 			HMACAlgorithmEnum algo, Integer digits, Long counter) {
+		this(secret, issuer, account, algo, digits, null, counter == null ? null : new HotpCounter(counter));
+	}
+	
+	/**
+	 * Constructor for HOTP with a shared, possibly persistent, counter.
+	 * @param secret Secret key.
+	 * @param issuer Issuer of the code and account.
+	 * @param account User account. Typically the user's e-mail address.
+	 * @param algo OTP hash algorithm: SHA1 (default), SHA256, or SHA512.  
+	 * @param digits Number of digits in the code. Recommended: 6 or 8.
+	 * @param counter HOTP counter, e.g. recovered from a {@link FileCounterJournal}.
+	 */
+	public OTPAuthentication(byte[] secret, String issuer, String account,  
+			HMACAlgorithmEnum algo, Integer digits, HotpCounter counter) {
 		this(secret, issuer, account, algo, digits, null, counter);
 	}
 	
-	private OTPAuthentication(byte[] secret, String issuer, String account,  
-			HMACAlgorithmEnum algo, Integer digits, Integer period, Long counter) {
-		if(secret == null || secret.length == 0) {
-			throw new IllegalArgumentException("secret");
-		}
-		this.secret = secret;
-		this.secretBase32 = new Base32().encodeAsString(secret);
-		this.algo = algo;
-		if(algo == null) {
-			this.algo = HMACAlgorithmEnum.SHA1;
+	/**
+	 * Constructor for TOTP from ready HMAC key state, e.g. from a {@link SecretProvider}, 
+	 * without the secret itself: the instance generates and verifies codes but cannot write 
+	 * provisioning URIs.
+	 * @param key HMAC key state, which also determines the algorithm.
+	 * @param issuer Issuer of the code and account.
+	 * @param account User account. Typically the user's e-mail address.
+	 * @param digits Number of digits in the code. Recommended: 6 or 8.
+	 * @param period TOTP code validity period in seconds. Recommended: 30 seconds. 
+	 */
+	public OTPAuthentication(HotpKey key, String issuer, String account, Integer digits, Integer period) {
+		this(null, key, issuer, account, key == null ? null : key.algo(), digits, period, null);
+	}
+	
+	/**
+	 * Constructor for HOTP from ready HMAC key state, see 
+	 * {@link #OTPAuthentication(HotpKey, String, String, Integer, Integer)}.
+	 * @param key HMAC key state, which also determines the algorithm.
+	 * @param issuer Issuer of the code and account.
+	 * @param account User account. Typically the user's e-mail address.
+	 * @param digits Number of digits in the code. Recommended: 6 or 8.
+	 * @param counter HOTP counter.
+	 */
+	public OTPAuthentication(HotpKey key, String issuer, String account, Integer digits, HotpCounter counter) {
+		this(null, key, issuer, account, key == null ? null : key.algo(), digits, null, counter);
+	}
+	
+	/**
+	 * Constructor for TOTP from a spec, e.g. one shared with a {@link TotpVerifier}.
+	 * @param spec TOTP key material and parameters.
+	 */
+	public OTPAuthentication(OtpSpec spec) {
+		this(spec, null);
+	}
+	
+	/**
+	 * Constructor for HOTP from a spec and the counter holding its mutable state.
+	 * @param spec HOTP key material and parameters, or TOTP ones with a null counter.
+	 * @param counter HOTP counter; null for TOTP.
+	 */
+	public OTPAuthentication(OtpSpec spec, HotpCounter counter) {
+		if(spec == null) {
+			throw new IllegalArgumentException("spec");
 		}
-		this.digits = digits;
-		if(digits == null) {
-			this.digits = 6;
+		if(spec.isTotp() == (counter != null)) {
+			throw new IllegalArgumentException("A counter must be given for HOTP, and only for HOTP.");
 		}
-		
+		this.spec = spec;
+		this.counter = counter;
+	}
+	
+	private OTPAuthentication(byte[] secret, String issuer, String account,  
+			HMACAlgorithmEnum algo, Integer digits, Integer period, HotpCounter counter) {
+		this(secret, null, issuer, account, algo, digits, period, counter);
+	}
+	
+	private OTPAuthentication(byte[] secret, HotpKey key, String issuer, String account,  
+			HMACAlgorithmEnum algo, Integer digits, Integer period, HotpCounter counter) {
 		if(period != null && counter != null) {
 			throw new IllegalArgumentException("Either period or counter must be null (HOTP vs. TOTP).");
 		}
 		if(period == null && counter == null) {
 			throw new IllegalArgumentException("Either period or counter must not be null (HOTP vs. TOTP).");
 		}
-		this.period = period;
+		this.spec = key == null ? new OtpSpec(secret, issuer, account, algo, digits, period) 
+				: new OtpSpec(key, issuer, account, digits, period);
 		this.counter = counter;
-		if(this.period == null) {
-			this.type = "hotp";
-		}
-		else {
-			this.type = "totp";
-		}
-		
-		checkStringParam(issuer);
-		this.issuer = issuer;
-		checkStringParam(account);
-		this.account = account;
 	}
 	
-	private void checkStringParam(String param) {
-		if(param == null) {
-			return;
-		}
-		if(param.contains(":")) {
-			throw new IllegalArgumentException("Character not allowed in text parameter: \":\"");
-		}
+	/**
+	 * @return The immutable key material and parameters, safe to share and cache.
+	 */
+	public OtpSpec spec() {
+		return this.spec;
+	}
+	
+	/**
+	 * @param lookBehind Number of earlier time steps accepted, to account for network latency.
+	 * @param lookAhead Number of later time steps accepted, to account for clock drift.
+	 * @param registry Time steps already accepted; null to accept replays.
+	 * @param drift Drift learned from earlier verifications; null to centre on the current step.
+	 * @return An immutable verifier for this TOTP account.
+	 */
+	public TotpVerifier totpVerifier(int lookBehind, int lookAhead, UsedCodeRegistry registry, DriftTracker drift) {
+		return new TotpVerifier(this.spec, lookBehind, lookAhead, registry, drift);
 	}
 	
 	/**
@@ -106,43 +153,42 @@ public class OTPAuthentication {
 	 * @see https://github.com/google/google-authenticator/wiki/Key-Uri-Format
 	 */
 	public String setupPath() throws UnsupportedEncodingException {
+		return setupPath(this.spec.issuer(), this.spec.account());
+	}
+	
+	/**
+	 * Same as {@link #setupPath()} under another label. This instance is not modified.
+	 * @param issuer Issuer of the code and account.
+	 * @param account User account. Typically the user's e-mail address.
+	 * @return OTPAuth path for setting up the client. Usually presented as a QR code.
+	 * @throws UnsupportedEncodingException 
+	 */
+	public String setupPath(String issuer, String account) throws UnsupportedEncodingException {
+		OtpSpec.checkStringParam(issuer);
+		OtpSpec.checkStringParam(account);
 		List<String> errors = new ArrayList<String>();
-		if(this.issuer == null || this.issuer.isEmpty()) {
-			errors.add(this.issuer);
+		if(issuer == null || issuer.isEmpty()) {
+			errors.add(issuer);
 		}
-		if(this.account == null || this.account.isEmpty()) {
-			errors.add(this.account);
+		if(account == null || account.isEmpty()) {
+			errors.add(account);
 		}
 		if(!errors.isEmpty()) {
 			throw new IllegalStateException("Data missing: " + errors);
 		}
-		String utf8 = "UTF-8";
-		String path = "otpauth://" + this.type + "/" 
-				+ URLEncoder.encode(this.issuer, utf8) + ":" 
-				+ URLEncoder.encode(this.account, utf8) 
-				+ "?secret=" + this.secretBase32 + "&issuer=" 
-				+ URLEncoder.encode(this.issuer, utf8);
-		if(this.algo != null) {//default: SHA1
-			path += "&algorithm=" + this.algo.desc();
-		}
-		if(this.digits != null) {//default: 6
-			path += "&digits=" + this.digits;
-		}
-		if(this.period != null) {//default: 30
-			path += "&period=" + this.period;
-		}
-		if(this.counter != null) {
-			path += "&counter=" + this.counter;
-		}
-	    return path;
+		return uri(issuer, account).toString();
 	}
 	
-	public String setupPath(String issuer, String account) throws UnsupportedEncodingException {
-		checkStringParam(issuer);
-		this.issuer = issuer;
-		checkStringParam(account);
-		this.account = account;
-		return setupPath();
+	/**
+	 * @return The key in the Key URI Format, e.g. to write many of them into one buffer with 
+	 * {@link OtpAuthUri#appendTo(StringBuilder)}.
+	 */
+	public OtpAuthUri uri() {
+		return uri(this.spec.issuer(), this.spec.account());
+	}
+	
+	private OtpAuthUri uri(String issuer, String account) {
+		return this.spec.uri(issuer, account, this.counter == null ? null : Long.valueOf(this.counter.current()));
 	}
 	
 	/**
@@ -154,26 +200,54 @@ public class OTPAuthentication {
 			return password(System.currentTimeMillis());
 		}
 		else {
-			this.counter++;
-			return password(this.counter);
+			return code(this.counter.next());
 		}
 	}
 
+	/**
+	 * Same as {@link #password()} for TOTP, served from a cache of codes that hot accounts share 
+	 * across calls, as long as they use the same instance or {@link #spec()}.
+	 * @param cache Codes by account and time step.
+	 * @return The TOTP code for the current Unix time.
+	 */
+	public String password(TotpCodeCache cache) {
+		return cache.password(this.spec, System.currentTimeMillis());
+	}
+
+	/**
+	 * Resynchronizes the HOTP counter with a token that has drifted ahead, by looking for the 
+	 * two consecutive codes it shows within the given number of counters after the current one.
+	 * On success the counter is moved past the second code, so the next {@link #password()} 
+	 * matches the token's next code.
+	 * @param code Code shown by the token.
+	 * @param nextCode Code shown by the token right after {@code code}.
+	 * @param window Number of counters to search.
+	 * @return Whether the counter was resynchronized.
+	 * @see Section 7.4 of https://tools.ietf.org/html/rfc4226
+	 */
+	public boolean resync(String code, String nextCode, int window) {
+		if(this.counter == null) {
+			throw new IllegalStateException("This is an instance of TOTP, not HOTP.");
+		}
+		long found = RESYNCHRONIZER.resync(this.spec.key(), this.spec.digits(), code, nextCode, 
+				this.counter.current() + 1, window);
+		if(found == HotpResynchronizer.NOT_FOUND) {
+			return false;
+		}
+		return this.counter.advanceTo(found + 1);
+	}
+
 	/**
 	 * 
 	 * @param unixTime
 	 * @return The TOTP code for the given Unix time.
 	 */
 	public String password(long unixTime) {
-		if(this.period == null) {
-			throw new IllegalStateException("This is an instance of HOTP, not TOTP.");
-		}
-		long time = (unixTime/1000L)/this.period;
-		int digits = 6;
-		if(this.digits != null) {
-			digits = this.digits;
-		}
-		return HmacOneTimePassword.generate(this.secret, time, digits, HMACAlgorithmEnum.SHA1);
+		return code(this.spec.timeStep(unixTime));
+	}
+	
+	private String code(long movingFactor) {
+		return this.spec.code(movingFactor);
 	}
 
 	/**
@@ -187,9 +261,74 @@ public class OTPAuthentication {
 	 * @see Sections 5.2 and 6 of https://tools.ietf.org/html/rfc6238
 	 */
 	public String password(long unixTime, double step) {
-		if(this.period == null) {
+		if(!this.spec.isTotp()) {
 			throw new IllegalStateException("This is an instance of HOTP, not TOTP.");
 		}
-		return password(unixTime + (int)(step * this.period));
+		return password(unixTime + (long)(step * this.spec.period() * 1000L));
+	}
+	
+	/**
+	 * Verifies a TOTP code against the time step of the given Unix time and its neighbours.
+	 * All candidates share this instance's precomputed key state, are tried nearest first, 
+	 * and are compared in constant time.
+	 * @param code Code entered by the user.
+	 * @param unixTime Unix time in milliseconds.
+	 * @param lookBehind Number of earlier time steps accepted, to account for network latency.
+	 * @param lookAhead Number of later time steps accepted, to account for clock drift.
+	 * @return The outcome, with the step offset that matched so the caller can record drift.
+	 * @see Sections 5.2 and 6 of https://tools.ietf.org/html/rfc6238
+	 */
+	public VerificationResult verify(String code, long unixTime, int lookBehind, int lookAhead) {
+		return TotpVerifier.verify(this.spec, code, unixTime, lookBehind, lookAhead, null, null);
+	}
+	
+	/**
+	 * Verifies a TOTP code like {@link #verify(String, long, int, int)}, trying the time step
+	 * this account's authenticator is known to drift to first, so that a correct code usually
+	 * costs a single HMAC; the rest of the window is searched only if that one misses.
+	 * Successful verifications update the tracker.
+	 * @param code Code entered by the user.
+	 * @param unixTime Unix time in milliseconds.
+	 * @param lookBehind Number of earlier time steps accepted, to account for network latency.
+	 * @param lookAhead Number of later time steps accepted, to account for clock drift.
+	 * @param drift Drift learned from earlier verifications of this issuer and account.
+	 * @return The outcome, with the step offset that matched.
+	 */
+	public VerificationResult verify(String code, long unixTime, int lookBehind, int lookAhead, 
+			DriftTracker drift) {
+		return verify(code, unixTime, lookBehind, lookAhead, null, drift);
+	}
+	
+	/**
+	 * Verifies a TOTP code with replay protection and drift tracking, see 
+	 * {@link #verify(String, long, int, int, UsedCodeRegistry)} and 
+	 * {@link #verify(String, long, int, int, DriftTracker)}. Replays do not update the tracker.
+	 * @param code Code entered by the user.
+	 * @param unixTime Unix time in milliseconds.
+	 * @param lookBehind Number of earlier time steps accepted, to account for network latency.
+	 * @param lookAhead Number of later time steps accepted, to account for clock drift.
+	 * @param registry Time steps already accepted; null to accept replays.
+	 * @param drift Drift learned from earlier verifications; null to centre on the current step.
+	 * @return The outcome, {@link VerificationResult#REPLAYED} if the code was already used.
+	 */
+	public VerificationResult verify(String code, long unixTime, int lookBehind, int lookAhead, 
+			UsedCodeRegistry registry, DriftTracker drift) {
+		return TotpVerifier.verify(this.spec, code, unixTime, lookBehind, lookAhead, registry, drift);
+	}
+	
+	/**
+	 * Verifies a TOTP code like {@link #verify(String, long, int, int)}, and rejects it as a replay 
+	 * if the registry already accepted its time step or a later one for this issuer and account.
+	 * @param code Code entered by the user.
+	 * @param unixTime Unix time in milliseconds.
+	 * @param lookBehind Number of earlier time steps accepted, to account for network latency.
+	 * @param lookAhead Number of later time steps accepted, to account for clock drift.
+	 * @param registry Time steps already accepted, shared by all verifiers of the account.
+	 * @return The outcome, {@link VerificationResult#REPLAYED} if the code was already used.
+	 * @see Section 5.2 of https://tools.ietf.org/html/rfc6238
+	 */
+	public VerificationResult verify(String code, long unixTime, int lookBehind, int lookAhead, 
+			UsedCodeRegistry registry) {
+		return TotpVerifier.verify(this.spec, code, unixTime, lookBehind, lookAhead, registry, null);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,246 @@
+package j2fa.otp;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import j2fa.metrics.OtpMetrics;
+import j2fa.utils.ByteUtils;
+
+/**
+ * Data input of an {@link OcraSuite}, encoded in place into a buffer laid out by the suite, and
+ * the computation of its response.
+ *
+ * <p>Each setter overwrites its field of the buffer and nothing else, so one instance serves any
+ * number of requests in turn: set what changes, e.g. the challenge, and compute. Values not set
+ * again are kept. Instances are not thread-safe; use one per thread, or per request.
+ * @see Section 5 of https://tools.ietf.org/html/rfc6287
+ */
+public final class OcraMessage {
+
+	private static final int MAX_LONG_DIGITS = 18;
+	
+	private final OcraSuite suite;
+	private final byte[] buffer;
+	
+	OcraMessage(OcraSuite suite, byte[] buffer) {
+		this.suite = suite;
+		this.buffer = buffer;
+	}
+	
+	public OcraSuite suite() {
+		return this.suite;
+	}
+	
+	/**
+	 * @param counter Counter, synchronized between client and server.
+	 * @return This message.
+	 */
+	public OcraMessage counter(long counter) {
+		if(!this.suite.hasCounter()) {
+			throw new IllegalStateException("The suite has no counter: " + this.suite);
+		}
+		ByteUtils.longToBytes(counter, this.buffer, this.suite.counterOffset);
+		return this;
+	}
+	
+	/**
+	 * Encodes a challenge in the suite's format: the ASCII bytes of alphanumeric ones, the
+	 * value of numeric ones in hexadecimal, and hexadecimal ones as they are, left-aligned.
+	 * @param question Challenge, e.g. a transaction's amount and beneficiary.
+	 * @return This message.
+	 */
+	public OcraMessage question(CharSequence question) {
+		if(question == null || question.length() == 0) {
+			throw new IllegalArgumentException("question");
+		}
+		int off = this.suite.questionOffset;
+		Arrays.fill(this.buffer, off, off + OcraSuite.QUESTION_LENGTH, (byte) 0);
+		switch(this.suite.questionFormat()) {
+		case 'A':
+			alphanumeric(question, off);
+			break;
+		case 'N':
+			numeric(question, off);
+			break;
+		default:
+			hex(question, off);
+		}
+		return this;
+	}
+	
+	private void alphanumeric(CharSequence question, int off) {
+		if(question.length() > OcraSuite.QUESTION_LENGTH) {
+			throw new IllegalArgumentException("Challenge too long.");
+		}
+		for(int i = 0; i < question.length(); i++) {
+			char c = question.charAt(i);
+			if(c > 0x7f) {
+				throw new IllegalArgumentException("Challenge not ASCII.");
+			}
+			this.buffer[off + i] = (byte) c;
+		}
+	}
+	
+	private void numeric(CharSequence question, int off) {
+		int length = question.length();
+		if(length > MAX_LONG_DIGITS) {
+			// beyond a long; rare enough to allocate
+			hex(new BigInteger(question.toString(), 10).toString(16), off);
+			return;
+		}
+		long value = 0;
+		for(int i = 0; i < length; i++) {
+			int digit = question.charAt(i) - '0';
+			if(digit < 0 || digit > 9) {
+				throw new IllegalArgumentException("Challenge not numeric.");
+			}
+			value = value * 10 + digit;
+		}
+		// the hexadecimal digits of the value, most significant first, without leading zeros
+		int nibbles = Math.max(1, (64 - Long.numberOfLeadingZeros(value) + 3) / 4);
+		for(int i = 0; i < nibbles; i++) {
+			int nibble = (int) (value >>> ((nibbles - 1 - i) * 4)) & 0xf;
+			this.buffer[off + i / 2] |= (i & 1) == 0 ? nibble << 4 : nibble;
+		}
+	}
+	
+	private void hex(CharSequence question, int off) {
+		if(question.length() > OcraSuite.QUESTION_LENGTH * 2) {
+			throw new IllegalArgumentException("Challenge too long.");
+		}
+		for(int i = 0; i < question.length(); i++) {
+			int nibble = Character.digit(question.charAt(i), 16);
+			if(nibble < 0) {
+				throw new IllegalArgumentException("Challenge not hexadecimal.");
+			}
+			this.buffer[off + i / 2] |= (i & 1) == 0 ? nibble << 4 : nibble;
+		}
+	}
+	
+	/**
+	 * @param pin The user's PIN, hashed with the suite's PIN hash.
+	 * @return This message.
+	 */
+	public OcraMessage pin(CharSequence pin) {
+		if(this.suite.pinHash() == null) {
+			throw new IllegalStateException("The suite has no PIN: " + this.suite);
+		}
+		if(pin == null) {
+			throw new IllegalArgumentException("pin");
+		}
+		byte[] bytes = pin.toString().getBytes(StandardCharsets.UTF_8);
+		byte[] hash = HotpKey.newDigest(this.suite.pinHash()).digest(bytes);
+		Arrays.fill(bytes, (byte) 0);
+		pinHash(hash);
+		Arrays.fill(hash, (byte) 0);
+		return this;
+	}
+	
+	/**
+	 * @param pinHash Hash of the user's PIN with the suite's PIN hash, as stored by the server.
+	 * @return This message.
+	 */
+	public OcraMessage pinHash(byte[] pinHash) {
+		HMACAlgorithmEnum hash = this.suite.pinHash();
+		if(hash == null) {
+			throw new IllegalStateException("The suite has no PIN: " + this.suite);
+		}
+		if(pinHash == null || pinHash.length != hash.macLength()) {
+			throw new IllegalArgumentException("pinHash");
+		}
+		System.arraycopy(pinHash, 0, this.buffer, this.suite.pinOffset, pinHash.length);
+		return this;
+	}
+	
+	/**
+	 * @param session Session information, right-aligned in the suite's length like the RFC's
+	 * 		zero-padded hexadecimal strings.
+	 * @return This message.
+	 */
+	public OcraMessage session(byte[] session) {
+		int length = this.suite.sessionLength();
+		if(length == 0) {
+			throw new IllegalStateException("The suite has no session information: " + this.suite);
+		}
+		if(session == null || session.length > length) {
+			throw new IllegalArgumentException("session");
+		}
+		int off = this.suite.sessionOffset;
+		Arrays.fill(this.buffer, off, off + length - session.length, (byte) 0);
+		System.arraycopy(session, 0, this.buffer, off + length - session.length, session.length);
+		return this;
+	}
+	
+	/**
+	 * @param unixTime Unix time in milliseconds, converted to the suite's time steps.
+	 * @return This message.
+	 */
+	public OcraMessage timestamp(long unixTime) {
+		int step = this.suite.timeStep();
+		if(step == 0) {
+			throw new IllegalStateException("The suite has no timestamp: " + this.suite);
+		}
+		return timeStep(unixTime / 1000L / step);
+	}
+	
+	/**
+	 * @param timeStep Number of the suite's time steps since the Unix epoch.
+	 * @return This message.
+	 */
+	public OcraMessage timeStep(long timeStep) {
+		if(this.suite.timeStep() == 0) {
+			throw new IllegalStateException("The suite has no timestamp: " + this.suite);
+		}
+		ByteUtils.longToBytes(timeStep, this.buffer, this.suite.timeOffset);
+		return this;
+	}
+	
+	/**
+	 * @param key Key of the suite's hash algorithm.
+	 * @return The response to the data input as set, as a number.
+	 */
+	public int generateInt(HotpKey key) {
+		OtpMetrics.Timer timer = OtpMetrics.startTimer();
+		int code = code(key);
+		timer.generated(key.algo());
+		return code;
+	}
+	
+	/**
+	 * @param key Key of the suite's hash algorithm.
+	 * @return The response to the data input as set.
+	 */
+	public String generate(HotpKey key) {
+		int digits = this.suite.digits();
+		char[] chars = new char[digits];
+		HmacOneTimePassword.format(generateInt(key), digits, chars, 0);
+		return new String(chars);
+	}
+	
+	/**
+	 * Compares a response with the one computed for the data input as set, in constant time.
+	 * @param key Key of the suite's hash algorithm.
+	 * @param response Response entered by the user.
+	 * @return Whether the response is correct.
+	 */
+	public boolean verify(HotpKey key, CharSequence response) {
+		OtpMetrics.Timer timer = OtpMetrics.startTimer();
+		int parsed = HmacOneTimePassword.parse(response, this.suite.digits());
+		boolean valid = parsed >= 0 && HmacOneTimePassword.equal(parsed, code(key));
+		if(timer.enabled()) {
+			timer.verified(key.algo(), valid ? VerificationResult.valid(0, 0L) : VerificationResult.INVALID);
+		}
+		return valid;
+	}
+	
+	private int code(HotpKey key) {
+		if(key.algo() != this.suite.algo()) {
+			throw new IllegalArgumentException("Key for " + key.algo() + ", suite for " + this.suite.algo());
+		}
+		byte[] hash = HmacScratch.get().hash;
+		int length = key.hmac(this.buffer, 0, this.buffer.length, hash);
+		return HmacOneTimePassword.truncate(hash, length, this.suite.digits());
+	}
+
+}
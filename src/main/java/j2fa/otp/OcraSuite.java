@@ -0,0 +1,307 @@
+package j2fa.otp;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Immutable OCRA suite, e.g. {@code OCRA-1:HOTP-SHA256-8:C-QN08-PSHA1}, parsed once into the
+ * crypto function and the layout of its data input, so that requests only fill in their values.
+ *
+ * <p>The data input is the suite name, a zero byte, then the fields the suite declares, each at
+ * a fixed offset: the counter (8 bytes), the challenge (128 bytes), the PIN hash, the session
+ * information and the time step count (8 bytes). {@link #newMessage()} returns a buffer laid
+ * out that way, with the suite name already in place.
+ *
+ * <p>Truncation to 4 to 8 digits is supported; suites without truncation or with 9 or 10 digits
+ * are rejected, like codes of more than 8 digits elsewhere in this library.
+ * @see https://tools.ietf.org/html/rfc6287
+ */
+public final class OcraSuite {
+
+	static final int COUNTER_LENGTH = 8;
+	static final int QUESTION_LENGTH = 128;
+	static final int TIME_LENGTH = 8;
+	
+	private final String suite;
+	private final HMACAlgorithmEnum algo;
+	private final int digits;
+	private final char questionFormat;
+	private final int questionLength;
+	private final HMACAlgorithmEnum pinHash; // null without PIN
+	private final int sessionLength;
+	private final int timeStep; // seconds, 0 without timestamp
+	private final byte[] template;
+	// offsets of the fields in the data input, -1 for absent ones
+	final int counterOffset;
+	final int questionOffset;
+	final int pinOffset;
+	final int sessionOffset;
+	final int timeOffset;
+	
+	private OcraSuite(String suite, HMACAlgorithmEnum algo, int digits, boolean counter, char questionFormat,
+			int questionLength, HMACAlgorithmEnum pinHash, int sessionLength, int timeStep) {
+		this.suite = suite;
+		this.algo = algo;
+		this.digits = digits;
+		this.questionFormat = questionFormat;
+		this.questionLength = questionLength;
+		this.pinHash = pinHash;
+		this.sessionLength = sessionLength;
+		this.timeStep = timeStep;
+		byte[] name = suite.getBytes(StandardCharsets.US_ASCII);
+		int offset = name.length + 1;
+		this.counterOffset = counter ? offset : -1;
+		offset += counter ? COUNTER_LENGTH : 0;
+		this.questionOffset = offset;
+		offset += QUESTION_LENGTH;
+		this.pinOffset = pinHash != null ? offset : -1;
+		offset += pinHash != null ? pinHash.macLength() : 0;
+		this.sessionOffset = sessionLength > 0 ? offset : -1;
+		offset += sessionLength;
+		this.timeOffset = timeStep > 0 ? offset : -1;
+		offset += timeStep > 0 ? TIME_LENGTH : 0;
+		this.template = new byte[offset];
+		System.arraycopy(name, 0, this.template, 0, name.length);
+	}
+	
+	/**
+	 * @param suite OCRA suite, {@code OCRA-1:HOTP-<hash>-<digits>:<data input>}.
+	 * @return The parsed suite.
+	 * @throws IllegalArgumentException if the suite is malformed or unsupported.
+	 */
+	public static OcraSuite parse(String suite) {
+		if(suite == null) {
+			throw new IllegalArgumentException("suite");
+		}
+		String[] parts = suite.split(":", -1);
+		if(parts.length != 3 || !"OCRA-1".equals(parts[0])) {
+			throw new IllegalArgumentException("Not an OCRA-1 suite: " + suite);
+		}
+		String[] function = parts[1].split("-", -1);
+		if(function.length != 3 || !"HOTP".equals(function[0])) {
+			throw new IllegalArgumentException("Unsupported crypto function: " + parts[1]);
+		}
+		HMACAlgorithmEnum algo = hash(function[1], parts[1]);
+		int digits = number(function[2], parts[1]);
+		if(digits < 4 || digits > 8) {
+			throw new IllegalArgumentException("Only truncation to 4 to 8 digits is supported: " + parts[1]);
+		}
+		boolean counter = false;
+		char questionFormat = 0;
+		int questionLength = 0;
+		HMACAlgorithmEnum pinHash = null;
+		int sessionLength = 0;
+		int timeStep = 0;
+		// fields in the order of the data input, each at most once
+		int order = 0;
+		for(String field : parts[2].split("-", -1)) {
+			int kind;
+			if(field.equals("C")) {
+				kind = 1;
+				counter = true;
+			}
+			else if(field.length() == 4 && field.charAt(0) == 'Q') {
+				kind = 2;
+				questionFormat = field.charAt(1);
+				questionLength = number(field.substring(2), field);
+				if("ANH".indexOf(questionFormat) < 0 || questionLength < 4 || questionLength > 64) {
+					throw new IllegalArgumentException("Invalid challenge: " + field);
+				}
+			}
+			else if(field.length() > 1 && field.charAt(0) == 'P') {
+				kind = 3;
+				pinHash = hash(field.substring(1), field);
+			}
+			else if(field.length() > 0 && field.charAt(0) == 'S') {
+				kind = 4;
+				sessionLength = field.length() == 1 ? 64 : number(field.substring(1), field);
+				if(sessionLength <= 0 || sessionLength > 512) {
+					throw new IllegalArgumentException("Invalid session length: " + field);
+				}
+			}
+			else if(field.length() > 2 && field.charAt(0) == 'T') {
+				kind = 5;
+				timeStep = timeStep(field);
+			}
+			else {
+				throw new IllegalArgumentException("Unknown data input: " + field);
+			}
+			if(kind <= order) {
+				throw new IllegalArgumentException("Data input out of order or repeated: " + parts[2]);
+			}
+			order = kind;
+		}
+		if(questionFormat == 0) {
+			throw new IllegalArgumentException("A challenge is required: " + parts[2]);
+		}
+		return new OcraSuite(suite, algo, digits, counter, questionFormat, questionLength, pinHash,
+				sessionLength, timeStep);
+	}
+	
+	private static HMACAlgorithmEnum hash(String name, String context) {
+		for(HMACAlgorithmEnum algo : HMACAlgorithmEnum.values()) {
+			if(algo.name().equals(name)) {
+				return algo;
+			}
+		}
+		throw new IllegalArgumentException("Unsupported hash: " + context);
+	}
+	
+	private static int number(String digits, String context) {
+		if(digits.isEmpty() || digits.length() > 3) {
+			throw new IllegalArgumentException("Invalid number in " + context);
+		}
+		int n = 0;
+		for(int i = 0; i < digits.length(); i++) {
+			int digit = digits.charAt(i) - '0';
+			if(digit < 0 || digit > 9) {
+				throw new IllegalArgumentException("Invalid number in " + context);
+			}
+			n = n * 10 + digit;
+		}
+		return n;
+	}
+	
+	private static int timeStep(String field) {
+		int n = number(field.substring(1, field.length() - 1), field);
+		switch(field.charAt(field.length() - 1)) {
+		case 'S':
+			if(n >= 1 && n <= 59) {
+				return n;
+			}
+			break;
+		case 'M':
+			if(n >= 1 && n <= 59) {
+				return n * 60;
+			}
+			break;
+		case 'H':
+			if(n >= 1 && n <= 48) {
+				return n * 3600;
+			}
+			break;
+		default:
+		}
+		throw new IllegalArgumentException("Invalid time step: " + field);
+	}
+	
+	/**
+	 * @return A new, reusable data input for this suite.
+	 */
+	public OcraMessage newMessage() {
+		return new OcraMessage(this, this.template.clone());
+	}
+	
+	/**
+	 * Verifies many responses to this suite at once, e.g. a batch of transactions signed by their
+	 * users, through a single data input buffer rather than one per transaction.
+	 * @param keys Key of each transaction's user.
+	 * @param counters Counter of each transaction; null if the suite has none.
+	 * @param questions Challenge of each transaction.
+	 * @param pinHashes PIN hash of each transaction's user; null if the suite has none.
+	 * @param sessions Session information of each transaction; null if the suite has none.
+	 * @param timeStep Time step count shared by the batch, e.g. of the current time; ignored
+	 * 		if the suite has no timestamp.
+	 * @param responses Response of each transaction.
+	 * @param valid Receives whether each response is correct.
+	 * @return The number of correct responses.
+	 */
+	public int verifyBatch(HotpKey[] keys, long[] counters, CharSequence[] questions, byte[][] pinHashes,
+			byte[][] sessions, long timeStep, CharSequence[] responses, boolean[] valid) {
+		int n = keys.length;
+		if(questions.length != n || responses.length != n || valid.length < n
+				|| (hasCounter() && (counters == null || counters.length != n))
+				|| (this.pinHash != null && (pinHashes == null || pinHashes.length != n))
+				|| (this.sessionLength > 0 && (sessions == null || sessions.length != n))) {
+			throw new IllegalArgumentException("One value of each input of the suite is required per key.");
+		}
+		OcraMessage message = newMessage();
+		if(this.timeStep > 0) {
+			message.timeStep(timeStep);
+		}
+		int correct = 0;
+		for(int i = 0; i < n; i++) {
+			if(counters != null && hasCounter()) {
+				message.counter(counters[i]);
+			}
+			message.question(questions[i]);
+			if(this.pinHash != null) {
+				message.pinHash(pinHashes[i]);
+			}
+			if(this.sessionLength > 0) {
+				message.session(sessions[i]);
+			}
+			valid[i] = message.verify(keys[i], responses[i]);
+			if(valid[i]) {
+				correct++;
+			}
+		}
+		return correct;
+	}
+	
+	/**
+	 * @return The suite as parsed.
+	 */
+	public String suite() {
+		return this.suite;
+	}
+	
+	public HMACAlgorithmEnum algo() {
+		return this.algo;
+	}
+	
+	public int digits() {
+		return this.digits;
+	}
+	
+	public boolean hasCounter() {
+		return this.counterOffset >= 0;
+	}
+	
+	/**
+	 * @return 'A' for alphanumeric, 'N' for numeric, 'H' for hexadecimal challenges.
+	 */
+	public char questionFormat() {
+		return this.questionFormat;
+	}
+	
+	/**
+	 * @return The challenge length the suite declares.
+	 */
+	public int questionLength() {
+		return this.questionLength;
+	}
+	
+	/**
+	 * @return The hash of the PIN in the data input, or null if there is none.
+	 */
+	public HMACAlgorithmEnum pinHash() {
+		return this.pinHash;
+	}
+	
+	/**
+	 * @return The length in bytes of the session information, or 0 if there is none.
+	 */
+	public int sessionLength() {
+		return this.sessionLength;
+	}
+	
+	/**
+	 * @return The time step in seconds, or 0 if there is no timestamp.
+	 */
+	public int timeStep() {
+		return this.timeStep;
+	}
+	
+	/**
+	 * @return The length of the data input in bytes.
+	 */
+	public int messageLength() {
+		return this.template.length;
+	}
+	
+	@Override
+	public String toString() {
+		return this.suite;
+	}
+
+}
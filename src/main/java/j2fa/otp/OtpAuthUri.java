@@ -0,0 +1,465 @@
+package j2fa.otp;
+
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+import j2fa.utils.Base32Utils;
+
+/**
+ * Immutable otpauth URI in the Key URI Format, written without intermediate Strings and parsed
+ * in a single pass.
+ *
+ * <p>Labels and the issuer parameter are percent-encoded like {@link java.net.URLEncoder} in UTF-8.
+ * The encoded form of each issuer is cached, since a tenant provisions all its accounts under
+ * the same one.
+ *
+ * @see https://github.com/google/google-authenticator/wiki/Key-Uri-Format
+ */
+public final class OtpAuthUri {
+
+	private static final String SCHEME = "otpauth://";
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	private static final int MAX_CACHED_ISSUERS = 1024;
+	private static final ConcurrentHashMap<String, String> ENCODED_ISSUERS = new ConcurrentHashMap<String, String>();
+	
+	private final String issuer;
+	private final String account;
+	private final byte[] secret;
+	private final HMACAlgorithmEnum algo;
+	private final int digits;
+	private final Integer period;
+	private final Long counter;
+	private volatile String secretBase32;
+	
+	/**
+	 * @param secret Secret key.
+	 * @param issuer Issuer of the code and account; may be null.
+	 * @param account User account. Typically the user's e-mail address.
+	 * @param algo OTP hash algorithm: SHA1 (default), SHA256, or SHA512.
+	 * @param digits Number of digits in the code, 1 to 8. Recommended: 6 or 8.
+	 * @param period TOTP code validity period in seconds, positive; null for HOTP.
+	 * @param counter HOTP counter, not negative; null for TOTP.
+	 */
+	public OtpAuthUri(byte[] secret, String issuer, String account, HMACAlgorithmEnum algo, int digits,
+			Integer period, Long counter) {
+		this(secret, null, issuer, account, algo, digits, period, counter);
+	}
+	
+	OtpAuthUri(byte[] secret, String secretBase32, String issuer, String account, HMACAlgorithmEnum algo,
+			int digits, Integer period, Long counter) {
+		if(secret == null || secret.length == 0) {
+			throw new IllegalArgumentException("secret");
+		}
+		if(account == null || account.isEmpty()) {
+			throw new IllegalArgumentException("account");
+		}
+		if((period == null) == (counter == null)) {
+			throw new IllegalArgumentException("Exactly one of period or counter must be set (TOTP vs. HOTP).");
+		}
+		// the ranges parse accepts, so that every URI written can be read back
+		if(digits < 1 || digits > 8) {
+			throw new IllegalArgumentException("digits");
+		}
+		if(period != null && period <= 0) {
+			throw new IllegalArgumentException("period");
+		}
+		if(counter != null && counter < 0) {
+			throw new IllegalArgumentException("counter");
+		}
+		this.secret = secret.clone();
+		this.secretBase32 = secretBase32;
+		this.issuer = issuer;
+		this.account = account;
+		this.algo = algo == null ? HMACAlgorithmEnum.SHA1 : algo;
+		this.digits = digits;
+		this.period = period;
+		this.counter = counter;
+	}
+	
+	public String type() {
+		return this.period == null ? "hotp" : "totp";
+	}
+	
+	public String issuer() {
+		return this.issuer;
+	}
+	
+	public String account() {
+		return this.account;
+	}
+	
+	/**
+	 * @return A copy of the secret key.
+	 */
+	public byte[] secret() {
+		return this.secret.clone();
+	}
+	
+	public HMACAlgorithmEnum algo() {
+		return this.algo;
+	}
+	
+	public int digits() {
+		return this.digits;
+	}
+	
+	/**
+	 * @return The TOTP period in seconds, or null for HOTP.
+	 */
+	public Integer period() {
+		return this.period;
+	}
+	
+	/**
+	 * @return The HOTP counter, or null for TOTP.
+	 */
+	public Long counter() {
+		return this.counter;
+	}
+	
+	/**
+	 * @return The same key under another label.
+	 */
+	public OtpAuthUri withLabel(String issuer, String account) {
+		return new OtpAuthUri(this.secret, this.secretBase32, issuer, account, this.algo, this.digits,
+				this.period, this.counter);
+	}
+	
+	/**
+	 * @return A new {@link OTPAuthentication} configured with this key.
+	 */
+	public OTPAuthentication toAuthentication() {
+		if(this.period != null) {
+			return new OTPAuthentication(this.secret.clone(), this.issuer, this.account, this.algo, this.digits,
+					this.period);
+		}
+		return new OTPAuthentication(this.secret.clone(), this.issuer, this.account, this.algo, this.digits,
+				this.counter);
+	}
+	
+	/**
+	 * Writes the URI, e.g. into a builder shared by a batch of accounts.
+	 * @param sb Destination.
+	 * @return The destination.
+	 */
+	public StringBuilder appendTo(StringBuilder sb) {
+		String encodedIssuer = this.issuer == null ? null : encodedIssuer(this.issuer);
+		sb.append(SCHEME).append(type()).append('/');
+		if(encodedIssuer != null) {
+			sb.append(encodedIssuer).append(':');
+		}
+		encode(this.account, sb);
+		sb.append("?secret=").append(secretBase32());
+		if(encodedIssuer != null) {
+			sb.append("&issuer=").append(encodedIssuer);
+		}
+		sb.append("&algorithm=").append(this.algo.name()).append("&digits=").append(this.digits);
+		if(this.period != null) {
+			sb.append("&period=").append(this.period.intValue());
+		}
+		else {
+			sb.append("&counter=").append(this.counter.longValue());
+		}
+		return sb;
+	}
+	
+	@Override
+	public String toString() {
+		return appendTo(new StringBuilder(128)).toString();
+	}
+	
+	private String secretBase32() {
+		String s = this.secretBase32;
+		if(s == null) {
+			s = Base32Utils.encode(this.secret);
+			this.secretBase32 = s;
+		}
+		return s;
+	}
+	
+	private static String encodedIssuer(String issuer) {
+		String encoded = ENCODED_ISSUERS.get(issuer);
+		if(encoded == null) {
+			encoded = encode(issuer, new StringBuilder(issuer.length() + 8)).toString();
+			if(ENCODED_ISSUERS.size() >= MAX_CACHED_ISSUERS) {
+				// tenants are few; a full cache means arbitrary issuers, so start over
+				ENCODED_ISSUERS.clear();
+			}
+			ENCODED_ISSUERS.put(issuer, encoded);
+		}
+		return encoded;
+	}
+	
+	/**
+	 * Percent-encodes like {@code URLEncoder.encode(s, "UTF-8")}, straight into the builder.
+	 */
+	static StringBuilder encode(String s, StringBuilder sb) {
+		byte[] utf8 = null;
+		for(int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+					|| c == '.' || c == '-' || c == '*' || c == '_') {
+				sb.append(c);
+			}
+			else if(c == ' ') {
+				sb.append('+');
+			}
+			else {
+				if(utf8 == null) {
+					utf8 = new byte[4];
+				}
+				int n = utf8(s, i, utf8, 0);
+				for(int k = 0; k < n; k++) {
+					percent(sb, utf8[k]);
+				}
+				if(n == 4) {
+					i++;
+				}
+			}
+		}
+		return sb;
+	}
+	
+	/**
+	 * Writes the UTF-8 bytes of the character at the given index, and of the low surrogate that 
+	 * follows it if it is a high one. Unpaired surrogates are replaced with '?' like the JDK encoder.
+	 * @return The number of bytes written; 4 if a surrogate pair was consumed.
+	 */
+	private static int utf8(CharSequence s, int i, byte[] dst, int n) {
+		char c = s.charAt(i);
+		if(c < 0x80) {
+			dst[n] = (byte) c;
+			return 1;
+		}
+		if(c < 0x800) {
+			dst[n] = (byte) (0xC0 | c >> 6);
+			dst[n + 1] = (byte) (0x80 | c & 0x3F);
+			return 2;
+		}
+		if(Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+			int cp = Character.toCodePoint(c, s.charAt(i + 1));
+			dst[n] = (byte) (0xF0 | cp >> 18);
+			dst[n + 1] = (byte) (0x80 | cp >> 12 & 0x3F);
+			dst[n + 2] = (byte) (0x80 | cp >> 6 & 0x3F);
+			dst[n + 3] = (byte) (0x80 | cp & 0x3F);
+			return 4;
+		}
+		if(Character.isSurrogate(c)) {
+			dst[n] = '?';
+			return 1;
+		}
+		dst[n] = (byte) (0xE0 | c >> 12);
+		dst[n + 1] = (byte) (0x80 | c >> 6 & 0x3F);
+		dst[n + 2] = (byte) (0x80 | c & 0x3F);
+		return 3;
+	}
+	
+	private static void percent(StringBuilder sb, byte b) {
+		sb.append('%').append(HEX[b >> 4 & 0xF]).append(HEX[b & 0xF]);
+	}
+	
+	/**
+	 * Parses a URI in the Key URI Format in a single pass over its characters. Unknown parameters
+	 * are ignored; missing ones take the format's defaults.
+	 * @param uri otpauth URI, e.g. read from a QR code during a migration.
+	 * @return The parsed key.
+	 * @throws IllegalArgumentException if the URI is malformed, has no secret, or its label and
+	 * 		issuer parameter disagree.
+	 */
+	public static OtpAuthUri parse(CharSequence uri) {
+		int length = uri.length();
+		if(!regionMatches(uri, 0, SCHEME)) {
+			throw new IllegalArgumentException("Not an otpauth URI.");
+		}
+		int i = SCHEME.length();
+		boolean totp;
+		if(regionMatches(uri, i, "totp/")) {
+			totp = true;
+		}
+		else if(regionMatches(uri, i, "hotp/")) {
+			totp = false;
+		}
+		else {
+			throw new IllegalArgumentException("Unknown OTP type.");
+		}
+		i += 5;
+		
+		// label: [issuer ":"] account, the colon possibly encoded as %3A
+		byte[] scratch = new byte[3 * length];
+		int labelStart = i;
+		int colon = -1;
+		while(i < length && uri.charAt(i) != '?') {
+			if(colon < 0 && (uri.charAt(i) == ':' || (uri.charAt(i) == '%' && regionMatches(uri, i, "%3A")))) {
+				colon = i;
+			}
+			i++;
+		}
+		String labelIssuer = null;
+		String account;
+		if(colon >= 0) {
+			labelIssuer = decode(uri, labelStart, colon, scratch);
+			account = decode(uri, colon + (uri.charAt(colon) == ':' ? 1 : 3), i, scratch);
+			// the format allows spaces between the issuer and the account
+			int space = 0;
+			while(space < account.length() && account.charAt(space) == ' ') {
+				space++;
+			}
+			account = account.substring(space);
+		}
+		else {
+			account = decode(uri, labelStart, i, scratch);
+		}
+		
+		byte[] secret = null;
+		String issuer = null;
+		HMACAlgorithmEnum algo = HMACAlgorithmEnum.SHA1;
+		int digits = 6;
+		int period = 30;
+		Long counter = null;
+		while(i < length) {
+			int keyStart = ++i;
+			while(i < length && uri.charAt(i) != '=' && uri.charAt(i) != '&') {
+				i++;
+			}
+			int keyEnd = i;
+			int valueStart = i < length && uri.charAt(i) == '=' ? ++i : i;
+			while(i < length && uri.charAt(i) != '&') {
+				i++;
+			}
+			int valueEnd = i;
+			if(isKey(uri, keyStart, keyEnd, "secret")) {
+				CharBuffer value = CharBuffer.wrap(uri, valueStart, valueEnd);
+				secret = new byte[Base32Utils.decodedLength(valueEnd - valueStart)];
+				int n = Base32Utils.decode(value, secret, 0);
+				if(n < secret.length) {
+					// padding counted in the length
+					byte[] trimmed = new byte[n];
+					System.arraycopy(secret, 0, trimmed, 0, n);
+					secret = trimmed;
+				}
+			}
+			else if(isKey(uri, keyStart, keyEnd, "issuer")) {
+				issuer = decode(uri, valueStart, valueEnd, scratch);
+			}
+			else if(isKey(uri, keyStart, keyEnd, "algorithm")) {
+				algo = algorithm(uri, valueStart, valueEnd);
+			}
+			else if(isKey(uri, keyStart, keyEnd, "digits")) {
+				long n = number(uri, valueStart, valueEnd);
+				if(n < 1 || n > 8) {
+					throw new IllegalArgumentException("Unsupported number of digits.");
+				}
+				digits = (int) n;
+			}
+			else if(isKey(uri, keyStart, keyEnd, "period")) {
+				long n = number(uri, valueStart, valueEnd);
+				if(n < 1 || n > Integer.MAX_VALUE) {
+					throw new IllegalArgumentException("Unsupported period.");
+				}
+				period = (int) n;
+			}
+			else if(isKey(uri, keyStart, keyEnd, "counter")) {
+				counter = number(uri, valueStart, valueEnd);
+			}
+		}
+		
+		if(secret == null || secret.length == 0) {
+			throw new IllegalArgumentException("Missing secret.");
+		}
+		if(issuer == null) {
+			issuer = labelIssuer;
+		}
+		else if(labelIssuer != null && !labelIssuer.equals(issuer)) {
+			throw new IllegalArgumentException("Label issuer does not match issuer parameter.");
+		}
+		if(totp) {
+			return new OtpAuthUri(secret, null, issuer, account, algo, digits, period, null);
+		}
+		if(counter == null) {
+			throw new IllegalArgumentException("Missing counter.");
+		}
+		return new OtpAuthUri(secret, null, issuer, account, algo, digits, null, counter);
+	}
+	
+	private static boolean regionMatches(CharSequence s, int start, String prefix) {
+		if(start + prefix.length() > s.length()) {
+			return false;
+		}
+		for(int i = 0; i < prefix.length(); i++) {
+			if(Character.toLowerCase(s.charAt(start + i)) != Character.toLowerCase(prefix.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static boolean isKey(CharSequence s, int start, int end, String key) {
+		return end - start == key.length() && regionMatches(s, start, key);
+	}
+	
+	private static HMACAlgorithmEnum algorithm(CharSequence s, int start, int end) {
+		for(HMACAlgorithmEnum algo : HMACAlgorithmEnum.values()) {
+			// the format names them SHA1, SHA256 and SHA512; earlier versions wrote HmacSHA1, etc.
+			if(isKey(s, start, end, algo.name()) || isKey(s, start, end, algo.desc())) {
+				return algo;
+			}
+		}
+		throw new IllegalArgumentException("Unsupported algorithm.");
+	}
+	
+	private static long number(CharSequence s, int start, int end) {
+		if(start == end || end - start > 18) {
+			throw new IllegalArgumentException("Invalid number.");
+		}
+		long n = 0;
+		for(int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if(c < '0' || c > '9') {
+				throw new IllegalArgumentException("Invalid number.");
+			}
+			n = n * 10 + (c - '0');
+		}
+		return n;
+	}
+	
+	private static String decode(CharSequence s, int start, int end, byte[] scratch) {
+		int n = 0;
+		for(int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if(c == '%') {
+				if(i + 2 >= end) {
+					throw new IllegalArgumentException("Truncated percent escape.");
+				}
+				scratch[n++] = (byte) (hex(s.charAt(i + 1)) << 4 | hex(s.charAt(i + 2)));
+				i += 2;
+			}
+			else if(c == '+') {
+				scratch[n++] = ' ';
+			}
+			else {
+				// raw non-ASCII characters are not valid in a URI, but exporters do write them
+				int k = utf8(s, i, scratch, n);
+				n += k;
+				if(k == 4) {
+					i++;
+				}
+			}
+		}
+		return new String(scratch, 0, n, StandardCharsets.UTF_8);
+	}
+	
+	private static int hex(char c) {
+		if(c >= '0' && c <= '9') {
+			return c - '0';
+		}
+		if(c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		}
+		if(c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		}
+		throw new IllegalArgumentException("Invalid percent escape.");
+	}
+
+}
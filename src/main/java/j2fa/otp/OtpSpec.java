@@ -0,0 +1,204 @@
+package j2fa.otp;
+
+import j2fa.utils.Base32Utils;
+
+/**
+ * Immutable key material and parameters of one OTP account: the HMAC key state, label,
+ * algorithm, number of digits and, for TOTP, the period.
+ *
+ * <p>All fields are final and the secret is copied on the way in, so an instance is safely
+ * published by any means, e.g. cached in a {@link java.util.concurrent.ConcurrentHashMap},
+ * and shared by every thread verifying the account. The only mutable OTP state, the HOTP
+ * counter, lives in a separate {@link HotpCounter}; {@link OTPAuthentication} pairs the two.
+ * @see TotpVerifier
+ */
+public final class OtpSpec {
+
+	private final byte[] secret;
+	private final HotpKey key;
+	private final String issuer;
+	private final String account;
+	private final String label; // null without account
+	private final HMACAlgorithmEnum algo;
+	private final int digits;
+	private final int period; // seconds, 0 for HOTP
+	private volatile String secretBase32; // encoded on first uri(), like String.hashCode()
+	
+	/**
+	 * @param secret Secret key.
+	 * @param issuer Issuer of the code and account.
+	 * @param account User account. Typically the user's e-mail address.
+	 * @param algo OTP hash algorithm: SHA1 (default), SHA256, or SHA512.
+	 * @param digits Number of digits in the code, 1 to 8. Recommended: 6 or 8.
+	 * @param period TOTP code validity period in seconds, recommended: 30; null for HOTP.
+	 */
+	public OtpSpec(byte[] secret, String issuer, String account, HMACAlgorithmEnum algo, Integer digits,
+			Integer period) {
+		this(checkSecret(secret).clone(), null, issuer, account, algo, digits, period);
+	}
+	
+	/**
+	 * Spec from ready HMAC key state, e.g. from a {@link SecretProvider}, without the secret
+	 * itself: it generates and verifies codes but cannot write provisioning URIs.
+	 * @param key HMAC key state, which also determines the algorithm.
+	 * @param issuer Issuer of the code and account.
+	 * @param account User account. Typically the user's e-mail address.
+	 * @param digits Number of digits in the code, 1 to 8. Recommended: 6 or 8.
+	 * @param period TOTP code validity period in seconds, recommended: 30; null for HOTP.
+	 */
+	public OtpSpec(HotpKey key, String issuer, String account, Integer digits, Integer period) {
+		this(null, key, issuer, account, key == null ? null : key.algo(), digits, period);
+	}
+	
+	// secret is owned by the new instance
+	OtpSpec(byte[] secret, HotpKey key, String issuer, String account, HMACAlgorithmEnum algo,
+			Integer digits, Integer period) {
+		if(key == null) {
+			checkSecret(secret);
+		}
+		if(period != null && period <= 0) {
+			throw new IllegalArgumentException("period");
+		}
+		if(digits != null && (digits < 1 || digits > 8)) {
+			throw new IllegalArgumentException("digits");
+		}
+		checkStringParam(issuer);
+		checkStringParam(account);
+		this.secret = secret;
+		this.algo = algo == null ? HMACAlgorithmEnum.SHA1 : algo;
+		this.key = key != null ? key : new HotpKey(secret, this.algo);
+		this.issuer = issuer;
+		this.account = account;
+		if(account == null || account.isEmpty()) {
+			this.label = null;
+		}
+		else {
+			this.label = issuer == null ? account : issuer + ":" + account;
+		}
+		this.digits = digits == null ? 6 : digits;
+		this.period = period == null ? 0 : period;
+	}
+	
+	private static byte[] checkSecret(byte[] secret) {
+		if(secret == null || secret.length == 0) {
+			throw new IllegalArgumentException("secret");
+		}
+		return secret;
+	}
+	
+	static void checkStringParam(String param) {
+		if(param == null) {
+			return;
+		}
+		if(param.contains(":")) {
+			throw new IllegalArgumentException("Character not allowed in text parameter: \":\"");
+		}
+	}
+	
+	public String issuer() {
+		return this.issuer;
+	}
+	
+	public String account() {
+		return this.account;
+	}
+	
+	public HMACAlgorithmEnum algo() {
+		return this.algo;
+	}
+	
+	public int digits() {
+		return this.digits;
+	}
+	
+	/**
+	 * @return The TOTP period in seconds, or 0 for HOTP.
+	 */
+	public int period() {
+		return this.period;
+	}
+	
+	public boolean isTotp() {
+		return this.period != 0;
+	}
+	
+	/**
+	 * @return The HMAC key state, shared by all users of this spec.
+	 */
+	public HotpKey key() {
+		return this.key;
+	}
+	
+	/**
+	 * @return Whether the secret is held, which {@link #uri()} needs.
+	 */
+	public boolean hasSecret() {
+		return this.secret != null;
+	}
+	
+	/**
+	 * @return "issuer:account", or the account alone without issuer; the key under which
+	 * 		{@link UsedCodeRegistry} and {@link DriftTracker} know the account.
+	 */
+	public String label() {
+		if(this.label == null) {
+			throw new IllegalStateException("Data missing: account");
+		}
+		return this.label;
+	}
+	
+	/**
+	 * @param unixTime Unix time in milliseconds.
+	 * @return The TOTP time step of the given time.
+	 */
+	public long timeStep(long unixTime) {
+		if(this.period == 0) {
+			throw new IllegalStateException("This is an instance of HOTP, not TOTP.");
+		}
+		return (unixTime/1000L)/this.period;
+	}
+	
+	/**
+	 * @param movingFactor Time step or HOTP counter.
+	 * @return The code for the moving factor.
+	 */
+	public String code(long movingFactor) {
+		return HmacOneTimePassword.generate(this.key, movingFactor, this.digits);
+	}
+	
+	/**
+	 * @return The TOTP key in the Key URI Format.
+	 */
+	public OtpAuthUri uri() {
+		if(this.period == 0) {
+			throw new IllegalStateException("This is an instance of HOTP: the URI needs a counter.");
+		}
+		return uri(this.issuer, this.account, null);
+	}
+	
+	/**
+	 * @param counter Current HOTP counter.
+	 * @return The HOTP key in the Key URI Format.
+	 */
+	public OtpAuthUri uri(long counter) {
+		if(this.period != 0) {
+			throw new IllegalStateException("This is an instance of TOTP, not HOTP.");
+		}
+		return uri(this.issuer, this.account, Long.valueOf(counter));
+	}
+	
+	OtpAuthUri uri(String issuer, String account, Long counter) {
+		if(this.secret == null) {
+			throw new IllegalStateException("No secret: this instance was built from HMAC key state.");
+		}
+		String encoded = this.secretBase32;
+		if(encoded == null) {
+			// racy but idempotent: every thread computes the same immutable String
+			encoded = Base32Utils.encode(this.secret);
+			this.secretBase32 = encoded;
+		}
+		return new OtpAuthUri(this.secret, encoded, issuer, account, this.algo, this.digits,
+				this.period == 0 ? null : Integer.valueOf(this.period), counter);
+	}
+
+}
@@ -0,0 +1,342 @@
+package j2fa.otp;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Asynchronous TOTP verification with bounded concurrency, for gateways handling many
+ * concurrent logins whose account lookup involves I/O.
+ *
+ * <p>{@link #verify(String, String)} never blocks the caller: it returns a future completed
+ * on the service's executor, by default a virtual thread per task where the JDK provides
+ * them and a cached pool of daemon threads otherwise.
+ *
+ * <p>Verifications submitted for an account while an earlier one is still waiting for the
+ * executor are micro-batched with it: the batch resolves the account once and verifies its
+ * codes in order, with replay protection if a {@link UsedCodeRegistry} is given.
+ *
+ * <p>Given an {@link AttemptThrottle}, every attempt on an enrolled account is counted before 
+ * it is verified, keyed by the account passed to {@link #verify(String, String, long)}, and 
+ * attempts on a locked account complete with {@link VerificationResult#THROTTLED} unchecked. 
+ * Unknown accounts are not recorded, so guessing account names does not grow the throttle.
+ *
+ * <p>At most {@code maxInFlight} verifications are pending at any time. Beyond that, requests
+ * are not queued: their futures fail at once with a {@link RejectedExecutionException}, so an
+ * overloaded gateway sheds load instead of building up latency.
+ */
+public final class OtpVerificationService implements Closeable {
+
+	private final AccountResolver resolver;
+	private final Executor executor;
+	private final boolean ownsExecutor;
+	private final int lookBehind;
+	private final int lookAhead;
+	private final UsedCodeRegistry registry;
+	private final AttemptThrottle throttle;
+	private final int maxInFlight;
+	private final Semaphore permits;
+	private final ConcurrentHashMap<String, Batch> pending = new ConcurrentHashMap<String, Batch>();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	
+	/**
+	 * Service on {@link #newDefaultExecutor()}, closed with the service.
+	 * @param resolver Account lookup.
+	 * @param lookBehind Number of earlier time steps accepted, to account for network latency.
+	 * @param lookAhead Number of later time steps accepted, to account for clock drift.
+	 * @param registry Replay protection; null to accept replays.
+	 * @param maxInFlight Maximum number of pending verifications.
+	 */
+	public OtpVerificationService(AccountResolver resolver, int lookBehind, int lookAhead,
+			UsedCodeRegistry registry, int maxInFlight) {
+		this(resolver, newDefaultExecutor(), true, lookBehind, lookAhead, registry, null, maxInFlight);
+	}
+	
+	/**
+	 * Service on {@link #newDefaultExecutor()}, closed with the service.
+	 * @param resolver Account lookup.
+	 * @param lookBehind Number of earlier time steps accepted, to account for network latency.
+	 * @param lookAhead Number of later time steps accepted, to account for clock drift.
+	 * @param registry Replay protection; null to accept replays.
+	 * @param throttle Failed attempts per account; null for no throttling.
+	 * @param maxInFlight Maximum number of pending verifications.
+	 */
+	public OtpVerificationService(AccountResolver resolver, int lookBehind, int lookAhead,
+			UsedCodeRegistry registry, AttemptThrottle throttle, int maxInFlight) {
+		this(resolver, newDefaultExecutor(), true, lookBehind, lookAhead, registry, throttle, maxInFlight);
+	}
+	
+	/**
+	 * @param resolver Account lookup.
+	 * @param executor Runs lookups and verifications; not shut down by {@link #close()}.
+	 * @param lookBehind Number of earlier time steps accepted, to account for network latency.
+	 * @param lookAhead Number of later time steps accepted, to account for clock drift.
+	 * @param registry Replay protection; null to accept replays.
+	 * @param maxInFlight Maximum number of pending verifications.
+	 */
+	public OtpVerificationService(AccountResolver resolver, Executor executor, int lookBehind, int lookAhead,
+			UsedCodeRegistry registry, int maxInFlight) {
+		this(resolver, executor, false, lookBehind, lookAhead, registry, null, maxInFlight);
+	}
+	
+	/**
+	 * @param resolver Account lookup.
+	 * @param executor Runs lookups and verifications; not shut down by {@link #close()}.
+	 * @param lookBehind Number of earlier time steps accepted, to account for network latency.
+	 * @param lookAhead Number of later time steps accepted, to account for clock drift.
+	 * @param registry Replay protection; null to accept replays.
+	 * @param throttle Failed attempts per account; null for no throttling.
+	 * @param maxInFlight Maximum number of pending verifications.
+	 */
+	public OtpVerificationService(AccountResolver resolver, Executor executor, int lookBehind, int lookAhead,
+			UsedCodeRegistry registry, AttemptThrottle throttle, int maxInFlight) {
+		this(resolver, executor, false, lookBehind, lookAhead, registry, throttle, maxInFlight);
+	}
+	
+	private OtpVerificationService(AccountResolver resolver, Executor executor, boolean ownsExecutor,
+			int lookBehind, int lookAhead, UsedCodeRegistry registry, AttemptThrottle throttle, int maxInFlight) {
+		if(resolver == null || executor == null) {
+			throw new IllegalArgumentException("resolver and executor are required.");
+		}
+		if(lookBehind < 0 || lookAhead < 0) {
+			throw new IllegalArgumentException("Negative window.");
+		}
+		if(maxInFlight <= 0) {
+			throw new IllegalArgumentException("maxInFlight");
+		}
+		this.resolver = resolver;
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+		this.lookBehind = lookBehind;
+		this.lookAhead = lookAhead;
+		this.registry = registry;
+		this.throttle = throttle;
+		this.maxInFlight = maxInFlight;
+		this.permits = new Semaphore(maxInFlight);
+	}
+	
+	/**
+	 * @return A virtual-thread-per-task executor on JDK 21 and later, found reflectively since
+	 * 		this library targets Java 8, or else a cached pool of daemon threads.
+	 */
+	public static ExecutorService newDefaultExecutor() {
+		try {
+			Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) virtual.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			final AtomicInteger threads = new AtomicInteger();
+			return Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "j2fa-verification-" + threads.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Verifies a code against the current time.
+	 * @see #verify(String, String, long)
+	 */
+	public CompletableFuture<VerificationResult> verify(String account, String code) {
+		return verify(account, code, System.currentTimeMillis());
+	}
+	
+	/**
+	 * @param account Account whose code it is, passed to the {@link AccountResolver}.
+	 * @param code Code entered by the user.
+	 * @param unixTime Unix time in milliseconds at which the code was entered.
+	 * @return The outcome; {@link VerificationResult#INVALID} for unknown accounts, 
+	 * 		{@link VerificationResult#THROTTLED} for locked ones. Fails with
+	 * 		a {@link RejectedExecutionException} if too many verifications are in flight, or with
+	 * 		the exception thrown by the lookup.
+	 */
+	public CompletableFuture<VerificationResult> verify(String account, String code, long unixTime) {
+		if(account == null) {
+			throw new IllegalArgumentException("account");
+		}
+		CompletableFuture<VerificationResult> future = new CompletableFuture<VerificationResult>();
+		if(!this.permits.tryAcquire()) {
+			this.rejected.increment();
+			future.completeExceptionally(new RejectedExecutionException(
+					"More than " + this.maxInFlight + " verifications in flight."));
+			return future;
+		}
+		Request request = new Request(code, unixTime, future);
+		while(true) {
+			Batch batch = this.pending.get(account);
+			if(batch == null) {
+				batch = new Batch(account, request);
+				if(this.pending.putIfAbsent(account, batch) == null) {
+					submit(batch);
+					return future;
+				}
+				continue;
+			}
+			if(batch.add(request)) {
+				return future;
+			}
+			// the batch started running; it is leaving the map, so start another
+		}
+	}
+	
+	private void submit(Batch batch) {
+		try {
+			this.executor.execute(batch);
+		} catch (RejectedExecutionException e) {
+			this.pending.remove(batch.account, batch);
+			for(Request request : batch.close()) {
+				this.permits.release();
+				request.future.completeExceptionally(e);
+			}
+		}
+	}
+	
+	/**
+	 * @return Number of verifications submitted and not yet completed.
+	 */
+	public int inFlight() {
+		return this.maxInFlight - this.permits.availablePermits();
+	}
+	
+	/**
+	 * @return Number of verifications rejected for exceeding the in-flight limit.
+	 */
+	public long rejectedCount() {
+		return this.rejected.sum();
+	}
+	
+	/**
+	 * @return Number of account lookups made; lower than the number of verifications when
+	 * 		requests for the same account were batched.
+	 */
+	public long batchCount() {
+		return this.batches.sum();
+	}
+	
+	/**
+	 * Shuts down the default executor. Pending verifications still complete.
+	 */
+	@Override
+	public void close() {
+		if(this.ownsExecutor) {
+			((ExecutorService) this.executor).shutdown();
+		}
+	}
+	
+	private static final class Request {
+		
+		final String code;
+		final long unixTime;
+		final CompletableFuture<VerificationResult> future;
+		
+		Request(String code, long unixTime, CompletableFuture<VerificationResult> future) {
+			this.code = code;
+			this.unixTime = unixTime;
+			this.future = future;
+		}
+	}
+	
+	private final class Batch implements Runnable {
+		
+		final String account;
+		private List<Request> requests = new ArrayList<Request>(4);
+		
+		Batch(String account, Request first) {
+			this.account = account;
+			this.requests.add(first);
+		}
+		
+		synchronized boolean add(Request request) {
+			if(this.requests == null) {
+				return false;
+			}
+			this.requests.add(request);
+			return true;
+		}
+		
+		synchronized List<Request> close() {
+			List<Request> closed = this.requests;
+			this.requests = null;
+			return closed;
+		}
+		
+		@Override
+		public void run() {
+			// new requests for the account go to a new batch from here on
+			OtpVerificationService.this.pending.remove(this.account, this);
+			List<Request> requests = close();
+			OtpVerificationService.this.batches.increment();
+			OTPAuthentication auth = null;
+			Exception failure = null;
+			try {
+				auth = OtpVerificationService.this.resolver.resolve(this.account);
+			} catch (Exception e) {
+				failure = e;
+			}
+			Object[] outcomes = new Object[requests.size()];
+			for(int i = 0; i < outcomes.length; i++) {
+				try {
+					outcomes[i] = failure != null ? failure : verify(auth, requests.get(i));
+				} catch (RuntimeException e) {
+					outcomes[i] = e;
+				}
+			}
+			// free the permits before completing, so that callers see them available
+			OtpVerificationService.this.permits.release(outcomes.length);
+			for(int i = 0; i < outcomes.length; i++) {
+				CompletableFuture<VerificationResult> future = requests.get(i).future;
+				if(outcomes[i] instanceof VerificationResult) {
+					future.complete((VerificationResult) outcomes[i]);
+				}
+				else {
+					future.completeExceptionally((Exception) outcomes[i]);
+				}
+			}
+		}
+		
+		private VerificationResult verify(OTPAuthentication auth, Request request) {
+			if(auth == null) {
+				return VerificationResult.INVALID;
+			}
+			AttemptThrottle throttle = OtpVerificationService.this.throttle;
+			if(throttle == null) {
+				return verify(auth, request.code, request.unixTime);
+			}
+			// counted before checking, so the requests of a batch cannot all pass a lockout check
+			if(throttle.acquire(this.account, request.unixTime) > 0) {
+				return TotpVerifier.throttled(auth.spec().algo());
+			}
+			VerificationResult result = verify(auth, request.code, request.unixTime);
+			if(result.isValid()) {
+				throttle.recordSuccess(this.account);
+			}
+			return result;
+		}
+		
+		private VerificationResult verify(OTPAuthentication auth, String code, long unixTime) {
+			UsedCodeRegistry registry = OtpVerificationService.this.registry;
+			int behind = OtpVerificationService.this.lookBehind;
+			int ahead = OtpVerificationService.this.lookAhead;
+			if(registry == null) {
+				return auth.verify(code, unixTime, behind, ahead);
+			}
+			return auth.verify(code, unixTime, behind, ahead, registry);
+		}
+	}
+
+}
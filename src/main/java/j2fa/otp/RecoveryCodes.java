@@ -0,0 +1,502 @@
+package j2fa.otp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import j2fa.utils.ByteUtils;
+import j2fa.utils.CryptoUtils;
+
+/**
+ * Single-use recovery codes, issued alongside TOTP for users who lose their authenticator.
+ *
+ * <p>Codes are 10 characters of Crockford's base 32, 50 random bits from
+ * {@link CryptoUtils#randomSeed(int)}, shown as {@code XXXXX-XXXXX}. Only a 64-bit keyed hash of
+ * each is kept: HMAC-SHA256 under a server-side pepper of the account and the code, so that a
+ * leaked table or snapshot reveals no usable code without the pepper.
+ *
+ * <p>Each account's hashes sit in a small open-addressing table of longs, 16 slots for the usual
+ * 10 codes. Verification reads every slot and compares without branching, so its timing does not
+ * depend on which code, if any, matched; a matched slot is then marked consumed by compare-and-set,
+ * so concurrent attempts with the same code have exactly one winner. Consumed slots stay occupied,
+ * and a new set of codes replaces the table as a whole.
+ *
+ * <p>Instances made by {@link #open(File, byte[])} are kept in a local snapshot file plus a
+ * journal next to it. Every change is appended to the journal and synced before the method
+ * making it returns, so a code that {@link #consume(String, CharSequence)} accepted stays
+ * consumed across restarts; issuing and consuming codes are rare enough to afford a sync each.
+ * Opening the file reads the snapshot, replays the journal over it and compacts both into a new
+ * snapshot, as {@link #compact()} does on demand. Instances made by the constructor are held in
+ * memory only.
+ *
+ * <p>Failed attempts should be limited, e.g. by an {@link AttemptThrottle}.
+ */
+public final class RecoveryCodes implements Closeable {
+
+	public static final int DEFAULT_COUNT = 10;
+	public static final int CODE_LENGTH = 10;
+	
+	private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+	private static final long EMPTY = 0L;
+	private static final long CONSUMED = 1L;
+	private static final int MAGIC = 0x4a325243; // "J2RC"
+	private static final int VERSION = 1;
+	private static final byte[] CHECK = "j2fa recovery codes".getBytes(StandardCharsets.US_ASCII);
+	// journal records
+	private static final byte GENERATED = 'G';
+	private static final byte REVOKED = 'R';
+	private static final byte USED = 'C';
+	
+	private final HotpKey pepper;
+	private final ConcurrentHashMap<String, AtomicLongArray> accounts = new ConcurrentHashMap<String, AtomicLongArray>();
+	private final File file; // null in memory
+	private FileChannel journal;
+	
+	/**
+	 * Codes held in memory only.
+	 * @param pepper Key of the hashes, kept apart from the snapshots, e.g. from a {@link SecretProvider}.
+	 */
+	public RecoveryCodes(byte[] pepper) {
+		this(pepper, null);
+	}
+	
+	private RecoveryCodes(byte[] pepper, File file) {
+		if(pepper == null || pepper.length < 16) {
+			throw new IllegalArgumentException("pepper must be at least 16 bytes.");
+		}
+		this.pepper = new HotpKey(pepper, HMACAlgorithmEnum.SHA256);
+		this.file = file;
+	}
+	
+	/**
+	 * Reads the codes kept in a snapshot file and its journal, and keeps later changes there.
+	 * @param file Snapshot file; created if missing, with the journal at {@code <file>.journal}.
+	 * @param pepper Key the hashes are made with.
+	 * @return The codes of the file.
+	 * @throws IOException if the files cannot be read or written, are not recovery codes, or
+	 * 		were made with another pepper.
+	 */
+	public static RecoveryCodes open(File file, byte[] pepper) throws IOException {
+		RecoveryCodes codes = new RecoveryCodes(pepper, file);
+		if(file.exists()) {
+			codes.readSnapshot();
+		}
+		File journal = journalFile(file);
+		if(journal.exists()) {
+			codes.replay(journal);
+		}
+		codes.journal = new FileOutputStream(journal, true).getChannel();
+		codes.compact();
+		return codes;
+	}
+	
+	/**
+	 * Issues {@value #DEFAULT_COUNT} new codes, replacing the account's previous ones.
+	 * @see #generate(String[], int)
+	 */
+	public String[] generate(String account) {
+		return generate(new String[] {account}, DEFAULT_COUNT)[0];
+	}
+	
+	/**
+	 * Issues new codes for many accounts at once from a single draw of random bytes, replacing
+	 * their previous codes.
+	 * @param accounts Account labels, see {@link OtpSpec#label()}.
+	 * @param count Number of codes per account.
+	 * @return The codes of each account, to show the user once; they cannot be recovered later.
+	 */
+	public String[][] generate(String[] accounts, int count) {
+		if(count <= 0 || count > 64) {
+			throw new IllegalArgumentException("count");
+		}
+		for(String account : accounts) {
+			if(account == null) {
+				throw new IllegalArgumentException("account");
+			}
+		}
+		byte[] random = CryptoUtils.randomSeed(accounts.length * count * Long.BYTES);
+		String[][] codes = new String[accounts.length][count];
+		AtomicLongArray[] tables = new AtomicLongArray[accounts.length];
+		char[] chars = new char[CODE_LENGTH + 1];
+		chars[CODE_LENGTH / 2] = '-';
+		for(int a = 0; a < accounts.length; a++) {
+			AtomicLongArray table = new AtomicLongArray(capacityFor(count));
+			for(int i = 0; i < count; i++) {
+				int off = (a * count + i) * Long.BYTES;
+				long bits = ByteUtils.bytesToLong(random, off);
+				Arrays.fill(random, off, off + Long.BYTES, (byte) 0);
+				for(int c = 0, p = 0; c < CODE_LENGTH; c++, p++) {
+					if(p == CODE_LENGTH / 2) {
+						p++;
+					}
+					chars[p] = ALPHABET[(int) (bits >>> (c * 5)) & 31];
+				}
+				long tag = tag(accounts[a], chars);
+				if(!insert(table, tag)) {
+					// a repeated code, 2^-50 likely: draw its replacement
+					byte[] more = CryptoUtils.randomSeed(Long.BYTES);
+					System.arraycopy(more, 0, random, off, Long.BYTES);
+					i--;
+					continue;
+				}
+				codes[a][i] = new String(chars);
+			}
+			tables[a] = table;
+		}
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		if(this.file != null) {
+			DataOutputStream out = new DataOutputStream(records);
+			try {
+				for(int a = 0; a < accounts.length; a++) {
+					out.writeByte(GENERATED);
+					writeTable(out, accounts[a], tables[a]);
+				}
+			} catch (IOException e) {
+				throw new UndeclaredThrowableException(e);
+			}
+		}
+		// into the journal in the same order as into memory
+		synchronized(this) {
+			for(int a = 0; a < accounts.length; a++) {
+				this.accounts.put(accounts[a], tables[a]);
+			}
+			append(records);
+		}
+		return codes;
+	}
+	
+	/**
+	 * Verifies a code and, if it is one of the account's unused codes, marks it used.
+	 * Case, dashes and spaces are ignored, and I, L and O are read as 1, 1 and 0.
+	 * @param account Account label.
+	 * @param code Code entered by the user.
+	 * @return Whether the code was valid and is now consumed, in the journal if there is one.
+	 * @throws UndeclaredThrowableException with the IOException if the journal cannot be written;
+	 * 		the code is then consumed in memory, but must not be accepted.
+	 */
+	public boolean consume(String account, CharSequence code) {
+		AtomicLongArray table = this.accounts.get(account);
+		char[] chars = normalize(code);
+		if(table == null || chars == null) {
+			return false;
+		}
+		long tag = tag(account, chars);
+		// every slot is read and compared, wherever the code is
+		int found = -1;
+		for(int i = 0; i < table.length(); i++) {
+			long diff = table.get(i) ^ tag;
+			// all ones if equal, else 0
+			long equal = ((diff | -diff) >> 63) ^ -1L;
+			found = (int) ((i & equal) | (found & ~equal));
+		}
+		if(found < 0 || !table.compareAndSet(found, tag, CONSUMED)) {
+			return false;
+		}
+		if(this.file != null) {
+			// by tag, so that replaying it over codes issued later does nothing
+			ByteArrayOutputStream record = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(record);
+			try {
+				out.writeByte(USED);
+				out.writeUTF(account);
+				out.writeLong(tag);
+			} catch (IOException e) {
+				throw new UndeclaredThrowableException(e);
+			}
+			synchronized(this) {
+				append(record);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @param account Account label.
+	 * @return The number of the account's codes not yet consumed; 0 if it has none.
+	 */
+	public int remaining(String account) {
+		AtomicLongArray table = this.accounts.get(account);
+		int remaining = 0;
+		if(table != null) {
+			for(int i = 0; i < table.length(); i++) {
+				long slot = table.get(i);
+				if(slot != EMPTY && slot != CONSUMED) {
+					remaining++;
+				}
+			}
+		}
+		return remaining;
+	}
+	
+	/**
+	 * Removes all of an account's codes.
+	 * @param account Account label.
+	 */
+	public void revoke(String account) {
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		if(this.file != null) {
+			DataOutputStream out = new DataOutputStream(record);
+			try {
+				out.writeByte(REVOKED);
+				out.writeUTF(account);
+			} catch (IOException e) {
+				throw new UndeclaredThrowableException(e);
+			}
+		}
+		synchronized(this) {
+			this.accounts.remove(account);
+			append(record);
+		}
+	}
+	
+	/**
+	 * @return The number of accounts with codes.
+	 */
+	public int size() {
+		return this.accounts.size();
+	}
+	
+	/**
+	 * Rewrites the snapshot with the current codes and empties the journal.
+	 * @throws IOException if the files cannot be written.
+	 */
+	public synchronized void compact() throws IOException {
+		if(this.journal == null) {
+			throw new IllegalStateException("Codes held in memory only, or closed.");
+		}
+		File tmp = new File(this.file.getPath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(check());
+			for(Map.Entry<String, AtomicLongArray> e : this.accounts.entrySet()) {
+				out.writeBoolean(true);
+				writeTable(out, e.getKey(), e.getValue());
+			}
+			out.writeBoolean(false);
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+		if(!tmp.renameTo(this.file)) {
+			throw new IOException("Could not replace " + this.file + " with the new snapshot.");
+		}
+		// replaying the journal over the new snapshot, after a crash right here, is harmless
+		this.journal.truncate(0);
+		this.journal.force(true);
+	}
+	
+	/**
+	 * Closes the journal; later changes fail.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if(this.journal != null) {
+			this.journal.close();
+			this.journal = null;
+		}
+	}
+	
+	private static File journalFile(File file) {
+		return new File(file.getPath() + ".journal");
+	}
+	
+	/**
+	 * Appends records to the journal and syncs it; the caller holds the lock.
+	 */
+	private void append(ByteArrayOutputStream records) {
+		if(this.file == null) {
+			return;
+		}
+		if(this.journal == null) {
+			throw new IllegalStateException("Closed: " + this.file);
+		}
+		long position = -1L;
+		try {
+			position = this.journal.size();
+			ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+			while(buffer.hasRemaining()) {
+				this.journal.write(buffer);
+			}
+			this.journal.force(false);
+		} catch (IOException e) {
+			if(position >= 0) {
+				try {
+					// drop a partial record, so that later ones stay readable
+					this.journal.truncate(position);
+				} catch (IOException te) {
+					// later records would follow the partial one: accept no more changes
+					try {
+						this.journal.close();
+					} catch (IOException ignored) {
+						// closing anyway
+					}
+					this.journal = null;
+				}
+			}
+			throw new UndeclaredThrowableException(e);
+		}
+	}
+	
+	private static void writeTable(DataOutputStream out, String account, AtomicLongArray table) throws IOException {
+		out.writeUTF(account);
+		out.writeShort(table.length());
+		for(int i = 0; i < table.length(); i++) {
+			out.writeLong(table.get(i));
+		}
+	}
+	
+	private static AtomicLongArray readTable(DataInputStream in, File file) throws IOException {
+		int capacity = in.readShort();
+		if(capacity <= 0 || Integer.bitCount(capacity) != 1) {
+			throw new IOException("Corrupt file: " + file);
+		}
+		AtomicLongArray table = new AtomicLongArray(capacity);
+		for(int i = 0; i < capacity; i++) {
+			table.set(i, in.readLong());
+		}
+		return table;
+	}
+	
+	private void readSnapshot() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+		try {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a recovery code snapshot: " + this.file);
+			}
+			if(in.readLong() != check()) {
+				throw new IOException("Snapshot made with another pepper: " + this.file);
+			}
+			while(in.readBoolean()) {
+				String account = in.readUTF();
+				this.accounts.put(account, readTable(in, this.file));
+			}
+		} finally {
+			in.close();
+		}
+	}
+	
+	private void replay(File journal) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+		try {
+			while(true) {
+				int type = in.read();
+				if(type < 0) {
+					break;
+				}
+				String account = in.readUTF();
+				if(type == GENERATED) {
+					this.accounts.put(account, readTable(in, journal));
+				}
+				else if(type == REVOKED) {
+					this.accounts.remove(account);
+				}
+				else if(type == USED) {
+					long tag = in.readLong();
+					AtomicLongArray table = this.accounts.get(account);
+					for(int i = 0; table != null && i < table.length(); i++) {
+						table.compareAndSet(i, tag, CONSUMED);
+					}
+				}
+				else {
+					throw new IOException("Corrupt journal: " + journal);
+				}
+			}
+		} catch (EOFException e) {
+			// torn write at the end of the journal; its change was never reported done
+		} finally {
+			in.close();
+		}
+	}
+	
+	private long check() {
+		return ByteUtils.bytesToLong(this.pepper.hmac(CHECK), 0);
+	}
+	
+	private static int capacityFor(int count) {
+		// at most five eighths full
+		int capacity = 2;
+		while(capacity * 5 < count * 8) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+	
+	private static boolean insert(AtomicLongArray table, long tag) {
+		int mask = table.length() - 1;
+		int i = (int) tag & mask;
+		while(table.get(i) != EMPTY) {
+			if(table.get(i) == tag) {
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		table.set(i, tag);
+		return true;
+	}
+	
+	private long tag(String account, char[] code) {
+		byte[] label = account.getBytes(StandardCharsets.UTF_8);
+		byte[] message = new byte[label.length + 1 + CODE_LENGTH];
+		System.arraycopy(label, 0, message, 0, label.length);
+		int off = label.length + 1;
+		for(int i = 0, c = 0; i < code.length; i++) {
+			if(code[i] != '-') {
+				message[off + c++] = (byte) code[i];
+			}
+		}
+		byte[] hash = HmacScratch.get().hash;
+		this.pepper.hmac(message, 0, message.length, hash);
+		long tag = ByteUtils.bytesToLong(hash, 0);
+		// keep clear of the markers
+		return tag == EMPTY || tag == CONSUMED ? tag | 2L : tag;
+	}
+	
+	/**
+	 * @return The code's symbols, or null if it is not a code.
+	 */
+	private static char[] normalize(CharSequence code) {
+		if(code == null) {
+			return null;
+		}
+		char[] chars = new char[CODE_LENGTH];
+		int n = 0;
+		for(int i = 0; i < code.length(); i++) {
+			char c = Character.toUpperCase(code.charAt(i));
+			if(c == '-' || c == ' ') {
+				continue;
+			}
+			if(c == 'I' || c == 'L') {
+				c = '1';
+			}
+			else if(c == 'O') {
+				c = '0';
+			}
+			if(n == CODE_LENGTH || !((c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z' && c != 'U'))) {
+				return null;
+			}
+			chars[n++] = c;
+		}
+		return n == CODE_LENGTH ? chars : null;
+	}
+
+}
@@ -0,0 +1,20 @@
+package j2fa.otp;
+
+import java.io.IOException;
+
+/**
+ * Source of ready-to-use HMAC key state per account, for secrets that are not kept in the clear, 
+ * see {@link EnvelopeSecretProvider} and {@link CachingSecretProvider}. The keys are used with 
+ * {@link OTPAuthentication#OTPAuthentication(HotpKey, String, String, Integer, Integer)}.
+ */
+public interface SecretProvider {
+
+	/**
+	 * @param account Account whose key to return.
+	 * @return The account's key state, or null if the account is unknown. Callers use it for 
+	 * 		the verification at hand and do not keep or destroy it.
+	 * @throws IOException if the secret cannot be loaded or decrypted.
+	 */
+	HotpKey key(String account) throws IOException;
+
+}
@@ -0,0 +1,443 @@
+package j2fa.otp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import j2fa.metrics.OtpMetrics;
+import j2fa.utils.ByteUtils;
+
+/**
+ * Off-heap store of OTP secrets and parameters for large numbers of accounts, backed by a
+ * memory-mapped file of fixed-size records indexed by a numeric account id.
+ *
+ * <p>Each {@value #RECORD_SIZE}-byte record holds the secret (up to {@value #MAX_SECRET} bytes),
+ * algorithm, digits, period or counter, and the last time step or counter used, so TOTP codes
+ * are accepted only once. Codes are computed straight from the mapped buffer: each HMAC pad is
+ * built in a block confined to the calling thread, hashed by a digest confined to it too, and
+ * wiped, so no key state outlives the code on the heap and nothing is allocated per code.
+ *
+ * <p>The records follow a header of the same size, identifying the file and its layout, which
+ * is checked when the file is opened.
+ *
+ * <p>Record access is serialized by striped locks on the account id; distinct accounts rarely
+ * contend. The file is sparse, only the pages of enrolled ids take disk space. Once the store 
+ * is closed, every access throws an {@link IllegalStateException}.
+ */
+public final class SecretStore implements Closeable {
+
+	public static final int RECORD_SIZE = 96;
+	public static final int MAX_SECRET = 64;
+	
+	// record layout
+	private static final int FLAGS = 0;
+	private static final int ALGO = 1;
+	private static final int DIGITS = 2;
+	private static final int SECRET_LENGTH = 3;
+	private static final int PERIOD = 4;
+	private static final int COUNTER = 8;
+	private static final int LAST_USED = 16;
+	private static final int SECRET = 24;
+	
+	// file header, one record long so that records stay aligned
+	private static final int MAGIC = 0x4a324653; // "J2FS"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = RECORD_SIZE;
+	
+	private static final byte ENROLLED = 1;
+	private static final byte HOTP = 2;
+	
+	// 4M records per mapping keeps every offset within an int
+	private static final int SEGMENT_SHIFT = 22;
+	private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+	private static final int STRIPES = 256;
+	
+	private static final HMACAlgorithmEnum[] ALGOS = HMACAlgorithmEnum.values();
+	
+	private final RandomAccessFile file;
+	private final MappedByteBuffer[] segments;
+	private final long capacity;
+	private final Object[] locks = new Object[STRIPES];
+	private volatile boolean closed;
+	
+	private SecretStore(RandomAccessFile file, long capacity) throws IOException {
+		this.file = file;
+		this.capacity = capacity;
+		FileChannel channel = file.getChannel();
+		int count = (int) ((capacity + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+		this.segments = new MappedByteBuffer[count];
+		for(int i = 0; i < count; i++) {
+			long records = Math.min(capacity - ((long) i << SEGMENT_SHIFT), 1L << SEGMENT_SHIFT);
+			this.segments[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+					HEADER_SIZE + ((long) i << SEGMENT_SHIFT) * RECORD_SIZE, records * RECORD_SIZE);
+		}
+		for(int i = 0; i < STRIPES; i++) {
+			this.locks[i] = new Object();
+		}
+	}
+	
+	/**
+	 * Opens or creates a store.
+	 * @param file Backing file; created if missing, and grown to fit the capacity.
+	 * @param capacity Number of account ids, from 0 to capacity - 1.
+	 * @return The store, to be closed when done.
+	 * @throws IOException if the file cannot be opened or mapped, or is not a store of this layout.
+	 */
+	public static SecretStore open(File file, long capacity) throws IOException {
+		if(capacity <= 0) {
+			throw new IllegalArgumentException("capacity");
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			header(raf, file);
+			return new SecretStore(raf, capacity);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+	
+	private static void header(RandomAccessFile raf, File file) throws IOException {
+		if(raf.length() == 0) {
+			raf.writeInt(MAGIC);
+			raf.writeInt(VERSION);
+			raf.writeInt(RECORD_SIZE);
+			return;
+		}
+		if(raf.length() < HEADER_SIZE || raf.readInt() != MAGIC) {
+			throw new IOException(file + " is not a secret store.");
+		}
+		if(raf.readInt() != VERSION || raf.readInt() != RECORD_SIZE) {
+			throw new IOException(file + " has an unsupported version or record size.");
+		}
+	}
+	
+	public long capacity() {
+		return this.capacity;
+	}
+	
+	/**
+	 * Enrolls or replaces a TOTP account.
+	 * @param id Account id.
+	 * @param secret Secret key, at most {@value #MAX_SECRET} bytes.
+	 * @param algo OTP hash algorithm: SHA1 (default), SHA256, or SHA512.
+	 * @param digits Number of digits in the code. Recommended: 6 or 8.
+	 * @param period TOTP code validity period in seconds. Recommended: 30 seconds.
+	 */
+	public void putTotp(long id, byte[] secret, HMACAlgorithmEnum algo, int digits, int period) {
+		if(period <= 0) {
+			throw new IllegalArgumentException("period");
+		}
+		put(id, secret, algo, digits, ENROLLED, period, 0L);
+	}
+	
+	/**
+	 * Enrolls or replaces an HOTP account.
+	 * @param id Account id.
+	 * @param secret Secret key, at most {@value #MAX_SECRET} bytes.
+	 * @param algo OTP hash algorithm: SHA1 (default), SHA256, or SHA512.
+	 * @param digits Number of digits in the code. Recommended: 6 or 8.
+	 * @param counter Initial HOTP counter value.
+	 */
+	public void putHotp(long id, byte[] secret, HMACAlgorithmEnum algo, int digits, long counter) {
+		put(id, secret, algo, digits, (byte)(ENROLLED | HOTP), 0, counter);
+	}
+	
+	private void put(long id, byte[] secret, HMACAlgorithmEnum algo, int digits,
+			byte flags, int period, long counter) {
+		if(secret == null || secret.length == 0 || secret.length > MAX_SECRET) {
+			throw new IllegalArgumentException("secret");
+		}
+		if(digits < 1 || digits > 8) {
+			throw new IllegalArgumentException("digits");
+		}
+		if(algo == null) {
+			algo = HMACAlgorithmEnum.SHA1;
+		}
+		ByteBuffer b = segment(id);
+		int base = base(id);
+		synchronized(lock(id)) {
+			checkOpen();
+			b.put(base + FLAGS, flags);
+			b.put(base + ALGO, (byte) algo.ordinal());
+			b.put(base + DIGITS, (byte) digits);
+			b.put(base + SECRET_LENGTH, (byte) secret.length);
+			b.putInt(base + PERIOD, period);
+			b.putLong(base + COUNTER, counter);
+			b.putLong(base + LAST_USED, -1L);
+			for(int i = 0; i < MAX_SECRET; i++) {
+				b.put(base + SECRET + i, i < secret.length ? secret[i] : 0);
+			}
+		}
+	}
+	
+	/**
+	 * Removes an account, overwriting its secret.
+	 * @param id Account id.
+	 */
+	public void remove(long id) {
+		ByteBuffer b = segment(id);
+		int base = base(id);
+		synchronized(lock(id)) {
+			checkOpen();
+			for(int i = 0; i < RECORD_SIZE; i++) {
+				b.put(base + i, (byte) 0);
+			}
+		}
+	}
+	
+	/**
+	 * @param id Account id.
+	 * @return Whether the account is enrolled.
+	 */
+	public boolean contains(long id) {
+		ByteBuffer b = segment(id);
+		int base = base(id);
+		synchronized(lock(id)) {
+			checkOpen();
+			return (b.get(base + FLAGS) & ENROLLED) != 0;
+		}
+	}
+	
+	/**
+	 * @param id Account id.
+	 * @return The last time step (TOTP) or counter (HOTP) used, or -1 if none.
+	 */
+	public long lastUsed(long id) {
+		ByteBuffer b = segment(id);
+		int base = base(id);
+		synchronized(lock(id)) {
+			checkOpen();
+			enrolled(b, base, id);
+			return b.getLong(base + LAST_USED);
+		}
+	}
+	
+	/**
+	 * @param id Account id of a TOTP account.
+	 * @param unixTime Unix time in milliseconds.
+	 * @return The TOTP code for the given Unix time.
+	 */
+	public String password(long id, long unixTime) {
+		ByteBuffer b = segment(id);
+		int base = base(id);
+		int digits;
+		int otp;
+		HMACAlgorithmEnum algo;
+		OtpMetrics.Timer timer = OtpMetrics.startTimer();
+		synchronized(lock(id)) {
+			checkOpen();
+			totp(b, base, id);
+			digits = b.get(base + DIGITS);
+			otp = code(b, base, (unixTime/1000L)/b.getInt(base + PERIOD));
+			// read under the lock, as a concurrent put may change it
+			algo = ALGOS[b.get(base + ALGO)];
+		}
+		timer.generated(algo);
+		return format(otp, digits);
+	}
+	
+	/**
+	 * Advances the counter of an HOTP account.
+	 * @param id Account id of an HOTP account.
+	 * @return The HOTP code for the next counter.
+	 */
+	public String password(long id) {
+		ByteBuffer b = segment(id);
+		int base = base(id);
+		int digits;
+		int otp;
+		HMACAlgorithmEnum algo;
+		OtpMetrics.Timer timer = OtpMetrics.startTimer();
+		synchronized(lock(id)) {
+			checkOpen();
+			if((enrolled(b, base, id) & HOTP) == 0) {
+				throw new IllegalStateException("Account " + id + " is TOTP, not HOTP.");
+			}
+			long counter = b.getLong(base + COUNTER) + 1;
+			b.putLong(base + COUNTER, counter);
+			b.putLong(base + LAST_USED, counter);
+			digits = b.get(base + DIGITS);
+			otp = code(b, base, counter);
+			algo = ALGOS[b.get(base + ALGO)];
+		}
+		timer.generated(algo);
+		return format(otp, digits);
+	}
+	
+	/**
+	 * Verifies a TOTP code against the time step of the given Unix time and its neighbours,
+	 * like {@link OTPAuthentication#verify(String, long, int, int)}, and records the matching
+	 * step so that neither it nor an earlier one is accepted again.
+	 * @param id Account id of a TOTP account.
+	 * @param code Code entered by the user.
+	 * @param unixTime Unix time in milliseconds.
+	 * @param lookBehind Number of earlier time steps accepted.
+	 * @param lookAhead Number of later time steps accepted.
+	 * @return The outcome, {@link VerificationResult#REPLAYED} if the step was already used.
+	 */
+	public VerificationResult verify(long id, String code, long unixTime, int lookBehind, int lookAhead) {
+		if(lookBehind < 0 || lookAhead < 0) {
+			throw new IllegalArgumentException("Negative window.");
+		}
+		ByteBuffer b = segment(id);
+		int base = base(id);
+		OtpMetrics.Timer timer = OtpMetrics.startTimer();
+		VerificationResult result;
+		HMACAlgorithmEnum algo;
+		synchronized(lock(id)) {
+			checkOpen();
+			result = verify(b, base, id, code, unixTime, lookBehind, lookAhead);
+			algo = ALGOS[b.get(base + ALGO)];
+		}
+		timer.verified(algo, result);
+		return result;
+	}
+	
+	// under the account's lock
+	private VerificationResult verify(ByteBuffer b, int base, long id, String code, long unixTime, 
+			int lookBehind, int lookAhead) {
+		totp(b, base, id);
+		int otp = HmacOneTimePassword.parse(code, b.get(base + DIGITS));
+		if(otp < 0) {
+			return VerificationResult.INVALID;
+		}
+		long time = (unixTime/1000L)/b.getInt(base + PERIOD);
+		int widest = Math.max(lookBehind, lookAhead);
+		for(int distance = 0; distance <= widest; distance++) {
+			if(distance <= lookBehind && HmacOneTimePassword.equal(otp, code(b, base, time - distance))) {
+				return accept(b, base, -distance, time - distance);
+			}
+			if(distance > 0 && distance <= lookAhead
+					&& HmacOneTimePassword.equal(otp, code(b, base, time + distance))) {
+				return accept(b, base, distance, time + distance);
+			}
+		}
+		return VerificationResult.INVALID;
+	}
+	
+	private static VerificationResult accept(ByteBuffer b, int base, int offset, long step) {
+		if(step <= b.getLong(base + LAST_USED)) {
+			return VerificationResult.REPLAYED;
+		}
+		b.putLong(base + LAST_USED, step);
+		return VerificationResult.valid(offset, step);
+	}
+	
+	/**
+	 * Flushes the records to the backing file.
+	 */
+	public void force() {
+		checkOpen();
+		for(MappedByteBuffer segment : this.segments) {
+			segment.force();
+		}
+	}
+	
+	/**
+	 * Waits for the accesses in progress, then flushes and closes the backing file. The mapping 
+	 * itself is released by the garbage collector. Closing again has no effect.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if(this.closed) {
+			return;
+		}
+		this.closed = true;
+		// accesses check the flag under their stripe's lock, so none is left after this
+		for(Object lock : this.locks) {
+			synchronized(lock) {
+				// nothing: only waits for the holder
+			}
+		}
+		for(MappedByteBuffer segment : this.segments) {
+			segment.force();
+		}
+		this.file.close();
+	}
+	
+	private void checkOpen() {
+		if(this.closed) {
+			throw new IllegalStateException("The store is closed.");
+		}
+	}
+	
+	private int code(ByteBuffer b, int base, long movingFactor) {
+		HMACAlgorithmEnum algo = ALGOS[b.get(base + ALGO)];
+		int length = b.get(base + SECRET_LENGTH);
+		int macLength = algo.macLength();
+		HmacScratch scratch = HmacScratch.get();
+		int blockSize = algo.blockSize();
+		MessageDigest md = scratch.digest(algo);
+		byte[] block = scratch.block;
+		byte[] hash = scratch.hash;
+		ByteUtils.longToBytes(movingFactor, scratch.message, 0);
+		try {
+			md.reset();
+			pad(md, b, base, length, block, blockSize, HotpKey.IPAD);
+			md.update(scratch.message, 0, Long.BYTES);
+			md.digest(hash, 0, macLength);
+			pad(md, b, base, length, block, blockSize, HotpKey.OPAD);
+			md.update(hash, 0, macLength);
+			md.digest(hash, 0, macLength);
+		} catch (DigestException de) {
+			throw new UndeclaredThrowableException(de);
+		} finally {
+			Arrays.fill(block, 0, blockSize, (byte) 0);
+		}
+		return HmacOneTimePassword.truncate(hash, macLength, b.get(base + DIGITS));
+	}
+	
+	private static void pad(MessageDigest md, ByteBuffer b, int base, int length, byte[] block, int blockSize, 
+			byte pad) {
+		for(int i = 0; i < length; i++) {
+			block[i] = (byte)(b.get(base + SECRET + i) ^ pad);
+		}
+		Arrays.fill(block, length, blockSize, pad);
+		md.update(block, 0, blockSize);
+	}
+	
+	private static String format(int otp, int digits) {
+		char[] chars = new char[digits];
+		HmacOneTimePassword.format(otp, digits, chars, 0);
+		return new String(chars);
+	}
+	
+	private static byte enrolled(ByteBuffer b, int base, long id) {
+		byte flags = b.get(base + FLAGS);
+		if((flags & ENROLLED) == 0) {
+			throw new IllegalStateException("Account " + id + " is not enrolled.");
+		}
+		return flags;
+	}
+	
+	private static void totp(ByteBuffer b, int base, long id) {
+		if((enrolled(b, base, id) & HOTP) != 0) {
+			throw new IllegalStateException("Account " + id + " is HOTP, not TOTP.");
+		}
+	}
+	
+	private ByteBuffer segment(long id) {
+		if(id < 0 || id >= this.capacity) {
+			throw new IndexOutOfBoundsException("Account id " + id + " outside 0.." + (this.capacity - 1));
+		}
+		return this.segments[(int) (id >>> SEGMENT_SHIFT)];
+	}
+	
+	private static int base(long id) {
+		return ((int) id & SEGMENT_MASK) * RECORD_SIZE;
+	}
+	
+	private Object lock(long id) {
+		return this.locks[(int) (id ^ (id >>> 32)) & (STRIPES - 1)];
+	}
+
+}
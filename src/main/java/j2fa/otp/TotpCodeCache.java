@@ -0,0 +1,257 @@
+package j2fa.otp;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in cache of TOTP codes by account and time step, for issuers sending the current code of
+ * the same accounts by SMS, e-mail or push many times per period, see
+ * {@link OTPAuthentication#password(TotpCodeCache)}.
+ *
+ * <p>Each account holds the code of one time step and of the step after it, tagged with the
+ * step, so codes are never served past their step and need no invalidation when it rolls over.
+ * {@link #refresh(long)}, typically run by {@link #scheduleRefresh(ScheduledExecutorService, int, long)}
+ * shortly before each period boundary, computes both for every account used within the last
+ * {@code activeMillis}, so that hot accounts keep hitting across boundaries, and drops the rest.
+ *
+ * <p>Hits read a volatile field and allocate nothing. At most {@code maxSize} accounts are
+ * held: beyond that, the tenth of them used least recently is evicted at once, which keeps the
+ * cost of eviction low per insertion.
+ *
+ * <p>The codes are as sensitive as the secrets for the length of their step; only enable the
+ * cache where codes are issued, not where they are verified.
+ */
+public final class TotpCodeCache {
+
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final int maxSize;
+	private final long activeMillis;
+	private final AtomicBoolean evicting = new AtomicBoolean();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder precomputed = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	
+	/**
+	 * @param maxSize Maximum number of accounts held.
+	 * @param activeMillis Milliseconds since its last use during which {@link #refresh(long)}
+	 * 		keeps an account and precomputes its codes.
+	 */
+	public TotpCodeCache(int maxSize, long activeMillis) {
+		if(maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize");
+		}
+		if(activeMillis <= 0) {
+			throw new IllegalArgumentException("activeMillis");
+		}
+		this.maxSize = maxSize;
+		this.activeMillis = activeMillis;
+	}
+	
+	/**
+	 * @param spec TOTP key material and parameters, the same instance on every call for an
+	 * 		account; codes cached for another instance under the same label, e.g. before the
+	 * 		secret was replaced, are not used.
+	 * @param unixTime Unix time in milliseconds.
+	 * @return The TOTP code for the given Unix time.
+	 */
+	public String password(OtpSpec spec, long unixTime) {
+		long step = spec.timeStep(unixTime);
+		String label = spec.label();
+		Entry entry = this.entries.get(label);
+		if(entry != null && entry.spec == spec) {
+			if(unixTime - entry.lastUsed >= 1000L) {
+				// at most one write per second, so hot accounts do not bounce the cache line
+				entry.lastUsed = unixTime;
+			}
+			String code = entry.codes.code(step);
+			if(code != null) {
+				this.hits.increment();
+				return code;
+			}
+			this.misses.increment();
+			code = spec.code(step);
+			entry.codes = new Codes(step, code, null);
+			return code;
+		}
+		this.misses.increment();
+		String code = spec.code(step);
+		entry = new Entry(spec, unixTime, new Codes(step, code, null));
+		if(this.entries.put(label, entry) == null && this.entries.size() > this.maxSize) {
+			evict();
+		}
+		return code;
+	}
+	
+	/**
+	 * Computes the codes of the current and the next time step of every account used within
+	 * {@code activeMillis}, and drops the accounts that were not.
+	 * @param unixTime Unix time in milliseconds.
+	 */
+	public void refresh(long unixTime) {
+		Iterator<Entry> it = this.entries.values().iterator();
+		while(it.hasNext()) {
+			Entry entry = it.next();
+			if(unixTime - entry.lastUsed > this.activeMillis) {
+				it.remove();
+				continue;
+			}
+			OtpSpec spec = entry.spec;
+			long step = spec.timeStep(unixTime);
+			Codes codes = entry.codes;
+			String current = codes.code(step);
+			if(current == null) {
+				current = spec.code(step);
+				this.precomputed.increment();
+			}
+			String next = codes.code(step + 1);
+			if(next == null) {
+				next = spec.code(step + 1);
+				this.precomputed.increment();
+			}
+			// a racing miss may replace these with its own step's code, which is as good
+			entry.codes = new Codes(step, current, next);
+		}
+	}
+	
+	/**
+	 * Runs {@link #refresh(long)} once per period, {@code leadMillis} before each boundary, on
+	 * the given scheduler.
+	 * @param scheduler Scheduler, not shut down by the cache.
+	 * @param period TOTP period in seconds of the accounts to keep warm.
+	 * @param leadMillis Milliseconds before each boundary at which to refresh, less than a period.
+	 * @return The scheduled task, to cancel it.
+	 */
+	public ScheduledFuture<?> scheduleRefresh(ScheduledExecutorService scheduler, int period, long leadMillis) {
+		long periodMillis = period * 1000L;
+		if(period <= 0 || leadMillis < 0 || leadMillis >= periodMillis) {
+			throw new IllegalArgumentException("0 <= leadMillis < period * 1000 is required.");
+		}
+		long now = System.currentTimeMillis();
+		long delay = (periodMillis - leadMillis - now % periodMillis + periodMillis) % periodMillis;
+		return scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				refresh(System.currentTimeMillis());
+			}
+		}, delay, periodMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Drops an account's codes, e.g. after its secret was replaced.
+	 * @param label Account label, see {@link OtpSpec#label()}.
+	 */
+	public void invalidate(String label) {
+		this.entries.remove(label);
+	}
+	
+	private void evict() {
+		if(!this.evicting.compareAndSet(false, true)) {
+			// another thread is at it; the map may exceed the bound by a few entries meanwhile
+			return;
+		}
+		try {
+			long[] used = new long[this.entries.size() + 16];
+			int n = 0;
+			for(Entry entry : this.entries.values()) {
+				if(n == used.length) {
+					break;
+				}
+				used[n++] = entry.lastUsed;
+			}
+			int target = this.maxSize - this.maxSize / 10 - 1;
+			if(n <= target) {
+				return;
+			}
+			Arrays.sort(used, 0, n);
+			long cutoff = used[n - target - 1];
+			Iterator<Entry> it = this.entries.values().iterator();
+			while(it.hasNext() && this.entries.size() > target) {
+				if(it.next().lastUsed <= cutoff) {
+					it.remove();
+					this.evictions.increment();
+				}
+			}
+		} finally {
+			this.evicting.set(false);
+		}
+	}
+	
+	/**
+	 * @return The number of accounts held.
+	 */
+	public int size() {
+		return this.entries.size();
+	}
+	
+	/**
+	 * @return The number of codes served from the cache.
+	 */
+	public long hitCount() {
+		return this.hits.sum();
+	}
+	
+	/**
+	 * @return The number of codes computed on request.
+	 */
+	public long missCount() {
+		return this.misses.sum();
+	}
+	
+	/**
+	 * @return The number of codes computed by {@link #refresh(long)}.
+	 */
+	public long precomputedCount() {
+		return this.precomputed.sum();
+	}
+	
+	/**
+	 * @return The number of accounts evicted for exceeding the size bound.
+	 */
+	public long evictionCount() {
+		return this.evictions.sum();
+	}
+	
+	/**
+	 * Codes of a time step and the next, replaced as a whole.
+	 */
+	private static final class Codes {
+		
+		final long step;
+		final String code;
+		final String next; // null if not precomputed
+		
+		Codes(long step, String code, String next) {
+			this.step = step;
+			this.code = code;
+			this.next = next;
+		}
+		
+		String code(long step) {
+			if(step == this.step) {
+				return this.code;
+			}
+			return step == this.step + 1 ? this.next : null;
+		}
+	}
+	
+	private static final class Entry {
+		
+		final OtpSpec spec;
+		volatile long lastUsed;
+		volatile Codes codes;
+		
+		Entry(OtpSpec spec, long lastUsed, Codes codes) {
+			this.spec = spec;
+			this.lastUsed = lastUsed;
+			this.codes = codes;
+		}
+	}
+
+}
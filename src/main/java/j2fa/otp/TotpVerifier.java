@@ -0,0 +1,178 @@
+package j2fa.otp;
+
+import j2fa.metrics.OtpMetrics;
+
+/**
+ * Immutable TOTP verifier: an {@link OtpSpec} with its verification window and, optionally,
+ * replay protection, drift tracking and brute-force throttling.
+ *
+ * <p>All fields are final, so a hot account's verifier is built once, cached, e.g. in a
+ * {@link java.util.concurrent.ConcurrentHashMap}, and used by any number of threads at once.
+ * The registry, tracker and throttle it refers to are thread-safe and typically shared by all
+ * accounts.
+ * @see Sections 5.2 and 6 of https://tools.ietf.org/html/rfc6238
+ */
+public final class TotpVerifier {
+
+	private final OtpSpec spec;
+	private final int lookBehind;
+	private final int lookAhead;
+	private final UsedCodeRegistry registry;
+	private final DriftTracker drift;
+	private final AttemptThrottle throttle;
+	
+	/**
+	 * Verifier accepting replays and centred on the current time step.
+	 * @param spec TOTP key material and parameters.
+	 * @param lookBehind Number of earlier time steps accepted, to account for network latency.
+	 * @param lookAhead Number of later time steps accepted, to account for clock drift.
+	 */
+	public TotpVerifier(OtpSpec spec, int lookBehind, int lookAhead) {
+		this(spec, lookBehind, lookAhead, null, null);
+	}
+	
+	/**
+	 * @param spec TOTP key material and parameters.
+	 * @param lookBehind Number of earlier time steps accepted, to account for network latency.
+	 * @param lookAhead Number of later time steps accepted, to account for clock drift.
+	 * @param registry Time steps already accepted; null to accept replays.
+	 * @param drift Drift learned from earlier verifications; null to centre on the current step.
+	 */
+	public TotpVerifier(OtpSpec spec, int lookBehind, int lookAhead, UsedCodeRegistry registry,
+			DriftTracker drift) {
+		this(spec, lookBehind, lookAhead, registry, drift, null);
+	}
+	
+	/**
+	 * @param spec TOTP key material and parameters.
+	 * @param lookBehind Number of earlier time steps accepted, to account for network latency.
+	 * @param lookAhead Number of later time steps accepted, to account for clock drift.
+	 * @param registry Time steps already accepted; null to accept replays.
+	 * @param drift Drift learned from earlier verifications; null to centre on the current step.
+	 * @param throttle Failed attempts per account; null for no throttling.
+	 */
+	public TotpVerifier(OtpSpec spec, int lookBehind, int lookAhead, UsedCodeRegistry registry,
+			DriftTracker drift, AttemptThrottle throttle) {
+		if(spec == null) {
+			throw new IllegalArgumentException("spec");
+		}
+		if(!spec.isTotp()) {
+			throw new IllegalArgumentException("This is an instance of HOTP, not TOTP.");
+		}
+		if(lookBehind < 0 || lookAhead < 0) {
+			throw new IllegalArgumentException("Negative window.");
+		}
+		if((registry != null || drift != null || throttle != null) && (spec.account() == null || spec.account().isEmpty())) {
+			// fail now rather than on the first valid code
+			throw new IllegalArgumentException("account");
+		}
+		this.spec = spec;
+		this.lookBehind = lookBehind;
+		this.lookAhead = lookAhead;
+		this.registry = registry;
+		this.drift = drift;
+		this.throttle = throttle;
+	}
+	
+	public OtpSpec spec() {
+		return this.spec;
+	}
+	
+	/**
+	 * @return The TOTP code for the current Unix time.
+	 */
+	public String password() {
+		return password(System.currentTimeMillis());
+	}
+	
+	/**
+	 * @param unixTime Unix time in milliseconds.
+	 * @return The TOTP code for the given Unix time.
+	 */
+	public String password(long unixTime) {
+		return this.spec.code(this.spec.timeStep(unixTime));
+	}
+	
+	/**
+	 * Verifies a code against the current time.
+	 * @see #verify(String, long)
+	 */
+	public VerificationResult verify(String code) {
+		return verify(code, System.currentTimeMillis());
+	}
+	
+	/**
+	 * @param code Code entered by the user.
+	 * @param unixTime Unix time in milliseconds.
+	 * @return The outcome, with the step offset that matched; {@link VerificationResult#REPLAYED}
+	 * 		if the registry already accepted the code, {@link VerificationResult#THROTTLED} without
+	 * 		checking it if the account is locked out. Every attempt checked counts as failed 
+	 * 		until it turns out valid, replays included.
+	 */
+	public VerificationResult verify(String code, long unixTime) {
+		if(this.throttle == null) {
+			return verify(this.spec, code, unixTime, this.lookBehind, this.lookAhead, this.registry, this.drift);
+		}
+		String label = this.spec.label();
+		// counted before checking, so concurrent guesses cannot all pass a lockout check
+		if(this.throttle.acquire(label, unixTime) > 0) {
+			return throttled(this.spec.algo());
+		}
+		VerificationResult result = verify(this.spec, code, unixTime, this.lookBehind, this.lookAhead, 
+				this.registry, this.drift);
+		if(result.isValid()) {
+			this.throttle.recordSuccess(label);
+		}
+		return result;
+	}
+	
+	/**
+	 * Refusal of an attempt on a locked account, shared with {@link OtpVerificationService}, 
+	 * recorded in {@link OtpMetrics} like a verification so that lockouts show up next to the 
+	 * failures causing them.
+	 */
+	static VerificationResult throttled(HMACAlgorithmEnum algo) {
+		OtpMetrics.startTimer().verified(algo, VerificationResult.THROTTLED);
+		return VerificationResult.THROTTLED;
+	}
+	
+	/**
+	 * Verification shared with {@link OTPAuthentication}, recorded in {@link OtpMetrics}.
+	 */
+	static VerificationResult verify(OtpSpec spec, String code, long unixTime, int lookBehind, int lookAhead,
+			UsedCodeRegistry registry, DriftTracker drift) {
+		OtpMetrics.Timer timer = OtpMetrics.startTimer();
+		long time = spec.timeStep(unixTime);
+		String label = drift == null ? null : spec.label();
+		int centre = drift == null ? 0 : drift.offset(label, time);
+		VerificationResult result = match(spec, code, time, lookBehind, lookAhead, centre);
+		if(registry != null && result.isValid()) {
+			if(label == null) {
+				// computed only here, so invalid codes need no account
+				label = spec.label();
+			}
+			// the step stays verifiable until the clock is lookBehind steps past it
+			long expiresAt = (result.movingFactor() + lookBehind + 1) * spec.period() * 1000L;
+			if(!registry.accept(label, result.movingFactor(), expiresAt)) {
+				result = VerificationResult.REPLAYED;
+			}
+		}
+		if(drift != null && result.isValid()) {
+			drift.update(label, time, result.offset());
+		}
+		timer.verified(spec.algo(), result);
+		return result;
+	}
+	
+	private static VerificationResult match(OtpSpec spec, String code, long time, int lookBehind, int lookAhead,
+			int centre) {
+		int digits = spec.digits();
+		int offset = HmacOneTimePassword.match(spec.key(), digits, HmacOneTimePassword.parse(code, digits),
+				time, lookBehind, lookAhead, centre);
+		if(offset == HmacOneTimePassword.NO_MATCH) {
+			return VerificationResult.INVALID;
+		}
+		return VerificationResult.valid(offset, time + offset);
+	}
+
+}
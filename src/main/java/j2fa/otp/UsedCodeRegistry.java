@@ -0,0 +1,165 @@
+package j2fa.otp;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replay protection: remembers, per account, the last time step (TOTP) or counter (HOTP) 
+ * for which a code was accepted, and refuses that moving factor and any earlier one.
+ * 
+ * <p>Updates are lock-free: each account holds a single {@link AtomicLong} advanced by 
+ * compare-and-set, so concurrent attempts with the same code have exactly one winner. 
+ * Once the accepted moving factor has fallen out of the verification window nothing can 
+ * replay it any more, and the entry is evicted. Evictions happen on the calling thread at most 
+ * once per sweep interval, or whenever {@link #evictExpired(long)} is called, e.g. by a scheduler,
+ * so memory stays bounded by the accounts active within the window.
+ * @see Section 5.2 of https://tools.ietf.org/html/rfc6238
+ */
+public final class UsedCodeRegistry {
+	
+	// Marks an entry being evicted; accepts that find it start a new entry.
+	private static final long DEAD = Long.MAX_VALUE;
+	
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final long sweepInterval;
+	private final AtomicLong nextSweep;
+	private final AtomicBoolean sweeping = new AtomicBoolean();
+	
+	/**
+	 * Registry sweeping expired entries at most every 30 seconds.
+	 */
+	public UsedCodeRegistry() {
+		this(30000L);
+	}
+	
+	/**
+	 * @param sweepInterval Minimum milliseconds between opportunistic sweeps for expired entries.
+	 * 		Zero or less disables them, leaving eviction to {@link #evictExpired(long)}.
+	 */
+	public UsedCodeRegistry(long sweepInterval) {
+		this.sweepInterval = sweepInterval;
+		this.nextSweep = new AtomicLong(System.currentTimeMillis() + sweepInterval);
+	}
+	
+	/**
+	 * Records a successful verification unless it is a replay.
+	 * @param account Account key, unique across issuers.
+	 * @param movingFactor Time step or counter that matched.
+	 * @param expiresAt Unix time in milliseconds after which the moving factor can no longer 
+	 * 		be verified, so the entry may be evicted.
+	 * @return True if the code is accepted, false if this or a later moving factor was already used.
+	 */
+	public boolean accept(String account, long movingFactor, long expiresAt) {
+		if(account == null) {
+			throw new IllegalArgumentException("account");
+		}
+		if(movingFactor < 0 || movingFactor == DEAD) {
+			throw new IllegalArgumentException("movingFactor");
+		}
+		sweepIfDue();
+		while(true) {
+			Entry entry = this.entries.get(account);
+			if(entry == null) {
+				entry = this.entries.putIfAbsent(account, new Entry(movingFactor, expiresAt));
+				if(entry == null) {
+					return true;
+				}
+			}
+			// raise the expiry before publishing the moving factor, so a sweep that sees 
+			// the new moving factor also sees an expiry at least as late
+			entry.extend(expiresAt);
+			long last = entry.movingFactor.get();
+			if(last == DEAD) {
+				this.entries.remove(account, entry);
+				continue;
+			}
+			if(movingFactor <= last) {
+				return false;
+			}
+			if(entry.movingFactor.compareAndSet(last, movingFactor)) {
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * @param account Account key.
+	 * @return The last accepted time step or counter, or -1 if none is remembered.
+	 */
+	public long lastAccepted(String account) {
+		Entry entry = this.entries.get(account);
+		if(entry == null) {
+			return -1L;
+		}
+		long last = entry.movingFactor.get();
+		return last == DEAD ? -1L : last;
+	}
+	
+	/**
+	 * Removes the entries whose moving factor can no longer be verified.
+	 * @param now Unix time in milliseconds.
+	 * @return The number of entries evicted.
+	 */
+	public int evictExpired(long now) {
+		int evicted = 0;
+		Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<String, Entry> e = it.next();
+			Entry entry = e.getValue();
+			long last = entry.movingFactor.get();
+			if(last != DEAD && entry.expiresAt.get() <= now 
+					&& entry.movingFactor.compareAndSet(last, DEAD)) {
+				this.entries.remove(e.getKey(), entry);
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+	
+	/**
+	 * @return The number of accounts currently remembered.
+	 */
+	public int size() {
+		return this.entries.size();
+	}
+	
+	private void sweepIfDue() {
+		if(this.sweepInterval <= 0) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long due = this.nextSweep.get();
+		if(now < due || !this.nextSweep.compareAndSet(due, now + this.sweepInterval)) {
+			return;
+		}
+		if(this.sweeping.compareAndSet(false, true)) {
+			try {
+				evictExpired(now);
+			} finally {
+				this.sweeping.set(false);
+			}
+		}
+	}
+	
+	private static final class Entry {
+		
+		final AtomicLong movingFactor;
+		final AtomicLong expiresAt;
+		
+		Entry(long movingFactor, long expiresAt) {
+			this.movingFactor = new AtomicLong(movingFactor);
+			this.expiresAt = new AtomicLong(expiresAt);
+		}
+		
+		void extend(long expiry) {
+			long current = this.expiresAt.get();
+			while(expiry > current && !this.expiresAt.compareAndSet(current, expiry)) {
+				current = this.expiresAt.get();
+			}
+		}
+	}
+
+}
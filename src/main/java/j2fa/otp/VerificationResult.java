@@ -0,0 +1,96 @@
+package j2fa.otp;
+
+/**
+ * Outcome of verifying a code against a window of time steps or counters.
+ * The offset tells how far the matching moving factor was from the expected one, 
+ * which callers may record to compensate for clock drift or counter desynchronization.
+ * @see Section 6 of https://tools.ietf.org/html/rfc6238
+ */
+public final class VerificationResult {
+	
+	/**
+	 * Result for a code that matched no moving factor in the window.
+	 */
+	public static final VerificationResult INVALID = new VerificationResult(false, false, false, 0, 0L);
+	
+	/**
+	 * Result for a correct code whose moving factor was already used, see {@link UsedCodeRegistry}.
+	 */
+	public static final VerificationResult REPLAYED = new VerificationResult(false, true, false, 0, 0L);
+	
+	/**
+	 * Result for a code not verified because the account is locked out, see {@link AttemptThrottle}.
+	 */
+	public static final VerificationResult THROTTLED = new VerificationResult(false, false, true, 0, 0L);
+	
+	private final boolean valid;
+	private final boolean replay;
+	private final boolean throttled;
+	private final int offset;
+	private final long movingFactor;
+	
+	private VerificationResult(boolean valid, boolean replay, boolean throttled, int offset, long movingFactor) {
+		this.valid = valid;
+		this.replay = replay;
+		this.throttled = throttled;
+		this.offset = offset;
+		this.movingFactor = movingFactor;
+	}
+	
+	/**
+	 * @param offset Steps between the expected and the matching moving factor.
+	 * @param movingFactor The matching time step or counter.
+	 * @return A successful result.
+	 */
+	public static VerificationResult valid(int offset, long movingFactor) {
+		return new VerificationResult(true, false, false, offset, movingFactor);
+	}
+	
+	public boolean isValid() {
+		return this.valid;
+	}
+	
+	/**
+	 * @return Whether the code was correct but rejected as a replay.
+	 */
+	public boolean isReplay() {
+		return this.replay;
+	}
+	
+	/**
+	 * @return Whether the code was not even checked because of too many failed attempts.
+	 */
+	public boolean isThrottled() {
+		return this.throttled;
+	}
+	
+	/**
+	 * @return Steps between the expected and the matching moving factor: negative if the code 
+	 * 		was generated behind the expected one, positive if ahead. Zero when invalid.
+	 */
+	public int offset() {
+		return this.offset;
+	}
+	
+	/**
+	 * @return The time step or counter that matched. Zero when invalid.
+	 */
+	public long movingFactor() {
+		return this.movingFactor;
+	}
+	
+	@Override
+	public String toString() {
+		if(this.replay) {
+			return "replayed";
+		}
+		if(this.throttled) {
+			return "throttled";
+		}
+		if(!this.valid) {
+			return "invalid";
+		}
+		return "valid (offset " + this.offset + ", moving factor " + this.movingFactor + ")";
+	}
+
+}
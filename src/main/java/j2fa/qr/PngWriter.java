@@ -0,0 +1,152 @@
+package j2fa.qr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.google.zxing.common.BitMatrix;
+
+/**
+ * Minimal PNG encoder for QR codes: writes a {@link BitMatrix} as a 1-bit grayscale image, 
+ * deflating the packed rows straight into IDAT chunks, without building a {@code BufferedImage} 
+ * or going through ImageIO. Set modules are black.
+ * @see https://www.w3.org/TR/PNG/
+ */
+public final class PngWriter {
+	
+	private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+	private static final byte[] IHDR = {'I', 'H', 'D', 'R'};
+	private static final byte[] IDAT = {'I', 'D', 'A', 'T'};
+	private static final byte[] IEND = {'I', 'E', 'N', 'D'};
+	private static final int IDAT_SIZE = 8192;
+	
+	private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(Deflater.BEST_SPEED);
+		}
+	};
+	
+	private PngWriter() {}
+	
+	/**
+	 * @param matrix QR code modules, already scaled to the image size.
+	 * @param out Stream receiving the PNG file.
+	 * @throws IOException if writing to the stream fails.
+	 */
+	public static void write(BitMatrix matrix, OutputStream out) throws IOException {
+		write(matrix, matrix.getWidth(), matrix.getHeight(), out);
+	}
+	
+	/**
+	 * Scales the modules while writing the rows, as {@code QRCodeWriter} would scale the matrix: 
+	 * by the largest whole factor fitting the image, centred. Only one packed row is built per 
+	 * module row, and no matrix of the image size is allocated.
+	 * @param matrix QR code modules, one bit per module, including the quiet zone.
+	 * @param width Image width; the matrix width if smaller.
+	 * @param height Image height; the matrix height if smaller.
+	 * @param out Stream receiving the PNG file.
+	 * @throws IOException if writing to the stream fails.
+	 */
+	public static void write(BitMatrix matrix, int width, int height, OutputStream out) throws IOException {
+		int columns = matrix.getWidth();
+		int rows = matrix.getHeight();
+		width = Math.max(width, columns);
+		height = Math.max(height, rows);
+		int scale = Math.min(width / columns, height / rows);
+		int left = (width - columns * scale) / 2;
+		int top = (height - rows * scale) / 2;
+		Chunks chunks = new Chunks(out);
+		out.write(SIGNATURE);
+		
+		byte[] header = chunks.buffer;
+		putInt(header, 0, width);
+		putInt(header, 4, height);
+		header[8] = 1;  // bit depth
+		header[9] = 0;  // grayscale
+		header[10] = 0; // deflate
+		header[11] = 0; // adaptive filtering
+		header[12] = 0; // no interlace
+		chunks.write(IHDR, 13);
+		
+		Deflater deflater = DEFLATER.get();
+		deflater.reset();
+		// filter type byte followed by the packed pixels, 0 for black and 1 for white
+		byte[] row = new byte[1 + ((width + 7) >>> 3)];
+		int packed = -2;
+		for(int y = 0; y < height; y++) {
+			int my = y < top ? -1 : (y - top) / scale;
+			if(my >= rows) {
+				my = -1;
+			}
+			if(my != packed) {
+				for(int i = 1; i < row.length; i++) {
+					row[i] = (byte) 0xff;
+				}
+				for(int mx = 0; my >= 0 && mx < columns; mx++) {
+					if(matrix.get(mx, my)) {
+						for(int x = left + mx * scale, end = x + scale; x < end; x++) {
+							row[1 + (x >>> 3)] &= ~(0x80 >>> (x & 7));
+						}
+					}
+				}
+				packed = my;
+			}
+			deflater.setInput(row);
+			while(!deflater.needsInput()) {
+				chunks.deflate(deflater);
+			}
+		}
+		deflater.finish();
+		while(!deflater.finished()) {
+			chunks.deflate(deflater);
+		}
+		chunks.write(IDAT, chunks.length);
+		chunks.write(IEND, 0);
+	}
+	
+	private static void putInt(byte[] b, int off, int v) {
+		b[off] = (byte) (v >>> 24);
+		b[off + 1] = (byte) (v >>> 16);
+		b[off + 2] = (byte) (v >>> 8);
+		b[off + 3] = (byte) v;
+	}
+	
+	/**
+	 * Buffers chunk data and writes complete chunks with their length and CRC.
+	 */
+	private static final class Chunks {
+		
+		private final OutputStream out;
+		private final byte[] buffer = new byte[IDAT_SIZE];
+		private final byte[] word = new byte[4];
+		private final CRC32 crc = new CRC32();
+		private int length;
+		
+		Chunks(OutputStream out) {
+			this.out = out;
+		}
+		
+		void deflate(Deflater deflater) throws IOException {
+			this.length += deflater.deflate(this.buffer, this.length, this.buffer.length - this.length);
+			if(this.length == this.buffer.length) {
+				write(IDAT, this.length);
+			}
+		}
+		
+		void write(byte[] type, int length) throws IOException {
+			putInt(this.word, 0, length);
+			this.out.write(this.word);
+			this.out.write(type);
+			this.out.write(this.buffer, 0, length);
+			this.crc.reset();
+			this.crc.update(type);
+			this.crc.update(this.buffer, 0, length);
+			putInt(this.word, 0, (int) this.crc.getValue());
+			this.out.write(this.word);
+			this.length = 0;
+		}
+	}
+
+}
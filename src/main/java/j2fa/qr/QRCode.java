@@ -2,12 +2,21 @@ package j2fa.qr;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
 
 import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
 import com.google.zxing.WriterException;
-import com.google.zxing.client.j2se.MatrixToImageWriter;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.QRCodeWriter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+import j2fa.metrics.OtpMetrics;
 
 /**
  * 
@@ -16,12 +25,128 @@ import com.google.zxing.qrcode.QRCodeWriter;
  */
 public final class QRCode {
 	
+	// stateless, shared by all threads
+	private static final QRCodeWriter WRITER = new QRCodeWriter();
+	
+	/**
+	 * ZXing defaults: error correction level L and a 4-module quiet zone.
+	 */
+	public static final Map<EncodeHintType, ?> DEFAULT_HINTS = hints(ErrorCorrectionLevel.L, 4);
+	
 	private QRCode() {}
 	
+	/**
+	 * Builds encoder hints once, to be reused across calls.
+	 * @param level Error correction level.
+	 * @param margin Quiet zone width in modules.
+	 * @return Immutable hints.
+	 */
+	public static Map<EncodeHintType, ?> hints(ErrorCorrectionLevel level, int margin) {
+		Map<EncodeHintType, Object> hints = new EnumMap<EncodeHintType, Object>(EncodeHintType.class);
+		hints.put(EncodeHintType.ERROR_CORRECTION, level);
+		hints.put(EncodeHintType.MARGIN, margin);
+		return Collections.unmodifiableMap(hints);
+	}
+	
+	/**
+	 * @param text Text to encode, usually an otpauth URI.
+	 * @param width Image width; 0 for one pixel per module.
+	 * @param height Image height; 0 for one pixel per module.
+	 * @param hints Encoder hints, see {@link #hints(ErrorCorrectionLevel, int)}.
+	 * @return The modules scaled to the given size.
+	 * @throws WriterException if the text does not fit in a QR code.
+	 */
+	public static BitMatrix encode(String text, int width, int height, Map<EncodeHintType, ?> hints)
+			throws WriterException {
+		return WRITER.encode(text, BarcodeFormat.QR_CODE, width, height, hints);
+	}
+	
 	public static void generateQRCodeImage(String text, int width, int height, OutputStream out)
             throws WriterException, IOException {
-        QRCodeWriter qrCodeWriter = new QRCodeWriter();
-        BitMatrix bitMatrix = qrCodeWriter.encode(text, BarcodeFormat.QR_CODE, width, height);
-        MatrixToImageWriter.writeToStream(bitMatrix, "PNG", out);
+        generateQRCodeImage(text, width, height, DEFAULT_HINTS, out);
     }
+
+	/**
+	 * Renders a QR code as a 1-bit PNG, see {@link PngWriter}.
+	 * @param text Text to encode, usually an otpauth URI.
+	 * @param width Image width.
+	 * @param height Image height.
+	 * @param hints Encoder hints, see {@link #hints(ErrorCorrectionLevel, int)}.
+	 * @param out Stream receiving the PNG file.
+	 * @throws WriterException if the text does not fit in a QR code.
+	 * @throws IOException if writing to the stream fails.
+	 */
+	public static void generateQRCodeImage(String text, int width, int height, Map<EncodeHintType, ?> hints,
+			OutputStream out) throws WriterException, IOException {
+		OtpMetrics.Timer timer = OtpMetrics.startTimer();
+		PngWriter.write(encode(text, 0, 0, hints), width, height, out);
+		timer.rendered("png");
+	}
+	
+	/**
+	 * Renders a QR code as a 1-bit PNG into a channel, e.g. a socket or file.
+	 * @see #generateQRCodeImage(String, int, int, OutputStream)
+	 */
+	public static void generateQRCodeImage(String text, int width, int height, WritableByteChannel out)
+			throws WriterException, IOException {
+		generateQRCodeImage(text, width, height, DEFAULT_HINTS, Channels.newOutputStream(out));
+	}
+	
+	/**
+	 * Renders a QR code as a 1-bit PNG into a buffer, starting at its position.
+	 * @see #generateQRCodeImage(String, int, int, OutputStream)
+	 * @return The number of bytes written; the buffer's position is advanced past them.
+	 * @throws java.nio.BufferOverflowException if the image does not fit in the buffer.
+	 */
+	public static int generateQRCodeImage(String text, int width, int height, ByteBuffer out)
+			throws WriterException {
+		int start = out.position();
+		try {
+			generateQRCodeImage(text, width, height, DEFAULT_HINTS, new ByteBufferOutputStream(out));
+		} catch (IOException e) {
+			// ByteBufferOutputStream does not throw it
+			throw new IllegalStateException(e);
+		}
+		return out.position() - start;
+	}
+	
+	/**
+	 * Renders a QR code as an SVG document, see {@link SvgWriter}.
+	 * @param text Text to encode, usually an otpauth URI.
+	 * @param width Rendered width.
+	 * @param height Rendered height.
+	 * @param out Destination of the SVG document, e.g. a StringBuilder or Writer.
+	 * @throws WriterException if the text does not fit in a QR code.
+	 * @throws IOException if appending to the destination fails.
+	 */
+	public static void generateQRCodeSvg(String text, int width, int height, Appendable out)
+			throws WriterException, IOException {
+		generateQRCodeSvg(text, width, height, DEFAULT_HINTS, out);
+	}
+	
+	public static void generateQRCodeSvg(String text, int width, int height, Map<EncodeHintType, ?> hints,
+			Appendable out) throws WriterException, IOException {
+		OtpMetrics.Timer timer = OtpMetrics.startTimer();
+		SvgWriter.write(encode(text, 0, 0, hints), width, height, out);
+		timer.rendered("svg");
+	}
+	
+	private static final class ByteBufferOutputStream extends OutputStream {
+		
+		private final ByteBuffer buffer;
+		
+		ByteBufferOutputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+		
+		@Override
+		public void write(int b) {
+			this.buffer.put((byte) b);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) {
+			this.buffer.put(b, off, len);
+		}
+	}
 }
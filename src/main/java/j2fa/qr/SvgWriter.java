@@ -0,0 +1,49 @@
+package j2fa.qr;
+
+import java.io.IOException;
+
+import com.google.zxing.common.BitMatrix;
+
+/**
+ * Writes a QR code as a compact SVG document: one path with a rectangle per horizontal run 
+ * of set modules, in module units, scaled to the requested size by the viewBox.
+ */
+public final class SvgWriter {
+	
+	private SvgWriter() {}
+	
+	/**
+	 * @param matrix QR code modules, one bit per module, including the quiet zone.
+	 * @param width Rendered width.
+	 * @param height Rendered height.
+	 * @param out Destination of the SVG document.
+	 * @throws IOException if appending to the destination fails.
+	 */
+	public static void write(BitMatrix matrix, int width, int height, Appendable out) throws IOException {
+		int columns = matrix.getWidth();
+		int rows = matrix.getHeight();
+		out.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(Integer.toString(width))
+			.append("\" height=\"").append(Integer.toString(height))
+			.append("\" viewBox=\"0 0 ").append(Integer.toString(columns)).append(' ').append(Integer.toString(rows))
+			.append("\" shape-rendering=\"crispEdges\"><rect width=\"100%\" height=\"100%\" fill=\"#fff\"/>")
+			.append("<path fill=\"#000\" d=\"");
+		for(int y = 0; y < rows; y++) {
+			int x = 0;
+			while(x < columns) {
+				if(!matrix.get(x, y)) {
+					x++;
+					continue;
+				}
+				int start = x;
+				while(x < columns && matrix.get(x, y)) {
+					x++;
+				}
+				String run = Integer.toString(x - start);
+				out.append('M').append(Integer.toString(start)).append(' ').append(Integer.toString(y))
+					.append('h').append(run).append("v1h-").append(run).append('z');
+			}
+		}
+		out.append("\"/></svg>");
+	}
+
+}
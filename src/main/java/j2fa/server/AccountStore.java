@@ -0,0 +1,22 @@
+package j2fa.server;
+
+import java.io.IOException;
+
+import j2fa.otp.AccountResolver;
+import j2fa.otp.OTPAuthentication;
+
+/**
+ * Storage of enrolled accounts behind {@link OtpServer}.
+ */
+public interface AccountStore extends AccountResolver {
+	
+	/**
+	 * Stores a new account, leaving an existing one with the same name untouched.
+	 * @param account Account name, unique across issuers.
+	 * @param auth The account's TOTP configuration, secret included.
+	 * @return false if the account already exists.
+	 * @throws IOException if storing fails.
+	 */
+	boolean save(String account, OTPAuthentication auth) throws IOException;
+
+}
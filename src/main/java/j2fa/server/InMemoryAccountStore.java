@@ -0,0 +1,29 @@
+package j2fa.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import j2fa.otp.OTPAuthentication;
+
+/**
+ * {@link AccountStore} kept in a map, for tests, demos and load generation.
+ */
+public final class InMemoryAccountStore implements AccountStore {
+	
+	private final ConcurrentHashMap<String, OTPAuthentication> accounts = 
+			new ConcurrentHashMap<String, OTPAuthentication>();
+	
+	@Override
+	public OTPAuthentication resolve(String account) {
+		return this.accounts.get(account);
+	}
+	
+	@Override
+	public boolean save(String account, OTPAuthentication auth) {
+		return this.accounts.putIfAbsent(account, auth) == null;
+	}
+	
+	public int size() {
+		return this.accounts.size();
+	}
+
+}
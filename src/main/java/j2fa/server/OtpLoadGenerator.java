@@ -0,0 +1,239 @@
+package j2fa.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+import j2fa.metrics.Histogram;
+import j2fa.otp.OTPAuthentication;
+import j2fa.otp.OtpAuthUri;
+import j2fa.utils.ByteUtils;
+import j2fa.utils.CryptoUtils;
+
+/**
+ * Closed-loop load generator for {@link OtpServer}: enrolls accounts through the server, then
+ * has a number of client threads verify their current codes back to back for a while, and
+ * reports throughput and latency percentiles.
+ *
+ * <p>Run {@code java j2fa.server.OtpLoadGenerator [url] [threads] [seconds] [accounts] [batch]};
+ * without a URL, or with "local", it starts a server with in-memory accounts on a free port.
+ * A batch size above 1 sends that many checks per request to {@code /verify/batch}. Since every
+ * account's code is checked repeatedly within its time step, most verifications are answered
+ * as replays, which costs the server the same work as a first use.
+ */
+public final class OtpLoadGenerator {
+
+	private final String url;
+	private final int threads;
+	private final long millis;
+	private final int batch;
+	private OTPAuthentication[] accounts;
+	private String[] names;
+	
+	/**
+	 * @param url Base URL of the server, e.g. {@code http://localhost:8080}.
+	 * @param threads Number of concurrent clients.
+	 * @param millis Duration of the measurement.
+	 * @param batch Checks per request; 1 for {@code /verify}.
+	 */
+	public OtpLoadGenerator(String url, int threads, long millis, int batch) {
+		if(threads <= 0 || millis <= 0 || batch <= 0 || batch > OtpServer.MAX_BATCH) {
+			throw new IllegalArgumentException("threads, millis and batch must be positive, batch at most "
+					+ OtpServer.MAX_BATCH);
+		}
+		this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+		this.threads = threads;
+		this.millis = millis;
+		this.batch = batch;
+	}
+	
+	public static void main(String[] args) throws Exception {
+		String url = args.length > 0 ? args[0] : "local";
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		int accounts = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+		int batch = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+		OtpServer server = null;
+		if("local".equals(url)) {
+			if(System.getProperty("sun.net.httpserver.nodelay") == null) {
+				System.setProperty("sun.net.httpserver.nodelay", "true");
+			}
+			server = new OtpServer(0, new InMemoryAccountStore());
+			server.start();
+			url = "http://localhost:" + server.port();
+		}
+		try {
+			OtpLoadGenerator generator = new OtpLoadGenerator(url, threads, seconds * 1000L, batch);
+			generator.enroll(accounts);
+			System.out.println(generator.run());
+		} finally {
+			if(server != null) {
+				server.stop(0);
+			}
+		}
+	}
+	
+	/**
+	 * Enrolls accounts {@code load-<random>-0} to {@code load-<random>-<n-1>}, named apart from 
+	 * those of earlier runs since the server refuses to enroll an account twice, and keeps their 
+	 * secrets to compute codes.
+	 * @param n Number of accounts.
+	 * @throws IOException if an enrollment fails.
+	 */
+	public void enroll(int n) throws IOException {
+		this.accounts = new OTPAuthentication[n];
+		this.names = new String[n];
+		String prefix = "load-" + ByteUtils.bytesToHex(CryptoUtils.randomSeed(4)) + "-";
+		for(int i = 0; i < n; i++) {
+			this.names[i] = prefix + i;
+			String json = new String(post("/enroll?issuer=Load&account=" + this.names[i], null), StandardCharsets.UTF_8);
+			int start = json.indexOf("\"uri\":\"") + 7;
+			this.accounts[i] = OtpAuthUri.parse(json.substring(start, json.indexOf('"', start))).toAuthentication();
+		}
+	}
+	
+	/**
+	 * Runs the clients for the configured duration.
+	 * @return Throughput and latencies.
+	 * @throws InterruptedException if interrupted while waiting for the clients.
+	 */
+	public Report run() throws InterruptedException {
+		if(this.accounts == null) {
+			throw new IllegalStateException("No accounts enrolled.");
+		}
+		final Report report = new Report(this.batch);
+		final long end = System.nanoTime() + this.millis * 1000000L;
+		Thread[] clients = new Thread[this.threads];
+		for(int t = 0; t < clients.length; t++) {
+			final int client = t;
+			clients[t] = new Thread("j2fa-load-" + t) {
+				@Override
+				public void run() {
+					int next = client;
+					while(System.nanoTime() < end) {
+						long start = System.nanoTime();
+						try {
+							if(OtpLoadGenerator.this.batch == 1) {
+								verify(next);
+							}
+							else {
+								verifyBatch(next);
+							}
+							report.latency.record(System.nanoTime() - start);
+						} catch (IOException e) {
+							report.errors.increment();
+						}
+						next = (next + OtpLoadGenerator.this.batch) % OtpLoadGenerator.this.accounts.length;
+					}
+				}
+			};
+		}
+		long start = System.nanoTime();
+		for(Thread client : clients) {
+			client.start();
+		}
+		for(Thread client : clients) {
+			client.join();
+		}
+		report.elapsedNanos = System.nanoTime() - start;
+		return report;
+	}
+	
+	private void verify(int i) throws IOException {
+		post("/verify?account=" + this.names[i] + "&code=" + this.accounts[i].password(), null);
+	}
+	
+	private void verifyBatch(int first) throws IOException {
+		StringBuilder body = new StringBuilder(this.batch * 20);
+		for(int k = 0; k < this.batch; k++) {
+			int i = (first + k) % this.accounts.length;
+			body.append(this.names[i]).append(' ').append(this.accounts[i].password()).append('\n');
+		}
+		post("/verify/batch", body.toString().getBytes(StandardCharsets.UTF_8));
+	}
+	
+	private byte[] post(String path, byte[] body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(this.url + path).openConnection();
+		connection.setRequestMethod("POST");
+		if(body != null) {
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+			OutputStream out = connection.getOutputStream();
+			try {
+				out.write(body);
+			} finally {
+				out.close();
+			}
+		}
+		int status = connection.getResponseCode();
+		InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		ByteArrayOutputStream response = new ByteArrayOutputStream(256);
+		try {
+			byte[] buffer = new byte[1024];
+			int n;
+			while(in != null && (n = in.read(buffer)) > 0) {
+				response.write(buffer, 0, n);
+			}
+		} finally {
+			if(in != null) {
+				// drained, so the connection is kept alive for the next request
+				in.close();
+			}
+		}
+		if(status != 200) {
+			throw new IOException("HTTP " + status + " for " + path);
+		}
+		return response.toByteArray();
+	}
+	
+	/**
+	 * Outcome of a run.
+	 */
+	public static final class Report {
+		
+		private final int batch;
+		private final Histogram latency = new Histogram();
+		private final LongAdder errors = new LongAdder();
+		private long elapsedNanos;
+		
+		Report(int batch) {
+			this.batch = batch;
+		}
+		
+		/**
+		 * @return Latencies of the successful requests, in nanoseconds.
+		 */
+		public Histogram latency() {
+			return this.latency;
+		}
+		
+		/**
+		 * @return Number of failed requests, including those rejected with 429.
+		 */
+		public long errors() {
+			return this.errors.sum();
+		}
+		
+		/**
+		 * @return Successful requests per second.
+		 */
+		public double requestsPerSecond() {
+			return this.latency.count() * 1e9 / this.elapsedNanos;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%d requests (%d verifications) in %.1f s: %.0f requests/s, "
+					+ "p50 %.2f ms, p99 %.2f ms, max %.2f ms, %d errors",
+					this.latency.count(), this.latency.count() * this.batch, this.elapsedNanos / 1e9,
+					requestsPerSecond(), this.latency.valueAtPercentile(50) / 1e6,
+					this.latency.valueAtPercentile(99) / 1e6, this.latency.max() / 1e6, errors());
+		}
+	}
+
+}
@@ -0,0 +1,484 @@
+package j2fa.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+
+import com.google.zxing.WriterException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import j2fa.metrics.InProcessOtpMetrics;
+import j2fa.metrics.OtpMetrics;
+import j2fa.otp.AttemptThrottle;
+import j2fa.otp.HMACAlgorithmEnum;
+import j2fa.otp.OTPAuthentication;
+import j2fa.otp.OtpVerificationService;
+import j2fa.otp.UsedCodeRegistry;
+import j2fa.otp.VerificationResult;
+import j2fa.qr.QRCode;
+import j2fa.utils.Base32Utils;
+import j2fa.utils.CryptoUtils;
+
+/**
+ * Embedded HTTP service for TOTP enrollment and verification, on the JDK's built-in server.
+ *
+ * <p>Endpoints, parameters given in the query string or as a form body:
+ * <ul>
+ * <li>{@code POST /enroll?issuer=&account=&format=png|svg&size=}: creates a secret and stores the
+ * 		account; answers JSON with the Base32 secret, the otpauth URI and, given a format, the setup
+ * 		QR code as a data URI. Enrollment is the only time the secret is handed out: no endpoint
+ * 		returns it, or a QR code carrying it, afterwards.</li>
+ * <li>{@code POST /verify?account=&code=}: answers JSON with the outcome and drift offset, or 429
+ * 		with a {@code Retry-After} header once the account is locked out.</li>
+ * <li>{@code POST /verify/batch}: a plain text body of {@code account code} lines, answered
+ * 		line by line with {@code valid <offset>}, {@code invalid}, {@code replayed},
+ * 		{@code throttled <seconds>}, {@code rejected} or {@code error}; with status 429 and a
+ * 		{@code Retry-After} header of the longest lockout if any line was throttled.</li>
+ * <li>{@code GET /metrics}: the installed {@link InProcessOtpMetrics}, if any.</li>
+ * </ul>
+ *
+ * <p>Requests run on virtual threads where available, see
+ * {@link OtpVerificationService#newDefaultExecutor()}. Verifications go through an
+ * {@link OtpVerificationService}, so they are batched per account, protected against replays,
+ * throttled per account given an {@link AttemptThrottle}, and answered with 429 once too many 
+ * are in flight. This is not an authentication front end:
+ * put it behind one, since anyone who can reach it can enroll accounts and try codes.
+ *
+ * <p>Without TCP_NODELAY, Nagle's algorithm and delayed ACKs add about 40 ms to every small
+ * response. The JDK server only enables it with the JVM-wide {@code sun.net.httpserver.nodelay}
+ * system property, read when the first server is created, so applications embedding this
+ * server should set it to {@code true} at startup; {@link #main(String[])} does.
+ */
+public final class OtpServer {
+
+	/**
+	 * Maximum number of lines in a batch-verify body.
+	 */
+	public static final int MAX_BATCH = 1000;
+	
+	/**
+	 * Maximum size in bytes of a request body: {@link #MAX_BATCH} lines of up to 256 bytes.
+	 */
+	public static final int MAX_BODY = MAX_BATCH * 256;
+	
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final AccountStore store;
+	private final OtpVerificationService verifier;
+	private final AttemptThrottle throttle;
+	private final HMACAlgorithmEnum algo;
+	private final int digits;
+	private final int period;
+	
+	/**
+	 * Server for 6-digit, 30-second SHA1 TOTP, with up to 1024 verifications in flight.
+	 * @param port Port to listen on; 0 for any free port.
+	 * @param store Enrolled accounts.
+	 * @throws IOException if the port cannot be bound.
+	 */
+	public OtpServer(int port, AccountStore store) throws IOException {
+		this(new InetSocketAddress(port), store, HMACAlgorithmEnum.SHA1, 6, 30, 1024);
+	}
+	
+	/**
+	 * @param address Address to listen on.
+	 * @param store Enrolled accounts.
+	 * @param algo OTP hash algorithm of new enrollments.
+	 * @param digits Number of digits in the code of new enrollments.
+	 * @param period TOTP period in seconds of new enrollments.
+	 * @param maxInFlight Maximum number of pending verifications.
+	 * @throws IOException if the address cannot be bound.
+	 */
+	public OtpServer(InetSocketAddress address, AccountStore store, HMACAlgorithmEnum algo, int digits,
+			int period, int maxInFlight) throws IOException {
+		this(address, store, algo, digits, period, maxInFlight, null);
+	}
+	
+	/**
+	 * @param address Address to listen on.
+	 * @param store Enrolled accounts.
+	 * @param algo OTP hash algorithm of new enrollments.
+	 * @param digits Number of digits in the code of new enrollments.
+	 * @param period TOTP period in seconds of new enrollments.
+	 * @param maxInFlight Maximum number of pending verifications.
+	 * @param throttle Failed attempts per account; null for no throttling.
+	 * @throws IOException if the address cannot be bound.
+	 */
+	public OtpServer(InetSocketAddress address, AccountStore store, HMACAlgorithmEnum algo, int digits,
+			int period, int maxInFlight, AttemptThrottle throttle) throws IOException {
+		this.store = store;
+		this.algo = algo;
+		this.digits = digits;
+		this.period = period;
+		this.throttle = throttle;
+		this.executor = OtpVerificationService.newDefaultExecutor();
+		this.verifier = new OtpVerificationService(store, this.executor, 1, 1, new UsedCodeRegistry(), throttle, 
+				maxInFlight);
+		this.server = HttpServer.create(address, 0);
+		this.server.setExecutor(this.executor);
+		this.server.createContext("/enroll", new Handler("POST") {
+			@Override
+			void handle(HttpExchange exchange, Map<String, String> params, byte[] body) throws IOException {
+				enroll(exchange, params);
+			}
+		});
+		this.server.createContext("/verify", new Handler("POST") {
+			@Override
+			void handle(HttpExchange exchange, Map<String, String> params, byte[] body) throws IOException {
+				if("/verify/batch".equals(exchange.getRequestURI().getPath())) {
+					verifyBatch(exchange, body);
+				}
+				else {
+					verify(exchange, params);
+				}
+			}
+		});
+		this.server.createContext("/metrics", new Handler("GET") {
+			@Override
+			void handle(HttpExchange exchange, Map<String, String> params, byte[] body) throws IOException {
+				metrics(exchange);
+			}
+		});
+	}
+	
+	public void start() {
+		this.server.start();
+	}
+	
+	/**
+	 * Stops accepting requests, waits up to the given delay for the exchanges in progress,
+	 * and stops the request threads.
+	 * @param delay Seconds to wait.
+	 */
+	public void stop(int delay) {
+		this.server.stop(delay);
+		this.verifier.close();
+		this.executor.shutdown();
+	}
+	
+	/**
+	 * @return The port the server listens on.
+	 */
+	public int port() {
+		return this.server.getAddress().getPort();
+	}
+	
+	/**
+	 * Runs a server with in-memory accounts, metrics and the default {@link AttemptThrottle}.
+	 * @param args Port, 8080 by default.
+	 */
+	public static void main(String[] args) throws IOException {
+		if(System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		OtpMetrics.install(new InProcessOtpMetrics());
+		OtpServer server = new OtpServer(new InetSocketAddress(args.length > 0 ? Integer.parseInt(args[0]) : 8080), 
+				new InMemoryAccountStore(), HMACAlgorithmEnum.SHA1, 6, 30, 1024, new AttemptThrottle());
+		server.start();
+		System.out.println("Listening on port " + server.port());
+	}
+	
+	private void enroll(HttpExchange exchange, Map<String, String> params) throws IOException {
+		String issuer = required(params, "issuer");
+		String account = required(params, "account");
+		String format = params.get("format");
+		if(format != null && !"png".equals(format) && !"svg".equals(format)) {
+			throw new IllegalArgumentException("format");
+		}
+		String size = params.get("size");
+		int pixels = size == null ? 200 : Integer.parseInt(size);
+		if(pixels <= 0 || pixels > 2000) {
+			throw new IllegalArgumentException("size");
+		}
+		byte[] secret = CryptoUtils.randomSeed(20);
+		OTPAuthentication auth = new OTPAuthentication(secret, issuer, account, this.algo, this.digits, this.period);
+		if(!this.store.save(account, auth)) {
+			send(exchange, 409, "text/plain", "Account already enrolled.");
+			return;
+		}
+		StringBuilder json = new StringBuilder(256);
+		json.append("{\"account\":");
+		quote(account, json);
+		json.append(",\"secret\":\"").append(Base32Utils.encode(secret)).append("\",\"uri\":");
+		String uri = auth.uri().toString();
+		quote(uri, json);
+		if(format != null) {
+			json.append(",\"qr\":\"").append(qr(uri, format, pixels)).append('"');
+		}
+		json.append('}');
+		send(exchange, 200, "application/json", json.toString());
+	}
+	
+	private void verify(final HttpExchange exchange, Map<String, String> params) {
+		final String account = required(params, "account");
+		this.verifier.verify(account, required(params, "code"))
+				.whenComplete(new BiConsumer<VerificationResult, Throwable>() {
+			@Override
+			public void accept(VerificationResult result, Throwable failure) {
+				try {
+					if(failure != null) {
+						if(failure instanceof RejectedExecutionException) {
+							send(exchange, 429, "text/plain", "Too many verifications in flight.");
+						}
+						else {
+							send(exchange, 500, "text/plain", "Lookup failed.");
+						}
+						return;
+					}
+					if(result.isThrottled()) {
+						exchange.getResponseHeaders().set("Retry-After", Long.toString(retryAfter(account)));
+						send(exchange, 429, "text/plain", "Too many failed attempts.");
+						return;
+					}
+					send(exchange, 200, "application/json", "{\"valid\":" + result.isValid() + ",\"replay\":"
+							+ result.isReplay() + ",\"offset\":" + result.offset() + "}");
+				} catch (IOException e) {
+					exchange.close();
+				}
+			}
+		});
+	}
+	
+	private void verifyBatch(final HttpExchange exchange, byte[] request) throws IOException {
+		String body = new String(request, StandardCharsets.UTF_8);
+		// parsed in full first, so that a refused batch consumes none of its codes
+		final List<String> accounts = new ArrayList<String>();
+		List<String> codes = new ArrayList<String>();
+		int start = 0;
+		while(start < body.length()) {
+			int end = body.indexOf('\n', start);
+			if(end < 0) {
+				end = body.length();
+			}
+			String line = body.substring(start, end).trim();
+			start = end + 1;
+			if(line.isEmpty()) {
+				continue;
+			}
+			if(accounts.size() == MAX_BATCH) {
+				send(exchange, 413, "text/plain", "At most " + MAX_BATCH + " lines per batch.");
+				return;
+			}
+			int space = line.lastIndexOf(' ');
+			if(space <= 0) {
+				throw new IllegalArgumentException("Expected \"account code\" lines.");
+			}
+			accounts.add(line.substring(0, space).trim());
+			codes.add(line.substring(space + 1));
+		}
+		final List<CompletableFuture<VerificationResult>> futures = 
+				new ArrayList<CompletableFuture<VerificationResult>>(accounts.size());
+		for(int i = 0; i < accounts.size(); i++) {
+			futures.add(this.verifier.verify(accounts.get(i), codes.get(i)));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+				.whenComplete(new BiConsumer<Void, Throwable>() {
+			@Override
+			public void accept(Void ignored, Throwable failure) {
+				StringBuilder out = new StringBuilder(futures.size() * 10);
+				long retryAfter = 0;
+				for(int i = 0; i < futures.size(); i++) {
+					VerificationResult result;
+					try {
+						result = futures.get(i).join();
+					} catch (Exception e) {
+						out.append(e.getCause() instanceof RejectedExecutionException ? "rejected\n" : "error\n");
+						continue;
+					}
+					if(result.isValid()) {
+						out.append("valid ").append(result.offset()).append('\n');
+					}
+					else if(result.isThrottled()) {
+						long seconds = retryAfter(accounts.get(i));
+						retryAfter = Math.max(retryAfter, seconds);
+						out.append("throttled ").append(seconds).append('\n');
+					}
+					else {
+						out.append(result.isReplay() ? "replayed\n" : "invalid\n");
+					}
+				}
+				try {
+					if(retryAfter > 0) {
+						exchange.getResponseHeaders().set("Retry-After", Long.toString(retryAfter));
+						send(exchange, 429, "text/plain", out.toString());
+					}
+					else {
+						send(exchange, 200, "text/plain", out.toString());
+					}
+				} catch (IOException e) {
+					exchange.close();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * @return Whole seconds until the throttled account may be verified again, at least 1.
+	 */
+	private long retryAfter(String account) {
+		long millis = this.throttle == null ? 0L : this.throttle.lockedFor(account, System.currentTimeMillis());
+		return Math.max(1L, (millis + 999) / 1000);
+	}
+	
+	private static String qr(String uri, String format, int pixels) {
+		try {
+			if("svg".equals(format)) {
+				StringBuilder svg = new StringBuilder(4096);
+				QRCode.generateQRCodeSvg(uri, pixels, pixels, svg);
+				return "data:image/svg+xml;base64," 
+						+ Base64.getEncoder().encodeToString(svg.toString().getBytes(StandardCharsets.UTF_8));
+			}
+			ByteArrayOutputStream png = new ByteArrayOutputStream(2048);
+			QRCode.generateQRCodeImage(uri, pixels, pixels, png);
+			return "data:image/png;base64," + Base64.getEncoder().encodeToString(png.toByteArray());
+		} catch (WriterException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		} catch (IOException e) {
+			// in-memory destinations do not throw it
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static void metrics(HttpExchange exchange) throws IOException {
+		OtpMetrics metrics = OtpMetrics.get();
+		if(!(metrics instanceof InProcessOtpMetrics)) {
+			send(exchange, 404, "text/plain", "No in-process metrics installed.");
+			return;
+		}
+		StringBuilder out = new StringBuilder(4096);
+		((InProcessOtpMetrics) metrics).writeTo(out);
+		send(exchange, 200, "text/plain; version=0.0.4", out.toString());
+	}
+	
+	private static String required(Map<String, String> params, String name) {
+		String value = params.get(name);
+		if(value == null || value.isEmpty()) {
+			throw new IllegalArgumentException("Missing parameter: " + name);
+		}
+		return value;
+	}
+	
+	private static void quote(String s, StringBuilder json) {
+		json.append('"');
+		for(int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if(c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			}
+			else if(c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			}
+			else {
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+	
+	/**
+	 * @return The body, or null once it exceeds {@link #MAX_BODY} bytes.
+	 */
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+		byte[] buffer = new byte[4096];
+		int n;
+		while((n = in.read(buffer)) > 0) {
+			if(out.size() + n > MAX_BODY) {
+				return null;
+			}
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+	
+	private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		send(exchange, status, contentType, body.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(body);
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Parses the parameters and maps failures to status codes.
+	 */
+	private abstract static class Handler implements HttpHandler {
+		
+		private final String method;
+		
+		Handler(String method) {
+			this.method = method;
+		}
+		
+		abstract void handle(HttpExchange exchange, Map<String, String> params, byte[] body) throws IOException;
+		
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if(!this.method.equals(exchange.getRequestMethod())) {
+					exchange.getResponseHeaders().set("Allow", this.method);
+					send(exchange, 405, "text/plain", "Use " + this.method + ".");
+					return;
+				}
+				Map<String, String> params = new HashMap<String, String>();
+				parse(exchange.getRequestURI().getRawQuery(), params);
+				byte[] body = read(exchange.getRequestBody());
+				if(body == null) {
+					send(exchange, 413, "text/plain", "At most " + MAX_BODY + " bytes per request.");
+					return;
+				}
+				String type = exchange.getRequestHeaders().getFirst("Content-Type");
+				if(type != null && type.startsWith("application/x-www-form-urlencoded")) {
+					parse(new String(body, StandardCharsets.UTF_8), params);
+				}
+				handle(exchange, params, body);
+			} catch (IllegalArgumentException e) {
+				send(exchange, 400, "text/plain", String.valueOf(e.getMessage()));
+			} catch (IOException e) {
+				send(exchange, 500, "text/plain", "Storage failed.");
+			}
+		}
+		
+		private static void parse(String query, Map<String, String> params) throws IOException {
+			if(query == null) {
+				return;
+			}
+			int start = 0;
+			while(start < query.length()) {
+				int end = query.indexOf('&', start);
+				if(end < 0) {
+					end = query.length();
+				}
+				int eq = query.indexOf('=', start);
+				if(eq > start && eq < end) {
+					params.put(URLDecoder.decode(query.substring(start, eq), "UTF-8"),
+							URLDecoder.decode(query.substring(eq + 1, end), "UTF-8"));
+				}
+				start = end + 1;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,173 @@
+package j2fa.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Table-driven RFC 4648 Base32 codec, the encoding of secrets in otpauth URIs.
+ *
+ * <p>Decoding accepts upper and lower case letters and ignores trailing {@code '='} padding,
+ * and writes into caller-supplied arrays so that secrets loaded in bulk do not go through
+ * intermediate Strings.
+ *
+ * @see https://tools.ietf.org/html/rfc4648#section-6
+ */
+public final class Base32Utils {
+
+	private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".toCharArray();
+	
+	// 5-bit value of each ASCII character, -1 if not in the alphabet
+	private static final byte[] VALUES = new byte[128];
+	
+	static {
+		Arrays.fill(VALUES, (byte) -1);
+		for(int i = 0; i < ALPHABET.length; i++) {
+			VALUES[ALPHABET[i]] = (byte) i;
+			VALUES[Character.toLowerCase(ALPHABET[i])] = (byte) i;
+		}
+	}
+	
+	private Base32Utils() {}
+	
+	/**
+	 * @param length Number of bytes to encode.
+	 * @return Number of characters of the padded encoding.
+	 */
+	public static int encodedLength(int length) {
+		return (length + 4) / 5 * 8;
+	}
+	
+	/**
+	 * @param chars Number of characters, without padding.
+	 * @return Number of bytes they decode to.
+	 */
+	public static int decodedLength(int chars) {
+		return (int) (chars * 5L / 8);
+	}
+	
+	/**
+	 * @param bytes Bytes to encode.
+	 * @return The padded Base32 encoding, as commons-codec's {@code Base32.encodeAsString}.
+	 */
+	public static String encode(byte[] bytes) {
+		char[] chars = new char[encodedLength(bytes.length)];
+		encode(bytes, 0, bytes.length, chars, 0);
+		return new String(chars);
+	}
+	
+	/**
+	 * Encodes into a caller-supplied buffer, with padding.
+	 * @param src Bytes to encode.
+	 * @param off Offset of the first byte to encode.
+	 * @param len Number of bytes to encode.
+	 * @param dst Destination buffer, with room for {@link #encodedLength(int)} characters.
+	 * @param dstOff Offset of the first character in the destination buffer.
+	 * @return The number of characters written.
+	 */
+	public static int encode(byte[] src, int off, int len, char[] dst, int dstOff) {
+		int j = dstOff;
+		int end = off + len;
+		int i = off;
+		// whole 5-byte groups, 40 bits to 8 characters
+		for(; i + 5 <= end; i += 5) {
+			long bits = (src[i] & 0xFFL) << 32 | (src[i + 1] & 0xFFL) << 24 | (src[i + 2] & 0xFFL) << 16
+					| (src[i + 3] & 0xFFL) << 8 | (src[i + 4] & 0xFFL);
+			for(int shift = 35; shift >= 0; shift -= 5) {
+				dst[j++] = ALPHABET[(int) (bits >>> shift) & 31];
+			}
+		}
+		int rest = end - i;
+		if(rest > 0) {
+			long bits = 0;
+			for(int k = 0; k < 5; k++) {
+				bits = bits << 8 | (k < rest ? src[i + k] & 0xFFL : 0);
+			}
+			int chars = (rest * 8 + 4) / 5;
+			for(int k = 0; k < 8; k++) {
+				dst[j++] = k < chars ? ALPHABET[(int) (bits >>> (35 - 5 * k)) & 31] : '=';
+			}
+		}
+		return j - dstOff;
+	}
+	
+	/**
+	 * @param base32 Base32 characters, optionally padded.
+	 * @return The decoded bytes.
+	 * @throws IllegalArgumentException if the sequence holds a character outside the alphabet.
+	 */
+	public static byte[] decode(CharSequence base32) {
+		byte[] bytes = new byte[decodedLength(unpaddedLength(base32))];
+		decode(base32, bytes, 0);
+		return bytes;
+	}
+	
+	/**
+	 * Decodes into a caller-supplied buffer, without intermediate objects.
+	 * @param base32 Base32 characters, optionally padded.
+	 * @param dst Destination buffer, with room for {@link #decodedLength(int)} bytes.
+	 * @param off Offset of the first byte in the destination buffer.
+	 * @return The number of bytes written.
+	 * @throws IllegalArgumentException if the sequence holds a character outside the alphabet.
+	 */
+	public static int decode(CharSequence base32, byte[] dst, int off) {
+		int length = unpaddedLength(base32);
+		int j = off;
+		int buffer = 0;
+		int bits = 0;
+		for(int i = 0; i < length; i++) {
+			buffer = buffer << 5 | value(base32.charAt(i));
+			bits += 5;
+			if(bits >= 8) {
+				bits -= 8;
+				dst[j++] = (byte) (buffer >>> bits);
+			}
+		}
+		return j - off;
+	}
+	
+	/**
+	 * Decodes the ASCII characters between the buffer's position and limit into a caller-supplied
+	 * array. The position is advanced to the limit.
+	 * @param base32 ASCII Base32 characters, optionally padded.
+	 * @param dst Destination buffer, with room for {@link #decodedLength(int)} bytes.
+	 * @param off Offset of the first byte in the destination buffer.
+	 * @return The number of bytes written.
+	 * @throws IllegalArgumentException if the buffer holds a byte outside the alphabet.
+	 */
+	public static int decode(ByteBuffer base32, byte[] dst, int off) {
+		int limit = base32.limit();
+		while(limit > base32.position() && base32.get(limit - 1) == '=') {
+			limit--;
+		}
+		int j = off;
+		int buffer = 0;
+		int bits = 0;
+		for(int i = base32.position(); i < limit; i++) {
+			buffer = buffer << 5 | value(base32.get(i));
+			bits += 5;
+			if(bits >= 8) {
+				bits -= 8;
+				dst[j++] = (byte) (buffer >>> bits);
+			}
+		}
+		base32.position(base32.limit());
+		return j - off;
+	}
+	
+	private static int unpaddedLength(CharSequence base32) {
+		int length = base32.length();
+		while(length > 0 && base32.charAt(length - 1) == '=') {
+			length--;
+		}
+		return length;
+	}
+	
+	private static int value(int c) {
+		int v = c < 128 && c >= 0 ? VALUES[c] : -1;
+		if(v < 0) {
+			throw new IllegalArgumentException("Not a Base32 character: " + (char) c);
+		}
+		return v;
+	}
+
+}
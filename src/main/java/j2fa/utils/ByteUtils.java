@@ -1,6 +1,6 @@
 package j2fa.utils;
 
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -12,6 +12,20 @@ public final class ByteUtils {
 	
 	private static final char[] HEX_CHARS = "0123456789ABCDEF".toCharArray();
 	
+	// nibble value of each ASCII character, -1 if not a hex digit
+	private static final byte[] HEX_VALUES = new byte[128];
+	
+	static {
+		Arrays.fill(HEX_VALUES, (byte) -1);
+		for(int i = 0; i < 10; i++) {
+			HEX_VALUES['0' + i] = (byte) i;
+		}
+		for(int i = 0; i < 6; i++) {
+			HEX_VALUES['A' + i] = (byte) (10 + i);
+			HEX_VALUES['a' + i] = (byte) (10 + i);
+		}
+	}
+	
 	private ByteUtils() {}
 	
 	public static String bytesToHex(byte[] bytes) {
@@ -24,12 +38,71 @@ public final class ByteUtils {
 	    return new String(hexChars);
 	}
 	
+	/**
+	 * Decodes a hex string. An odd number of digits is read as if left-padded with a zero.
+	 * @param hex Hex digits, upper or lower case.
+	 * @return The decoded bytes.
+	 * @throws IllegalArgumentException if the string holds a character that is not a hex digit.
+	 */
 	public static byte[] hexToBytes(String hex){
-		// Adding one byte to get the right conversion
-		// Values starting with "0" can be converted
-		byte[] bArray = new BigInteger("10" + hex, 16).toByteArray();
-		// Copy all the REAL bytes, not the "first"
-		return Arrays.copyOfRange(bArray, 1, bArray.length);
+		byte[] bytes = new byte[(hex.length() + 1) / 2];
+		hexToBytes(hex, bytes, 0);
+		return bytes;
+	}
+	
+	/**
+	 * Decodes hex digits into a caller-supplied buffer, without intermediate objects. 
+	 * An odd number of digits is read as if left-padded with a zero.
+	 * @param hex Hex digits, upper or lower case.
+	 * @param dst Destination buffer, with room for {@code (hex.length() + 1) / 2} bytes.
+	 * @param off Offset of the first byte in the destination buffer.
+	 * @return The number of bytes written.
+	 * @throws IllegalArgumentException if the sequence holds a character that is not a hex digit.
+	 */
+	public static int hexToBytes(CharSequence hex, byte[] dst, int off) {
+		int length = hex.length();
+		int n = (length + 1) / 2;
+		int i = 0;
+		int j = off;
+		if((length & 1) != 0) {
+			dst[j++] = (byte) nibble(hex.charAt(i++));
+		}
+		while(i < length) {
+			dst[j++] = (byte) (nibble(hex.charAt(i)) << 4 | nibble(hex.charAt(i + 1)));
+			i += 2;
+		}
+		return n;
+	}
+	
+	/**
+	 * Decodes the ASCII hex digits between the buffer's position and limit into a caller-supplied 
+	 * array, e.g. straight from a database or file buffer. The position is advanced to the limit.
+	 * An odd number of digits is read as if left-padded with a zero.
+	 * @param hex ASCII hex digits, upper or lower case.
+	 * @param dst Destination buffer, with room for {@code (hex.remaining() + 1) / 2} bytes.
+	 * @param off Offset of the first byte in the destination buffer.
+	 * @return The number of bytes written.
+	 * @throws IllegalArgumentException if the buffer holds a byte that is not a hex digit.
+	 */
+	public static int hexToBytes(ByteBuffer hex, byte[] dst, int off) {
+		int length = hex.remaining();
+		int n = (length + 1) / 2;
+		int j = off;
+		if((length & 1) != 0) {
+			dst[j++] = (byte) nibble(hex.get());
+		}
+		while(hex.hasRemaining()) {
+			dst[j++] = (byte) (nibble(hex.get()) << 4 | nibble(hex.get()));
+		}
+		return n;
+	}
+	
+	private static int nibble(int c) {
+		int v = c < 128 && c >= 0 ? HEX_VALUES[c] : -1;
+		if(v < 0) {
+			throw new IllegalArgumentException("Not a hex digit: " + (char) c);
+		}
+		return v;
 	}
 	
 	public static byte[] longToBytes(long l) {
@@ -39,6 +112,33 @@ public final class ByteUtils {
 	        l >>= 8;
 	    }
 	    return result;
-	}	
+	}
+	
+	/**
+	 * Writes the 8 big-endian bytes of the given long into a caller-supplied buffer.
+	 * @param l value to write
+	 * @param dst destination buffer
+	 * @param off offset of the first byte in the destination buffer
+	 */
+	public static void longToBytes(long l, byte[] dst, int off) {
+	    for (int i = off + Long.BYTES - 1; i >= off; i--) {
+	        dst[i] = (byte)(l & 0xFF);
+	        l >>= 8;
+	    }
+	}
+	
+	/**
+	 * Reads 8 big-endian bytes, as written by {@link #longToBytes(long, byte[], int)}.
+	 * @param src source buffer
+	 * @param off offset of the first byte in the source buffer
+	 * @return the long read
+	 */
+	public static long bytesToLong(byte[] src, int off) {
+	    long l = 0;
+	    for (int i = off; i < off + Long.BYTES; i++) {
+	        l = (l << 8) | (src[i] & 0xFF);
+	    }
+	    return l;
+	}
 	
 }
@@ -0,0 +1,165 @@
+package j2fa.enroll;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import junit.framework.TestCase;
+
+import j2fa.otp.HMACAlgorithmEnum;
+
+/**
+ * Runs the enrollment pipeline into both sinks and checks nothing is lost or duplicated.
+ */
+public class BulkEnrollmentTest extends TestCase {
+	
+	private static final int ACCOUNTS = 500;
+	
+	private static Iterator<EnrollmentRequest> requests(int n) {
+		List<EnrollmentRequest> list = new ArrayList<EnrollmentRequest>(n);
+		for(int i = 0; i < n; i++) {
+			list.add(new EnrollmentRequest("Issuer", "user" + i + "@example.com"));
+		}
+		return list.iterator();
+	}
+	
+	public void testDirectorySink() throws Exception {
+		File dir = File.createTempFile("enrollments", "");
+		dir.delete();
+		BulkEnrollment bulk = new BulkEnrollment(HMACAlgorithmEnum.SHA1, 6, 30, 150, 4);
+		final AtomicLong reported = new AtomicLong();
+		bulk.setProgressListener(new ProgressListener() {
+			@Override
+			public void progress(long completed, long elapsedNanos) {
+				reported.set(completed);
+			}
+		}, 100);
+		DirectoryEnrollmentSink sink = new DirectoryEnrollmentSink(dir);
+		BulkEnrollment.Result result;
+		try {
+			result = bulk.run(requests(ACCOUNTS), sink);
+		} finally {
+			sink.close();
+		}
+		assertEquals(ACCOUNTS, result.count());
+		assertEquals(ACCOUNTS, reported.get());
+		
+		Set<String> accounts = new HashSet<String>();
+		Set<String> secrets = new HashSet<String>();
+		BufferedReader index = new BufferedReader(new InputStreamReader(
+				new FileInputStream(new File(dir, DirectoryEnrollmentSink.INDEX)), StandardCharsets.UTF_8));
+		try {
+			assertEquals(EnrollmentCsv.HEADER.trim(), index.readLine());
+			String line;
+			while((line = index.readLine()) != null) {
+				String[] fields = line.split(",");
+				assertTrue(new File(dir, String.format("%08d.png", Long.parseLong(fields[0]))).isFile());
+				accounts.add(fields[2]);
+				secrets.add(fields[3]);
+				assertTrue(fields[4].startsWith("otpauth://totp/"));
+			}
+		} finally {
+			index.close();
+		}
+		assertEquals(ACCOUNTS, accounts.size());
+		assertEquals(ACCOUNTS, secrets.size());
+		
+		for(File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+	
+	public void testZipSink() throws Exception {
+		ByteArrayOutputStream zip = new ByteArrayOutputStream();
+		ZipEnrollmentSink sink = new ZipEnrollmentSink(zip);
+		BulkEnrollment.Result result;
+		try {
+			result = new BulkEnrollment(HMACAlgorithmEnum.SHA256, 8, 30, 150, 3).run(requests(ACCOUNTS), sink);
+		} finally {
+			sink.close();
+		}
+		assertEquals(ACCOUNTS, result.count());
+		
+		int png = 0;
+		String index = null;
+		ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip.toByteArray()));
+		ZipEntry entry;
+		byte[] signature = new byte[4];
+		while((entry = in.getNextEntry()) != null) {
+			if(entry.getName().endsWith(".png")) {
+				assertEquals(4, in.read(signature));
+				assertEquals('P', signature[1]);
+				png++;
+			}
+			else {
+				assertEquals(DirectoryEnrollmentSink.INDEX, entry.getName());
+				assertNull(index);
+				ByteArrayOutputStream csv = new ByteArrayOutputStream();
+				byte[] buffer = new byte[4096];
+				int n;
+				while((n = in.read(buffer)) > 0) {
+					csv.write(buffer, 0, n);
+				}
+				index = new String(csv.toByteArray(), StandardCharsets.UTF_8);
+			}
+		}
+		in.close();
+		assertEquals(ACCOUNTS, png);
+		assertNotNull(index);
+		assertEquals(ACCOUNTS + 1, index.split("\n").length);
+	}
+	
+	public void testSinkFailureIsRethrown() throws Exception {
+		EnrollmentSink failing = new EnrollmentSink() {
+			@Override
+			public void accept(Enrollment enrollment) throws IOException {
+				if(enrollment.sequence() == 10) {
+					throw new IOException("disk full");
+				}
+			}
+			
+			@Override
+			public void close() {}
+		};
+		try {
+			new BulkEnrollment(HMACAlgorithmEnum.SHA1, 6, 30, 100, 2).run(requests(ACCOUNTS), failing);
+			fail();
+		} catch (IOException e) {
+			assertEquals("disk full", e.getMessage());
+		}
+	}
+	
+	public void testSinkErrorDoesNotHang() throws Exception {
+		EnrollmentSink failing = new EnrollmentSink() {
+			@Override
+			public void accept(Enrollment enrollment) {
+				throw new AssertionError("sink bug");
+			}
+			
+			@Override
+			public void close() {}
+		};
+		try {
+			// more results than the queues hold, so the workers would block if the writer died
+			new BulkEnrollment(HMACAlgorithmEnum.SHA1, 6, 30, 29, 1).run(requests(1000), failing);
+			fail();
+		} catch (AssertionError e) {
+			assertEquals("sink bug", e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+package j2fa.metrics;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+import j2fa.otp.AttemptThrottle;
+import j2fa.otp.HMACAlgorithmEnum;
+import j2fa.otp.OTPAuthentication;
+import j2fa.otp.TotpVerifier;
+import j2fa.otp.UsedCodeRegistry;
+import j2fa.qr.QRCode;
+import j2fa.utils.ByteUtils;
+
+/**
+ * Checks the histogram precision and that the library reports to the installed metrics.
+ */
+public class InProcessOtpMetricsTest extends TestCase {
+	
+	private static final byte[] SECRET = ByteUtils.hexToBytes("3132333435363738393031323334353637383930");
+	private static final long NOW = 1111111109000L;
+	
+	private InProcessOtpMetrics metrics;
+	
+	@Override
+	protected void setUp() {
+		this.metrics = new InProcessOtpMetrics();
+		OtpMetrics.install(this.metrics);
+	}
+	
+	@Override
+	protected void tearDown() {
+		OtpMetrics.install(null);
+	}
+	
+	public void testHistogramPrecision() {
+		Histogram h = new Histogram();
+		for(long v = 1; v <= 100000; v++) {
+			h.record(v * 1000);
+		}
+		assertEquals(100000, h.count());
+		assertEquals(100000000, h.max());
+		assertEquals(50000500.0, h.mean(), 1.0);
+		for(double p : new double[] {50, 90, 99, 99.9}) {
+			double expected = p * 1000000;
+			assertEquals(expected, h.valueAtPercentile(p), expected * 0.016);
+		}
+		assertEquals(100000000, h.valueAtPercentile(100));
+		for(long v = 0; v < 1L << 36; v = v * 3 + 1) {
+			int index = Histogram.index(v);
+			assertTrue(v <= Histogram.highestValue(index));
+			assertTrue(index == 0 || v > Histogram.highestValue(index - 1));
+		}
+		h.reset();
+		assertEquals(0, h.count());
+		assertEquals(0, h.valueAtPercentile(99));
+	}
+	
+	public void testHooks() throws Exception {
+		OTPAuthentication o = new OTPAuthentication(SECRET, "Issuer", "account", HMACAlgorithmEnum.SHA256, 6, 30);
+		String code = o.password(NOW);
+		String early = o.password(NOW, -1);
+		assertEquals(2, this.metrics.generateLatency(HMACAlgorithmEnum.SHA256).count());
+		assertEquals(0, this.metrics.generateLatency(HMACAlgorithmEnum.SHA1).count());
+		
+		UsedCodeRegistry registry = new UsedCodeRegistry();
+		assertTrue(o.verify(code, NOW, 1, 1, registry).isValid());
+		assertTrue(o.verify(code, NOW, 1, 1, registry).isReplay());
+		assertEquals(-1, o.verify(early, NOW, 1, 1).offset());
+		assertFalse(o.verify("000000", NOW, 0, 0).isValid());
+		// candidates tried during verification are not counted as generated codes
+		assertEquals(2, this.metrics.generateLatency(HMACAlgorithmEnum.SHA256).count());
+		assertEquals(4, this.metrics.verifyLatency(HMACAlgorithmEnum.SHA256).count());
+		assertEquals(2, this.metrics.validCount());
+		assertEquals(1, this.metrics.invalidCount());
+		assertEquals(1, this.metrics.replayCount());
+		assertEquals(1, this.metrics.driftCount(0));
+		assertEquals(1, this.metrics.driftCount(-1));
+		
+		QRCode.generateQRCodeImage(o.setupPath(), 100, 100, new ByteArrayOutputStream());
+		QRCode.generateQRCodeSvg(o.setupPath(), 100, 100, new StringBuilder());
+		assertEquals(1, this.metrics.renderLatency("png").count());
+		assertEquals(1, this.metrics.renderLatency("svg").count());
+		
+		StringBuilder scrape = new StringBuilder();
+		this.metrics.writeTo(scrape);
+		assertTrue(scrape.toString().contains("j2fa_verify_seconds_count{algorithm=\"SHA256\"} 4\n"));
+		assertTrue(scrape.toString().contains("j2fa_verifications_total{outcome=\"replayed\"} 1\n"));
+		assertTrue(scrape.toString().contains("j2fa_verification_drift_total{steps=\"-1\"} 1\n"));
+	}
+	
+	public void testThrottledAttempts() throws Exception {
+		OTPAuthentication o = new OTPAuthentication(SECRET, "Issuer", "account", HMACAlgorithmEnum.SHA1, 6, 30);
+		TotpVerifier verifier = new TotpVerifier(o.spec(), 1, 1, null, null, 
+				new AttemptThrottle(1, 60000L, 60000L, 60000L, 16));
+		assertFalse(verifier.verify("000000", NOW).isValid());
+		assertTrue(verifier.verify(o.password(NOW), NOW).isThrottled());
+		assertTrue(verifier.verify(o.password(NOW), NOW).isThrottled());
+		assertEquals(1, this.metrics.invalidCount());
+		assertEquals(2, this.metrics.throttledCount());
+		// refusals do not pull the verification latencies down
+		assertEquals(1, this.metrics.verifyLatency(HMACAlgorithmEnum.SHA1).count());
+		
+		StringBuilder scrape = new StringBuilder();
+		this.metrics.writeTo(scrape);
+		assertTrue(scrape.toString().contains("j2fa_verifications_total{outcome=\"throttled\"} 2\n"));
+	}
+	
+	public void testDisabledByDefault() {
+		OtpMetrics.install(null);
+		assertSame(OtpMetrics.NOOP, OtpMetrics.get());
+		assertFalse(OtpMetrics.get().enabled());
+		new OTPAuthentication(SECRET, "Issuer", "account", HMACAlgorithmEnum.SHA1, 6, 30).password(NOW);
+		assertEquals(0, this.metrics.generateLatency(HMACAlgorithmEnum.SHA1).count());
+	}
+
+}
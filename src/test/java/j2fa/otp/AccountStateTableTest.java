@@ -0,0 +1,117 @@
+package j2fa.otp;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks record updates, removal and growth, and that concurrent readers never see torn records.
+ */
+public class AccountStateTableTest extends TestCase {
+	
+	public void testUpdates() {
+		AccountStateTable table = new AccountStateTable(3);
+		assertFalse(table.contains(42));
+		assertEquals(-1L, table.get(42, 0, -1L));
+		table.set(42, 1, 7);
+		assertTrue(table.contains(42));
+		assertEquals(0L, table.get(42, 0, -1L));
+		assertEquals(7L, table.get(42, 1, -1L));
+		assertEquals(8L, table.addAndGet(42, 1, 1));
+		assertTrue(table.compareAndSet(42, 2, 0, 5));
+		assertFalse(table.compareAndSet(42, 2, 0, 6));
+		assertFalse(table.compareAndSet(43, 2, 0, 6));
+		long[] record = new long[3];
+		assertTrue(table.read(42, record));
+		assertEquals(8L, record[1]);
+		assertEquals(5L, record[2]);
+		table.write(-1, new long[] {1, 2, 3});
+		assertEquals(3L, table.get(-1, 2, 0));
+		assertEquals(2, table.size());
+		assertTrue(table.remove(42));
+		assertFalse(table.remove(42));
+		assertFalse(table.read(42, record));
+		// a new record in a reused slot starts from zeros
+		table.set(42, 0, 1);
+		assertEquals(0L, table.get(42, 1, -1L));
+	}
+	
+	public void testReservedIdsAndFields() {
+		AccountStateTable table = new AccountStateTable(2);
+		try {
+			table.set(Long.MIN_VALUE, 0, 1);
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+		try {
+			table.get(1, 2, 0);
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+		table.set(Long.MAX_VALUE, 0, 1);
+		table.set(0, 0, 2);
+		assertEquals(1L, table.get(Long.MAX_VALUE, 0, 0));
+		assertEquals(2L, table.get(0, 0, 0));
+	}
+	
+	public void testGrowthAndTombstones() {
+		AccountStateTable table = new AccountStateTable(2, 0, 1);
+		for(long id = 0; id < 100000; id++) {
+			table.set(id, 0, id * 3);
+		}
+		assertEquals(100000, table.size());
+		for(long id = 0; id < 100000; id += 2) {
+			assertTrue(table.remove(id));
+		}
+		// churn within the same size reuses tombstones and rebuilds rather than growing
+		long bytes = table.memoryBytes();
+		for(long id = 100000; id < 400000; id++) {
+			table.set(id, 1, id);
+			table.remove(id);
+		}
+		assertEquals(bytes, table.memoryBytes());
+		for(long id = 0; id < 100000; id++) {
+			assertEquals(id % 2 == 0 ? -1L : id * 3, table.get(id, 0, -1L));
+		}
+	}
+	
+	public void testConsistentReads() throws InterruptedException {
+		final AccountStateTable table = new AccountStateTable(4, 0, 2);
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicReference<String> torn = new AtomicReference<String>();
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for(long v = 1; v < 200000; v++) {
+					long id = v % 64;
+					table.write(id, new long[] {v, v, v, v});
+					if(v % 7 == 0) {
+						// frees slots for reuse by other ids
+						table.remove((v + 32) % 64);
+					}
+				}
+				done.set(true);
+			}
+		};
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				long[] record = new long[4];
+				while(!done.get()) {
+					for(long id = 0; id < 64; id++) {
+						if(table.read(id, record) && (record[0] != record[3] || record[0] % 64 != id)) {
+							torn.set(id + ": " + record[0] + ", " + record[3]);
+						}
+					}
+				}
+			}
+		};
+		reader.start();
+		writer.start();
+		writer.join();
+		reader.join();
+		assertNull(torn.get());
+	}
+	
+}
@@ -0,0 +1,116 @@
+package j2fa.otp;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import j2fa.utils.ByteUtils;
+
+/**
+ * Checks the leaky bucket, the exponential lockout and the throttled verifier.
+ */
+public class AttemptThrottleTest extends TestCase {
+
+	private static final long NOW = 1111111109L * 1000L;
+	
+	public void testExponentialLockout() {
+		AttemptThrottle throttle = new AttemptThrottle(3, 60000L, 1000L, 5000L, 4);
+		assertEquals(0, throttle.acquire("a", NOW));
+		assertEquals(0, throttle.acquire("a", NOW));
+		// the attempt filling the bucket is still verified
+		assertEquals(0, throttle.acquire("a", NOW));
+		assertEquals(1000, throttle.lockedFor("a", NOW));
+		// refused while locked, and not counted
+		assertEquals(400, throttle.acquire("a", NOW + 600));
+		assertEquals(400, throttle.lockedFor("a", NOW + 600));
+		assertEquals(0, throttle.lockedFor("b", NOW));
+		long t = NOW + 1000;
+		assertEquals(0, throttle.lockedFor("a", t));
+		long[] lockouts = {2000, 4000, 5000, 5000};
+		for(long lockout : lockouts) {
+			for(int i = 0; i < 3; i++) {
+				assertEquals(0, throttle.acquire("a", t));
+			}
+			assertEquals(lockout, throttle.lockedFor("a", t));
+			t += lockout;
+		}
+		throttle.recordSuccess("a");
+		assertEquals(0, throttle.size());
+		throttle.acquire("a", t);
+		throttle.acquire("a", t);
+		throttle.acquire("a", t);
+		assertEquals(1000, throttle.lockedFor("a", t));
+	}
+	
+	public void testLeakAndQuietPeriod() {
+		AttemptThrottle throttle = new AttemptThrottle(3, 10000L, 1000L, 5000L, 4);
+		throttle.acquire("a", NOW);
+		throttle.acquire("a", NOW);
+		// one failure forgotten, so two more are needed
+		assertEquals(0, throttle.acquire("a", NOW + 10000));
+		assertEquals(0, throttle.lockedFor("a", NOW + 10000));
+		assertEquals(0, throttle.acquire("a", NOW + 10000));
+		assertEquals(1000, throttle.lockedFor("a", NOW + 10000));
+		assertEquals(0, throttle.evictIdle(NOW + 10000));
+		// the lockout count is kept for maxLockout after the lockout ends
+		throttle.acquire("a", NOW + 11000);
+		throttle.acquire("a", NOW + 11000);
+		throttle.acquire("a", NOW + 11000);
+		assertEquals(2000, throttle.lockedFor("a", NOW + 11000));
+		assertEquals(0, throttle.evictIdle(NOW + 17000));
+		assertEquals(1, throttle.evictIdle(NOW + 18000));
+		assertEquals(0, throttle.size());
+	}
+	
+	public void testThrottledVerifier() {
+		OtpSpec spec = new OtpSpec(ByteUtils.hexToBytes(HotpKeyTest.SEED), "Issuer", "account", 
+				HMACAlgorithmEnum.SHA1, 8, 30);
+		AttemptThrottle throttle = new AttemptThrottle(2, 60000L, 30000L, 60000L, 1);
+		TotpVerifier verifier = new TotpVerifier(spec, 1, 1, null, null, throttle);
+		assertFalse(verifier.verify("00000000", NOW).isValid());
+		assertTrue(verifier.verify(verifier.password(NOW), NOW).isValid());
+		assertEquals(0, throttle.size());
+		verifier.verify("00000000", NOW);
+		verifier.verify("00000000", NOW);
+		VerificationResult result = verifier.verify(verifier.password(NOW), NOW);
+		assertTrue(result.isThrottled());
+		assertFalse(result.isValid());
+		assertTrue(verifier.verify(verifier.password(NOW + 30000), NOW + 30000).isValid());
+	}
+	
+	public void testConcurrentGuessesCannotBypassLockout() throws Exception {
+		OtpSpec spec = new OtpSpec(ByteUtils.hexToBytes(HotpKeyTest.SEED), "Issuer", "account", 
+				HMACAlgorithmEnum.SHA1, 8, 30);
+		final AttemptThrottle throttle = new AttemptThrottle(5, 60000L, 30000L, 60000L, 1);
+		final TotpVerifier verifier = new TotpVerifier(spec, 1, 1, null, null, throttle);
+		final AtomicInteger checked = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[16];
+		for(int i = 0; i < threads.length; i++) {
+			final String guess = String.format("%08d", i);
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch(InterruptedException e) {
+						return;
+					}
+					for(int j = 0; j < 10; j++) {
+						if(!verifier.verify(guess, NOW).isThrottled()) {
+							checked.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(5, checked.get());
+	}
+
+}
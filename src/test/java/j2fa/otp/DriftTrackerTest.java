@@ -0,0 +1,74 @@
+package j2fa.otp;
+
+import junit.framework.TestCase;
+
+import j2fa.utils.ByteUtils;
+
+/**
+ * Checks that drift is learned and decays, and that verification centred on it keeps the window.
+ */
+public class DriftTrackerTest extends TestCase {
+
+	private static final long NOW = 1111111109L * 1000L;
+	private static final long STEP = 1111111109L / 30;
+	
+	public void testLearnsAndDecays() {
+		DriftTracker tracker = new DriftTracker(0.5, 100);
+		assertEquals(0, tracker.offset("a", STEP));
+		tracker.update("a", STEP, 1);
+		assertEquals(0.5, tracker.drift("a", STEP), 0.01);
+		tracker.update("a", STEP + 1, 1);
+		tracker.update("a", STEP + 2, 1);
+		assertEquals(1, tracker.offset("a", STEP + 2));
+		assertEquals(0.875 / 2, tracker.drift("a", STEP + 102), 0.01);
+		assertEquals(0, tracker.offset("b", STEP));
+		assertEquals(0, tracker.evictSettled(STEP + 2));
+		assertEquals(1, tracker.evictSettled(STEP + 200));
+		assertEquals(0, tracker.size());
+	}
+	
+	public void testNegativeDrift() {
+		DriftTracker tracker = new DriftTracker(1, 100);
+		tracker.update("a", STEP, -2);
+		assertEquals(-2, tracker.offset("a", STEP));
+		// the clock going back does not decay it
+		assertEquals(-2, tracker.offset("a", STEP - 10));
+	}
+	
+	public void testVerifyCentresOnDrift() {
+		OTPAuthentication o = new OTPAuthentication(ByteUtils.hexToBytes(HotpKeyTest.SEED), "Issuer", "account", 
+				HMACAlgorithmEnum.SHA1, 8, 30);
+		DriftTracker tracker = new DriftTracker(1, 2880);
+		VerificationResult result = o.verify(o.password(NOW, 1), NOW, 1, 1, tracker);
+		assertTrue(result.isValid());
+		assertEquals(1, result.offset());
+		assertEquals(1, tracker.offset("Issuer:account", STEP));
+		// the other steps of the window are still accepted, and nothing outside it
+		for(int step = -1; step <= 1; step++) {
+			assertEquals(step, o.verify(o.password(NOW, step), NOW, 1, 1, tracker).offset());
+		}
+		assertFalse(o.verify(o.password(NOW, 2), NOW, 1, 1, tracker).isValid());
+		assertFalse(o.verify("00000000", NOW, 1, 1, tracker).isValid());
+		assertEquals(1, tracker.offset("Issuer:account", STEP));
+	}
+	
+	public void testReplaysDoNotUpdate() {
+		OTPAuthentication o = new OTPAuthentication(ByteUtils.hexToBytes(HotpKeyTest.SEED), "Issuer", "account", 
+				HMACAlgorithmEnum.SHA1, 8, 30);
+		DriftTracker tracker = new DriftTracker(1, 2880);
+		UsedCodeRegistry registry = new UsedCodeRegistry(0);
+		String code = o.password(NOW, -1);
+		assertEquals(-1, o.verify(code, NOW, 1, 1, registry, tracker).offset());
+		tracker.update("Issuer:account", STEP, 1);
+		assertSame(VerificationResult.REPLAYED, o.verify(code, NOW, 1, 1, registry, tracker));
+		assertEquals(1, tracker.offset("Issuer:account", STEP));
+	}
+	
+	public void testCentreClampedToWindow() {
+		HotpKey key = new HotpKey(ByteUtils.hexToBytes(HotpKeyTest.SEED), HMACAlgorithmEnum.SHA1);
+		int code = HmacOneTimePassword.generateInt(key, STEP - 2, 6);
+		assertEquals(-2, HmacOneTimePassword.match(key, 6, code, STEP, 2, 0, 5));
+		assertEquals(HmacOneTimePassword.NO_MATCH, HmacOneTimePassword.match(key, 6, code, STEP, 1, 3, -4));
+	}
+
+}
@@ -0,0 +1,148 @@
+package j2fa.otp;
+
+import java.lang.management.ManagementFactory;
+import java.nio.CharBuffer;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import j2fa.utils.ByteUtils;
+
+/**
+ * Checks the primitive, buffer-based generation API, that it allocates less than the String one, 
+ * and nothing at all on the builtin and batch paths.
+ */
+public class HmacOneTimePasswordTest extends TestCase {
+	
+	public void testGenerateIntMatchesString() {
+		HMACAlgorithmEnum[] algos = HMACAlgorithmEnum.values();
+		String[] seeds = {HotpKeyTest.SEED, HotpKeyTest.SEED32, HotpKeyTest.SEED64};
+		char[] chars = new char[8];
+		for(int a = 0; a < algos.length; a++) {
+			HotpKey key = new HotpKey(ByteUtils.hexToBytes(seeds[a]), algos[a]);
+			for(long t = 0; t < 1000; t++) {
+				String expected = HmacOneTimePassword.generate(ByteUtils.hexToBytes(seeds[a]), t, 8, algos[a]);
+				int otp = HmacOneTimePassword.generateInt(key, t, 8);
+				HmacOneTimePassword.format(otp, 8, chars, 0);
+				assertEquals(expected, new String(chars));
+			}
+		}
+	}
+	
+	public void testBatchMatchesSingleKey() {
+		Random random = new Random(7);
+		for(HMACAlgorithmEnum algo : HMACAlgorithmEnum.values()) {
+			// key lengths below, at and above the block size
+			byte[][] secrets = new byte[37][];
+			for(int i = 0; i < secrets.length; i++) {
+				secrets[i] = new byte[1 + random.nextInt(140)];
+				random.nextBytes(secrets[i]);
+			}
+			int[] codes = new int[secrets.length];
+			HmacOneTimePassword.generateBatch(secrets, 1111111109L / 30, 8, algo, codes);
+			for(int i = 0; i < secrets.length; i++) {
+				String expected = HmacOneTimePassword.generate(secrets[i], 1111111109L / 30, 8, algo);
+				assertEquals(algo + " " + i, Integer.parseInt(expected), codes[i]);
+			}
+			
+			long[] factors = new long[21];
+			for(int i = 0; i < factors.length; i++) {
+				factors[i] = random.nextLong() >>> 1;
+			}
+			codes = new int[factors.length];
+			HmacOneTimePassword.generateBatch(secrets[0], factors, 6, algo, codes);
+			for(int i = 0; i < factors.length; i++) {
+				String expected = HmacOneTimePassword.generate(secrets[0], factors[i], 6, algo);
+				assertEquals(algo + " " + i, Integer.parseInt(expected), codes[i]);
+			}
+		}
+	}
+	
+	public void testFormat() {
+		char[] chars = new char[8];
+		assertEquals(6, HmacOneTimePassword.format(42, 6, chars, 1));
+		assertEquals("000042", new String(chars, 1, 6));
+		
+		CharBuffer buffer = CharBuffer.allocate(16);
+		buffer.put('>');
+		HmacOneTimePassword.format(7081804, 8, buffer);
+		buffer.flip();
+		assertEquals(">07081804", buffer.toString());
+	}
+	
+	public void testGenerateIntAllocatesLessThanString() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		if(!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+			return;
+		}
+		HotpKey key = new HotpKey(ByteUtils.hexToBytes(HotpKeyTest.SEED), HMACAlgorithmEnum.SHA1);
+		char[] chars = new char[6];
+		int iterations = 100000;
+		int sink = 0;
+		for(int i = 0; i < iterations; i++) {
+			sink += HmacOneTimePassword.format(HmacOneTimePassword.generateInt(key, i, 6), 6, chars, 0);
+			sink += HmacOneTimePassword.generate(key, i, 6).length();
+		}
+		long threadId = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(threadId);
+		for(int i = 0; i < iterations; i++) {
+			sink += HmacOneTimePassword.format(HmacOneTimePassword.generateInt(key, i, 6), 6, chars, 0);
+		}
+		long allocatedInt = threads.getThreadAllocatedBytes(threadId) - before;
+		before = threads.getThreadAllocatedBytes(threadId);
+		for(int i = 0; i < iterations; i++) {
+			sink += HmacOneTimePassword.generate(key, i, 6).length();
+		}
+		long allocatedString = threads.getThreadAllocatedBytes(threadId) - before;
+		assertEquals(24 * iterations, sink);
+		// only the digest clones: no message, hash or String per call
+		assertTrue("allocated " + allocatedInt + " vs " + allocatedString + " bytes", 
+				allocatedInt < allocatedString * 3 / 4);
+	}
+	
+	public void testBuiltinAndBatchAllocateNothing() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		if(!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+			return;
+		}
+		byte[][] secrets = new byte[16][];
+		for(int i = 0; i < secrets.length; i++) {
+			secrets[i] = ByteUtils.hexToBytes(HotpKeyTest.SEED64);
+		}
+		int[] codes = new int[secrets.length];
+		char[] chars = new char[6];
+		int iterations = 20000;
+		for(HMACAlgorithmEnum algo : HMACAlgorithmEnum.values()) {
+			HotpKey key = new HotpKey(secrets[0], algo, HMACImplementationEnum.BUILTIN);
+			int sink = 0;
+			for(int i = 0; i < iterations; i++) {
+				sink += HmacOneTimePassword.format(HmacOneTimePassword.generateInt(key, i, 6), 6, chars, 0);
+				HmacOneTimePassword.generateBatch(secrets, i, 6, algo, codes);
+			}
+			long threadId = Thread.currentThread().getId();
+			long before = threads.getThreadAllocatedBytes(threadId);
+			for(int i = 0; i < iterations; i++) {
+				sink += HmacOneTimePassword.format(HmacOneTimePassword.generateInt(key, i, 6), 6, chars, 0);
+			}
+			long allocatedBuiltin = threads.getThreadAllocatedBytes(threadId) - before;
+			before = threads.getThreadAllocatedBytes(threadId);
+			for(int i = 0; i < iterations; i++) {
+				HmacOneTimePassword.generateBatch(secrets, i, 6, algo, codes);
+			}
+			long allocatedBatch = threads.getThreadAllocatedBytes(threadId) - before;
+			assertEquals(12 * iterations, sink);
+			// allowance for the allocation counter itself, far below one byte per call
+			assertTrue(algo + " builtin allocated " + allocatedBuiltin + " bytes", allocatedBuiltin < 1024);
+			assertTrue(algo + " batch allocated " + allocatedBatch + " bytes", allocatedBatch < 1024);
+		}
+	}
+
+}
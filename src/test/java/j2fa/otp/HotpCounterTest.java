@@ -0,0 +1,159 @@
+package j2fa.otp;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import j2fa.utils.ByteUtils;
+
+/**
+ * Checks that concurrent HOTP requests never share a counter, and the write-behind journal.
+ */
+public class HotpCounterTest extends TestCase {
+	
+	private File file;
+	
+	@Override
+	protected void setUp() throws Exception {
+		this.file = File.createTempFile("counters", ".journal");
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		this.file.delete();
+	}
+	
+	public void testConcurrentPasswordsAreDistinct() throws InterruptedException {
+		final OTPAuthentication o = new OTPAuthentication(ByteUtils.hexToBytes(HotpKeyTest.SEED), "Issuer", 
+				"account", HMACAlgorithmEnum.SHA1, 8, 0L);
+		final Map<String, Boolean> codes = new ConcurrentHashMap<String, Boolean>();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[8];
+		for(int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for(int i = 0; i < 1000; i++) {
+						assertNull(codes.put(o.password(), Boolean.TRUE));
+					}
+				}
+			};
+			threads[t].start();
+		}
+		start.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		// 8-digit codes of 8000 consecutive counters do not collide for this seed
+		assertEquals(8000, codes.size());
+	}
+	
+	public void testJournal() throws Exception {
+		FileCounterJournal journal = new FileCounterJournal(this.file, 1000L, 1000);
+		HotpCounter a = new HotpCounter("a", 0, journal);
+		HotpCounter b = new HotpCounter("b", 41, journal);
+		for(int i = 0; i < 100; i++) {
+			a.next();
+		}
+		b.next();
+		assertFalse(b.advanceTo(10));
+		journal.flush();
+		assertEquals(Long.valueOf(100), FileCounterJournal.recover(this.file).get("a"));
+		assertTrue(b.advanceTo(50));
+		journal.close();
+		
+		Map<String, Long> counters = FileCounterJournal.recover(this.file);
+		assertEquals(2, counters.size());
+		assertEquals(Long.valueOf(100), counters.get("a"));
+		assertEquals(Long.valueOf(50), counters.get("b"));
+		
+		// reopening compacts to one line per account
+		new FileCounterJournal(this.file).close();
+		assertEquals(counters, FileCounterJournal.recover(this.file));
+		assertEquals("100\ta\n".length() + "50\tb\n".length(), this.file.length());
+	}
+	
+	public void testClosedJournalKeepsCounter() throws Exception {
+		FileCounterJournal journal = new FileCounterJournal(this.file, 1000L, 1000);
+		HotpCounter a = new HotpCounter("a", 7, journal);
+		assertEquals(8, a.next());
+		journal.close();
+		try {
+			a.next();
+			fail();
+		} catch (IllegalStateException expected) {
+			// journal closed
+		}
+		try {
+			a.advanceTo(20);
+			fail();
+		} catch (IllegalStateException expected) {
+			// journal closed
+		}
+		assertEquals(8, a.current());
+		for(String account : new String[] {"a\tb", "a\rb", "a\nb"}) {
+			try {
+				new HotpCounter(account, 0, journal).next();
+				fail(account);
+			} catch (IllegalArgumentException expected) {
+				// would corrupt the file
+			}
+		}
+	}
+	
+	public void testRecordsRacingCloseAreKept() throws Exception {
+		final FileCounterJournal journal = new FileCounterJournal(this.file, 1L, 1000000);
+		final HotpCounter[] counters = new HotpCounter[4];
+		Thread[] threads = new Thread[counters.length];
+		for(int i = 0; i < threads.length; i++) {
+			final HotpCounter counter = new HotpCounter("c" + i, 0, journal);
+			counters[i] = counter;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						while(true) {
+							counter.next();
+						}
+					} catch (IllegalStateException closed) {
+						// done
+					}
+				}
+			};
+			threads[i].start();
+		}
+		Thread.sleep(50L);
+		journal.close();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		Map<String, Long> recovered = FileCounterJournal.recover(this.file);
+		for(int i = 0; i < counters.length; i++) {
+			// every counter handed out is on disk
+			assertEquals(Long.valueOf(counters[i].current()), recovered.get("c" + i));
+		}
+	}
+	
+	public void testBackgroundFlush() throws Exception {
+		FileCounterJournal journal = new FileCounterJournal(this.file, 5L, 1000);
+		try {
+			new HotpCounter("a", 7, journal).next();
+			long deadline = System.currentTimeMillis() + 5000L;
+			while(FileCounterJournal.recover(this.file).isEmpty() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(5L);
+			}
+			assertEquals(Long.valueOf(8), FileCounterJournal.recover(this.file).get("a"));
+		} finally {
+			journal.close();
+		}
+	}
+
+}
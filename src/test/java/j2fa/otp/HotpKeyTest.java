@@ -0,0 +1,130 @@
+package j2fa.otp;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import j2fa.utils.ByteUtils;
+import j2fa.utils.CryptoUtils;
+
+/**
+ * Checks {@link HotpKey} against the RFC 4226 and RFC 6238 test vectors and the JCE HMAC.
+ */
+public class HotpKeyTest extends TestCase {
+	
+	static final String SEED = "3132333435363738393031323334353637383930";
+	static final String SEED32 = SEED + "313233343536373839303132";
+	static final String SEED64 = SEED32 + "3334353637383930313233343536373839303132333435363738393031323334";
+	
+	static final long[] TIMES = {59L, 1111111109L, 1111111111L, 1234567890L, 2000000000L, 20000000000L};
+	static final String[] TOTP_SHA1 = {"94287082", "07081804", "14050471", "89005924", "69279037", "65353130"};
+	static final String[] TOTP_SHA256 = {"46119246", "68084774", "67062674", "91819424", "90698825", "77737706"};
+	static final String[] TOTP_SHA512 = {"90693936", "25091201", "99943326", "93441116", "38618901", "47863826"};
+	static final String[] HOTP = {"755224", "287082", "359152", "969429", "338314", 
+			"254676", "287922", "162583", "399871", "520489"};
+	
+	public void testRfc4226() {
+		HotpKey key = new HotpKey(ByteUtils.hexToBytes(SEED), HMACAlgorithmEnum.SHA1);
+		for(int i = 0; i < HOTP.length; i++) {
+			assertEquals(HOTP[i], HmacOneTimePassword.generate(key, i, 6));
+		}
+	}
+	
+	public void testRfc6238() {
+		check(SEED, HMACAlgorithmEnum.SHA1, TOTP_SHA1);
+		check(SEED32, HMACAlgorithmEnum.SHA256, TOTP_SHA256);
+		check(SEED64, HMACAlgorithmEnum.SHA512, TOTP_SHA512);
+	}
+	
+	public void testMatchesJce() {
+		for(HMACAlgorithmEnum algo : HMACAlgorithmEnum.values()) {
+			for(int length : new int[] {1, 20, 64, 65, 128, 200}) {
+				byte[] secret = CryptoUtils.randomSeed(length);
+				HotpKey key = new HotpKey(secret, algo);
+				byte[] message = CryptoUtils.randomSeed(8);
+				assertTrue(algo + "/" + length, Arrays.equals(
+						CryptoUtils.hmacSha(algo.desc(), secret, message), key.hmac(message)));
+			}
+		}
+	}
+	
+	public void testBuiltinRfcVectors() {
+		HotpKey key = new HotpKey(ByteUtils.hexToBytes(SEED), HMACAlgorithmEnum.SHA1, true);
+		for(int i = 0; i < HOTP.length; i++) {
+			assertEquals(HOTP[i], HmacOneTimePassword.generate(key, i, 6));
+		}
+		check(SEED, HMACAlgorithmEnum.SHA1, true, TOTP_SHA1);
+		check(SEED32, HMACAlgorithmEnum.SHA256, true, TOTP_SHA256);
+		check(SEED64, HMACAlgorithmEnum.SHA512, true, TOTP_SHA512);
+	}
+	
+	public void testBuiltinMatchesJce() {
+		for(HMACAlgorithmEnum algo : HMACAlgorithmEnum.values()) {
+			for(int length : new int[] {1, 20, 32, 64, 65, 128, 200}) {
+				byte[] secret = CryptoUtils.randomSeed(length);
+				HotpKey key = new HotpKey(secret, algo, true);
+				byte[] out = new byte[algo.macLength()];
+				for(int i = 0; i < 100; i++) {
+					byte[] message = CryptoUtils.randomSeed(8);
+					byte[] expected = CryptoUtils.hmacSha(algo.desc(), secret, message);
+					assertTrue(algo + "/" + length, Arrays.equals(expected, key.hmac(message)));
+					long movingFactor = 0;
+					for(byte b : message) {
+						movingFactor = (movingFactor << 8) | (b & 0xff);
+					}
+					assertEquals(expected.length, key.hmac(movingFactor, out));
+					assertTrue(algo + "/" + length, Arrays.equals(expected, out));
+				}
+				byte[] longer = CryptoUtils.randomSeed(9);
+				assertTrue(Arrays.equals(CryptoUtils.hmacSha(algo.desc(), secret, longer), key.hmac(longer)));
+			}
+		}
+	}
+	
+	public void testBuiltinOnlyWherePaysOff() {
+		for(HMACAlgorithmEnum algo : HMACAlgorithmEnum.values()) {
+			HotpKey key = new HotpKey(ByteUtils.hexToBytes(SEED), algo, HMACImplementationEnum.AUTO);
+			assertEquals(BuiltinHmac.paysOff(algo) ? HMACImplementationEnum.BUILTIN : HMACImplementationEnum.JCE, 
+					key.implementation());
+			key = new HotpKey(ByteUtils.hexToBytes(SEED), algo, HMACImplementationEnum.BUILTIN);
+			assertEquals(HMACImplementationEnum.BUILTIN, key.implementation());
+		}
+	}
+	
+	public void testIntrinsicDefaults() {
+		// AVX2 without SHA-NI: SHA-256 and SHA-512 have intrinsics, SHA-1 does not
+		Set<String> avx2 = new HashSet<String>(Arrays.asList("sse4_2", "avx2", "bmi2"));
+		assertFalse(BuiltinHmac.intrinsicByDefault("amd64", avx2, HMACAlgorithmEnum.SHA1));
+		assertTrue(BuiltinHmac.intrinsicByDefault("amd64", avx2, HMACAlgorithmEnum.SHA256));
+		assertTrue(BuiltinHmac.intrinsicByDefault("amd64", avx2, HMACAlgorithmEnum.SHA512));
+		Set<String> shaNi = new HashSet<String>(Arrays.asList("sse4_2", "sha_ni"));
+		assertTrue(BuiltinHmac.intrinsicByDefault("amd64", shaNi, HMACAlgorithmEnum.SHA1));
+		assertFalse(BuiltinHmac.intrinsicByDefault("amd64", shaNi, HMACAlgorithmEnum.SHA512));
+		Set<String> arm = new HashSet<String>(Arrays.asList("fp", "asimd", "sha1", "sha2"));
+		assertTrue(BuiltinHmac.intrinsicByDefault("aarch64", arm, HMACAlgorithmEnum.SHA256));
+		assertFalse(BuiltinHmac.intrinsicByDefault("aarch64", arm, HMACAlgorithmEnum.SHA512));
+		// unknown: assume the JCE is faster
+		assertTrue(BuiltinHmac.intrinsicByDefault("amd64", new HashSet<String>(), HMACAlgorithmEnum.SHA1));
+		assertTrue(BuiltinHmac.intrinsicByDefault("ppc64le", avx2, HMACAlgorithmEnum.SHA1));
+	}
+	
+	public void testOTPAuthenticationUsesAlgorithm() {
+		OTPAuthentication o = new OTPAuthentication(ByteUtils.hexToBytes(SEED32), "Issuer", "account", 
+				HMACAlgorithmEnum.SHA256, 8, 30);
+		assertEquals(TOTP_SHA256[0], o.password(TIMES[0] * 1000L));
+	}
+	
+	private static void check(String seed, HMACAlgorithmEnum algo, String[] expected) {
+		check(seed, algo, false, expected);
+	}
+	
+	private static void check(String seed, HMACAlgorithmEnum algo, boolean builtin, String[] expected) {
+		HotpKey key = new HotpKey(ByteUtils.hexToBytes(seed), algo, builtin);
+		for(int i = 0; i < TIMES.length; i++) {
+			assertEquals(algo + " " + TIMES[i], expected[i], HmacOneTimePassword.generate(key, TIMES[i] / 30, 8));
+		}
+	}
+
+}
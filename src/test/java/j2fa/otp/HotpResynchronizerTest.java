@@ -0,0 +1,59 @@
+package j2fa.otp;
+
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+import j2fa.utils.ByteUtils;
+
+/**
+ * Checks HOTP resynchronization over small (inline) and large (parallel) windows.
+ */
+public class HotpResynchronizerTest extends TestCase {
+	
+	private final HotpKey key = new HotpKey(ByteUtils.hexToBytes(HotpKeyTest.SEED), HMACAlgorithmEnum.SHA1);
+	private final HotpResynchronizer resynchronizer = new HotpResynchronizer(new ForkJoinPool(4));
+	
+	private String code(long counter) {
+		return HmacOneTimePassword.generate(this.key, counter, 6);
+	}
+	
+	public void testRfc4226Vectors() {
+		assertEquals(5L, this.resynchronizer.resync(this.key, 6, HotpKeyTest.HOTP[5], 0, 10));
+		assertEquals(HotpResynchronizer.NOT_FOUND, this.resynchronizer.resync(this.key, 6, HotpKeyTest.HOTP[5], 0, 5));
+		assertEquals(HotpResynchronizer.NOT_FOUND, this.resynchronizer.resync(this.key, 6, HotpKeyTest.HOTP[5], 6, 4));
+	}
+	
+	public void testLargeWindow() {
+		long target = 7321;
+		assertEquals(target, this.resynchronizer.resync(this.key, 6, code(target), code(target + 1), 100, 10000));
+		assertEquals(HotpResynchronizer.NOT_FOUND, 
+				this.resynchronizer.resync(this.key, 6, code(target), code(target + 2), 100, 10000));
+	}
+	
+	public void testWindowAtLastCounter() {
+		long target = Long.MAX_VALUE - 2;
+		assertEquals(target, this.resynchronizer.resync(this.key, 6, code(target), Long.MAX_VALUE - 5, 10));
+		assertEquals(target, this.resynchronizer.resync(this.key, 6, code(target), code(target + 1), 
+				Long.MAX_VALUE - 1000, 100000));
+	}
+	
+	public void testLowestCounterWins() {
+		// a single 6-digit code repeats often enough in 2M counters to test ordering
+		String code = code(123456);
+		long found = this.resynchronizer.resync(this.key, 6, code, 0, 2000000);
+		assertTrue(found <= 123456);
+		for(long counter = 0; counter < found; counter++) {
+			assertFalse(code.equals(code(counter)));
+		}
+	}
+	
+	public void testOTPAuthentication() {
+		OTPAuthentication o = new OTPAuthentication(ByteUtils.hexToBytes(HotpKeyTest.SEED), "Issuer", "account", 
+				HMACAlgorithmEnum.SHA1, 6, 0L);
+		assertFalse(o.resync(code(500), code(502), 1000));
+		assertTrue(o.resync(code(500), code(501), 1000));
+		assertEquals(code(502), o.password());
+	}
+
+}
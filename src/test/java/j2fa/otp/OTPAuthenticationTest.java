@@ -34,8 +34,7 @@ public final class OTPAuthenticationTest {
 		qrcode(secret);
 		
 		verify(secret);
-		//TODO Consider previous TOTP code as valid and synchronize with offset as recommended in the RFC.
-		//otpauth://totp/Serpro:savio@serpro.gov.br?secret=ZH73XUGVBBTS4BHG2BAYNLGXSVGW7KI6&issuer=Serpro&algorithm=HmacSHA1&digits=6&period=30
+		//otpauth://totp/Serpro:savio@serpro.gov.br?secret=ZH73XUGVBBTS4BHG2BAYNLGXSVGW7KI6&issuer=Serpro&algorithm=SHA1&digits=6&period=30
 	}
 	
 	/*
@@ -147,7 +146,9 @@ public final class OTPAuthenticationTest {
 			return;
 		}
 		OTPAuthentication o = mockOTPAuth(ByteUtils.hexToBytes(secret));
-		System.out.println("TOTP code: " + o.password());
+		String code = o.password();
+		System.out.println("TOTP code: " + code);
+		System.out.println("Verification: " + o.verify(code, System.currentTimeMillis(), 1, 1));
 	}
 	
 }
\ No newline at end of file
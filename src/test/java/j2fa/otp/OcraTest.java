@@ -0,0 +1,133 @@
+package j2fa.otp;
+
+import junit.framework.TestCase;
+
+import j2fa.utils.ByteUtils;
+
+/**
+ * Checks {@link OcraSuite} and {@link OcraMessage} against the test vectors of RFC 6287, Appendix C.
+ */
+public class OcraTest extends TestCase {
+
+	private static final HotpKey KEY20 = new HotpKey(ByteUtils.hexToBytes(HotpKeyTest.SEED), HMACAlgorithmEnum.SHA1);
+	private static final HotpKey KEY32 = new HotpKey(ByteUtils.hexToBytes(HotpKeyTest.SEED32), HMACAlgorithmEnum.SHA256);
+	private static final HotpKey KEY64 = new HotpKey(ByteUtils.hexToBytes(HotpKeyTest.SEED64), HMACAlgorithmEnum.SHA512);
+	private static final byte[] PIN_1234 = ByteUtils.hexToBytes("7110eda4d09e062aa5e4a390b0a572ac0d2c0220");
+	private static final long TIME_STEP = 0x132d0b6L;
+	
+	private static String numeric(int i) {
+		StringBuilder sb = new StringBuilder();
+		for(int j = 0; j < 8; j++) {
+			sb.append(i);
+		}
+		return sb.toString();
+	}
+	
+	public void testOneWayChallengeResponse() {
+		String[] expected = {"237653", "243178", "653583", "740991", "608993", 
+				"388898", "816933", "224598", "750600", "294470"};
+		OcraMessage message = OcraSuite.parse("OCRA-1:HOTP-SHA1-6:QN08").newMessage();
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], message.question(numeric(i)).generate(KEY20));
+		}
+	}
+	
+	public void testCounterAndPin() {
+		String[] expected = {"65347737", "86775851", "78192410", "71565254", "10104329", 
+				"65983500", "70069104", "91771096", "75011558", "08522129"};
+		OcraMessage message = OcraSuite.parse("OCRA-1:HOTP-SHA256-8:C-QN08-PSHA1").newMessage()
+				.question("12345678").pin("1234");
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], message.counter(i).generate(KEY32));
+		}
+		assertTrue(message.counter(9).pinHash(PIN_1234).verify(KEY32, "08522129"));
+		assertFalse(message.verify(KEY32, "08522128"));
+		assertFalse(message.verify(KEY32, "0852212"));
+	}
+	
+	public void testPin() {
+		String[] expected = {"83238735", "01501458", "17957585", "86776967", "86807031"};
+		OcraMessage message = OcraSuite.parse("OCRA-1:HOTP-SHA256-8:QN08-PSHA1").newMessage().pinHash(PIN_1234);
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], message.question(numeric(i)).generate(KEY32));
+		}
+	}
+	
+	public void testCounter512() {
+		String[] expected = {"07016083", "63947962", "70123924", "25341727", "33203315", 
+				"34205738", "44343969", "51946085", "20403879", "31409299"};
+		OcraMessage message = OcraSuite.parse("OCRA-1:HOTP-SHA512-8:C-QN08").newMessage();
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], message.counter(i).question(numeric(i)).generate(KEY64));
+		}
+	}
+	
+	public void testTimestamp() {
+		String[] expected = {"95209754", "55907591", "22048402", "24218844", "36209546"};
+		OcraSuite suite = OcraSuite.parse("OCRA-1:HOTP-SHA512-8:QN08-T1M");
+		assertEquals(60, suite.timeStep());
+		OcraMessage message = suite.newMessage().timestamp(TIME_STEP * 60000L + 59999L);
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], message.question(numeric(i)).generate(KEY64));
+		}
+	}
+	
+	public void testMutualChallengeResponse() {
+		String[] server = {"28247970", "01984843", "65387857", "03351211", "83412541"};
+		String[] client = {"15510767", "90175646", "33777207", "95285278", "28934924"};
+		OcraMessage message = OcraSuite.parse("OCRA-1:HOTP-SHA256-8:QA08").newMessage();
+		for(int i = 0; i < server.length; i++) {
+			assertEquals(server[i], message.question("CLI2222" + i + "SRV1111" + i).generate(KEY32));
+			assertEquals(client[i], message.question("SRV1111" + i + "CLI2222" + i).generate(KEY32));
+		}
+	}
+	
+	public void testSignature() {
+		String[] expected = {"53095496", "04110475", "31331128", "76028668", "46554205"};
+		OcraMessage message = OcraSuite.parse("OCRA-1:HOTP-SHA256-8:QA08").newMessage();
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], message.question("SIG1" + i + "000").generate(KEY32));
+		}
+		String[] timed = {"77537423", "31970405", "10235557", "95213541", "65360607"};
+		message = OcraSuite.parse("OCRA-1:HOTP-SHA512-8:QA10-T1M").newMessage().timeStep(TIME_STEP);
+		for(int i = 0; i < timed.length; i++) {
+			assertEquals(timed[i], message.question("SIG1" + i + "00000").generate(KEY64));
+		}
+	}
+	
+	public void testVerifyBatch() {
+		OcraSuite suite = OcraSuite.parse("OCRA-1:HOTP-SHA256-8:C-QN08-PSHA1");
+		HotpKey[] keys = {KEY32, KEY32, KEY32};
+		long[] counters = {0, 1, 2};
+		CharSequence[] questions = {"12345678", "12345678", "12345678"};
+		byte[][] pins = {PIN_1234, PIN_1234, PIN_1234};
+		CharSequence[] responses = {"65347737", "86775851", "00000000"};
+		boolean[] valid = new boolean[3];
+		assertEquals(2, suite.verifyBatch(keys, counters, questions, pins, null, 0L, responses, valid));
+		assertTrue(valid[0]);
+		assertTrue(valid[1]);
+		assertFalse(valid[2]);
+	}
+	
+	public void testParse() {
+		OcraSuite suite = OcraSuite.parse("OCRA-1:HOTP-SHA1-6:C-QH40-PSHA256-S128-T30S");
+		assertEquals('H', suite.questionFormat());
+		assertEquals(40, suite.questionLength());
+		assertEquals(HMACAlgorithmEnum.SHA256, suite.pinHash());
+		assertEquals(128, suite.sessionLength());
+		assertEquals(30, suite.timeStep());
+		assertEquals(suite.suite().length() + 1 + 8 + 128 + 32 + 128 + 8, suite.messageLength());
+		String[] invalid = {"OCRA-2:HOTP-SHA1-6:QN08", "OCRA-1:HOTP-MD5-6:QN08", "OCRA-1:HOTP-SHA1-0:QN08",
+				"OCRA-1:HOTP-SHA1-6:C", "OCRA-1:HOTP-SHA1-6:QN08-C", "OCRA-1:HOTP-SHA1-6:QX08", 
+				"OCRA-1:HOTP-SHA1-6:QN08-T0H", "OCRA-1:HOTP-SHA1-6:QN08-PSHA1-PSHA1"};
+		for(String s : invalid) {
+			try {
+				OcraSuite.parse(s);
+				fail(s);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+}
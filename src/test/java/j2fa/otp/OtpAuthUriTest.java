@@ -0,0 +1,120 @@
+package j2fa.otp;
+
+import java.net.URLEncoder;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import j2fa.utils.Base32Utils;
+import j2fa.utils.ByteUtils;
+
+/**
+ * Round trips otpauth URIs through the writer and the parser.
+ */
+public class OtpAuthUriTest extends TestCase {
+	
+	private static final byte[] SECRET = ByteUtils.hexToBytes(HotpKeyTest.SEED);
+	
+	public void testSetupPath() throws Exception {
+		OTPAuthentication o = new OTPAuthentication(SECRET, "ACME Co", "john.doe@example.com", 
+				HMACAlgorithmEnum.SHA256, 8, 60);
+		assertEquals("otpauth://totp/ACME+Co:john.doe%40example.com?secret=GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ"
+				+ "&issuer=ACME+Co&algorithm=SHA256&digits=8&period=60", o.setupPath());
+		
+		// the label override no longer changes the instance
+		String other = o.setupPath("Other", "jane");
+		assertTrue(other.startsWith("otpauth://totp/Other:jane?"));
+		assertTrue(o.setupPath().startsWith("otpauth://totp/ACME+Co:john.doe%40example.com?"));
+		
+		OTPAuthentication hotp = new OTPAuthentication(SECRET, "ACME", "john", null, null, 42L);
+		assertTrue(hotp.setupPath().endsWith("&algorithm=SHA1&digits=6&counter=42"));
+	}
+	
+	public void testEncodingMatchesUrlEncoder() throws Exception {
+		String[] labels = {"plain", "a b+c", "ção é ü", "日本語", "emoji 😀", "~!'()*-._%&=?/#"};
+		for(String label : labels) {
+			assertEquals(URLEncoder.encode(label, "UTF-8"), OtpAuthUri.encode(label, new StringBuilder()).toString());
+		}
+	}
+	
+	public void testRoundTrip() {
+		String[] labels = {"plain", "a b+c", "ção é ü", "日本語", "emoji 😀", "x@y.com"};
+		for(String label : labels) {
+			OtpAuthUri uri = new OtpAuthUri(SECRET, label + " Inc", label, HMACAlgorithmEnum.SHA512, 8, 30, null);
+			OtpAuthUri parsed = OtpAuthUri.parse(uri.toString());
+			assertEquals(uri.toString(), parsed.toString());
+			assertEquals(label + " Inc", parsed.issuer());
+			assertEquals(label, parsed.account());
+			assertEquals(HMACAlgorithmEnum.SHA512, parsed.algo());
+			assertTrue(Arrays.equals(SECRET, parsed.secret()));
+		}
+	}
+	
+	public void testParseGoogleAuthenticatorUri() {
+		OtpAuthUri uri = OtpAuthUri.parse("otpauth://totp/Example:alice@google.com"
+				+ "?secret=JBSWY3DPEHPK3PXP&issuer=Example");
+		assertEquals("totp", uri.type());
+		assertEquals("Example", uri.issuer());
+		assertEquals("alice@google.com", uri.account());
+		assertEquals(HMACAlgorithmEnum.SHA1, uri.algo());
+		assertEquals(6, uri.digits());
+		assertEquals(Integer.valueOf(30), uri.period());
+		assertTrue(Arrays.equals(Base32Utils.decode("JBSWY3DPEHPK3PXP"), uri.secret()));
+		
+		uri = OtpAuthUri.parse("OTPAUTH://HOTP/Big%20Corporation%3A%20john?SECRET=jbswy3dpehpk3pxp&counter=7"
+				+ "&digits=8&algorithm=HmacSHA256&image=ignored");
+		assertEquals("Big Corporation", uri.issuer());
+		assertEquals("john", uri.account());
+		assertEquals(Long.valueOf(7), uri.counter());
+		assertEquals(HMACAlgorithmEnum.SHA256, uri.algo());
+		assertEquals(8, uri.digits());
+		
+		uri = OtpAuthUri.parse("otpauth://totp/bob?secret=GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ&period=30&digits=8");
+		assertNull(uri.issuer());
+		OTPAuthentication o = uri.withLabel("Issuer", "bob").toAuthentication();
+		assertEquals(HotpKeyTest.TOTP_SHA1[0], o.password(HotpKeyTest.TIMES[0] * 1000L));
+	}
+	
+	public void testConstructorRejectsWhatParseRejects() {
+		byte[] secret = {1, 2, 3};
+		Object[][] invalid = {{0, 30, null}, {9, 30, null}, {6, 0, null}, {6, -30, null}, {6, null, -1L}};
+		for(Object[] args : invalid) {
+			try {
+				new OtpAuthUri(secret, "Issuer", "a", HMACAlgorithmEnum.SHA1, (Integer) args[0], (Integer) args[1],
+						(Long) args[2]);
+				fail(Arrays.toString(args));
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+	
+	public void testParseRejectsMalformedUris() {
+		String[] invalid = {
+				"http://totp/a?secret=JBSWY3DPEHPK3PXP",
+				"otpauth://xotp/a?secret=JBSWY3DPEHPK3PXP",
+				"otpauth://totp/a?issuer=b",
+				"otpauth://totp/a:b?secret=JBSWY3DPEHPK3PXP&issuer=c",
+				"otpauth://hotp/a?secret=JBSWY3DPEHPK3PXP",
+				"otpauth://totp/a?secret=JBSWY3DPEHPK3PX1",
+				"otpauth://totp/a%2?secret=JBSWY3DPEHPK3PXP",
+				"otpauth://totp/a?secret=JBSWY3DPEHPK3PXP&digits=six",
+				"otpauth://totp/a?secret=JBSWY3DPEHPK3PXP&digits=0",
+				"otpauth://totp/a?secret=JBSWY3DPEHPK3PXP&digits=9",
+				"otpauth://totp/a?secret=JBSWY3DPEHPK3PXP&digits=4294967302",
+				"otpauth://totp/a?secret=JBSWY3DPEHPK3PXP&period=0",
+				"otpauth://totp/a?secret=JBSWY3DPEHPK3PXP&period=4294967326",
+				"otpauth://totp/a?secret=JBSWY3DPEHPK3PXP&period=2147483648",
+				"otpauth://totp/a?secret=JBSWY3DPEHPK3PXP&algorithm=MD5",
+		};
+		for(String uri : invalid) {
+			try {
+				OtpAuthUri.parse(uri);
+				fail(uri);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+}
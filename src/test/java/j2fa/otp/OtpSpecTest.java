@@ -0,0 +1,113 @@
+package j2fa.otp;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import j2fa.utils.ByteUtils;
+
+/**
+ * Checks that specs and verifiers behave like {@link OTPAuthentication} and can be shared across threads.
+ */
+public class OtpSpecTest extends TestCase {
+
+	private static final long NOW = 1111111109L * 1000L;
+	
+	public void testSecretIsCopied() {
+		byte[] secret = ByteUtils.hexToBytes(HotpKeyTest.SEED);
+		OtpSpec spec = new OtpSpec(secret, "Issuer", "account", HMACAlgorithmEnum.SHA1, 8, 30);
+		String code = spec.code(spec.timeStep(NOW));
+		secret[0] ^= 1;
+		assertEquals("07081804", code);
+		assertEquals(code, spec.code(spec.timeStep(NOW)));
+		assertEquals("Issuer:account", spec.label());
+		assertEquals(spec.uri().toString(), new OtpSpec(ByteUtils.hexToBytes(HotpKeyTest.SEED), "Issuer", 
+				"account", HMACAlgorithmEnum.SHA1, 8, 30).uri().toString());
+	}
+	
+	public void testDigitsRange() {
+		for(int digits : new int[] {0, 9, -6}) {
+			try {
+				new OtpSpec(ByteUtils.hexToBytes(HotpKeyTest.SEED), "Issuer", "account", HMACAlgorithmEnum.SHA1, 
+						digits, 30);
+				fail(String.valueOf(digits));
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		assertEquals(1, new OtpSpec(ByteUtils.hexToBytes(HotpKeyTest.SEED), "Issuer", "account", 
+				HMACAlgorithmEnum.SHA1, 1, 30).code(0).length());
+	}
+	
+	public void testVerifierMatchesAuthentication() {
+		OTPAuthentication o = new OTPAuthentication(ByteUtils.hexToBytes(HotpKeyTest.SEED), "Issuer", "account", 
+				HMACAlgorithmEnum.SHA1, 8, 30);
+		UsedCodeRegistry registry = new UsedCodeRegistry(0);
+		TotpVerifier verifier = o.totpVerifier(1, 1, registry, null);
+		assertSame(o.spec(), verifier.spec());
+		assertEquals(o.password(NOW), verifier.password(NOW));
+		String code = o.password(NOW, -1);
+		assertEquals(-1, verifier.verify(code, NOW).offset());
+		// both share the registry
+		assertEquals(VerificationResult.REPLAYED, o.verify(code, NOW, 1, 1, registry));
+		assertFalse(verifier.verify(o.password(NOW, 2), NOW).isValid());
+	}
+	
+	public void testHotpStateIsSeparate() {
+		OtpSpec spec = new OtpSpec(ByteUtils.hexToBytes(HotpKeyTest.SEED), "Issuer", "account", 
+				HMACAlgorithmEnum.SHA1, 6, null);
+		assertFalse(spec.isTotp());
+		OTPAuthentication first = new OTPAuthentication(spec, new HotpCounter(0));
+		OTPAuthentication second = new OTPAuthentication(spec, new HotpCounter(0));
+		assertEquals("287082", first.password());
+		assertEquals("287082", second.password());
+		assertEquals("otpauth://hotp/Issuer:account?secret=GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ&issuer=Issuer"
+				+ "&algorithm=SHA1&digits=6&counter=5", spec.uri(5).toString());
+		try {
+			new TotpVerifier(spec, 1, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new OTPAuthentication(spec);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+	public void testSharedVerifier() throws InterruptedException {
+		final ConcurrentHashMap<String, TotpVerifier> verifiers = new ConcurrentHashMap<String, TotpVerifier>();
+		final OtpSpec spec = new OtpSpec(ByteUtils.hexToBytes(HotpKeyTest.SEED), "Issuer", "account", 
+				HMACAlgorithmEnum.SHA256, 6, 30);
+		final String code = spec.code(spec.timeStep(NOW) + 1);
+		final AtomicInteger valid = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for(int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for(int i = 0; i < 1000; i++) {
+						TotpVerifier verifier = verifiers.get(spec.label());
+						if(verifier == null) {
+							verifiers.putIfAbsent(spec.label(), new TotpVerifier(spec, 1, 1));
+							verifier = verifiers.get(spec.label());
+						}
+						if(verifier.verify(code, NOW).offset() == 1) {
+							valid.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(threads.length * 1000, valid.get());
+		assertEquals(1, verifiers.size());
+	}
+
+}
@@ -0,0 +1,195 @@
+package j2fa.otp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import j2fa.utils.ByteUtils;
+
+/**
+ * Drives the asynchronous verification service in-process: batching, backpressure and load.
+ */
+public class OtpVerificationServiceTest extends TestCase {
+	
+	private static final long NOW = 1111111109000L;
+	
+	private final AtomicInteger lookups = new AtomicInteger();
+	private final AccountResolver resolver = new AccountResolver() {
+		@Override
+		public OTPAuthentication resolve(String account) throws IOException {
+			lookups.incrementAndGet();
+			if(account.startsWith("unknown")) {
+				return null;
+			}
+			if(account.startsWith("broken")) {
+				throw new IOException("database down");
+			}
+			return new OTPAuthentication(ByteUtils.hexToBytes(HotpKeyTest.SEED), "Issuer", account, 
+					HMACAlgorithmEnum.SHA1, 8, 30);
+		}
+	};
+	
+	private ExecutorService executor;
+	private CountDownLatch gate;
+	
+	@Override
+	protected void setUp() throws InterruptedException {
+		// a single thread held by a gate, so that requests pile up as they would under load
+		this.executor = Executors.newSingleThreadExecutor();
+		this.gate = new CountDownLatch(1);
+		final CountDownLatch started = new CountDownLatch(1);
+		this.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					gate.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		started.await();
+	}
+	
+	@Override
+	protected void tearDown() {
+		this.gate.countDown();
+		this.executor.shutdown();
+	}
+	
+	public void testOutcomes() throws Exception {
+		OtpVerificationService service = new OtpVerificationService(this.resolver, this.executor, 1, 1, null, 10);
+		CompletableFuture<VerificationResult> valid = service.verify("a", HotpKeyTest.TOTP_SHA1[1], NOW);
+		CompletableFuture<VerificationResult> invalid = service.verify("b", "00000000", NOW);
+		CompletableFuture<VerificationResult> unknown = service.verify("unknown", "00000000", NOW);
+		CompletableFuture<VerificationResult> broken = service.verify("broken", "00000000", NOW);
+		assertFalse(valid.isDone());
+		assertEquals(4, service.inFlight());
+		this.gate.countDown();
+		assertTrue(valid.get().isValid());
+		assertFalse(invalid.get().isValid());
+		assertSame(VerificationResult.INVALID, unknown.get());
+		try {
+			broken.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertEquals(0, service.inFlight());
+	}
+	
+	public void testThrottledAccounts() throws Exception {
+		AttemptThrottle throttle = new AttemptThrottle(2, 60000L, 60000L, 60000L, 16);
+		OtpVerificationService service = new OtpVerificationService(this.resolver, this.executor, 1, 1, null, 
+				throttle, 10);
+		List<CompletableFuture<VerificationResult>> futures = new ArrayList<CompletableFuture<VerificationResult>>();
+		futures.add(service.verify("a", "00000000", NOW));
+		futures.add(service.verify("a", "00000000", NOW));
+		futures.add(service.verify("a", HotpKeyTest.TOTP_SHA1[1], NOW));
+		CompletableFuture<VerificationResult> unknown = service.verify("unknown", "00000000", NOW);
+		this.gate.countDown();
+		// the attempt filling the bucket is still verified, the lockout applies to the next ones
+		assertSame(VerificationResult.INVALID, futures.get(0).get());
+		assertSame(VerificationResult.INVALID, futures.get(1).get());
+		assertSame(VerificationResult.THROTTLED, futures.get(2).get());
+		assertSame(VerificationResult.INVALID, unknown.get());
+		assertEquals(60000L, throttle.lockedFor("a", NOW));
+		assertEquals(1, throttle.size());
+		
+		String code = this.resolver.resolve("a").password(NOW + 60000L);
+		assertTrue(service.verify("a", code, NOW + 60000L).get().isValid());
+		assertEquals(0, throttle.size());
+	}
+	
+	public void testRequestsForAnAccountAreBatched() throws Exception {
+		OtpVerificationService service = new OtpVerificationService(this.resolver, this.executor, 1, 1, 
+				new UsedCodeRegistry(), 100);
+		List<CompletableFuture<VerificationResult>> futures = new ArrayList<CompletableFuture<VerificationResult>>();
+		for(int i = 0; i < 50; i++) {
+			futures.add(service.verify("a", HotpKeyTest.TOTP_SHA1[1], NOW));
+		}
+		this.gate.countDown();
+		int valid = 0;
+		int replayed = 0;
+		for(CompletableFuture<VerificationResult> f : futures) {
+			VerificationResult r = f.get();
+			valid += r.isValid() ? 1 : 0;
+			replayed += r.isReplay() ? 1 : 0;
+		}
+		assertEquals(1, valid);
+		assertEquals(49, replayed);
+		assertEquals(1, service.batchCount());
+		assertEquals(1, this.lookups.get());
+	}
+	
+	public void testExcessRequestsAreRejected() throws Exception {
+		OtpVerificationService service = new OtpVerificationService(this.resolver, this.executor, 1, 1, null, 10);
+		List<CompletableFuture<VerificationResult>> futures = new ArrayList<CompletableFuture<VerificationResult>>();
+		for(int i = 0; i < 25; i++) {
+			futures.add(service.verify("account" + i, HotpKeyTest.TOTP_SHA1[1], NOW));
+		}
+		assertEquals(15, service.rejectedCount());
+		for(int i = 10; i < 25; i++) {
+			try {
+				futures.get(i).getNow(null);
+				fail();
+			} catch (Exception e) {
+				assertTrue(e.getCause() instanceof RejectedExecutionException);
+			}
+		}
+		this.gate.countDown();
+		for(int i = 0; i < 10; i++) {
+			assertTrue(futures.get(i).get().isValid());
+		}
+		// capacity is back
+		assertTrue(service.verify("later", HotpKeyTest.TOTP_SHA1[1], NOW).get().isValid());
+	}
+	
+	public void testLoad() throws Exception {
+		this.gate.countDown();
+		final OtpVerificationService service = new OtpVerificationService(this.resolver, 1, 1, null, 256);
+		final AtomicInteger valid = new AtomicInteger();
+		final AtomicInteger rejected = new AtomicInteger();
+		Thread[] clients = new Thread[8];
+		for(int t = 0; t < clients.length; t++) {
+			final int client = t;
+			clients[t] = new Thread() {
+				@Override
+				public void run() {
+					List<CompletableFuture<VerificationResult>> futures = new ArrayList<CompletableFuture<VerificationResult>>();
+					for(int i = 0; i < 2000; i++) {
+						futures.add(service.verify("account" + (client * 2000 + i) % 100, HotpKeyTest.TOTP_SHA1[1], NOW));
+					}
+					for(CompletableFuture<VerificationResult> f : futures) {
+						try {
+							if(f.get().isValid()) {
+								valid.incrementAndGet();
+							}
+						} catch (Exception e) {
+							rejected.incrementAndGet();
+						}
+					}
+				}
+			};
+			clients[t].start();
+		}
+		for(Thread client : clients) {
+			client.join();
+		}
+		service.close();
+		assertEquals(16000, valid.get() + rejected.get());
+		assertEquals(rejected.get(), service.rejectedCount());
+		assertEquals(0, service.inFlight());
+	}
+
+}
@@ -0,0 +1,142 @@
+package j2fa.otp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that recovery codes are accepted once, normalized, and kept across snapshots.
+ */
+public class RecoveryCodesTest extends TestCase {
+
+	private static final byte[] PEPPER = "0123456789abcdef0123456789abcdef".getBytes();
+	
+	private File file;
+	
+	@Override
+	protected void setUp() throws Exception {
+		this.file = File.createTempFile("recovery", ".db");
+		this.file.delete();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		this.file.delete();
+		new File(this.file.getPath() + ".journal").delete();
+	}
+	
+	public void testConsumeOnce() {
+		RecoveryCodes codes = new RecoveryCodes(PEPPER);
+		String[] issued = codes.generate("alice");
+		assertEquals(RecoveryCodes.DEFAULT_COUNT, issued.length);
+		Set<String> distinct = new HashSet<String>();
+		for(String code : issued) {
+			assertTrue(code.matches("[0-9A-HJKMNP-TV-Z]{5}-[0-9A-HJKMNP-TV-Z]{5}"));
+			distinct.add(code);
+		}
+		assertEquals(issued.length, distinct.size());
+		assertEquals(10, codes.remaining("alice"));
+		assertTrue(codes.consume("alice", issued[3]));
+		assertFalse(codes.consume("alice", issued[3]));
+		assertEquals(9, codes.remaining("alice"));
+		// another account's codes, and malformed ones, are rejected
+		assertFalse(codes.consume("bob", issued[4]));
+		assertFalse(codes.consume("alice", "ABCDE"));
+		assertFalse(codes.consume("alice", issued[4] + "0"));
+		assertFalse(codes.consume("alice", null));
+		// as typed by a user
+		String typed = issued[4].toLowerCase().replace("-", " ").replace('1', 'l').replace('0', 'o');
+		assertTrue(codes.consume("alice", typed));
+		assertEquals(8, codes.remaining("alice"));
+	}
+	
+	public void testRegenerate() {
+		RecoveryCodes codes = new RecoveryCodes(PEPPER);
+		String[][] issued = codes.generate(new String[] {"alice", "bob"}, 3);
+		assertEquals(2, codes.size());
+		assertEquals(3, codes.remaining("bob"));
+		codes.generate("alice");
+		assertFalse(codes.consume("alice", issued[0][0]));
+		assertTrue(codes.consume("bob", issued[1][0]));
+		codes.revoke("bob");
+		assertFalse(codes.consume("bob", issued[1][1]));
+		assertEquals(1, codes.size());
+	}
+	
+	public void testConcurrentConsume() throws Exception {
+		final RecoveryCodes codes = new RecoveryCodes(PEPPER);
+		final String code = codes.generate("alice")[0];
+		final AtomicInteger accepted = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for(int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					if(codes.consume("alice", code)) {
+						accepted.incrementAndGet();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1, accepted.get());
+	}
+	
+	public void testConsumedCodesStayConsumedAcrossRestarts() throws Exception {
+		RecoveryCodes codes = RecoveryCodes.open(this.file, PEPPER);
+		assertEquals(0, codes.size());
+		String[] alice = codes.generate("alice");
+		String[] bob = codes.generate("bob");
+		assertTrue(codes.consume("alice", alice[0]));
+		// no compaction nor close, as after a crash: the journal has it all
+		RecoveryCodes reopened = RecoveryCodes.open(this.file, PEPPER);
+		assertEquals(2, reopened.size());
+		assertEquals(9, reopened.remaining("alice"));
+		assertFalse(reopened.consume("alice", alice[0]));
+		assertTrue(reopened.consume("alice", alice[1]));
+		reopened.revoke("bob");
+		codes.close();
+		reopened.close();
+		reopened = RecoveryCodes.open(this.file, PEPPER);
+		assertFalse(reopened.consume("alice", alice[1]));
+		assertFalse(reopened.consume("bob", bob[9]));
+		assertEquals(8, reopened.remaining("alice"));
+		reopened.close();
+		try {
+			RecoveryCodes.open(this.file, "another pepper of 32 bytes......".getBytes());
+			fail();
+		} catch(IOException e) {
+			// expected
+		}
+	}
+	
+	public void testTornJournalRecord() throws Exception {
+		RecoveryCodes codes = RecoveryCodes.open(this.file, PEPPER);
+		String[] alice = codes.generate("alice");
+		codes.consume("alice", alice[0]);
+		codes.consume("alice", alice[1]);
+		codes.close();
+		// the last consumption half written
+		File journal = new File(this.file.getPath() + ".journal");
+		RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+		try {
+			raf.setLength(raf.length() - 3);
+		} finally {
+			raf.close();
+		}
+		// the snapshot was written on opening, before both consumptions
+		RecoveryCodes reopened = RecoveryCodes.open(this.file, PEPPER);
+		assertFalse(reopened.consume("alice", alice[0]));
+		assertTrue(reopened.consume("alice", alice[1]));
+		reopened.close();
+	}
+
+}
@@ -0,0 +1,184 @@
+package j2fa.otp;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import j2fa.utils.ByteUtils;
+import j2fa.utils.CryptoUtils;
+
+/**
+ * Checks envelope decryption and its failure modes, and the bounds and zeroing of the key cache.
+ */
+public class SecretProviderTest extends TestCase {
+	
+	private static final byte[] SECRET = ByteUtils.hexToBytes(HotpKeyTest.SEED);
+	private static final long STEP = 1111111109L / 30;
+	
+	private final Map<String, byte[]> blobs = new HashMap<String, byte[]>();
+	private final byte[] masterKey = CryptoUtils.randomSeed(32);
+	private int loads;
+	
+	private EnvelopeSecretProvider envelope() {
+		return new EnvelopeSecretProvider(this.masterKey, new EnvelopeSecretProvider.Source() {
+			@Override
+			public byte[] load(String account) {
+				SecretProviderTest.this.loads++;
+				return SecretProviderTest.this.blobs.get(account);
+			}
+		});
+	}
+	
+	public void testEnvelopeRoundTrip() throws IOException {
+		EnvelopeSecretProvider provider = envelope();
+		this.blobs.put("alice", provider.seal("alice", SECRET, HMACAlgorithmEnum.SHA256));
+		HotpKey key = provider.key("alice");
+		assertEquals(HMACAlgorithmEnum.SHA256, key.algo());
+		HotpKey plain = new HotpKey(SECRET, HMACAlgorithmEnum.SHA256);
+		assertEquals(HmacOneTimePassword.generate(plain, STEP, 8), HmacOneTimePassword.generate(key, STEP, 8));
+		assertNull(provider.key("bob"));
+		
+		OTPAuthentication auth = new OTPAuthentication(key, "Issuer", "alice", 8, 30);
+		assertTrue(auth.verify(auth.password(STEP * 30000L), STEP * 30000L, 0, 0).isValid());
+		try {
+			auth.uri();
+			fail();
+		} catch (IllegalStateException expected) {
+		}
+	}
+	
+	public void testEnvelopeRejectsForeignBlobs() {
+		EnvelopeSecretProvider provider = envelope();
+		byte[] blob = provider.seal("alice", SECRET, HMACAlgorithmEnum.SHA1);
+		// copied to another account
+		this.blobs.put("bob", blob);
+		assertUndecryptable(provider, "bob");
+		// tampered with
+		byte[] tampered = blob.clone();
+		tampered[tampered.length - 20] ^= 1;
+		this.blobs.put("alice", tampered);
+		assertUndecryptable(provider, "alice");
+		// truncated
+		this.blobs.put("alice", new byte[10]);
+		assertUndecryptable(provider, "alice");
+		// sealed under another master key
+		this.blobs.put("alice", new EnvelopeSecretProvider(CryptoUtils.randomSeed(32), 
+				new EnvelopeSecretProvider.Source() {
+					@Override
+					public byte[] load(String account) {
+						return null;
+					}
+				}).seal("alice", SECRET, HMACAlgorithmEnum.SHA1));
+		assertUndecryptable(provider, "alice");
+	}
+	
+	private static void assertUndecryptable(SecretProvider provider, String account) {
+		try {
+			provider.key(account);
+			fail();
+		} catch (IOException expected) {
+		}
+	}
+	
+	public void testCacheHitsSkipDecryption() throws IOException {
+		EnvelopeSecretProvider envelope = envelope();
+		this.blobs.put("alice", envelope.seal("alice", SECRET, HMACAlgorithmEnum.SHA1));
+		CachingSecretProvider cache = new CachingSecretProvider(envelope, 10, 1000, 0);
+		HotpKey key = cache.key("alice", 0);
+		assertSame(key, cache.key("alice", 999));
+		assertEquals(1, this.loads);
+		assertEquals(1, cache.hitCount());
+		// expired: reloaded, and the old key zeroed
+		int code = HmacOneTimePassword.generateInt(key, STEP, 6);
+		HotpKey reloaded = cache.key("alice", 1000);
+		assertNotSame(key, reloaded);
+		assertEquals(2, this.loads);
+		assertEquals(code, HmacOneTimePassword.generateInt(reloaded, STEP, 6));
+		assertDestroyed(key);
+		// unknown accounts are not cached
+		assertNull(cache.key("bob", 1000));
+		assertEquals(1, cache.size());
+	}
+	
+	public void testCacheBoundsAndGrace() throws IOException {
+		EnvelopeSecretProvider envelope = envelope();
+		for(int i = 0; i < 4; i++) {
+			this.blobs.put("a" + i, envelope.seal("a" + i, SECRET, HMACAlgorithmEnum.SHA1));
+		}
+		CachingSecretProvider cache = new CachingSecretProvider(envelope, 2, 60000, 100);
+		HotpKey first = cache.key("a0", 0);
+		int code = HmacOneTimePassword.generateInt(first, STEP, 6);
+		cache.key("a1", 0);
+		cache.key("a0", 0);
+		cache.key("a2", 0);
+		// a1 was the least recently used
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.retiredCount());
+		cache.key("a0", 0);
+		assertEquals(3, this.loads);
+		cache.key("a3", 50);
+		assertEquals(2, cache.retiredCount());
+		cache.cleanUp(100);
+		assertEquals(1, cache.retiredCount());
+		assertEquals(code, HmacOneTimePassword.generateInt(first, STEP, 6));
+		cache.close();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.retiredCount());
+		assertDestroyed(first);
+	}
+	
+	public void testDestroyBuiltin() {
+		HotpKey key = new HotpKey(SECRET, HMACAlgorithmEnum.SHA512, true);
+		HmacOneTimePassword.generateInt(key, STEP, 8);
+		key.destroy();
+		assertDestroyed(key);
+	}
+	
+	public void testDestroyedKeyNeverVerifies() {
+		HotpKey key = new HotpKey(SECRET, HMACAlgorithmEnum.SHA1);
+		TotpVerifier verifier = new TotpVerifier(new OtpSpec(key, "Issuer", "alice", 8, 30), 1, 1);
+		long now = STEP * 30 * 1000L;
+		String code = verifier.password(now);
+		assertTrue(verifier.verify(code, now).isValid());
+		key.destroy();
+		assertTrue(key.isDestroyed());
+		try {
+			verifier.verify(code, now);
+			fail();
+		} catch(IllegalStateException e) {
+			// expected
+		}
+		// nor do codes of the zeroed state, which anyone could compute
+		byte[] zeroed = new byte[HMACAlgorithmEnum.SHA1.blockSize()];
+		String forged = HmacOneTimePassword.generate(new HotpKey(zeroed, HMACAlgorithmEnum.SHA1), STEP, 8);
+		try {
+			verifier.verify(forged, now);
+			fail();
+		} catch(IllegalStateException e) {
+			// expected
+		}
+	}
+	
+	private static void assertDestroyed(HotpKey key) {
+		for(int i = 0; i < 3; i++) {
+			try {
+				switch(i) {
+				case 0:
+					HmacOneTimePassword.generateInt(key, STEP, 6);
+					break;
+				case 1:
+					key.hmac(STEP);
+					break;
+				default:
+					key.hmac(new byte[] {1, 2, 3});
+				}
+				fail();
+			} catch(IllegalStateException e) {
+				// expected
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,128 @@
+package j2fa.otp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import j2fa.utils.ByteUtils;
+
+/**
+ * Checks the memory-mapped store against the RFC test vectors, across reopening the file.
+ */
+public class SecretStoreTest extends TestCase {
+	
+	private File file;
+	
+	@Override
+	protected void setUp() throws Exception {
+		this.file = File.createTempFile("secrets", ".db");
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		this.file.delete();
+	}
+	
+	public void testTotpVectors() throws Exception {
+		SecretStore store = SecretStore.open(this.file, 1000);
+		try {
+			store.putTotp(1, ByteUtils.hexToBytes(HotpKeyTest.SEED), HMACAlgorithmEnum.SHA1, 8, 30);
+			store.putTotp(2, ByteUtils.hexToBytes(HotpKeyTest.SEED32), HMACAlgorithmEnum.SHA256, 8, 30);
+			store.putTotp(999, ByteUtils.hexToBytes(HotpKeyTest.SEED64), HMACAlgorithmEnum.SHA512, 8, 30);
+			for(int i = 0; i < HotpKeyTest.TIMES.length; i++) {
+				long time = HotpKeyTest.TIMES[i] * 1000L;
+				assertEquals(HotpKeyTest.TOTP_SHA1[i], store.password(1, time));
+				assertEquals(HotpKeyTest.TOTP_SHA256[i], store.password(2, time));
+				assertEquals(HotpKeyTest.TOTP_SHA512[i], store.password(999, time));
+			}
+			assertFalse(store.contains(3));
+		} finally {
+			store.close();
+		}
+	}
+	
+	public void testHotpSurvivesReopen() throws Exception {
+		SecretStore store = SecretStore.open(this.file, 10);
+		try {
+			store.putHotp(7, ByteUtils.hexToBytes(HotpKeyTest.SEED), null, 6, 0L);
+			assertEquals(HotpKeyTest.HOTP[1], store.password(7));
+			assertEquals(HotpKeyTest.HOTP[2], store.password(7));
+		} finally {
+			store.close();
+		}
+		store = SecretStore.open(this.file, 10);
+		try {
+			assertTrue(store.contains(7));
+			assertEquals(2L, store.lastUsed(7));
+			assertEquals(HotpKeyTest.HOTP[3], store.password(7));
+			store.remove(7);
+			assertFalse(store.contains(7));
+		} finally {
+			store.close();
+		}
+	}
+	
+	public void testVerifyRejectsReplay() throws Exception {
+		SecretStore store = SecretStore.open(this.file, 10);
+		try {
+			store.putTotp(0, ByteUtils.hexToBytes(HotpKeyTest.SEED), HMACAlgorithmEnum.SHA1, 8, 30);
+			long now = 1111111109L * 1000L;
+			VerificationResult result = store.verify(0, "07081804", now + 30000L, 1, 1);
+			assertTrue(result.isValid());
+			assertEquals(-1, result.offset());
+			assertTrue(store.verify(0, "07081804", now, 1, 1).isReplay());
+			assertFalse(store.verify(0, "07081805", now, 1, 1).isValid());
+		} finally {
+			store.close();
+		}
+	}
+	
+	public void testRejectsForeignFile() throws Exception {
+		FileOutputStream out = new FileOutputStream(this.file);
+		try {
+			out.write(new byte[SecretStore.RECORD_SIZE * 4]);
+		} finally {
+			out.close();
+		}
+		try {
+			SecretStore.open(this.file, 10);
+			fail();
+		} catch (IOException expected) {
+			// no header
+		}
+	}
+	
+	public void testBounds() throws Exception {
+		SecretStore store = SecretStore.open(this.file, 10);
+		try {
+			store.password(10, 0L);
+			fail();
+		} catch (IndexOutOfBoundsException expected) {
+			// ids run from 0 to capacity - 1
+		} finally {
+			store.close();
+		}
+	}
+	
+	public void testClosedStoreThrows() throws Exception {
+		SecretStore store = SecretStore.open(this.file, 10);
+		store.putTotp(1, ByteUtils.hexToBytes(HotpKeyTest.SEED), HMACAlgorithmEnum.SHA1, 8, 30);
+		store.close();
+		store.close();
+		try {
+			store.verify(1, "00000000", 0L, 1, 1);
+			fail();
+		} catch (IllegalStateException expected) {
+			// not read from the mapping after the file is closed
+		}
+		try {
+			store.putTotp(2, ByteUtils.hexToBytes(HotpKeyTest.SEED), HMACAlgorithmEnum.SHA1, 8, 30);
+			fail();
+		} catch (IllegalStateException expected) {
+			// nor written to it
+		}
+	}
+
+}
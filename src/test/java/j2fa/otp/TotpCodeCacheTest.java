@@ -0,0 +1,64 @@
+package j2fa.otp;
+
+import junit.framework.TestCase;
+
+import j2fa.utils.ByteUtils;
+
+/**
+ * Checks that cached codes follow the time step, are precomputed and stay within the size bound.
+ */
+public class TotpCodeCacheTest extends TestCase {
+
+	private static final long NOW = 1111111109L * 1000L;
+	
+	private static OtpSpec spec(String account) {
+		return new OtpSpec(ByteUtils.hexToBytes(HotpKeyTest.SEED), "Issuer", account, HMACAlgorithmEnum.SHA1, 8, 30);
+	}
+	
+	public void testStepRollover() {
+		TotpCodeCache cache = new TotpCodeCache(10, 60000L);
+		OtpSpec spec = spec("account");
+		assertEquals("07081804", cache.password(spec, NOW));
+		assertEquals("07081804", cache.password(spec, NOW));
+		assertEquals(1, cache.hitCount());
+		assertEquals(1, cache.missCount());
+		// the next step is not served from the old code
+		assertEquals(spec.code(spec.timeStep(NOW) + 1), cache.password(spec, NOW + 30000));
+		assertEquals(2, cache.missCount());
+		// a new instance under the same label replaces the codes
+		OtpSpec replaced = new OtpSpec(ByteUtils.hexToBytes(HotpKeyTest.SEED32), "Issuer", "account", 
+				HMACAlgorithmEnum.SHA256, 8, 30);
+		assertEquals(replaced.code(replaced.timeStep(NOW)), cache.password(replaced, NOW));
+		assertEquals(1, cache.size());
+	}
+	
+	public void testRefresh() {
+		TotpCodeCache cache = new TotpCodeCache(10, 60000L);
+		OtpSpec hot = spec("hot");
+		OtpSpec idle = spec("idle");
+		cache.password(hot, NOW);
+		cache.password(idle, NOW - 120000L);
+		cache.refresh(NOW);
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.precomputedCount());
+		long next = NOW + 30000;
+		assertEquals(hot.code(hot.timeStep(next)), cache.password(hot, next));
+		assertEquals(2, cache.missCount());
+		assertEquals(1, cache.hitCount());
+	}
+	
+	public void testBounded() {
+		TotpCodeCache cache = new TotpCodeCache(20, 60000L);
+		OtpSpec[] specs = new OtpSpec[100];
+		for(int i = 0; i < specs.length; i++) {
+			specs[i] = spec("user" + i);
+			cache.password(specs[i], NOW + i * 1000L);
+			assertTrue(cache.size() <= 20);
+		}
+		assertTrue(cache.evictionCount() >= 80);
+		// the most recent accounts are kept
+		cache.password(specs[99], NOW + 99000L);
+		assertEquals(1, cache.hitCount());
+	}
+
+}
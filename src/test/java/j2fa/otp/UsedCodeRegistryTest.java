@@ -0,0 +1,84 @@
+package j2fa.otp;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import junit.framework.TestCase;
+
+import j2fa.utils.ByteUtils;
+
+/**
+ * Checks replay rejection, eviction and that concurrent attempts have a single winner.
+ */
+public class UsedCodeRegistryTest extends TestCase {
+	
+	public void testReplayRejected() {
+		UsedCodeRegistry registry = new UsedCodeRegistry(0);
+		assertEquals(-1L, registry.lastAccepted("a"));
+		assertTrue(registry.accept("a", 10, 1000));
+		assertFalse(registry.accept("a", 10, 1000));
+		assertFalse(registry.accept("a", 9, 1000));
+		assertTrue(registry.accept("b", 10, 1000));
+		assertTrue(registry.accept("a", 11, 1000));
+		assertEquals(11L, registry.lastAccepted("a"));
+	}
+	
+	public void testEviction() {
+		UsedCodeRegistry registry = new UsedCodeRegistry(0);
+		registry.accept("a", 10, 1000);
+		registry.accept("b", 10, 2000);
+		assertEquals(0, registry.evictExpired(999));
+		assertEquals(1, registry.evictExpired(1000));
+		assertEquals(1, registry.size());
+		assertEquals(-1L, registry.lastAccepted("a"));
+		assertTrue(registry.accept("a", 12, 3000));
+	}
+	
+	public void testConcurrentAttempts() throws InterruptedException {
+		final UsedCodeRegistry registry = new UsedCodeRegistry(0);
+		final AtomicIntegerArray accepted = new AtomicIntegerArray(10000);
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[8];
+		for(int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for(long step = 0; step < 10000; step++) {
+						if(registry.accept("account" + (step % 16), step, Long.MAX_VALUE - 1)) {
+							accepted.incrementAndGet((int) step);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		start.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		// every step belongs to a single account and must be accepted at most once
+		for(int step = 0; step < accepted.length(); step++) {
+			assertTrue(accepted.get(step) <= 1);
+		}
+		assertEquals(1, accepted.get(9999));
+	}
+	
+	public void testOTPAuthentication() {
+		OTPAuthentication o = new OTPAuthentication(ByteUtils.hexToBytes(HotpKeyTest.SEED), "Issuer", "account", 
+				HMACAlgorithmEnum.SHA1, 8, 30);
+		UsedCodeRegistry registry = new UsedCodeRegistry(0);
+		long now = 1111111109L * 1000L;
+		VerificationResult first = o.verify("07081804", now, 1, 1, registry);
+		assertTrue(first.isValid());
+		VerificationResult second = o.verify("07081804", now, 1, 1, registry);
+		assertFalse(second.isValid());
+		assertTrue(second.isReplay());
+		assertEquals(1, registry.evictExpired((first.movingFactor() + 2) * 30000L));
+	}
+
+}
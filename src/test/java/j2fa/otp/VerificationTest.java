@@ -0,0 +1,58 @@
+package j2fa.otp;
+
+import junit.framework.TestCase;
+
+import j2fa.utils.ByteUtils;
+
+/**
+ * Checks windowed TOTP verification and drift reporting.
+ */
+public class VerificationTest extends TestCase {
+	
+	private static final long NOW = 1111111109L * 1000L;
+	
+	private OTPAuthentication totp() {
+		return new OTPAuthentication(ByteUtils.hexToBytes(HotpKeyTest.SEED), "Issuer", "account", 
+				HMACAlgorithmEnum.SHA1, 8, 30);
+	}
+	
+	public void testCurrentStep() {
+		VerificationResult result = totp().verify("07081804", NOW, 1, 1);
+		assertTrue(result.isValid());
+		assertEquals(0, result.offset());
+		assertEquals(1111111109L / 30, result.movingFactor());
+	}
+	
+	public void testNeighbouringSteps() {
+		OTPAuthentication o = totp();
+		for(int step = -2; step <= 2; step++) {
+			String code = o.password(NOW, step);
+			VerificationResult result = o.verify(code, NOW, 2, 2);
+			assertTrue(result.isValid());
+			assertEquals(step, result.offset());
+		}
+		assertFalse(o.verify(o.password(NOW, -2), NOW, 1, 2).isValid());
+		assertFalse(o.verify(o.password(NOW, 2), NOW, 2, 1).isValid());
+	}
+	
+	public void testMalformedCodes() {
+		OTPAuthentication o = totp();
+		assertSame(VerificationResult.INVALID, o.verify(null, NOW, 1, 1));
+		assertSame(VerificationResult.INVALID, o.verify("7081804", NOW, 1, 1));
+		assertSame(VerificationResult.INVALID, o.verify("0708180a", NOW, 1, 1));
+		assertSame(VerificationResult.INVALID, o.verify("007081804", NOW, 1, 1));
+	}
+	
+	public void testHotpRejected() {
+		OTPAuthentication o = new OTPAuthentication(ByteUtils.hexToBytes(HotpKeyTest.SEED), "Issuer", "account", 
+				HMACAlgorithmEnum.SHA1, 6, 0L);
+		assertEquals(HotpKeyTest.HOTP[1], o.password());
+		try {
+			o.verify("287082", NOW, 1, 1);
+			fail();
+		} catch (IllegalStateException expected) {
+			// TOTP only
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package j2fa.qr;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+import com.google.zxing.common.BitMatrix;
+
+/**
+ * Checks that the direct PNG and SVG output match the encoded modules.
+ */
+public class QRCodeTest extends TestCase {
+	
+	private static final String PATH = "otpauth://totp/Issuer:user%40example.com?secret=RLLC2QC7IXR3YODYO7PPT5I7ATDAX3DO"
+			+ "&issuer=Issuer&algorithm=SHA1&digits=6&period=30";
+	
+	public void testPngMatchesMatrix() throws Exception {
+		for(int size : new int[] {29, 150, 301}) {
+			BitMatrix matrix = QRCode.encode(PATH, size, size, QRCode.DEFAULT_HINTS);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			QRCode.generateQRCodeImage(PATH, size, size, out);
+			BufferedImage image = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+			assertEquals(matrix.getWidth(), image.getWidth());
+			assertEquals(matrix.getHeight(), image.getHeight());
+			for(int y = 0; y < image.getHeight(); y++) {
+				for(int x = 0; x < image.getWidth(); x++) {
+					int rgb = image.getRGB(x, y) & 0xffffff;
+					assertEquals(matrix.get(x, y) ? 0 : 0xffffff, rgb);
+				}
+			}
+		}
+	}
+	
+	public void testSinksProduceSameBytes() throws Exception {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		QRCode.generateQRCodeImage(PATH, 150, 150, stream);
+		
+		ByteArrayOutputStream channel = new ByteArrayOutputStream();
+		QRCode.generateQRCodeImage(PATH, 150, 150, Channels.newChannel(channel));
+		assertEquals(stream.size(), channel.size());
+		
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		buffer.put((byte) 7);
+		int written = QRCode.generateQRCodeImage(PATH, 150, 150, buffer);
+		assertEquals(stream.size(), written);
+		assertEquals(1 + written, buffer.position());
+		byte[] expected = stream.toByteArray();
+		for(int i = 0; i < written; i++) {
+			assertEquals(expected[i], buffer.get(1 + i));
+		}
+	}
+	
+	public void testSvg() throws Exception {
+		StringBuilder svg = new StringBuilder();
+		QRCode.generateQRCodeSvg(PATH, 200, 200, svg);
+		BitMatrix modules = QRCode.encode(PATH, 0, 0, QRCode.DEFAULT_HINTS);
+		assertTrue(svg.toString(), svg.toString().startsWith("<svg xmlns=\"http://www.w3.org/2000/svg\" "
+				+ "width=\"200\" height=\"200\" viewBox=\"0 0 " + modules.getWidth() + " " + modules.getHeight() + "\""));
+		assertTrue(svg.toString().endsWith("\"/></svg>"));
+		// the top-left finder pattern starts after the quiet zone with a 7-module run
+		assertTrue(svg.toString().contains("M4 4h7v1h-7z"));
+	}
+
+}
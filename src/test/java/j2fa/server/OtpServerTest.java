@@ -0,0 +1,171 @@
+package j2fa.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import junit.framework.TestCase;
+
+import j2fa.otp.AttemptThrottle;
+import j2fa.otp.HMACAlgorithmEnum;
+import j2fa.otp.OTPAuthentication;
+
+/**
+ * Exercises the endpoints over HTTP on a free local port, and a short load generation run.
+ */
+public class OtpServerTest extends TestCase {
+	
+	private InMemoryAccountStore store;
+	private OtpServer server;
+	
+	@Override
+	protected void setUp() throws IOException {
+		this.store = new InMemoryAccountStore();
+		this.server = new OtpServer(0, this.store);
+		this.server.start();
+	}
+	
+	@Override
+	protected void tearDown() {
+		this.server.stop(0);
+	}
+	
+	public void testEnrollVerifyAndQr() throws IOException {
+		String json = new String(request("POST", "/enroll?issuer=ACME&account=alice", null, 200), StandardCharsets.UTF_8);
+		assertTrue(json, json.startsWith("{\"account\":\"alice\",\"secret\":\""));
+		assertTrue(json, json.contains("\"uri\":\"otpauth://totp/ACME:alice?secret="));
+		OTPAuthentication alice = this.store.resolve("alice");
+		
+		String code = alice.password();
+		json = new String(request("POST", "/verify?account=alice&code=" + code, null, 200), StandardCharsets.UTF_8);
+		assertEquals("{\"valid\":true,\"replay\":false,\"offset\":0}", json);
+		json = new String(request("POST", "/verify?account=alice&code=" + code, null, 200), StandardCharsets.UTF_8);
+		assertEquals("{\"valid\":false,\"replay\":true,\"offset\":0}", json);
+		
+		// the secret is only ever handed out at enrollment
+		request("GET", "/qr?account=alice", null, 404);
+		json = new String(request("POST", "/enroll?issuer=ACME&account=bob&format=png&size=120", null, 200), 
+				StandardCharsets.UTF_8);
+		int qr = json.indexOf("\"qr\":\"data:image/png;base64,");
+		assertTrue(json, qr > 0);
+		byte[] png = Base64.getDecoder().decode(json.substring(qr + 28, json.indexOf('"', qr + 28)));
+		assertEquals('P', png[1]);
+		json = new String(request("POST", "/enroll?issuer=ACME&account=carol&format=svg", null, 200), 
+				StandardCharsets.UTF_8);
+		assertTrue(json, json.contains("\"qr\":\"data:image/svg+xml;base64,"));
+		request("POST", "/enroll?issuer=ACME&account=dave&format=gif", null, 400);
+		assertNull(this.store.resolve("dave"));
+		
+		request("GET", "/verify?account=alice&code=" + code, null, 405);
+		request("POST", "/verify?account=alice", null, 400);
+		request("POST", "/enroll?issuer=ACME&account=a:b", null, 400);
+		// the secret already set up in alice's app is kept
+		request("POST", "/enroll?issuer=ACME&account=alice", null, 409);
+		assertSame(alice, this.store.resolve("alice"));
+	}
+	
+	public void testBatchVerify() throws IOException {
+		request("POST", "/enroll?issuer=ACME&account=alice", null, 200);
+		request("POST", "/enroll?issuer=ACME&account=bob", null, 200);
+		String code = this.store.resolve("alice").password();
+		String body = "alice " + code + "\nbob 000000\n\nalice " + code + "\ncarol 123456\n";
+		String result = new String(request("POST", "/verify/batch", body.getBytes(StandardCharsets.UTF_8), 200), 
+				StandardCharsets.UTF_8);
+		String[] lines = result.split("\n");
+		assertEquals(4, lines.length);
+		// the two uses of alice's code may run in either order, but only one is accepted
+		assertEquals("valid 0,replayed", lines[0].compareTo(lines[2]) > 0 
+				? lines[0] + "," + lines[2] : lines[2] + "," + lines[0]);
+		assertEquals("000000".equals(this.store.resolve("bob").password()) ? "valid 0" : "invalid", lines[1]);
+		assertEquals("invalid", lines[3]);
+	}
+	
+	public void testThrottledVerify() throws IOException {
+		this.server.stop(0);
+		this.server = new OtpServer(new InetSocketAddress(0), this.store, HMACAlgorithmEnum.SHA1, 6, 30, 1024, 
+				new AttemptThrottle(2, 60000L, 60000L, 60000L, 16));
+		this.server.start();
+		request("POST", "/enroll?issuer=ACME&account=alice", null, 200);
+		String code = this.store.resolve("alice").password();
+		String wrong = String.format("%06d", (Integer.parseInt(code) + 1) % 1000000);
+		request("POST", "/verify?account=alice&code=" + wrong, null, 200);
+		request("POST", "/verify?account=alice&code=" + wrong, null, 200);
+		HttpURLConnection c = connection("POST", "/verify?account=alice&code=" + code);
+		assertEquals(429, c.getResponseCode());
+		assertEquals("60", c.getHeaderField("Retry-After"));
+		
+		c = connection("POST", "/verify/batch");
+		c.setDoOutput(true);
+		OutputStream out = c.getOutputStream();
+		out.write(("alice " + code + "\ncarol 123456\n").getBytes(StandardCharsets.UTF_8));
+		out.close();
+		assertEquals(429, c.getResponseCode());
+		assertEquals("60", c.getHeaderField("Retry-After"));
+		assertEquals("throttled 60\ninvalid\n", new String(read(c.getErrorStream()), StandardCharsets.UTF_8));
+	}
+	
+	public void testRefusedBatchConsumesNoCode() throws IOException {
+		request("POST", "/enroll?issuer=ACME&account=alice", null, 200);
+		String code = this.store.resolve("alice").password();
+		request("POST", "/verify/batch", ("alice " + code + "\nmalformed\n").getBytes(StandardCharsets.UTF_8), 400);
+		StringBuilder body = new StringBuilder("alice ").append(code).append('\n');
+		for(int i = 0; i < OtpServer.MAX_BATCH; i++) {
+			body.append("bob 000000\n");
+		}
+		request("POST", "/verify/batch", body.toString().getBytes(StandardCharsets.UTF_8), 413);
+		String json = new String(request("POST", "/verify?account=alice&code=" + code, null, 200), StandardCharsets.UTF_8);
+		assertEquals("{\"valid\":true,\"replay\":false,\"offset\":0}", json);
+	}
+	
+	public void testBodyTooLarge() throws IOException {
+		request("POST", "/verify/batch", new byte[OtpServer.MAX_BODY + 1], 413);
+	}
+	
+	public void testLoadGenerator() throws Exception {
+		OtpLoadGenerator generator = new OtpLoadGenerator("http://localhost:" + this.server.port(), 4, 300, 1);
+		generator.enroll(20);
+		OtpLoadGenerator.Report report = generator.run();
+		assertTrue(report.latency().count() > 0);
+		assertEquals(0, report.errors());
+		
+		generator = new OtpLoadGenerator("http://localhost:" + this.server.port(), 2, 300, 10);
+		generator.enroll(20);
+		assertTrue(generator.run().latency().count() > 0);
+	}
+	
+	private HttpURLConnection connection(String method, String path) throws IOException {
+		HttpURLConnection c = (HttpURLConnection) new URL("http://localhost:" + this.server.port() + path).openConnection();
+		c.setRequestMethod(method);
+		return c;
+	}
+	
+	private byte[] request(String method, String path, byte[] body, int expectedStatus) throws IOException {
+		HttpURLConnection c = connection(method, path);
+		if(body != null) {
+			c.setDoOutput(true);
+			OutputStream out = c.getOutputStream();
+			out.write(body);
+			out.close();
+		}
+		assertEquals(path, expectedStatus, c.getResponseCode());
+		return read(expectedStatus < 400 ? c.getInputStream() : c.getErrorStream());
+	}
+	
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int n;
+		while((n = in.read(buffer)) > 0) {
+			response.write(buffer, 0, n);
+		}
+		in.close();
+		return response.toByteArray();
+	}
+
+}
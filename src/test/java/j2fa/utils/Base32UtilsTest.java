@@ -0,0 +1,78 @@
+package j2fa.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Base32;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the table-driven codecs against RFC 4648 vectors, commons-codec and BigInteger parsing.
+ */
+public class Base32UtilsTest extends TestCase {
+	
+	public void testRfcVectors() {
+		String[] plain = {"", "f", "fo", "foo", "foob", "fooba", "foobar"};
+		String[] encoded = {"", "MY======", "MZXQ====", "MZXW6===", "MZXW6YQ=", "MZXW6YTB", "MZXW6YTBOI======"};
+		for(int i = 0; i < plain.length; i++) {
+			byte[] bytes = plain[i].getBytes(StandardCharsets.US_ASCII);
+			assertEquals(encoded[i], Base32Utils.encode(bytes));
+			assertTrue(Arrays.equals(bytes, Base32Utils.decode(encoded[i])));
+			assertTrue(Arrays.equals(bytes, Base32Utils.decode(encoded[i].toLowerCase())));
+		}
+	}
+	
+	public void testMatchesCommonsCodec() {
+		Random random = new Random(42);
+		Base32 commons = new Base32();
+		byte[] dst = new byte[80];
+		for(int length = 1; length <= 64; length++) {
+			byte[] bytes = new byte[length];
+			random.nextBytes(bytes);
+			String expected = commons.encodeAsString(bytes);
+			assertEquals(expected, Base32Utils.encode(bytes));
+			
+			assertEquals(length, Base32Utils.decode(expected, dst, 3));
+			assertTrue(Arrays.equals(bytes, Arrays.copyOfRange(dst, 3, 3 + length)));
+			
+			ByteBuffer buffer = ByteBuffer.wrap(expected.replace("=", "").getBytes(StandardCharsets.US_ASCII));
+			assertEquals(length, Base32Utils.decode(buffer, dst, 0));
+			assertFalse(buffer.hasRemaining());
+			assertTrue(Arrays.equals(bytes, Arrays.copyOf(dst, length)));
+		}
+	}
+	
+	public void testHexMatchesPreviousParsing() {
+		String[] hex = {"", "0", "1", "abc", "00ff", "3132333435363738393031323334353637383930", "0000000000000001"};
+		byte[][] expected = {{}, {0}, {1}, {0x0a, (byte) 0xbc}, {0, (byte) 0xff}, 
+				"12345678901234567890".getBytes(StandardCharsets.US_ASCII), {0, 0, 0, 0, 0, 0, 0, 1}};
+		for(int i = 0; i < hex.length; i++) {
+			assertTrue(hex[i], Arrays.equals(expected[i], ByteUtils.hexToBytes(hex[i])));
+			assertTrue(hex[i], Arrays.equals(expected[i], ByteUtils.hexToBytes(hex[i].toUpperCase())));
+			byte[] dst = new byte[expected[i].length];
+			ByteUtils.hexToBytes(ByteBuffer.wrap(hex[i].getBytes(StandardCharsets.US_ASCII)), dst, 0);
+			assertTrue(hex[i], Arrays.equals(expected[i], dst));
+		}
+		byte[] random = CryptoUtils.randomSeed(64);
+		assertTrue(Arrays.equals(random, ByteUtils.hexToBytes(ByteUtils.bytesToHex(random))));
+	}
+	
+	public void testInvalidCharacters() {
+		try {
+			ByteUtils.hexToBytes("12g4");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			Base32Utils.decode("MZXW1===");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}